@@ -52,4 +52,12 @@ public interface Agent extends UncaughtExceptionListener
     void onHandledException(Throwable t);
 
     boolean isExpired(TxnId initiated, long now);
+
+    /**
+     * A transaction that executed at {@code executeAt}, and that every replica has agreed is durable, may only be erased
+     * once any replica that is yet to be added can be brought up to date without it; as there is no bootstrap
+     * mechanism, it is for implementations to decide when this holds, e.g. if new replicas are sent the data of an
+     * existing replica, or if the set of replicas never changes
+     */
+    boolean isErasable(Timestamp executeAt);
 }
@@ -23,8 +23,8 @@ import accord.primitives.Ranges;
 import accord.primitives.Keys;
 import accord.primitives.Timestamp;
 import accord.primitives.Txn;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.Future;
 
 import java.util.List;
 import java.util.function.BiConsumer;
@@ -20,7 +20,7 @@ package accord.api;
 
 import accord.local.SafeCommandStore;
 import accord.primitives.Timestamp;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 
 /**
  * A collection of data to write to one or more stores
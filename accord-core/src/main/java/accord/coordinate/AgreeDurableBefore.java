@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.coordinate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+import accord.local.Node;
+import accord.local.Node.Id;
+import accord.messages.Callback;
+import accord.messages.ProposeDurableBefore;
+import accord.messages.ProposeDurableBefore.AppliedTxn;
+import accord.messages.ProposeDurableBefore.ProposeDurableBeforeReply;
+import accord.messages.SetDurableBefore;
+import accord.primitives.Ranges;
+import accord.primitives.Timestamp;
+import accord.primitives.TxnId;
+import accord.topology.Shard;
+import accord.topology.Topology;
+
+/**
+ * Agree with every replica of the current epoch that every transaction with a lower TxnId than {@code durableBefore}
+ * has been applied everywhere it ever will be, so that it may be erased.
+ *
+ * Every replica is first fenced so that it will witness no new transaction below the bound, and reports whether it
+ * has applied or discarded every transaction below the bound that it knows of. A replica may not know of a
+ * transaction that others have applied, so we also require every replica of each shard to report the same applied
+ * transactions, considering only those that execute at or after the greatest bound any replica has already adopted
+ * (as those before it are already agreed, and may have been erased). Only if every replica replies, in the same epoch,
+ * do we inform them all of the new bound; otherwise we simply report failure, and a later round may try again.
+ */
+public class AgreeDurableBefore implements Callback<ProposeDurableBeforeReply>
+{
+    final Node node;
+    final Topology topology;
+    final Timestamp durableBefore;
+    final BiConsumer<Boolean, Throwable> callback;
+
+    private final Map<Id, ProposeDurableBeforeReply> replies = new HashMap<>();
+    private boolean isDone;
+
+    AgreeDurableBefore(Node node, Topology topology, Timestamp durableBefore, BiConsumer<Boolean, Throwable> callback)
+    {
+        this.node = node;
+        this.topology = topology;
+        this.durableBefore = durableBefore;
+        this.callback = callback;
+    }
+
+    /**
+     * Report true to {@code callback} if every replica adopted {@code durableBefore}, and false if we could not agree it
+     */
+    public static void agree(Node node, Timestamp durableBefore, BiConsumer<Boolean, Throwable> callback)
+    {
+        Topology topology = node.topology().current();
+        AgreeDurableBefore agree = new AgreeDurableBefore(node, topology, durableBefore, callback);
+        node.send(topology.nodes(), new ProposeDurableBefore(durableBefore), agree);
+    }
+
+    @Override
+    public void onSuccess(Id from, ProposeDurableBeforeReply reply)
+    {
+        if (isDone)
+            return;
+
+        if (!reply.isReady || reply.epoch != topology.epoch())
+        {
+            isDone = true;
+            callback.accept(false, null);
+            return;
+        }
+
+        replies.put(from, reply);
+        if (replies.size() == topology.nodes().size())
+            onAllReplies();
+    }
+
+    @Override
+    public void onFailure(Id from, Throwable failure)
+    {
+        if (isDone)
+            return;
+
+        // we need every replica, so any failure is final
+        isDone = true;
+        callback.accept(false, null);
+    }
+
+    @Override
+    public void onCallbackFailure(Id from, Throwable failure)
+    {
+        isDone = true;
+        callback.accept(null, failure);
+    }
+
+    private void onAllReplies()
+    {
+        isDone = true;
+
+        Timestamp agreedBefore = Timestamp.NONE;
+        for (ProposeDurableBeforeReply reply : replies.values())
+            agreedBefore = Timestamp.max(agreedBefore, reply.durableBefore);
+
+        for (Shard shard : topology.shards())
+        {
+            Ranges ranges = Ranges.of(shard.range);
+            Set<TxnId> expect = null;
+            for (Id id : shard.nodes)
+            {
+                Set<TxnId> applied = applied(replies.get(id), ranges, agreedBefore);
+                if (expect == null) expect = applied;
+                else if (!expect.equals(applied))
+                {
+                    callback.accept(false, null);
+                    return;
+                }
+            }
+        }
+
+        node.send(topology.nodes(), new SetDurableBefore(durableBefore));
+        callback.accept(true, null);
+    }
+
+    private static Set<TxnId> applied(ProposeDurableBeforeReply reply, Ranges ranges, Timestamp agreedBefore)
+    {
+        Set<TxnId> applied = new TreeSet<>();
+        for (AppliedTxn txn : Objects.requireNonNull(reply).applied)
+        {
+            if (txn.executeAt.compareTo(agreedBefore) >= 0 && txn.keys.intersects(ranges))
+                applied.add(txn.txnId);
+        }
+        return applied;
+    }
+}
@@ -37,6 +37,7 @@ import com.google.common.collect.Iterables;
 
 import java.util.Collections;
 
+import static accord.local.PreLoadContext.Priority.HOUSEKEEPING;
 import static accord.local.PreLoadContext.contextFor;
 import static accord.local.SaveStatus.NotWitnessed;
 import static accord.local.Status.*;
@@ -164,7 +165,7 @@ public class CheckOn extends CheckShards
             if (sufficientFor.deps.isDecisionKnown())
                 txnIds = Iterables.concat(txnIds, partialDeps.txnIds());
 
-            PreLoadContext loadContext = contextFor(txnIds, keys);
+            PreLoadContext loadContext = contextFor(txnIds, keys, HOUSEKEEPING);
             node.mapReduceConsumeLocal(loadContext, route, txnId.epoch, untilLocalEpoch, this);
         }
 
@@ -185,6 +186,11 @@ public class CheckOn extends CheckShards
                     command.commitInvalidate(safeStore);
                     break;
 
+                case Truncated:
+                    // every replica has applied it or never will, so there is nothing more to learn or to do
+                    command.truncated(safeStore);
+                    return null;
+
                 case Applied:
                 case PreApplied:
                     if (untilLocalEpoch >= full.executeAt.epoch)
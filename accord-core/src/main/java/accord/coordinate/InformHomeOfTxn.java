@@ -27,8 +27,8 @@ import accord.messages.InformOfTxnId;
 import accord.messages.SimpleReply;
 import accord.topology.Shard;
 import accord.primitives.TxnId;
-import org.apache.cassandra.utils.concurrent.AsyncFuture;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.AsyncFuture;
+import accord.utils.async.Future;
 
 import static accord.coordinate.tracking.AbstractTracker.ShardOutcomes.Fail;
 import static accord.coordinate.tracking.AbstractTracker.ShardOutcomes.Success;
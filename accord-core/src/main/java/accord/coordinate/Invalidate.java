@@ -41,9 +41,11 @@ import com.google.common.base.Preconditions;
 import javax.annotation.Nullable;
 
 import static accord.coordinate.Propose.Invalidate.proposeInvalidate;
+import static accord.local.PreLoadContext.Priority.HOUSEKEEPING;
 import static accord.local.PreLoadContext.contextFor;
 import static accord.local.Status.Accepted;
 import static accord.primitives.ProgressToken.INVALIDATED;
+import static accord.primitives.ProgressToken.TRUNCATED;
 
 public class Invalidate implements Callback<InvalidateReply>
 {
@@ -148,6 +150,14 @@ public class Invalidate implements Callback<InvalidateReply>
             RoutingKey homeKey = route != null ? route.homeKey() : InvalidateReply.findHomeKey(replies);
             InvalidateReply maxReply = InvalidateReply.max(replies);
 
+            if (InvalidateReply.isTruncated(replies))
+            {
+                // every replica has applied it or never will, so there is nothing to invalidate
+                isDone = true;
+                callback.accept(TRUNCATED, null);
+                return;
+            }
+
             switch (maxReply.status)
             {
                 default: throw new IllegalStateException();
@@ -261,7 +271,7 @@ public class Invalidate implements Callback<InvalidateReply>
         //  so we do not need to explicitly do so here before notifying the waiter
         Commit.Invalidate.commitInvalidate(node, txnId, route != null ? Unseekables.merge(route, (Unseekables)invalidateWith) : invalidateWith, txnId);
         // TODO: pick a reasonable upper bound, so we don't invalidate into an epoch/commandStore that no longer cares about this command
-        node.forEachLocalSince(contextFor(txnId), invalidateWith, txnId, safeStore -> {
+        node.forEachLocalSince(contextFor(txnId, HOUSEKEEPING), invalidateWith, txnId, safeStore -> {
             safeStore.command(txnId).commitInvalidate(safeStore);
         }).addCallback((s, f) -> {
             callback.accept(INVALIDATED, null);
@@ -88,6 +88,11 @@ public class MaybeRecover extends CheckShards
             switch (known.outcome)
             {
                 default: throw new AssertionError();
+                case Truncated:
+                    // every replica has applied it or never will, so there is nothing to recover
+                    callback.accept(ProgressToken.TRUNCATED, null);
+                    break;
+
                 case OutcomeUnknown:
                     if (!known.isDefinitionKnown() && !Route.isFullRoute(merged.route))
                     {
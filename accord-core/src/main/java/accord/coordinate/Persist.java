@@ -88,20 +88,18 @@ public class Persist implements Callback<ApplyReply>
             case Redundant:
             case Applied:
                 persistedOn.add(from);
-                if (tracker.recordSuccess(from) == Success)
+                if (tracker.recordSuccess(from) == Success && !isDone)
                 {
-                    if (!isDone)
-                    {
-                        // TODO: send to non-home replicas also, so they may clear their log more easily?
-                        Shard homeShard = node.topology().forEpochIfKnown(route.homeKey(), txnId.epoch);
-                        node.send(homeShard, new InformHomeDurable(txnId, route.homeKey(), executeAt, Durable, persistedOn));
-                        isDone = true;
-                    }
-                    else if (!tracker.hasInFlight() && !tracker.hasFailures())
-                    {
-                        Shard homeShard = node.topology().forEpochIfKnown(route.homeKey(), txnId.epoch);
-                        node.send(homeShard, new InformHomeDurable(txnId, route.homeKey(), executeAt, Universal, persistedOn));
-                    }
+                    // TODO: send to non-home replicas also, so they may clear their log more easily?
+                    Shard homeShard = node.topology().forEpochIfKnown(route.homeKey(), txnId.epoch);
+                    node.send(homeShard, new InformHomeDurable(txnId, route.homeKey(), executeAt, Durable, persistedOn));
+                    isDone = true;
+                }
+                // the tracker only reports Success once, so we must test for universal durability on every later response
+                if (isDone && !tracker.hasInFlight() && !tracker.hasFailures())
+                {
+                    Shard homeShard = node.topology().forEpochIfKnown(route.homeKey(), txnId.epoch);
+                    node.send(homeShard, new InformHomeDurable(txnId, route.homeKey(), executeAt, Universal, persistedOn));
                 }
                 break;
             case Insufficient:
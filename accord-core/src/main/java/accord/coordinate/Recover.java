@@ -19,6 +19,7 @@
 package accord.coordinate;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -41,10 +42,9 @@ import accord.messages.BeginRecovery.RecoverReply;
 import accord.messages.WaitOnCommit;
 import accord.messages.WaitOnCommit.WaitOnCommitOk;
 import accord.topology.Topology;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
-import org.apache.cassandra.utils.concurrent.AsyncFuture;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.Promise;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.AsyncFuture;
+import accord.utils.async.Future;
 
 import static accord.coordinate.Propose.Invalidate.proposeInvalidate;
 import static accord.coordinate.tracking.RequestStatus.Failed;
@@ -95,11 +95,11 @@ public class Recover implements Callback<RecoverReply>, BiConsumer<Result, Throw
 
     Future<Object> awaitCommits(Node node, Deps waitOn)
     {
-        AtomicInteger remaining = new AtomicInteger(waitOn.txnIdCount());
-        Promise<Object> future = new AsyncPromise<>();
-        for (int i = 0 ; i < waitOn.txnIdCount() ; ++i)
+        Collection<TxnId> txnIds = waitOn.txnIds();
+        AtomicInteger remaining = new AtomicInteger(txnIds.size());
+        AsyncPromise<Object> future = new AsyncPromise<>();
+        for (TxnId txnId : txnIds)
         {
-            TxnId txnId = waitOn.txnId(i);
             // TODO (now): this should perhaps use RouteFragment as we might need to handle txns that are range-only
             new AwaitCommit(node, txnId, waitOn.someRoutables(txnId)).addCallback((success, failure) -> {
                 if (future.isDone())
@@ -210,6 +210,12 @@ public class Recover implements Callback<RecoverReply>, BiConsumer<Result, Throw
                     commitInvalidate();
                     return;
 
+                case Truncated:
+                    // every replica has applied it or never will, so there is nothing to recover
+                    isDone = true;
+                    callback.accept(ProgressToken.TRUNCATED, null);
+                    return;
+
                 case Applied:
                 case PreApplied:
                     // TODO: in some cases we can use the deps we already have (e.g. if we have a quorum of Committed responses)
@@ -7,6 +7,7 @@ import accord.local.Node;
 import accord.local.Status;
 import accord.messages.CheckStatus.CheckStatusOk;
 import accord.messages.CheckStatus.IncludeInfo;
+import accord.primitives.ProgressToken;
 import accord.primitives.RoutingKeys;
 import accord.primitives.TxnId;
 import com.google.common.base.Preconditions;
@@ -52,7 +53,8 @@ public class RecoverWithHomeKey extends CheckShards implements BiConsumer<Object
     @Override
     protected boolean isSufficient(CheckStatusOk ok)
     {
-        return ok.route != null;
+        // a replica that has truncated the transaction knows every replica has applied it or never will
+        return ok.route != null || ok.saveStatus.status == Status.Truncated;
     }
 
     @Override
@@ -62,6 +64,10 @@ public class RecoverWithHomeKey extends CheckShards implements BiConsumer<Object
         {
             callback.accept(null, fail);
         }
+        else if (merged != null && merged.saveStatus.status == Status.Truncated)
+        {
+            callback.accept(ProgressToken.TRUNCATED, null);
+        }
         else if (merged == null || !isFullRoute(merged.route))
         {
             switch (success)
@@ -20,6 +20,7 @@ import javax.annotation.Nullable;
 import static accord.messages.Commit.Invalidate.commitInvalidate;
 import static accord.primitives.ProgressToken.APPLIED;
 import static accord.primitives.ProgressToken.INVALIDATED;
+import static accord.primitives.ProgressToken.TRUNCATED;
 import static accord.primitives.Route.castToFullRoute;
 
 public class RecoverWithRoute extends CheckShards
@@ -94,6 +95,9 @@ public class RecoverWithRoute extends CheckShards
     {
         CheckStatusOkFull full = (CheckStatusOkFull)ok;
         Known sufficientTo = full.sufficientFor(route);
+        if (sufficientTo.isTruncated())
+            return true;
+
         if (!sufficientTo.isDefinitionKnown())
             return false;
 
@@ -134,7 +138,12 @@ public class RecoverWithRoute extends CheckShards
 
             case OutcomeApplied:
             case OutcomeKnown:
-                Invariants.checkState(known.definition.isKnown());
+                if (!known.definition.isKnown())
+                {
+                    // a decided transaction loses its definition only where it has been erased, once every replica applied it
+                    callback.accept(TRUNCATED, null);
+                    break;
+                }
                 Invariants.checkState(known.executeAt.isDecisionKnown());
                 // TODO: we might not be able to reconstitute Txn if we have GC'd on some shards
                 Txn txn = merged.partialTxn.reconstitute(route);
@@ -152,6 +161,11 @@ public class RecoverWithRoute extends CheckShards
                 }
                 break;
 
+            case Truncated:
+                // every replica has applied it or never will, so there is nothing to recover
+                callback.accept(TRUNCATED, null);
+                break;
+
             case InvalidationApplied:
                 if (witnessedByInvalidation != null && witnessedByInvalidation.hasBeen(Status.PreCommitted))
                     throw new IllegalStateException("We previously invalidated, finding a status that should be recoverable");
@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import accord.api.RoutingKey;
+import accord.local.Command;
+import accord.primitives.Timestamp;
+import accord.primitives.TxnId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Records the complete state of an {@link InMemoryCommand} in a {@link Journal} each time it changes, so that a
+ * command store may be rebuilt on restart by replaying the journal; the last record for each command wins.
+ *
+ * As replaying the whole journal becomes expensive, a command store may periodically write a {@link Snapshot} of
+ * its commands, after which the journal is only replayed from the segment the snapshot began at.
+ *
+ * A command store also journals its {@link Bounds} as they change, as these outlive the commands it erases.
+ */
+public class CommandJournal implements Closeable
+{
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String INCOMPLETE_SUFFIX = ".tmp";
+    private static final int END_OF_SNAPSHOT = -1;
+
+    /**
+     * What a command store must remember once it has erased commands: the bounds agreed with the other replicas, and
+     * the greatest timestamp witnessed by any key, or any range transaction, that it no longer has the commands for.
+     * These only ever increase, so each record raises them, and they are applied once every command is restored.
+     */
+    public static class Bounds
+    {
+        Timestamp durableBefore = Timestamp.NONE, fencedBefore = Timestamp.NONE, truncatedRangesMax = Timestamp.NONE;
+        final Map<RoutingKey, Timestamp> maxConflicts = new TreeMap<>();
+
+        void update(RoutingKey key, Timestamp max)
+        {
+            maxConflicts.merge(key, max, Timestamp::max);
+        }
+    }
+
+    /**
+     * A fuzzy image of a command store, that may be written a few commands at a time while the store continues to
+     * process other operations. The journal is rolled over to a new segment when the snapshot begins, so any command
+     * modified while the snapshot is in progress is also recorded in a segment that is replayed after the snapshot,
+     * and the snapshot together with this tail of the journal is a consistent image of the store.
+     *
+     * A snapshot is written to a temporary file, and only renamed once it has been completed and flushed, at which
+     * point the preceding snapshots and journal segments are discarded.
+     */
+    public class Snapshot
+    {
+        private final int segment;
+        private final File file;
+        private final FileOutputStream fileOut;
+        private final CheckedOutputStream checksummed;
+        private final DataOutputStream out;
+        private int count;
+
+        private Snapshot(int segment)
+        {
+            this.segment = segment;
+            this.file = snapshot(segment, INCOMPLETE_SUFFIX);
+            try
+            {
+                this.fileOut = new FileOutputStream(file);
+                this.checksummed = new CheckedOutputStream(new BufferedOutputStream(fileOut), new CRC32());
+                this.out = new DataOutputStream(checksummed);
+                out.writeInt(segment);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void append(InMemoryCommand command)
+        {
+            append(serializer.serialize(command));
+            ++count;
+        }
+
+        /**
+         * Record the bounds of the store, including every key's max, as any command erased since the snapshot began
+         * may be missing from both the snapshot and the journal that follows it
+         */
+        public void append(Bounds bounds)
+        {
+            append(serializer.serialize(bounds));
+        }
+
+        private void append(byte[] bytes)
+        {
+            try
+            {
+                out.writeInt(serializer.size());
+                out.write(bytes, 0, serializer.size());
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public int count()
+        {
+            return count;
+        }
+
+        public void complete()
+        {
+            try
+            {
+                out.writeInt(END_OF_SNAPSHOT);
+                out.writeLong(checksummed.getChecksum().getValue());
+                out.flush();
+                fileOut.getFD().sync();
+                out.close();
+            }
+            catch (IOException e)
+            {
+                abort();
+                throw new UncheckedIOException(e);
+            }
+
+            if (!file.renameTo(snapshot(segment, SNAPSHOT_SUFFIX)))
+            {
+                abort();
+                throw new UncheckedIOException(new IOException("Unable to complete snapshot " + file));
+            }
+
+            for (int index : snapshots())
+            {
+                if (index < segment)
+                    snapshot(index, SNAPSHOT_SUFFIX).delete();
+            }
+            journal.discardBefore(segment);
+        }
+
+        public void abort()
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException ignore)
+            {
+            }
+            file.delete();
+        }
+    }
+
+    private final Journal journal;
+    private final File directory;
+    private final CommandSerializer serializer;
+
+    public CommandJournal(Journal journal, CommandSerializer.Serializers serializers)
+    {
+        this.journal = journal;
+        this.directory = journal.directory();
+        this.serializer = new CommandSerializer(serializers);
+
+        File[] incomplete = directory.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(INCOMPLETE_SUFFIX));
+        if (incomplete != null)
+        {
+            for (File file : incomplete)
+                file.delete();
+        }
+    }
+
+    public void append(InMemoryCommand command)
+    {
+        byte[] bytes = serializer.serialize(command);
+        journal.append(bytes, 0, serializer.size());
+    }
+
+    public void append(Bounds bounds)
+    {
+        byte[] bytes = serializer.serialize(bounds);
+        journal.append(bytes, 0, serializer.size());
+    }
+
+    public void flush()
+    {
+        journal.flush();
+    }
+
+    /**
+     * Begin a snapshot; the caller must supply every command in the store to it before completing it
+     */
+    public Snapshot beginSnapshot()
+    {
+        return new Snapshot(journal.roll());
+    }
+
+    @Override
+    public void close()
+    {
+        journal.close();
+    }
+
+    /**
+     * Restore every command in the latest snapshot and journaled since, into the command supplied for its TxnId,
+     * then restore the listeners between them
+     * @return the greatest bounds recorded
+     */
+    public Bounds replay(Function<TxnId, Command> commands)
+    {
+        Bounds bounds = new Bounds();
+        Map<TxnId, List<TxnId>> listeners = new HashMap<>();
+        Consumer<byte[]> restore = bytes -> {
+            if (CommandSerializer.isBounds(bytes))
+            {
+                serializer.deserialize(bytes, bounds);
+                return;
+            }
+            InMemoryCommand command = (InMemoryCommand) commands.apply(CommandSerializer.deserializeTxnId(bytes));
+            listeners.put(command.txnId(), serializer.deserialize(bytes, command));
+        };
+
+        int[] snapshots = snapshots();
+        int from = 0;
+        if (snapshots.length > 0)
+        {
+            from = snapshots[snapshots.length - 1];
+            replaySnapshot(snapshot(from, SNAPSHOT_SUFFIX), restore);
+        }
+        journal.replay(from, restore);
+        listeners.forEach((txnId, listenerIds) -> {
+            Command command = commands.apply(txnId);
+            for (TxnId listenerId : listenerIds)
+                command.addListener(commands.apply(listenerId));
+        });
+        return bounds;
+    }
+
+    private static void replaySnapshot(File file, Consumer<byte[]> consumer)
+    {
+        try (CheckedInputStream checksummed = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+             DataInputStream in = new DataInputStream(checksummed))
+        {
+            in.readInt();
+            int length;
+            while ((length = in.readInt()) != END_OF_SNAPSHOT)
+            {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                consumer.accept(bytes);
+            }
+            long expected = checksummed.getChecksum().getValue();
+            if (in.readLong() != expected)
+                throw new IllegalStateException("Snapshot " + file + " is corrupt");
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private File snapshot(int segment, String suffix)
+    {
+        return new File(directory, SNAPSHOT_PREFIX + segment + suffix);
+    }
+
+    private int[] snapshots()
+    {
+        String[] names = directory.list((dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX));
+        if (names == null)
+            return new int[0];
+
+        int[] segments = new int[names.length];
+        for (int i = 0 ; i < names.length ; ++i)
+            segments[i] = Integer.parseInt(names[i].substring(SNAPSHOT_PREFIX.length(), names[i].length() - SNAPSHOT_SUFFIX.length()));
+        Arrays.sort(segments);
+        return segments;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import accord.api.Result;
+import accord.api.RoutingKey;
+import accord.local.Command;
+import accord.local.CommandListener;
+import accord.local.Node;
+import accord.local.SaveStatus;
+import accord.local.Status.Durability;
+import accord.primitives.*;
+import accord.primitives.Txn.Kind;
+import accord.utils.Invariants;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the complete state of an {@link InMemoryCommand}, so that it may be written to a {@link CommandJournal}
+ * or evicted to some other backing store.
+ *
+ * The protocol state is encoded here, while implementation defined types (keys, routes, transactions, dependencies,
+ * writes and results) are delegated to the supplied {@link Serializers}. Of a command's listeners, only other commands
+ * are recorded, as any other listener would not survive a restart.
+ *
+ * Every record begins with a byte denoting its kind, so that the {@link CommandJournal.Bounds} of a command store may be
+ * journaled alongside its commands.
+ */
+public class CommandSerializer
+{
+    public interface ValueSerializer<T>
+    {
+        void serialize(T value, DataOutput out) throws IOException;
+        T deserialize(DataInput in) throws IOException;
+    }
+
+    public interface Serializers
+    {
+        ValueSerializer<RoutingKey> routingKey();
+        ValueSerializer<Route<?>> route();
+        ValueSerializer<PartialTxn> partialTxn();
+        ValueSerializer<PartialDeps> partialDeps();
+        ValueSerializer<Writes> writes();
+        ValueSerializer<Result> result();
+        ValueSerializer<Ranges> ranges();
+    }
+
+    private static class Buffer extends ByteArrayOutputStream
+    {
+        Buffer()
+        {
+            super(256);
+        }
+
+        byte[] array()
+        {
+            return buf;
+        }
+    }
+
+    private static final byte COMMAND = 0, BOUNDS = 1;
+
+    private final Serializers serializers;
+    private final Buffer buffer = new Buffer();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    public CommandSerializer(Serializers serializers)
+    {
+        this.serializers = serializers;
+    }
+
+    /**
+     * Encode the command into a buffer that is valid until the next invocation; its length is {@link #size()}
+     */
+    byte[] serialize(InMemoryCommand command)
+    {
+        buffer.reset();
+        try
+        {
+            out.writeByte(COMMAND);
+            serialize(command, out);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode the bounds into a buffer that is valid until the next invocation; its length is {@link #size()}
+     */
+    byte[] serialize(CommandJournal.Bounds bounds)
+    {
+        buffer.reset();
+        try
+        {
+            out.writeByte(BOUNDS);
+            serialize(bounds.durableBefore, out);
+            serialize(bounds.fencedBefore, out);
+            serialize(bounds.truncatedRangesMax, out);
+            out.writeInt(bounds.maxConflicts.size());
+            for (Map.Entry<RoutingKey, Timestamp> e : bounds.maxConflicts.entrySet())
+            {
+                serializers.routingKey().serialize(e.getKey(), out);
+                serialize(e.getValue(), out);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.array();
+    }
+
+    int size()
+    {
+        return buffer.size();
+    }
+
+    static boolean isBounds(byte[] bytes)
+    {
+        return bytes[0] == BOUNDS;
+    }
+
+    /**
+     * Raise {@code into} to the encoded bounds
+     */
+    void deserialize(byte[] bytes, CommandJournal.Bounds into)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            Invariants.checkState(in.readByte() == BOUNDS);
+            into.durableBefore = Timestamp.max(into.durableBefore, deserializeTimestamp(in));
+            into.fencedBefore = Timestamp.max(into.fencedBefore, deserializeTimestamp(in));
+            into.truncatedRangesMax = Timestamp.max(into.truncatedRangesMax, deserializeTimestamp(in));
+            for (int i = 0, count = in.readInt() ; i < count ; ++i)
+                into.update(serializers.routingKey().deserialize(in), deserializeTimestamp(in));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static TxnId deserializeTxnId(byte[] bytes)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            Invariants.checkState(in.readByte() == COMMAND);
+            return deserializeTxnId(in);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Restore the encoded state into the command with the encoded TxnId
+     * @return the TxnId of each command listening to this one
+     */
+    List<TxnId> deserialize(byte[] bytes, InMemoryCommand into)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            Invariants.checkState(in.readByte() == COMMAND);
+            Invariants.checkState(deserializeTxnId(in).equals(into.txnId()));
+            return deserialize(in, into);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void serialize(InMemoryCommand command, DataOutput out) throws IOException
+    {
+        serialize(command.txnId(), out);
+        out.writeByte(command.saveStatus().ordinal());
+        out.writeByte(command.durability().ordinal());
+        out.writeByte(command.kind() == null ? -1 : command.kind().ordinal());
+        serialize(command.promised(), out);
+        serialize(command.accepted(), out);
+        serializeNullable(command.executeAt(), out);
+        serializeNullable(command.homeKey(), serializers.routingKey(), out);
+        serializeNullable(command.progressKey(), serializers.routingKey(), out);
+        serializeNullable(command.route(), serializers.route(), out);
+        serializeNullable(command.partialTxn(), serializers.partialTxn(), out);
+        serializeNullable(command.partialDeps(), serializers.partialDeps(), out);
+        serializeNullable(command.writes(), serializers.writes(), out);
+        serializeNullable(command.result(), serializers.result(), out);
+        serializeNullable(command.registeredRanges().isEmpty() ? null : command.registeredRanges(), serializers.ranges(), out);
+
+        WaitingOn waitingOn = command.waitingOn();
+        if (waitingOn == null)
+        {
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+        else
+        {
+            out.writeInt(waitingOn.commitCount());
+            for (int i = waitingOn.nextCommit(0) ; i >= 0 ; i = waitingOn.nextCommit(i + 1))
+                serialize(waitingOn.txnId(i), out);
+            out.writeInt(waitingOn.applyCount());
+            for (int i = waitingOn.nextApply(0) ; i >= 0 ; i = waitingOn.nextApply(i + 1))
+            {
+                serialize(waitingOn.txnId(i), out);
+                serialize(waitingOn.executeAt(i), out);
+            }
+        }
+
+        int listenerCount = 0;
+        for (CommandListener listener : command.listeners())
+        {
+            if (listener instanceof Command)
+                ++listenerCount;
+        }
+        out.writeInt(listenerCount);
+        for (CommandListener listener : command.listeners())
+        {
+            if (listener instanceof Command)
+                serialize(((Command) listener).txnId(), out);
+        }
+    }
+
+    /**
+     * @return the TxnId of each command listening to this one
+     */
+    private List<TxnId> deserialize(DataInput in, InMemoryCommand command) throws IOException
+    {
+        command.setSaveStatus(SaveStatus.values()[in.readByte()]);
+        command.setDurability(Durability.values()[in.readByte()]);
+        byte kind = in.readByte();
+        command.setKind(kind < 0 ? null : Kind.values()[kind]);
+        command.setPromised(new Ballot(deserializeTimestamp(in)));
+        command.setAccepted(new Ballot(deserializeTimestamp(in)));
+        command.setExecuteAt(deserializeNullableTimestamp(in));
+        command.setHomeKey(deserializeNullable(serializers.routingKey(), in));
+        command.setProgressKey(deserializeNullable(serializers.routingKey(), in));
+        command.setRoute(deserializeNullable(serializers.route(), in));
+        command.setPartialTxn(deserializeNullable(serializers.partialTxn(), in));
+        command.setPartialDeps(deserializeNullable(serializers.partialDeps(), in));
+        command.setWrites(deserializeNullable(serializers.writes(), in));
+        command.setResult(deserializeNullable(serializers.result(), in));
+        Ranges registeredRanges = deserializeNullable(serializers.ranges(), in);
+        command.setRegisteredRanges(registeredRanges == null ? Ranges.EMPTY : registeredRanges);
+
+        command.clearWaitingOn();
+        for (int i = 0, count = in.readInt() ; i < count ; ++i)
+            command.addWaitingOnCommit(deserializeTxnId(in));
+        for (int i = 0, count = in.readInt() ; i < count ; ++i)
+        {
+            TxnId txnId = deserializeTxnId(in);
+            command.addWaitingOnApplyIfAbsent(txnId, deserializeTimestamp(in));
+        }
+
+        int count = in.readInt();
+        List<TxnId> listeners = new ArrayList<>(count);
+        for (int i = 0 ; i < count ; ++i)
+            listeners.add(deserializeTxnId(in));
+        return listeners;
+    }
+
+    private static <T> void serializeNullable(@Nullable T value, ValueSerializer<? super T> serializer, DataOutput out) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+            serializer.serialize(value, out);
+    }
+
+    private static <T> T deserializeNullable(ValueSerializer<T> serializer, DataInput in) throws IOException
+    {
+        return in.readBoolean() ? serializer.deserialize(in) : null;
+    }
+
+    private static void serializeNullable(@Nullable Timestamp timestamp, DataOutput out) throws IOException
+    {
+        out.writeBoolean(timestamp != null);
+        if (timestamp != null)
+            serialize(timestamp, out);
+    }
+
+    private static Timestamp deserializeNullableTimestamp(DataInput in) throws IOException
+    {
+        return in.readBoolean() ? deserializeTimestamp(in) : null;
+    }
+
+    static void serialize(Timestamp timestamp, DataOutput out) throws IOException
+    {
+        out.writeLong(timestamp.epoch);
+        out.writeLong(timestamp.real);
+        out.writeInt(timestamp.logical);
+        out.writeLong(timestamp.node.id);
+    }
+
+    static Timestamp deserializeTimestamp(DataInput in) throws IOException
+    {
+        return new Timestamp(in.readLong(), in.readLong(), in.readInt(), new Node.Id(in.readLong()));
+    }
+
+    static TxnId deserializeTxnId(DataInput in) throws IOException
+    {
+        return new TxnId(in.readLong(), in.readLong(), in.readInt(), new Node.Id(in.readLong()));
+    }
+}
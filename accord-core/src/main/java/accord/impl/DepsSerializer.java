@@ -0,0 +1,551 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import accord.api.Key;
+import accord.impl.CommandSerializer.ValueSerializer;
+import accord.local.Node;
+import accord.primitives.Deps;
+import accord.primitives.Keys;
+import accord.primitives.PartialDeps;
+import accord.primitives.Range;
+import accord.primitives.RangeDeps;
+import accord.primitives.Ranges;
+import accord.primitives.TxnId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact binary encoding of {@link Deps} and {@link PartialDeps}, suitable for {@link CommandSerializer.Serializers#partialDeps()}
+ * or a messaging layer. Keys and ranges are implementation defined, so are delegated to the supplied serializers.
+ *
+ * The TxnIds of a Deps are sorted and unique, so each is encoded as a variable length delta from its predecessor,
+ * with its epoch and node replaced by an index into a dictionary of the few distinct epochs and nodes present.
+ * The TxnIds are written ahead of the keys so that {@link Lazy#txnIds()} may decode them alone.
+ *
+ * The key to TxnId mapping is bit-packed in whichever direction is smaller: {@code Key -> [TxnId]} costs log2(txnIds)
+ * bits per entry and a count per key, whereas {@code TxnId -> [Key]} costs log2(keys) bits per entry and a count per TxnId.
+ * The range dependencies are encoded in the same way.
+ */
+public class DepsSerializer
+{
+    private static final int KEY_TO_TXNID = 0, TXNID_TO_KEY = 1;
+    private static final TxnId[] NO_TXNIDS = new TxnId[0];
+
+    private final ValueSerializer<Key> key;
+    private final ValueSerializer<Range> range;
+
+    public DepsSerializer(ValueSerializer<Key> key, ValueSerializer<Range> range)
+    {
+        this.key = key;
+        this.range = range;
+    }
+
+    public ValueSerializer<Deps> deps()
+    {
+        return new ValueSerializer<Deps>()
+        {
+            @Override
+            public void serialize(Deps deps, DataOutput out) throws IOException
+            {
+                DepsSerializer.this.serialize(deps, out);
+            }
+
+            @Override
+            public Deps deserialize(DataInput in) throws IOException
+            {
+                return DepsSerializer.this.deserialize(in);
+            }
+        };
+    }
+
+    public ValueSerializer<PartialDeps> partialDeps()
+    {
+        return new ValueSerializer<PartialDeps>()
+        {
+            @Override
+            public void serialize(PartialDeps deps, DataOutput out) throws IOException
+            {
+                serializePartial(deps, out);
+            }
+
+            @Override
+            public PartialDeps deserialize(DataInput in) throws IOException
+            {
+                return deserializePartial(in);
+            }
+        };
+    }
+
+    public void serialize(Deps deps, DataOutput out) throws IOException
+    {
+        RangeDeps rangeDeps = Deps.SerializerSupport.rangeDeps(deps);
+        TxnId[] txnIds = Deps.SerializerSupport.txnIds(deps);
+        TxnId[] rangeTxnIds = RangeDeps.SerializerSupport.txnIds(rangeDeps);
+        serializeTxnIds(txnIds, out);
+        serializeTxnIds(rangeTxnIds, out);
+
+        Keys keys = deps.keys();
+        writeUnsignedVInt(keys.size(), out);
+        for (Key k : keys)
+            key.serialize(k, out);
+
+        int[] keyToTxnId = new int[Deps.SerializerSupport.keyToTxnIdCount(deps)];
+        for (int i = 0 ; i < keyToTxnId.length ; ++i)
+            keyToTxnId[i] = Deps.SerializerSupport.keyToTxnId(deps, i);
+        serializeMapping(keyToTxnId, keys.size(), txnIds.length, out);
+
+        Ranges ranges = rangeDeps.ranges();
+        writeUnsignedVInt(ranges.size(), out);
+        for (Range r : ranges)
+            range.serialize(r, out);
+
+        int[] rangeToTxnId = new int[RangeDeps.SerializerSupport.rangeToTxnIdCount(rangeDeps)];
+        for (int i = 0 ; i < rangeToTxnId.length ; ++i)
+            rangeToTxnId[i] = RangeDeps.SerializerSupport.rangeToTxnId(rangeDeps, i);
+        serializeMapping(rangeToTxnId, ranges.size(), rangeTxnIds.length, out);
+    }
+
+    public Deps deserialize(DataInput in) throws IOException
+    {
+        return deserialize(in, null);
+    }
+
+    private Deps deserialize(DataInput in, Ranges covering) throws IOException
+    {
+        TxnId[] txnIds = deserializeTxnIds(in);
+        TxnId[] rangeTxnIds = deserializeTxnIds(in);
+
+        Key[] keys = new Key[readUnsignedVInt(in)];
+        for (int i = 0 ; i < keys.length ; ++i)
+            keys[i] = key.deserialize(in);
+        int[] keyToTxnId = deserializeMapping(in, keys.length, txnIds.length);
+
+        Range[] ranges = new Range[readUnsignedVInt(in)];
+        for (int i = 0 ; i < ranges.length ; ++i)
+            ranges[i] = range.deserialize(in);
+        int[] rangeToTxnId = deserializeMapping(in, ranges.length, rangeTxnIds.length);
+
+        RangeDeps rangeDeps = ranges.length == 0 ? RangeDeps.NONE
+                                                 : RangeDeps.SerializerSupport.create(Ranges.ofSortedAndDeoverlapped(ranges), rangeTxnIds, rangeToTxnId);
+        if (covering == null)
+            return Deps.SerializerSupport.create(Keys.ofSorted(keys), txnIds, keyToTxnId, rangeDeps);
+        return PartialDeps.SerializerSupport.create(covering, Keys.ofSorted(keys), txnIds, keyToTxnId, rangeDeps);
+    }
+
+    public void serializePartial(PartialDeps deps, DataOutput out) throws IOException
+    {
+        writeUnsignedVInt(deps.covering.size(), out);
+        for (Range r : deps.covering)
+            range.serialize(r, out);
+        serialize(deps, out);
+    }
+
+    public PartialDeps deserializePartial(DataInput in) throws IOException
+    {
+        Range[] covering = new Range[readUnsignedVInt(in)];
+        for (int i = 0 ; i < covering.length ; ++i)
+            covering[i] = range.deserialize(in);
+        return (PartialDeps) deserialize(in, Ranges.ofSortedAndDeoverlapped(covering));
+    }
+
+    public byte[] toBytes(Deps deps)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            serialize(deps, new DataOutputStream(bytes));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public Lazy lazy(byte[] bytes)
+    {
+        return new Lazy(bytes);
+    }
+
+    /**
+     * An encoded {@link Deps} that is decoded only once needed; its TxnIds may be decoded alone, without the keys
+     * or mapping, for those consumers that need only to know what to load or wait for
+     */
+    public class Lazy
+    {
+        private final byte[] bytes;
+        private Deps deps;
+
+        Lazy(byte[] bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        public Deps get()
+        {
+            if (deps == null)
+            {
+                try
+                {
+                    deps = deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return deps;
+        }
+
+        /**
+         * The sorted, unique, TxnIds adopted via either a key or a range
+         */
+        public List<TxnId> txnIds()
+        {
+            if (deps != null)
+                return new ArrayList<>(deps.txnIds());
+
+            try
+            {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                TxnId[] txnIds = deserializeTxnIds(in);
+                TxnId[] rangeTxnIds = deserializeTxnIds(in);
+                if (rangeTxnIds.length == 0)
+                    return Arrays.asList(txnIds);
+
+                List<TxnId> result = new ArrayList<>(txnIds.length + rangeTxnIds.length);
+                Collections.addAll(result, txnIds);
+                for (TxnId txnId : rangeTxnIds)
+                {
+                    if (Arrays.binarySearch(txnIds, txnId) < 0)
+                        result.add(txnId);
+                }
+                result.sort(TxnId::compareTo);
+                return result;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public int size()
+        {
+            return bytes.length;
+        }
+    }
+
+    static void serializeTxnIds(TxnId[] txnIds, DataOutput out) throws IOException
+    {
+        writeUnsignedVInt(txnIds.length, out);
+        if (txnIds.length == 0)
+            return;
+
+        // the TxnIds are sorted by epoch, so the distinct epochs are encountered in order
+        long[] epochs = new long[txnIds.length];
+        int epochCount = 0;
+        long[] nodes = new long[txnIds.length];
+        for (int i = 0 ; i < txnIds.length ; ++i)
+        {
+            if (epochCount == 0 || epochs[epochCount - 1] != txnIds[i].epoch)
+                epochs[epochCount++] = txnIds[i].epoch;
+            nodes[i] = txnIds[i].node.id;
+        }
+        Arrays.sort(nodes);
+        int nodeCount = 1;
+        for (int i = 1 ; i < nodes.length ; ++i)
+        {
+            if (nodes[nodeCount - 1] != nodes[i])
+                nodes[nodeCount++] = nodes[i];
+        }
+
+        writeUnsignedVInt(epochCount, out);
+        for (int i = 0 ; i < epochCount ; ++i)
+            writeUnsignedVInt(epochs[i] - (i == 0 ? 0 : epochs[i - 1]), out);
+        writeUnsignedVInt(nodeCount, out);
+        for (int i = 0 ; i < nodeCount ; ++i)
+            writeVInt(nodes[i] - (i == 0 ? 0 : nodes[i - 1]), out);
+
+        int epochIndex = 0;
+        long prevReal = 0;
+        for (TxnId txnId : txnIds)
+        {
+            if (epochCount > 1)
+            {
+                int prevEpochIndex = epochIndex;
+                while (epochs[epochIndex] != txnId.epoch)
+                    ++epochIndex;
+                writeUnsignedVInt(epochIndex - prevEpochIndex, out);
+            }
+            writeVInt(txnId.real - prevReal, out);
+            prevReal = txnId.real;
+            writeVInt(txnId.logical, out);
+            if (nodeCount > 1)
+                writeUnsignedVInt(Arrays.binarySearch(nodes, 0, nodeCount, txnId.node.id), out);
+        }
+    }
+
+    static TxnId[] deserializeTxnIds(DataInput in) throws IOException
+    {
+        int count = readUnsignedVInt(in);
+        if (count == 0)
+            return NO_TXNIDS;
+
+        long[] epochs = new long[readUnsignedVInt(in)];
+        for (int i = 0 ; i < epochs.length ; ++i)
+            epochs[i] = readUnsignedVLong(in) + (i == 0 ? 0 : epochs[i - 1]);
+        Node.Id[] nodes = new Node.Id[readUnsignedVInt(in)];
+        long prevNode = 0;
+        for (int i = 0 ; i < nodes.length ; ++i)
+            nodes[i] = new Node.Id(prevNode += readVLong(in));
+
+        TxnId[] txnIds = new TxnId[count];
+        int epochIndex = 0;
+        long real = 0;
+        for (int i = 0 ; i < count ; ++i)
+        {
+            if (epochs.length > 1)
+                epochIndex += readUnsignedVInt(in);
+            real += readVLong(in);
+            int logical = (int) readVLong(in);
+            Node.Id node = nodes[nodes.length > 1 ? readUnsignedVInt(in) : 0];
+            txnIds[i] = new TxnId(epochs[epochIndex], real, logical, node);
+        }
+        return txnIds;
+    }
+
+    /**
+     * Encode a mapping with the layout of {@code Deps.keyToTxnId}, in whichever direction packs into fewer bits
+     */
+    static void serializeMapping(int[] sourceToTarget, int sourceCount, int targetCount, DataOutput out) throws IOException
+    {
+        if (sourceCount == 0)
+            return;
+
+        int[] targetToSource = invert(sourceToTarget, sourceCount, targetCount);
+        long forwardBits = mappingBits(sourceToTarget, sourceCount, targetCount);
+        long reverseBits = mappingBits(targetToSource, targetCount, sourceCount);
+        if (forwardBits <= reverseBits)
+        {
+            out.writeByte(KEY_TO_TXNID);
+            serializeMappingDirection(sourceToTarget, sourceCount, targetCount, out);
+        }
+        else
+        {
+            out.writeByte(TXNID_TO_KEY);
+            serializeMappingDirection(targetToSource, targetCount, sourceCount, out);
+        }
+    }
+
+    static int[] deserializeMapping(DataInput in, int sourceCount, int targetCount) throws IOException
+    {
+        if (sourceCount == 0)
+            return new int[0];
+
+        switch (in.readByte())
+        {
+            default: throw new IllegalStateException("Unknown mapping direction");
+            case KEY_TO_TXNID:
+                return deserializeMappingDirection(in, sourceCount, targetCount);
+            case TXNID_TO_KEY:
+                int[] targetToSource = deserializeMappingDirection(in, targetCount, sourceCount);
+                return invert(targetToSource, targetCount, sourceCount);
+        }
+    }
+
+    private static long mappingBits(int[] map, int sourceCount, int targetCount)
+    {
+        int maxCount = 0;
+        for (int i = 0 ; i < sourceCount ; ++i)
+            maxCount = Math.max(maxCount, map[i] - (i == 0 ? sourceCount : map[i - 1]));
+        return (long) sourceCount * bitsFor(maxCount) + (long) (map.length - sourceCount) * bitsFor(targetCount - 1);
+    }
+
+    private static void serializeMappingDirection(int[] map, int sourceCount, int targetCount, DataOutput out) throws IOException
+    {
+        int maxCount = 0;
+        for (int i = 0 ; i < sourceCount ; ++i)
+            maxCount = Math.max(maxCount, map[i] - (i == 0 ? sourceCount : map[i - 1]));
+
+        int countBits = bitsFor(maxCount), entryBits = bitsFor(targetCount - 1);
+        out.writeByte(countBits);
+        BitWriter writer = new BitWriter(out);
+        for (int i = 0 ; i < sourceCount ; ++i)
+            writer.write(map[i] - (i == 0 ? sourceCount : map[i - 1]), countBits);
+        for (int i = sourceCount ; i < map.length ; ++i)
+            writer.write(map[i], entryBits);
+        writer.flush();
+    }
+
+    private static int[] deserializeMappingDirection(DataInput in, int sourceCount, int targetCount) throws IOException
+    {
+        int countBits = in.readByte(), entryBits = bitsFor(targetCount - 1);
+        BitReader reader = new BitReader(in);
+        int[] counts = new int[sourceCount];
+        int entryCount = 0;
+        for (int i = 0 ; i < sourceCount ; ++i)
+            entryCount += counts[i] = (int) reader.read(countBits);
+
+        int[] map = new int[sourceCount + entryCount];
+        for (int i = 0, offset = sourceCount ; i < sourceCount ; ++i)
+            map[i] = offset += counts[i];
+        for (int i = sourceCount ; i < map.length ; ++i)
+            map[i] = (int) reader.read(entryBits);
+        return map;
+    }
+
+    /**
+     * Invert a mapping with the layout of {@code Deps.keyToTxnId}; as each source is visited in order,
+     * the entries of each target remain sorted
+     */
+    private static int[] invert(int[] map, int sourceCount, int targetCount)
+    {
+        int[] result = new int[targetCount + map.length - sourceCount];
+        for (int i = sourceCount ; i < map.length ; ++i)
+            result[map[i]]++;
+
+        int offset = targetCount;
+        for (int t = 0 ; t < targetCount ; ++t)
+        {
+            int count = result[t];
+            result[t] = offset;
+            offset += count;
+        }
+
+        // result[t] is now the next position to fill for t, and once filled is its end offset
+        for (int s = 0, i = sourceCount ; s < sourceCount ; ++s)
+        {
+            for (int end = map[s] ; i < end ; ++i)
+                result[result[map[i]]++] = s;
+        }
+        return result;
+    }
+
+    private static int bitsFor(int maxValue)
+    {
+        return maxValue <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(maxValue);
+    }
+
+    private static class BitWriter
+    {
+        final DataOutput out;
+        long buffer;
+        int bufferBits;
+
+        BitWriter(DataOutput out)
+        {
+            this.out = out;
+        }
+
+        void write(int value, int bits) throws IOException
+        {
+            buffer |= ((long) value) << bufferBits;
+            bufferBits += bits;
+            while (bufferBits >= 8)
+            {
+                out.writeByte((int) buffer);
+                buffer >>>= 8;
+                bufferBits -= 8;
+            }
+        }
+
+        void flush() throws IOException
+        {
+            if (bufferBits > 0)
+                out.writeByte((int) buffer);
+            buffer = 0;
+            bufferBits = 0;
+        }
+    }
+
+    private static class BitReader
+    {
+        final DataInput in;
+        long buffer;
+        int bufferBits;
+
+        BitReader(DataInput in)
+        {
+            this.in = in;
+        }
+
+        long read(int bits) throws IOException
+        {
+            while (bufferBits < bits)
+            {
+                buffer |= ((long) (in.readByte() & 0xff)) << bufferBits;
+                bufferBits += 8;
+            }
+            long result = buffer & ((1L << bits) - 1);
+            buffer >>>= bits;
+            bufferBits -= bits;
+            return result;
+        }
+    }
+
+    static void writeUnsignedVInt(long value, DataOutput out) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void writeVInt(long value, DataOutput out) throws IOException
+    {
+        writeUnsignedVInt((value << 1) ^ (value >> 63), out);
+    }
+
+    static long readUnsignedVLong(DataInput in) throws IOException
+    {
+        long result = 0;
+        for (int shift = 0 ; ; shift += 7)
+        {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return result;
+        }
+    }
+
+    static int readUnsignedVInt(DataInput in) throws IOException
+    {
+        return (int) readUnsignedVLong(in);
+    }
+
+    static long readVLong(DataInput in) throws IOException
+    {
+        long value = readUnsignedVLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -25,6 +25,7 @@ import accord.local.Status.Durability;
 import accord.local.Status.Known;
 import accord.primitives.*;
 import accord.primitives.Txn.Kind;
+import accord.utils.Invariants;
 
 import javax.annotation.Nullable;
 import java.util.*;
@@ -34,6 +35,8 @@ import static accord.local.Status.Durability.NotDurable;
 
 public class InMemoryCommand extends Command
 {
+    private static final TxnId[] NO_TXNIDS = new TxnId[0];
+
     public final CommandStore commandStore;
     private final TxnId txnId;
 
@@ -51,8 +54,12 @@ public class InMemoryCommand extends Command
 
     private Durability durability = NotDurable; // only set on home shard
 
-    private NavigableSet<TxnId> waitingOnCommit;
-    private NavigableMap<Timestamp, TxnId> waitingOnApply;
+    private @Nullable WaitingOn waitingOn;
+
+    // the ranges by which a range transaction is registered with its store's RangeCommandIndex
+    private Ranges registeredRanges = Ranges.EMPTY;
+    // the number of commandsForKey timeseries, and other commands' listeners, that hold this object
+    private int references;
 
     private final Listeners listeners = new Listeners();
 
@@ -81,15 +88,14 @@ public class InMemoryCommand extends Command
                 && Objects.equals(result, command.result)
                 && status == command.status
                 && durability == command.durability
-                && Objects.equals(waitingOnCommit, command.waitingOnCommit)
-                && Objects.equals(waitingOnApply, command.waitingOnApply)
+                && Objects.equals(waitingOn, command.waitingOn)
                 && Objects.equals(listeners, command.listeners);
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hash(commandStore, txnId, partialTxn, promised, accepted, executeAt, partialDeps, writes, result, status, waitingOnCommit, waitingOnApply, listeners);
+        return Objects.hash(commandStore, txnId, partialTxn, promised, accepted, executeAt, partialDeps, writes, result, status, waitingOn, listeners);
     }
 
     @Override
@@ -114,12 +120,14 @@ public class InMemoryCommand extends Command
     public void setKind(Kind kind)
     {
         this.kind = kind;
+        onUpdate();
     }
 
     @Override
     protected void setHomeKey(RoutingKey key)
     {
         this.homeKey = key;
+        onUpdate();
     }
 
     @Override
@@ -132,6 +140,7 @@ public class InMemoryCommand extends Command
     protected void setProgressKey(RoutingKey key)
     {
         this.progressKey = key;
+        onUpdate();
     }
 
     @Override
@@ -144,6 +153,7 @@ public class InMemoryCommand extends Command
     protected void setRoute(Route<?> route)
     {
         this.route = route;
+        onUpdate();
     }
 
     @Override
@@ -156,6 +166,7 @@ public class InMemoryCommand extends Command
     protected void setPartialTxn(PartialTxn txn)
     {
         this.partialTxn = txn;
+        onUpdate();
     }
 
     @Override
@@ -168,6 +179,7 @@ public class InMemoryCommand extends Command
     public void setPromised(Ballot ballot)
     {
         this.promised = ballot;
+        onUpdate();
     }
 
     @Override
@@ -180,6 +192,7 @@ public class InMemoryCommand extends Command
     public void setAccepted(Ballot ballot)
     {
         this.accepted = ballot;
+        onUpdate();
     }
 
     @Override
@@ -192,6 +205,7 @@ public class InMemoryCommand extends Command
     public void setExecuteAt(Timestamp timestamp)
     {
         this.executeAt = timestamp;
+        onUpdate();
     }
 
     @Override
@@ -204,6 +218,9 @@ public class InMemoryCommand extends Command
     public void setPartialDeps(@Nullable PartialDeps deps)
     {
         this.partialDeps = deps;
+        if (waitingOn != null && deps != null)
+            waitingOn.reindex(Deps.SerializerSupport.txnIds(deps));
+        onUpdate();
     }
 
     @Override
@@ -216,6 +233,7 @@ public class InMemoryCommand extends Command
     public void setWrites(Writes writes)
     {
         this.writes = writes;
+        onUpdate();
     }
 
     @Override
@@ -228,6 +246,7 @@ public class InMemoryCommand extends Command
     public void setResult(Result result)
     {
         this.result = result;
+        onUpdate();
     }
 
     @Override
@@ -240,6 +259,7 @@ public class InMemoryCommand extends Command
     public void setSaveStatus(SaveStatus status)
     {
         this.status = status;
+        onUpdate();
     }
 
     @Override
@@ -260,19 +280,88 @@ public class InMemoryCommand extends Command
     public void setDurability(Durability v)
     {
         durability = v;
+        onUpdate();
     }
 
     @Override
     public Command addListener(CommandListener listener)
     {
-        listeners.add(listener);
+        if (listeners.add(listener) && listener instanceof InMemoryCommand)
+            ((InMemoryCommand) listener).addReference();
+        onUpdate();
         return this;
     }
 
     @Override
     public void removeListener(CommandListener listener)
     {
-        listeners.remove(listener);
+        if (listeners.remove(listener) && listener instanceof InMemoryCommand)
+            ((InMemoryCommand) listener).removeReference();
+        onUpdate();
+    }
+
+    /**
+     * A command that nothing in memory refers to, and that is not indexed by range, may be evicted and later restored
+     * as a new object without anybody noticing
+     */
+    boolean isEvictable()
+    {
+        return references == 0 && listeners.isEmpty() && registeredRanges.isEmpty();
+    }
+
+    void addReference()
+    {
+        ++references;
+    }
+
+    void removeReference()
+    {
+        Invariants.checkState(--references >= 0);
+    }
+
+    void clearWaitingOn()
+    {
+        if (waitingOn == null)
+            return;
+
+        waitingOn = null;
+        onUpdate();
+    }
+
+    @Nullable WaitingOn waitingOn()
+    {
+        return waitingOn;
+    }
+
+    private WaitingOn ensureWaitingOn()
+    {
+        if (waitingOn == null)
+            waitingOn = new WaitingOn(partialDeps == null ? NO_TXNIDS : Deps.SerializerSupport.txnIds(partialDeps));
+        return waitingOn;
+    }
+
+    Listeners listeners()
+    {
+        return listeners;
+    }
+
+    Ranges registeredRanges()
+    {
+        return registeredRanges;
+    }
+
+    void setRegisteredRanges(Ranges ranges)
+    {
+        this.registeredRanges = ranges;
+    }
+
+    private void onUpdate()
+    {
+        if (commandStore == null)
+            return;
+
+        InMemoryCommandStore.State state = InMemoryCommandStore.inMemory(commandStore);
+        state.onUpdate(this);
     }
 
     @Override
@@ -284,43 +373,40 @@ public class InMemoryCommand extends Command
     @Override
     public void addWaitingOnCommit(TxnId txnId)
     {
-        if (waitingOnCommit == null)
-            waitingOnCommit = new TreeSet<>();
-
-        waitingOnCommit.add(txnId);
+        ensureWaitingOn().addCommit(txnId);
+        onUpdate();
     }
 
     @Override
     public void removeWaitingOnCommit(TxnId txnId)
     {
-        if (waitingOnCommit == null)
+        if (waitingOn == null)
             return;
-        waitingOnCommit.remove(txnId);
+        waitingOn.removeCommit(txnId);
+        onUpdate();
     }
 
     @Override
     public TxnId firstWaitingOnCommit()
     {
-        return isWaitingOnCommit() ? waitingOnCommit.first() : null;
+        return waitingOn == null ? null : waitingOn.firstCommit();
     }
 
     @Override
     public void addWaitingOnApplyIfAbsent(TxnId txnId, Timestamp executeAt)
     {
-        if (waitingOnApply == null)
-            waitingOnApply = new TreeMap<>();
-
-        waitingOnApply.put(executeAt, txnId);
+        ensureWaitingOn().addApply(txnId, executeAt);
+        onUpdate();
     }
 
     public boolean isWaitingOnApply()
     {
-        return waitingOnApply != null && !waitingOnApply.isEmpty();
+        return waitingOn != null && waitingOn.isWaitingOnApply();
     }
 
     public boolean isWaitingOnCommit()
     {
-        return waitingOnCommit != null && !waitingOnCommit.isEmpty();
+        return waitingOn != null && waitingOn.isWaitingOnCommit();
     }
 
     public boolean isWaitingOnDependency()
@@ -331,23 +417,14 @@ public class InMemoryCommand extends Command
     @Override
     public void removeWaitingOn(TxnId txnId, Timestamp executeAt)
     {
-        if (waitingOnCommit != null)
-            waitingOnCommit.remove(txnId);
-
-        if (waitingOnApply != null)
-            waitingOnApply.remove(executeAt);
+        if (waitingOn != null)
+            waitingOn.remove(txnId, executeAt);
+        onUpdate();
     }
 
     @Override
     public TxnId firstWaitingOnApply(@Nullable TxnId ifExecutesBefore)
     {
-        if (!isWaitingOnApply())
-            return null;
-
-        Map.Entry<Timestamp, TxnId> first = waitingOnApply.firstEntry();
-        if (ifExecutesBefore == null || first.getKey().compareTo(ifExecutesBefore) < 0)
-            return first.getValue();
-
-        return null;
+        return waitingOn == null ? null : waitingOn.firstApply(ifExecutesBefore);
     }
 }
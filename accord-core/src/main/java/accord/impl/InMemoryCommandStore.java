@@ -22,6 +22,7 @@ import accord.api.Agent;
 import accord.api.DataStore;
 import accord.api.Key;
 import accord.api.ProgressLog;
+import accord.api.RoutingKey;
 import accord.local.CommandStore; // java8 fails compilation if this is in correct position
 import accord.local.SyncCommandStores.SyncCommandStore; // java8 fails compilation if this is in correct position
 import accord.impl.InMemoryCommandStore.SingleThread.AsyncState;
@@ -33,27 +34,76 @@ import accord.local.CommandListener;
 import accord.local.Node;
 import accord.local.NodeTimeService;
 import accord.local.PreLoadContext;
+import accord.local.PreLoadContext.Priority;
+import accord.local.SaveStatus;
 import accord.local.SafeCommandStore;
+import accord.local.Status;
+import accord.local.Status.Known;
 import accord.local.SyncCommandStores;
 import accord.primitives.Timestamp;
 import accord.primitives.TxnId;
 import accord.primitives.*;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
-import org.apache.cassandra.utils.concurrent.Future;
-
-import java.util.Collection;
+import accord.utils.BatchingExecutor;
+import accord.utils.SortedArrays;
+import accord.utils.VirtualThreads;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.Future;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
 
 public class InMemoryCommandStore
 {
+    /**
+     * Visits each part of a range transaction's ranges within {@link #bound} once; as keys are visited in order, a range
+     * containing the previous key visited within the same bound has already been visited, and is skipped
+     */
+    private static class RangeCommandVisitor implements RangeCommandIndex.Fold<RoutableKey>
+    {
+        final BiConsumer<Range, Command> forEach;
+        Range bound;
+
+        RangeCommandVisitor(BiConsumer<Range, Command> forEach)
+        {
+            this.forEach = forEach;
+        }
+
+        @Override
+        public RoutableKey apply(Range range, Command command, RoutableKey previous)
+        {
+            if (previous == null || !range.containsKey(previous))
+                forEach.accept(Range.slice(bound, range), command);
+            return previous;
+        }
+    }
+
     public static abstract class State implements SafeCommandStore
     {
         private final NodeTimeService time;
@@ -63,8 +113,38 @@ public class InMemoryCommandStore
         private final RangesForEpoch rangesForEpoch;
 
         private final CommandStore commandStore;
-        private final NavigableMap<TxnId, Command> commands = new TreeMap<>();
-        private final NavigableMap<RoutableKey, InMemoryCommandsForKey> commandsForKey = new TreeMap<>();
+        final NavigableMap<TxnId, Command> commands = new TreeMap<>();
+        final NavigableMap<RoutableKey, InMemoryCommandsForKey> commandsForKey = new TreeMap<>();
+        // range transactions, which may cover keys we have no commandsForKey for
+        final RangeCommandIndex commandsForRanges = new RangeCommandIndex();
+        // the max of every commandsForKey, including those not in memory
+        final MaxConflicts maxConflicts = new MaxConflicts();
+
+        /**
+         * Commands are erased only once every replica has applied every transaction with a lower TxnId that it will
+         * ever apply, as agreed by every replica with {@link accord.coordinate.AgreeDurableBefore}; until then a replica
+         * that has fallen behind may still need them to execute, or to recover another transaction. Anything below
+         * {@link #durableBefore} that we no longer know reads as Truncated, never as Invalidated, as we cannot say which
+         * it was. Each agreement first fences every replica against witnessing any new transaction below its bound, so
+         * that it cannot be overtaken. At most {@link #TRUNCATE_BUDGET} commands are visited per operation, resuming
+         * from where we last stopped, so we never stall the command store.
+         */
+        private static final int TRUNCATE_BUDGET = 16;
+        private Timestamp durableBefore = Timestamp.NONE, fencedBefore = Timestamp.NONE;
+        private @Nullable TxnId truncateCursor;
+        // the greatest executeAt of any range transaction removed from commandsForRanges, which must still bound preaccept
+        private Timestamp truncatedRangesMax = Timestamp.NONE;
+
+        /**
+         * Visits what we know of a transaction, whether or not it is in memory
+         */
+        interface KnownVisitor
+        {
+            /**
+             * @return false to stop visiting
+             */
+            boolean visit(TxnId txnId, SaveStatus status, Timestamp executeAt, @Nullable Seekables<?, ?> keys);
+        }
 
         public State(NodeTimeService time, Agent agent, DataStore store, ProgressLog progressLog, RangesForEpoch rangesForEpoch, CommandStore commandStore)
         {
@@ -78,18 +158,331 @@ public class InMemoryCommandStore
 
         public Command ifPresent(TxnId txnId)
         {
-            return commands.get(txnId);
+            Command command = commands.get(txnId);
+            if (command == null)
+                onMissing(txnId);
+            return command;
         }
 
-        // TODO (soon): mimic caching to test C* behaviour
         public Command ifLoaded(TxnId txnId)
         {
-            return commands.get(txnId);
+            Command command = commands.get(txnId);
+            if (command == null && isTruncated(txnId))
+                return truncated(txnId);
+            return command;
         }
 
         public Command command(TxnId txnId)
         {
-            return commands.computeIfAbsent(txnId, id -> new InMemoryCommand(commandStore, id));
+            Command command = commands.get(txnId);
+            if (command == null)
+            {
+                if (isTruncated(txnId))
+                    return truncated(txnId);
+                onMissing(txnId);
+                command = new InMemoryCommand(commandStore, txnId);
+                commands.put(txnId, command);
+            }
+            return command;
+        }
+
+        /**
+         * Invoked when an operation asks for a command that is not in memory, before it is treated as unknown
+         */
+        void onMissing(TxnId txnId)
+        {
+        }
+
+        /**
+         * Invoked when an operation asks for a commandsForKey that is not in memory, before it is treated as unknown
+         */
+        void onMissing(Key key)
+        {
+        }
+
+        void onUpdate(InMemoryCommand command)
+        {
+        }
+
+        /**
+         * Invoked when {@link #durableBefore} or {@link #fencedBefore} is raised
+         */
+        void onUpdateBounds()
+        {
+        }
+
+        /**
+         * Invoked once a command has been erased, and the max of its keys and of truncated ranges raised to cover it
+         */
+        void onErase(InMemoryCommand command)
+        {
+        }
+
+        /**
+         * @return true if the transaction is not in memory, but we would know it if it were not below durableBefore
+         */
+        boolean isTruncated(TxnId txnId)
+        {
+            return txnId.compareTo(durableBefore) < 0;
+        }
+
+        /**
+         * A stand-in for a command we have erased, that is not kept: every replica has either applied it or never
+         * will, so nobody need wait on it, but we cannot say which
+         */
+        private static Command truncated(TxnId txnId)
+        {
+            InMemoryCommand command = new InMemoryCommand(null, txnId);
+            command.setSaveStatus(SaveStatus.Truncated);
+            command.setDurability(Status.Durability.Universal);
+            return command;
+        }
+
+        @Override
+        public Timestamp durableBefore()
+        {
+            return durableBefore;
+        }
+
+        @Override
+        public Timestamp fencedBefore()
+        {
+            return fencedBefore;
+        }
+
+        @Override
+        public boolean fence(Timestamp fenceBefore, AppliedVisitor visitor)
+        {
+            if (fenceBefore.compareTo(fencedBefore) > 0)
+            {
+                fencedBefore = fenceBefore;
+                onUpdateBounds();
+            }
+            boolean[] isReady = { true };
+            forEachKnownBefore(fenceBefore, (txnId, status, executeAt, keys) -> {
+                switch (status.status)
+                {
+                    case Applied:
+                        // a store that does not replicate any of the transaction's keys has nothing to compare
+                        if (keys != null && executeAt.compareTo(durableBefore) >= 0)
+                            visitor.visit(txnId, executeAt, keys);
+                    case Truncated:
+                    case Invalidated:
+                        return true;
+                    case NotWitnessed:
+                        if (!status.known.isDefinitionKnown())
+                            return true;
+                    default:
+                        // we own none of its keys, so nothing we will apply depends on its outcome
+                        if (keys != null && keys.isEmpty())
+                            return true;
+                        // nobody may be coordinating it any longer, so ensure it is applied or invalidated
+                        if (keys != null)
+                            progressLog.waiting(txnId, Known.Done, keys.toUnseekables());
+                        isReady[0] = false;
+                        return true;
+                }
+            });
+            return isReady[0];
+        }
+
+        @Override
+        public void markDurableBefore(Timestamp newDurableBefore)
+        {
+            if (newDurableBefore.compareTo(durableBefore) <= 0)
+                return;
+
+            durableBefore = newDurableBefore;
+            fencedBefore = Timestamp.max(fencedBefore, newDurableBefore);
+            onUpdateBounds();
+        }
+
+        Timestamp truncatedRangesMax()
+        {
+            return truncatedRangesMax;
+        }
+
+        /**
+         * @param into raised to our bounds, except the max of each key
+         */
+        void bounds(CommandJournal.Bounds into)
+        {
+            into.durableBefore = Timestamp.max(into.durableBefore, durableBefore);
+            into.fencedBefore = Timestamp.max(into.fencedBefore, fencedBefore);
+            into.truncatedRangesMax = Timestamp.max(into.truncatedRangesMax, truncatedRangesMax);
+        }
+
+        /**
+         * Visit what we know of each transaction with a lower TxnId than {@code before}, until the visitor returns false
+         * @return false if the visitor did
+         */
+        boolean forEachKnownBefore(Timestamp before, KnownVisitor visitor)
+        {
+            for (Command command : commands.headMap(new TxnId(before), false).values())
+            {
+                PartialTxn partialTxn = command.partialTxn();
+                if (!visitor.visit(command.txnId(), command.saveStatus(), command.executeAt(), partialTxn == null ? null : partialTxn.keys()))
+                    return false;
+            }
+            return true;
+        }
+
+        protected void truncate()
+        {
+            for (int i = 0 ; i < TRUNCATE_BUDGET ; ++i)
+            {
+                TxnId txnId = nextKnown(truncateCursor);
+                if (txnId == null || txnId.compareTo(durableBefore) >= 0)
+                {
+                    // start again from the beginning next time
+                    truncateCursor = null;
+                    return;
+                }
+
+                truncateCursor = txnId;
+                if (isErasable(txnId))
+                    erase(txnId);
+            }
+        }
+
+        /**
+         * @return the least TxnId greater than {@code after} of any command we know, whether or not it is in memory
+         */
+        @Nullable TxnId nextKnown(@Nullable TxnId after)
+        {
+            return after == null ? (commands.isEmpty() ? null : commands.firstKey()) : commands.higherKey(after);
+        }
+
+        /**
+         * @return true if nobody is waiting on the command, and it was applied before durableBefore or never will be
+         */
+        boolean isErasable(TxnId txnId)
+        {
+            InMemoryCommand command = (InMemoryCommand) commands.get(txnId);
+            return command != null && command.listeners().isEmpty() && isErasable(command.saveStatus(), command.executeAt());
+        }
+
+        boolean isErasable(SaveStatus status, Timestamp executeAt)
+        {
+            switch (status.status)
+            {
+                default:
+                    return false;
+                case NotWitnessed:
+                    return !status.known.isDefinitionKnown();
+                case Truncated:
+                case Invalidated:
+                    return true;
+                case Applied:
+                    // a transaction that executes after durableBefore may still be needed to recover one that started before it
+                    return executeAt.compareTo(durableBefore) < 0 && agent.isErasable(executeAt);
+            }
+        }
+
+        void erase(TxnId txnId)
+        {
+            InMemoryCommand command = (InMemoryCommand) commands.remove(txnId);
+            if (command.partialTxn() != null && command.partialTxn().keys().kindOfContents() == Routable.Kind.Key)
+            {
+                for (Key key : (Keys) command.partialTxn().keys())
+                {
+                    InMemoryCommandsForKey forKey = commandsForKey.get(key);
+                    if (forKey != null)
+                        forKey.truncate(command);
+                }
+            }
+            if (!command.registeredRanges().isEmpty())
+            {
+                // range transactions are registered only with commandsForRanges
+                for (Range range : command.registeredRanges())
+                    commandsForRanges.remove(range, txnId);
+                command.setRegisteredRanges(Ranges.EMPTY);
+                truncatedRangesMax = Timestamp.max(truncatedRangesMax, command.executeAt());
+            }
+            onErase(command);
+        }
+
+        /**
+         * Restore the commands recorded in the journal, and rebuild the commandsForKey and range index they were
+         * registered with. The bounds are restored last, as until then we would treat commands below durableBefore
+         * as truncated.
+         */
+        void replay(CommandJournal journal)
+        {
+            CommandJournal.Bounds bounds = journal.replay(this::command);
+            for (Command command : commands.values())
+            {
+                // range transactions are journaled with every range they were registered with, as they may have been
+                // registered by Accept before their definition was known
+                for (Range range : ((InMemoryCommand) command).registeredRanges())
+                    commandsForRanges.add(range, command);
+
+                PartialTxn partialTxn = command.partialTxn();
+                if (partialTxn == null || partialTxn.keys().kindOfContents() != Routable.Kind.Key)
+                    continue;
+
+                for (Key key : (Keys) partialTxn.keys())
+                {
+                    if (!commandStore.hashIntersects(key))
+                        continue;
+
+                    CommandsForKey forKey = commandsForKey(key);
+                    forKey.register(command);
+                    forKey.onChange(this, command);
+                }
+            }
+
+            durableBefore = bounds.durableBefore;
+            fencedBefore = bounds.fencedBefore;
+            truncatedRangesMax = bounds.truncatedRangesMax;
+            bounds.maxConflicts.forEach(maxConflicts::update);
+        }
+
+        @Override
+        public void register(Seekables<?, ?> keysOrRanges, Ranges slice, Command command)
+        {
+            switch (keysOrRanges.kindOfContents())
+            {
+                default: throw new AssertionError();
+                case Key:
+                    forEach(keysOrRanges, slice, forKey -> forKey.register(command));
+                    break;
+                case Range:
+                    registerRanges((InMemoryCommand) command, ((Ranges) keysOrRanges).slice(slice));
+            }
+        }
+
+        @Override
+        public void register(Seekable keyOrRange, Ranges slice, Command command)
+        {
+            switch (keyOrRange.kind())
+            {
+                default: throw new AssertionError();
+                case Key:
+                    forEach(keyOrRange, slice, forKey -> forKey.register(command));
+                    break;
+                case Range:
+                    registerRanges((InMemoryCommand) command, Ranges.single((Range) keyOrRange).slice(slice));
+            }
+        }
+
+        /**
+         * Index a range transaction by the union of every range it has been registered with, so that overlapping
+         * registrations are not visited twice, and erasure knows what to remove
+         */
+        private void registerRanges(InMemoryCommand command, Ranges ranges)
+        {
+            Ranges registered = command.registeredRanges();
+            Ranges union = registered.union(ranges);
+            if (union == registered)
+                return;
+
+            for (Range range : registered)
+                commandsForRanges.remove(range, command.txnId());
+            for (Range range : union)
+                commandsForRanges.add(range, command);
+            command.setRegisteredRanges(union);
+            onUpdate(command);
         }
 
         public boolean hasCommand(TxnId txnId)
@@ -99,7 +492,14 @@ public class InMemoryCommandStore
 
         public CommandsForKey commandsForKey(Key key)
         {
-            return commandsForKey.computeIfAbsent(key, k -> new InMemoryCommandsForKey((Key) k));
+            InMemoryCommandsForKey forKey = commandsForKey.get(key);
+            if (forKey == null)
+            {
+                onMissing(key);
+                forKey = new InMemoryCommandsForKey(key, maxConflicts);
+                commandsForKey.put(key, forKey);
+            }
+            return forKey;
         }
 
         public boolean hasCommandsForKey(Key key)
@@ -109,7 +509,10 @@ public class InMemoryCommandStore
 
         public CommandsForKey maybeCommandsForKey(Key key)
         {
-            return commandsForKey.get(key);
+            InMemoryCommandsForKey forKey = commandsForKey.get(key);
+            if (forKey == null)
+                onMissing(key);
+            return forKey;
         }
 
         public void addAndInvokeListener(TxnId txnId, CommandListener listener)
@@ -172,13 +575,47 @@ public class InMemoryCommandStore
 
         private Timestamp maxConflict(Seekables<?, ?> keysOrRanges, Ranges slice)
         {
-            return mapReduce(keysOrRanges, slice, CommandsForKey::max, (a, b) -> a.compareTo(b) >= 0 ? a : b, Timestamp.NONE);
+            Timestamp max = truncatedRangesMax;
+            switch (keysOrRanges.kindOfContents())
+            {
+                default: throw new AssertionError();
+                case Key:
+                    for (Key key : (AbstractKeys<Key, ?>) keysOrRanges)
+                    {
+                        if (!slice.contains(key) || !commandStore.hashIntersects(key))
+                            continue;
+
+                        max = Timestamp.max(max, maxConflicts.get(key));
+                        if (!commandsForRanges.isEmpty())
+                            max = commandsForRanges.foldlContaining(key, State::maxConflict, max);
+                    }
+                    break;
+                case Range:
+                    for (Range range : ((Ranges) keysOrRanges).slice(slice))
+                    {
+                        max = Timestamp.max(max, maxConflicts.get(range));
+                        if (!commandsForRanges.isEmpty())
+                            max = commandsForRanges.foldlIntersecting(range, State::maxConflict, max);
+                    }
+            }
+            return max;
+        }
+
+        private static Timestamp maxConflict(Range range, Command command, Timestamp max)
+        {
+            Timestamp timestamp = command.executeAt() != null ? command.executeAt() : command.txnId();
+            return Timestamp.max(max, timestamp);
         }
 
+        /**
+         * A key transaction is found once for each of its keys, and a range transaction once for each of its ranges,
+         * so we collect what we find and visit each command only once, in TxnId order
+         */
         public void forEpochCommands(Ranges ranges, long epoch, Consumer<Command> consumer)
         {
             Timestamp minTimestamp = new Timestamp(epoch, Long.MIN_VALUE, Integer.MIN_VALUE, Node.Id.NONE);
             Timestamp maxTimestamp = new Timestamp(epoch, Long.MAX_VALUE, Integer.MAX_VALUE, Node.Id.MAX);
+            NavigableMap<TxnId, Command> found = new TreeMap<>();
             for (Range range : ranges)
             {
                 Iterable<InMemoryCommandsForKey> rangeCommands = commandsForKey.subMap(
@@ -187,15 +624,22 @@ public class InMemoryCommandStore
                 ).values();
                 for (InMemoryCommandsForKey commands : rangeCommands)
                 {
-                    commands.forWitnessed(minTimestamp, maxTimestamp, cmd -> consumer.accept((Command) cmd));
+                    commands.forWitnessed(minTimestamp, maxTimestamp, cmd -> found.putIfAbsent(((Command) cmd).txnId(), (Command) cmd));
                 }
+                commandsForRanges.foldlIntersecting(range, (r, cmd, v) -> {
+                    if (cmd.hasBeen(Status.PreAccepted) && !cmd.hasBeen(Status.Truncated) && (cmd.txnId().epoch == epoch || (cmd.hasBeen(Status.Committed) && cmd.executeAt().epoch == epoch)))
+                        found.putIfAbsent(cmd.txnId(), cmd);
+                    return v;
+                }, null);
             }
+            found.values().forEach(consumer);
         }
 
         public void forCommittedInEpoch(Ranges ranges, long epoch, Consumer<Command> consumer)
         {
             Timestamp minTimestamp = new Timestamp(epoch, Long.MIN_VALUE, Integer.MIN_VALUE, Node.Id.NONE);
             Timestamp maxTimestamp = new Timestamp(epoch, Long.MAX_VALUE, Integer.MAX_VALUE, Node.Id.MAX);
+            NavigableMap<TxnId, Command> found = new TreeMap<>();
             for (Range range : ranges)
             {
                 Iterable<InMemoryCommandsForKey> rangeCommands = commandsForKey.subMap(range.start(),
@@ -204,58 +648,81 @@ public class InMemoryCommandStore
                         range.endInclusive()).values();
                 for (InMemoryCommandsForKey commands : rangeCommands)
                 {
-                    Collection<Command> committed = commands.committedByExecuteAt()
-                            .between(minTimestamp, maxTimestamp).map(cmd -> (Command) cmd).collect(Collectors.toList());
-                    committed.forEach(consumer);
+                    commands.committedByExecuteAt().between(minTimestamp, maxTimestamp)
+                            .forEach(cmd -> found.putIfAbsent(cmd.txnId(), cmd));
                 }
+                commandsForRanges.foldlIntersecting(range, (r, cmd, v) -> {
+                    if (cmd.hasBeen(Status.Committed) && !cmd.hasBeen(Status.Truncated) && cmd.executeAt().epoch == epoch)
+                        found.putIfAbsent(cmd.txnId(), cmd);
+                    return v;
+                }, null);
             }
+            found.values().forEach(consumer);
         }
 
         public <T> T mapReduce(Routables<?, ?> keysOrRanges, Ranges slice, Function<CommandsForKey, T> map, BinaryOperator<T> reduce, T initialValue)
         {
-            switch (keysOrRanges.kindOfContents()) {
-                default:
-                    throw new AssertionError();
-                case Key:
-                    // TODO: efficiency
-                    AbstractKeys<Key, ?> keys = (AbstractKeys<Key, ?>) keysOrRanges;
-                    return keys.stream()
-                            .filter(slice::contains)
-                            .filter(commandStore::hashIntersects)
-                            .map(this::commandsForKey)
-                            .map(map)
-                            .reduce(initialValue, reduce);
-                case Range:
-                    // TODO: efficiency
-                    Ranges ranges = (Ranges) keysOrRanges;
-                    return ranges.slice(slice).stream().flatMap(range ->
-                            commandsForKey.subMap(range.start(), range.startInclusive(), range.end(), range.endInclusive()).values().stream()
-                    ).map(map).reduce(initialValue, reduce);
-            }
+            Reducer<T> reducer = new Reducer<>(map, reduce, initialValue);
+            foldl(keysOrRanges, slice, Reducer::reduce, reducer, 0, 0, 1);
+            return reducer.value;
         }
 
-        public void forEach(Routables<?, ?> keysOrRanges, Ranges slice, Consumer<CommandsForKey> forEach)
+        @Override
+        public void forEachRangeCommand(Seekables<?, ?> keysOrRanges, Ranges slice, BiConsumer<Range, Command> forEach)
         {
-            switch (keysOrRanges.kindOfContents()) {
-                default:
-                    throw new AssertionError();
+            if (commandsForRanges.isEmpty())
+                return;
+
+            RangeCommandVisitor visitor = new RangeCommandVisitor(forEach);
+            switch (keysOrRanges.kindOfContents())
+            {
+                default: throw new AssertionError();
                 case Key:
+                {
+                    // walk the keys and slice together, remembering the last key we visited within the current bound
                     AbstractKeys<Key, ?> keys = (AbstractKeys<Key, ?>) keysOrRanges;
-                    keys.forEach(slice, key -> {
-                        if (commandStore.hashIntersects(key))
-                            forEach.accept(commandsForKey(key));
-                    });
+                    Key previous = null;
+                    for (int i = 0, j = 0 ; i < keys.size() && j < slice.size() ; ++i)
+                    {
+                        Key key = keys.get(i);
+                        while (j < slice.size() && slice.get(j).compareTo(key) < 0)
+                        {
+                            ++j;
+                            previous = null;
+                        }
+                        if (j == slice.size() || slice.get(j).compareTo(key) > 0 || !commandStore.hashIntersects(key))
+                            continue;
+
+                        visitor.bound = slice.get(j);
+                        commandsForRanges.foldlContaining(key, visitor, previous);
+                        previous = key;
+                    }
                     break;
+                }
                 case Range:
+                {
+                    // the intersections of two sorted sets of disjoint ranges are themselves disjoint
                     Ranges ranges = (Ranges) keysOrRanges;
-                    // TODO: zero allocation
-                    ranges.slice(slice).forEach(range -> {
-                        commandsForKey.subMap(range.start(), range.startInclusive(), range.end(), range.endInclusive())
-                                .values().forEach(forEach);
-                    });
+                    for (int i = 0, j = 0 ; i < ranges.size() && j < slice.size() ; )
+                    {
+                        Range range = ranges.get(i), bound = slice.get(j);
+                        if (range.compareIntersecting(bound) == 0)
+                        {
+                            visitor.bound = Range.slice(bound, range);
+                            commandsForRanges.foldlIntersecting(visitor.bound, visitor, null);
+                        }
+                        if (range.end().compareTo(bound.end()) <= 0) ++i;
+                        else ++j;
+                    }
+                }
             }
         }
 
+        public void forEach(Routables<?, ?> keysOrRanges, Ranges slice, Consumer<CommandsForKey> forEach)
+        {
+            foldl(keysOrRanges, slice, State::accept, forEach, 0, 0, 1);
+        }
+
         public void forEach(Routable keyOrRange, Ranges slice, Consumer<CommandsForKey> forEach)
         {
             switch (keyOrRange.kind())
@@ -268,11 +735,114 @@ public class InMemoryCommandStore
                     break;
                 case Range:
                     Range range = (Range) keyOrRange;
-                    // TODO: zero allocation
-                    Ranges.of(range).slice(slice).forEach(r -> {
-                        commandsForKey.subMap(r.start(), r.startInclusive(), r.end(), r.endInclusive())
-                                .values().forEach(forEach);
-                    });
+                    int i = slice.findNext(0, range, SortedArrays.Search.CEIL);
+                    if (i < 0)
+                        break;
+
+                    for (; i < slice.size() && slice.get(i).compareIntersecting(range) == 0 ; ++i)
+                        foldlIntersection(slice.get(i), range, State::accept, forEach, 0, 0, 1);
+            }
+        }
+
+        /**
+         * Fold over the {@link CommandsForKey} of each key in both {@code keysOrRanges} and {@code slice}, by merging
+         * the two sorted collections directly. The key path allocates nothing beyond any {@link CommandsForKey}
+         * that must be created; the range path allocates only a {@link NavigableMap#subMap} view per intersection.
+         */
+        public <P1> long foldl(Routables<?, ?> keysOrRanges, Ranges slice, CommandsForKeyFoldToLong<P1> fold, P1 p1, long param, long initialValue, long terminalValue)
+        {
+            switch (keysOrRanges.kindOfContents()) {
+                default:
+                    throw new AssertionError();
+                case Key:
+                {
+                    AbstractKeys<Key, ?> keys = (AbstractKeys<Key, ?>) keysOrRanges;
+                    int ki = 0, ri = 0;
+                    while (true)
+                    {
+                        long kri = keys.findNextIntersection(ki, slice, ri);
+                        if (kri < 0)
+                            break;
+
+                        ki = (int) (kri);
+                        ri = (int) (kri >>> 32);
+
+                        int limit = slice.get(ri).nextHigherKeyIndex(keys, ki);
+                        for (; ki < limit ; ++ki)
+                        {
+                            Key key = keys.get(ki);
+                            if (!commandStore.hashIntersects(key))
+                                continue;
+
+                            initialValue = fold.apply(commandsForKey(key), p1, param, initialValue);
+                            if (initialValue == terminalValue)
+                                return initialValue;
+                        }
+                    }
+                    return initialValue;
+                }
+                case Range:
+                {
+                    Ranges ranges = (Ranges) keysOrRanges;
+                    int li = 0, ri = 0;
+                    while (true)
+                    {
+                        long lri = slice.findNextIntersection(li, ranges, ri);
+                        if (lri < 0)
+                            break;
+
+                        li = (int) (lri);
+                        ri = (int) (lri >>> 32);
+
+                        Range l = slice.get(li), r = ranges.get(ri);
+                        initialValue = foldlIntersection(l, r, fold, p1, param, initialValue, terminalValue);
+                        if (initialValue == terminalValue)
+                            return initialValue;
+
+                        if (l.end().compareTo(r.end()) >= 0) ri++;
+                        else li++;
+                    }
+                    return initialValue;
+                }
+            }
+        }
+
+        private <P1> long foldlIntersection(Range bound, Range range, CommandsForKeyFoldToLong<P1> fold, P1 p1, long param, long accumulate, long terminalValue)
+        {
+            RoutingKey start = range.start().compareTo(bound.start()) >= 0 ? range.start() : bound.start();
+            RoutingKey end = range.end().compareTo(bound.end()) <= 0 ? range.end() : bound.end();
+            for (InMemoryCommandsForKey forKey : commandsForKey.subMap(start, range.startInclusive(), end, range.endInclusive()).values())
+            {
+                accumulate = fold.apply(forKey, p1, param, accumulate);
+                if (accumulate == terminalValue)
+                    break;
+            }
+            return accumulate;
+        }
+
+        private static long accept(CommandsForKey forKey, Consumer<CommandsForKey> forEach, long param, long prev)
+        {
+            forEach.accept(forKey);
+            return prev;
+        }
+
+        private static class Reducer<T>
+        {
+            final Function<CommandsForKey, T> map;
+            final BinaryOperator<T> reduce;
+            T value;
+
+            Reducer(Function<CommandsForKey, T> map, BinaryOperator<T> reduce, T value)
+            {
+                this.map = map;
+                this.reduce = reduce;
+                this.value = value;
+            }
+
+            static <T> long reduce(CommandsForKey forKey, Reducer<T> reducer, long param, long prev)
+            {
+                reducer.value = reducer.reduce.apply(reducer.value, reducer.map.apply(forKey));
+                return prev;
             }
         }
     }
@@ -281,6 +851,8 @@ public class InMemoryCommandStore
     {
         public static class SynchronizedState extends State implements SyncCommandStores.SafeSyncCommandStore
         {
+            private int depth;
+
             public SynchronizedState(NodeTimeService time, Agent agent, DataStore store, ProgressLog progressLog, RangesForEpoch rangesForEpoch, CommandStore commandStore)
             {
                 super(time, agent, store, progressLog, rangesForEpoch, commandStore);
@@ -297,7 +869,7 @@ public class InMemoryCommandStore
                 AsyncPromise<T> promise = new AsyncPromise<>();
                 try
                 {
-                    T result = function.apply(this);
+                    T result = executeSync(context, function);
                     promise.trySuccess(result);
                 }
                 catch (Throwable t)
@@ -309,7 +881,17 @@ public class InMemoryCommandStore
 
             public synchronized <T> T executeSync(PreLoadContext context, Function<? super SafeCommandStore, T> function)
             {
-                return function.apply(this);
+                // operations may be nested, so only truncate once the outermost has completed
+                ++depth;
+                try
+                {
+                    return function.apply(this);
+                }
+                finally
+                {
+                    if (--depth == 0)
+                        truncate();
+                }
             }
         }
 
@@ -349,34 +931,33 @@ public class InMemoryCommandStore
         public void shutdown() {}
     }
 
-    public static class SingleThread extends CommandStore
+    /**
+     * A {@link SyncCommandStore} that runs operations whose {@link PreLoadContext#isReadOnly()} under a shared lock, so
+     * that status probes may proceed concurrently with one another, and all other operations under an exclusive lock.
+     *
+     * A read-only operation that would need to create state (such as a command not yet known to the store), or that
+     * nests a mutating operation, is abandoned and run again from the start under the exclusive lock; this is safe
+     * because it has not modified anything. Operations may be nested, as with {@link Synchronized}.
+     */
+    public static class ReadWriteLocked extends SyncCommandStore
     {
-        private class FunctionWrapper<T> extends AsyncPromise<T> implements Runnable
+        public static class ReadWriteLockedState extends State implements SyncCommandStores.SafeSyncCommandStore
         {
-            private final Function<? super SafeCommandStore, T> function;
-
-            public FunctionWrapper(Function<? super SafeCommandStore, T> function)
-            {
-                this.function = function;
-            }
-
-            @Override
-            public void run()
+            private static class RetryExclusive extends RuntimeException
             {
-                try
-                {
-                    trySuccess(function.apply(state));
-                }
-                catch (Throwable t)
+                RetryExclusive()
                 {
-                    tryFailure(t);
+                    super(null, null, false, false);
                 }
             }
-        }
 
-        class AsyncState extends State implements SafeCommandStore
-        {
-            public AsyncState(NodeTimeService time, Agent agent, DataStore store, ProgressLog progressLog, RangesForEpoch rangesForEpoch, CommandStore commandStore)
+            private static final RetryExclusive RETRY_EXCLUSIVE = new RetryExclusive();
+
+            private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+            // guarded by the write lock
+            private int depth;
+
+            public ReadWriteLockedState(NodeTimeService time, Agent agent, DataStore store, ProgressLog progressLog, RangesForEpoch rangesForEpoch, CommandStore commandStore)
             {
                 super(time, agent, store, progressLog, rangesForEpoch, commandStore);
             }
@@ -387,33 +968,291 @@ public class InMemoryCommandStore
                 return submit(context, i -> { consumer.accept(i); return null; });
             }
 
-            @Override
             public <T> Future<T> submit(PreLoadContext context, Function<? super SafeCommandStore, T> function)
             {
-                FunctionWrapper<T> future = new FunctionWrapper<>(function);
-                executor.execute(future);
-                return future;
+                AsyncPromise<T> promise = new AsyncPromise<>();
+                try
+                {
+                    T result = executeSync(context, function);
+                    promise.trySuccess(result);
+                }
+                catch (Throwable t)
+                {
+                    promise.tryFailure(t);
+                }
+                return promise;
             }
-        }
 
-        private final ExecutorService executor;
-        private final AsyncState state;
-
-        public SingleThread(int id, int generation, int shardIndex, int numShards, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch)
-        {
-            super(id, generation, shardIndex, numShards);
-            executor = Executors.newSingleThreadExecutor(r -> {
-                Thread thread = new Thread(r);
-                thread.setName(CommandStore.class.getSimpleName() + '[' + time.id() + ':' + shardIndex + ']');
-                return thread;
-            });
-            state = newState(time, agent, store, progressLogFactory, rangesForEpoch);
-        }
+            public <T> T executeSync(PreLoadContext context, Function<? super SafeCommandStore, T> function)
+            {
+                if (lock.isWriteLockedByCurrentThread())
+                    return executeExclusive(function);
 
-        AsyncState newState(NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch)
-        {
-            return new AsyncState(time, agent, store, progressLogFactory.create(this), rangesForEpoch, this);
-        }
+                if (!context.isReadOnly())
+                {
+                    // we cannot upgrade a shared lock, so restart the outermost operation exclusively
+                    if (lock.getReadHoldCount() > 0)
+                        throw RETRY_EXCLUSIVE;
+                    return executeExclusive(function);
+                }
+
+                lock.readLock().lock();
+                try
+                {
+                    return function.apply(this);
+                }
+                catch (RetryExclusive retry)
+                {
+                    if (lock.getReadHoldCount() > 1)
+                        throw retry;
+                }
+                finally
+                {
+                    lock.readLock().unlock();
+                }
+                return executeExclusive(function);
+            }
+
+            private <T> T executeExclusive(Function<? super SafeCommandStore, T> function)
+            {
+                lock.writeLock().lock();
+                ++depth;
+                try
+                {
+                    return function.apply(this);
+                }
+                finally
+                {
+                    // only truncate once the outermost operation has completed
+                    try
+                    {
+                        if (--depth == 0)
+                            truncate();
+                    }
+                    finally
+                    {
+                        lock.writeLock().unlock();
+                    }
+                }
+            }
+
+            @Override
+            public Command command(TxnId txnId)
+            {
+                if (lock.isWriteLockedByCurrentThread())
+                    return super.command(txnId);
+
+                Command command = ifPresent(txnId);
+                if (command == null)
+                    throw RETRY_EXCLUSIVE;
+                return command;
+            }
+
+            @Override
+            public CommandsForKey commandsForKey(Key key)
+            {
+                if (lock.isWriteLockedByCurrentThread())
+                    return super.commandsForKey(key);
+
+                CommandsForKey forKey = maybeCommandsForKey(key);
+                if (forKey == null)
+                    throw RETRY_EXCLUSIVE;
+                return forKey;
+            }
+
+            @Override
+            public void addAndInvokeListener(TxnId txnId, CommandListener listener)
+            {
+                if (!lock.isWriteLockedByCurrentThread())
+                    throw RETRY_EXCLUSIVE;
+                super.addAndInvokeListener(txnId, listener);
+            }
+        }
+
+        final ReadWriteLockedState state;
+
+        public ReadWriteLocked(int id, int generation, int shardIndex, int numShards, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch)
+        {
+            super(id, generation, shardIndex, numShards);
+            this.state = new ReadWriteLockedState(time, agent, store, progressLogFactory.create(this), rangesForEpoch, this);
+        }
+
+        @Override
+        public Agent agent()
+        {
+            return state.agent();
+        }
+
+        @Override
+        public Future<Void> execute(PreLoadContext context, Consumer<? super SafeCommandStore> consumer)
+        {
+            return state.execute(context, consumer);
+        }
+
+        @Override
+        public <T> Future<T> submit(PreLoadContext context, Function<? super SafeCommandStore, T> function)
+        {
+            return state.submit(context, function);
+        }
+
+        @Override
+        public <T> T executeSync(PreLoadContext context, Function<? super SafeCommandStore, T> function)
+        {
+            return state.executeSync(context, function);
+        }
+
+        @Override
+        public void shutdown() {}
+    }
+
+    public static class SingleThread extends CommandStore
+    {
+        class FunctionWrapper<T> extends BatchingExecutor.Task
+        {
+            private final Function<? super SafeCommandStore, T> function;
+            // at most one of promise and callback is set; if neither, the caller does not need the outcome,
+            // in which case any failure is reported to the agent
+            private final @Nullable AsyncPromise<T> promise;
+            private final @Nullable BiConsumer<? super T, Throwable> callback;
+            private final int priority;
+            private T result;
+            private Throwable failure;
+
+            public FunctionWrapper(Function<? super SafeCommandStore, T> function, @Nullable AsyncPromise<T> promise, Priority priority)
+            {
+                this(function, promise, null, priority);
+            }
+
+            public FunctionWrapper(Function<? super SafeCommandStore, T> function, @Nullable AsyncPromise<T> promise, @Nullable BiConsumer<? super T, Throwable> callback, Priority priority)
+            {
+                this.function = function;
+                this.promise = promise;
+                this.callback = callback;
+                this.priority = priority.ordinal();
+            }
+
+            @Override
+            public void run()
+            {
+                try
+                {
+                    result = function.apply(state);
+                }
+                catch (Throwable t)
+                {
+                    failure = t;
+                }
+                onRun(this);
+            }
+
+            @Override
+            protected void reject(RejectedExecutionException e)
+            {
+                failure = e;
+                complete();
+            }
+
+            void complete()
+            {
+                if (promise != null)
+                {
+                    if (failure == null) promise.trySuccess(result);
+                    else promise.tryFailure(failure);
+                }
+                else if (callback != null)
+                {
+                    callback.accept(result, failure);
+                }
+                else if (failure != null)
+                {
+                    state.agent().onUncaughtException(failure);
+                }
+            }
+        }
+
+        class AsyncState extends State implements SafeCommandStore
+        {
+            public AsyncState(NodeTimeService time, Agent agent, DataStore store, ProgressLog progressLog, RangesForEpoch rangesForEpoch, CommandStore commandStore)
+            {
+                super(time, agent, store, progressLog, rangesForEpoch, commandStore);
+            }
+
+            @Override
+            public Future<Void> execute(PreLoadContext context, Consumer<? super SafeCommandStore> consumer)
+            {
+                return submit(context, i -> { consumer.accept(i); return null; });
+            }
+
+            @Override
+            public <T> Future<T> submit(PreLoadContext context, Function<? super SafeCommandStore, T> function)
+            {
+                AsyncPromise<T> promise = new AsyncPromise<>();
+                enqueue(context, new FunctionWrapper<>(function, promise, context.priority()));
+                return promise;
+            }
+
+            public <T> void submit(PreLoadContext context, Function<? super SafeCommandStore, T> function, BiConsumer<? super T, Throwable> callback)
+            {
+                enqueue(context, new FunctionWrapper<>(function, null, callback, context.priority()));
+            }
+
+            public void executeDetached(PreLoadContext context, Consumer<? super SafeCommandStore> consumer)
+            {
+                enqueue(context, new FunctionWrapper<>(i -> { consumer.accept(i); return null; }, null, context.priority()));
+            }
+
+            void enqueue(PreLoadContext context, FunctionWrapper<?> task)
+            {
+                executor.execute(task, task.priority);
+            }
+        }
+
+        static final int BATCH_SIZE = 64;
+
+        final BatchingExecutor executor;
+        final AsyncState state;
+
+        public SingleThread(int id, int generation, int shardIndex, int numShards, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch)
+        {
+            this(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch, null);
+        }
+
+        /**
+         * @param carrier if non-null, the store owns no thread and instead runs as an actor on {@code carrier}
+         */
+        public SingleThread(int id, int generation, int shardIndex, int numShards, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch, @Nullable Executor carrier)
+        {
+            super(id, generation, shardIndex, numShards);
+            String name = CommandStore.class.getSimpleName() + '[' + time.id() + ':' + shardIndex + ']';
+            int priorities = Priority.values().length;
+            executor = carrier == null ? new BatchingExecutor(name, BATCH_SIZE, priorities) : BatchingExecutor.actor(name, BATCH_SIZE, priorities, carrier);
+            state = newState(time, agent, store, progressLogFactory, rangesForEpoch);
+        }
+
+        /**
+         * Stores that run as actors on virtual threads, rather than each owning a platform thread
+         * @throws UnsupportedOperationException if virtual threads are not supported by this JVM
+         */
+        public static CommandStore.Factory virtualFactory()
+        {
+            Executor carrier = VirtualThreads.executor(CommandStore.class.getSimpleName() + '-');
+            return (id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch) ->
+                   new SingleThread(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch, carrier);
+        }
+
+        /**
+         * Invoked on the store's thread once each operation has run
+         */
+        void onRun(FunctionWrapper<?> task)
+        {
+            task.complete();
+            state.truncate();
+        }
+
+        AsyncState newState(NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch)
+        {
+            return new AsyncState(time, agent, store, progressLogFactory.create(this), rangesForEpoch, this);
+        }
 
         @Override
         public Agent agent()
@@ -433,6 +1272,26 @@ public class InMemoryCommandStore
             return state.submit(context, function);
         }
 
+        @Override
+        public <T> void submit(PreLoadContext context, Function<? super SafeCommandStore, T> function, BiConsumer<? super T, Throwable> callback)
+        {
+            state.submit(context, function, callback);
+        }
+
+        @Override
+        public void executeDetached(PreLoadContext context, Consumer<? super SafeCommandStore> consumer)
+        {
+            state.executeDetached(context, consumer);
+        }
+
+        /**
+         * @return approximately the number of operations of the given priority waiting to run
+         */
+        public int queueDepth(Priority priority)
+        {
+            return executor.queueDepth(priority.ordinal());
+        }
+
         @Override
         public void shutdown()
         {
@@ -549,13 +1408,902 @@ public class InMemoryCommandStore
         }
     }
 
+    /**
+     * A {@link SingleThread} command store that records each change to its commands in a {@link CommandJournal}, and
+     * replays the journal on construction. An operation only completes once its changes have been flushed, which we do
+     * whenever the store has no more work queued or {@link #MAX_BATCH} operations are waiting, so that one flush may be
+     * shared by a batch of operations. Progress log state is not journaled.
+     *
+     * Once {@code snapshotInterval} commands have been journaled, or when {@link #snapshot()} is invoked, we write a
+     * {@link CommandJournal.Snapshot} so that a restart need only replay the journal written since. The snapshot is
+     * written by the store's own thread {@link #SNAPSHOT_SLICE} commands at a time, interleaved with other operations.
+     * The commandsForKey, including their max timestamps, are rebuilt from the commands on replay.
+     *
+     * We also journal the {@link CommandJournal.Bounds} of the store whenever they are raised, including the max of each
+     * key we erase a command of, and every key's max with each snapshot, as no command remains to rebuild these from.
+     */
+    public static class Journaling extends SingleThread
+    {
+        private static final int MAX_BATCH = 64;
+        private static final int SNAPSHOT_SLICE = 256;
+
+        class JournalingState extends AsyncState
+        {
+            private final Map<TxnId, InMemoryCommand> dirty = new LinkedHashMap<>();
+            private CommandJournal.Bounds dirtyBounds;
+            private boolean isReplaying;
+
+            public JournalingState(NodeTimeService time, Agent agent, DataStore store, ProgressLog progressLog, RangesForEpoch rangesForEpoch, CommandStore commandStore)
+            {
+                super(time, agent, store, progressLog, rangesForEpoch, commandStore);
+            }
+
+            @Override
+            void onUpdate(InMemoryCommand command)
+            {
+                if (!isReplaying)
+                    dirty.putIfAbsent(command.txnId(), command);
+            }
+
+            @Override
+            void onUpdateBounds()
+            {
+                if (dirtyBounds == null)
+                    dirtyBounds = new CommandJournal.Bounds();
+            }
+
+            @Override
+            void onErase(InMemoryCommand command)
+            {
+                onUpdateBounds();
+                PartialTxn partialTxn = command.partialTxn();
+                if (partialTxn == null || partialTxn.keys().kindOfContents() != Routable.Kind.Key)
+                    return;
+
+                for (Key key : (Keys) partialTxn.keys())
+                {
+                    Timestamp max = maxConflicts.get(key);
+                    if (!max.equals(Timestamp.NONE))
+                        dirtyBounds.update(key.toUnseekable(), max);
+                }
+            }
+        }
+
+        private final CommandJournal journal;
+        private final int snapshotInterval;
+        private final List<FunctionWrapper<?>> awaitingFlush = new ArrayList<>();
+
+        private int journaledSinceSnapshot;
+        private CommandJournal.Snapshot snapshot;
+        private TxnId snapshottedUpTo;
+        private final List<AsyncPromise<Void>> awaitingSnapshot = new ArrayList<>();
+
+        public Journaling(int id, int generation, int shardIndex, int numShards, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch, CommandJournal journal, int snapshotInterval)
+        {
+            this(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch, journal, snapshotInterval, null);
+        }
+
+        public Journaling(int id, int generation, int shardIndex, int numShards, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch, CommandJournal journal, int snapshotInterval, @Nullable Executor carrier)
+        {
+            super(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch, carrier);
+            this.journal = journal;
+            this.snapshotInterval = snapshotInterval;
+            JournalingState state = (JournalingState) this.state;
+            state.isReplaying = true;
+            state.replay(journal);
+            state.isReplaying = false;
+        }
+
+        public static CommandStore.Factory factory(File directory, int segmentSize, CommandSerializer.Serializers serializers)
+        {
+            return factory(directory, segmentSize, serializers, Integer.MAX_VALUE);
+        }
+
+        public static CommandStore.Factory factory(File directory, int segmentSize, CommandSerializer.Serializers serializers, int snapshotInterval)
+        {
+            return factory(directory, segmentSize, serializers, snapshotInterval, null);
+        }
+
+        /**
+         * @param carrier if non-null, each store owns no thread and instead runs as an actor on {@code carrier}
+         */
+        public static CommandStore.Factory factory(File directory, int segmentSize, CommandSerializer.Serializers serializers, int snapshotInterval, @Nullable Executor carrier)
+        {
+            return (id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch) -> {
+                Journal journal = new Journal(new File(directory, "store-" + id), segmentSize);
+                return new Journaling(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch,
+                                      new CommandJournal(journal, serializers), snapshotInterval, carrier);
+            };
+        }
+
+        @Override
+        AsyncState newState(NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch)
+        {
+            return new JournalingState(time, agent, store, progressLogFactory.create(this), rangesForEpoch, this);
+        }
+
+        @Override
+        void onRun(FunctionWrapper<?> task)
+        {
+            JournalingState state = (JournalingState) this.state;
+            Map<TxnId, InMemoryCommand> dirty = state.dirty;
+            try
+            {
+                for (InMemoryCommand command : dirty.values())
+                    journal.append(command);
+                if (state.dirtyBounds != null)
+                {
+                    state.bounds(state.dirtyBounds);
+                    journal.append(state.dirtyBounds);
+                }
+            }
+            catch (Throwable t)
+            {
+                task.failure = t;
+            }
+            journaledSinceSnapshot += dirty.size();
+            dirty.clear();
+            state.dirtyBounds = null;
+
+            awaitingFlush.add(task);
+            if (snapshot == null && journaledSinceSnapshot >= snapshotInterval)
+                beginSnapshot();
+            if (awaitingFlush.size() >= MAX_BATCH || executor.isEmpty())
+                flush();
+        }
+
+        /**
+         * Write a snapshot of this store, or wait for the one in progress to complete
+         */
+        public Future<Void> snapshot()
+        {
+            AsyncPromise<Void> result = new AsyncPromise<>();
+            executor.execute(() -> {
+                awaitingSnapshot.add(result);
+                if (snapshot == null)
+                    beginSnapshot();
+            });
+            return result;
+        }
+
+        private void beginSnapshot()
+        {
+            journaledSinceSnapshot = 0;
+            try
+            {
+                snapshot = journal.beginSnapshot();
+                snapshottedUpTo = null;
+                executor.execute(this::continueSnapshot, Priority.HOUSEKEEPING.ordinal());
+            }
+            catch (Throwable t)
+            {
+                completeSnapshot(t);
+            }
+        }
+
+        private void continueSnapshot()
+        {
+            if (snapshot == null)
+                return;
+
+            // don't hold up operations awaiting a flush behind the snapshot
+            if (!awaitingFlush.isEmpty())
+                flush();
+
+            try
+            {
+                NavigableMap<TxnId, Command> commands = snapshottedUpTo == null ? state.commands : state.commands.tailMap(snapshottedUpTo, false);
+                int count = 0;
+                for (Command command : commands.values())
+                {
+                    if (count++ == SNAPSHOT_SLICE)
+                    {
+                        executor.execute(this::continueSnapshot, Priority.HOUSEKEEPING.ordinal());
+                        return;
+                    }
+                    snapshot.append((InMemoryCommand) command);
+                    snapshottedUpTo = command.txnId();
+                }
+
+                CommandJournal.Bounds bounds = new CommandJournal.Bounds();
+                state.bounds(bounds);
+                state.maxConflicts.forEach((key, max) -> bounds.update(key.toUnseekable(), max));
+                snapshot.append(bounds);
+                snapshot.complete();
+                completeSnapshot(null);
+            }
+            catch (Throwable t)
+            {
+                completeSnapshot(t);
+            }
+        }
+
+        private void completeSnapshot(@Nullable Throwable failure)
+        {
+            if (failure != null && snapshot != null)
+                snapshot.abort();
+            snapshot = null;
+            snapshottedUpTo = null;
+
+            for (AsyncPromise<Void> waiting : awaitingSnapshot)
+            {
+                if (failure == null) waiting.trySuccess(null);
+                else waiting.tryFailure(failure);
+            }
+            awaitingSnapshot.clear();
+        }
+
+        private void flush()
+        {
+            try
+            {
+                journal.flush();
+            }
+            catch (Throwable t)
+            {
+                for (FunctionWrapper<?> task : awaitingFlush)
+                    task.failure = t;
+            }
+
+            for (FunctionWrapper<?> task : awaitingFlush)
+                task.complete();
+            awaitingFlush.clear();
+            state.truncate();
+        }
+
+        @Override
+        public void shutdown()
+        {
+            executor.execute(() -> {
+                flush();
+                if (snapshot != null)
+                    completeSnapshot(new IllegalStateException("Command store was shutdown before the snapshot completed"));
+                journal.close();
+            });
+            super.shutdown();
+        }
+    }
+
+    /**
+     * A {@link SingleThread} command store that keeps the commands and commandsForKey in memory within approximately
+     * {@code budget} bytes, by evicting those least recently used to a {@link BackingStore}.
+     *
+     * We evict only what nothing else in memory refers to, so that it may later be restored as a new object without
+     * anybody noticing: a command stays put while it has listeners, listens to another command, is listed by a
+     * commandsForKey or is indexed by range, as does a commandsForKey while it lists any uncommitted command (as it
+     * listens to these). An evicted commandsForKey retains only its max and the TxnId of each command it lists.
+     *
+     * Before an operation runs we asynchronously load anything evicted that its {@link PreLoadContext} names, and then
+     * any evicted command listed by a commandsForKey we loaded; the store never waits for its backing store, so an
+     * operation that asks for anything else that has been evicted fails. We consider an entry used when an operation
+     * names, creates or updates it, and estimate its weight from the size of its transaction and dependencies, or
+     * of its timeseries.
+     */
+    public static class Caching extends SingleThread
+    {
+        public interface BackingStore
+        {
+            Future<byte[]> loadCommand(TxnId txnId);
+            void saveCommand(TxnId txnId, byte[] bytes);
+            Future<byte[]> loadCommandsForKey(Key key);
+            void saveCommandsForKey(Key key, byte[] bytes);
+        }
+
+        private static final int COMMAND_WEIGHT = 256, FOR_KEY_WEIGHT = 128, ENTRY_WEIGHT = 48;
+
+        /**
+         * A batch of evicted commands and commandsForKey to load, each noting the eviction it was loaded for,
+         * so that we do not restore anything that has since been restored, updated and evicted again
+         */
+        class Load
+        {
+            final List<TxnId> txnIds = new ArrayList<>();
+            final List<Key> keys = new ArrayList<>();
+            private long[] commandEvictions, keyEvictions;
+            private byte[][] loadedCommands, loadedKeys;
+            private Timestamp[] maxes;
+            private TxnId[][] listed;
+
+            boolean isEmpty()
+            {
+                return txnIds.isEmpty() && keys.isEmpty();
+            }
+
+            /**
+             * Load everything, and then run {@code onLoaded} on the store's thread; if anything fails, so does {@code task}
+             */
+            void start(FunctionWrapper<?> task, Runnable onLoaded)
+            {
+                CachingState state = (CachingState) Caching.this.state;
+                commandEvictions = new long[txnIds.size()];
+                keyEvictions = new long[keys.size()];
+                loadedCommands = new byte[txnIds.size()][];
+                loadedKeys = new byte[keys.size()][];
+                for (int i = 0 ; i < txnIds.size() ; ++i)
+                    commandEvictions[i] = state.evictedCommands.get(txnIds.get(i)).eviction;
+                for (int i = 0 ; i < keys.size() ; ++i)
+                    keyEvictions[i] = state.evictedKeys.get(keys.get(i));
+
+                AtomicInteger remaining = new AtomicInteger(txnIds.size() + keys.size());
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                Runnable onDone = () -> {
+                    try
+                    {
+                        executor.execute(() -> {
+                            try
+                            {
+                                if (failure.get() != null)
+                                    throw failure.get();
+                                onLoaded.run();
+                            }
+                            catch (Throwable t)
+                            {
+                                task.failure = t;
+                                onRun(task);
+                            }
+                        }, task.priority);
+                    }
+                    catch (RejectedExecutionException e)
+                    {
+                        task.reject(e);
+                    }
+                };
+
+                for (int i = 0 ; i < txnIds.size() ; ++i)
+                {
+                    int index = i;
+                    backingStore.loadCommand(txnIds.get(i)).addCallback((bytes, fail) -> {
+                        if (fail != null) failure.set(fail);
+                        else loadedCommands[index] = bytes;
+                        if (remaining.decrementAndGet() == 0)
+                            onDone.run();
+                    });
+                }
+                for (int i = 0 ; i < keys.size() ; ++i)
+                {
+                    int index = i;
+                    backingStore.loadCommandsForKey(keys.get(i)).addCallback((bytes, fail) -> {
+                        if (fail != null) failure.set(fail);
+                        else loadedKeys[index] = bytes;
+                        if (remaining.decrementAndGet() == 0)
+                            onDone.run();
+                    });
+                }
+            }
+
+            void restoreCommands()
+            {
+                CachingState state = (CachingState) Caching.this.state;
+                for (int i = 0 ; i < txnIds.size() ; ++i)
+                    state.restore(txnIds.get(i), commandEvictions[i], loadedCommands[i]);
+            }
+
+            /**
+             * Collect the evicted commands listed by the commandsForKey we loaded
+             */
+            void collectEvicted(Set<TxnId> into)
+            {
+                CachingState state = (CachingState) Caching.this.state;
+                if (listed == null)
+                {
+                    maxes = new Timestamp[keys.size()];
+                    listed = new TxnId[keys.size()][];
+                    for (int i = 0 ; i < keys.size() ; ++i)
+                    {
+                        if (loadedKeys[i] == null)
+                            throw new IllegalStateException("Evicted commandsForKey " + keys.get(i) + " was not found in the backing store");
+                        try
+                        {
+                            DataInputStream in = new DataInputStream(new ByteArrayInputStream(loadedKeys[i]));
+                            maxes[i] = CommandSerializer.deserializeTimestamp(in);
+                            listed[i] = new TxnId[in.readInt()];
+                            for (int j = 0 ; j < listed[i].length ; ++j)
+                                listed[i][j] = CommandSerializer.deserializeTxnId(in);
+                        }
+                        catch (IOException e)
+                        {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+
+                for (TxnId[] txnIds : listed)
+                {
+                    for (TxnId txnId : txnIds)
+                    {
+                        if (state.evictedCommands.containsKey(txnId))
+                            into.add(txnId);
+                    }
+                }
+            }
+
+            void restoreCommandsForKey()
+            {
+                CachingState state = (CachingState) Caching.this.state;
+                for (int i = 0 ; i < keys.size() ; ++i)
+                    state.restore(keys.get(i), keyEvictions[i], maxes[i], listed[i]);
+            }
+        }
+
+        /**
+         * What we remember of an evicted command without loading it: the eviction that wrote it to the backing store,
+         * and enough to decide if it may be erased, or must be reported when agreeing a durableBefore
+         */
+        static class Evicted
+        {
+            final long eviction;
+            final SaveStatus status;
+            final Timestamp executeAt;
+            final @Nullable Seekables<?, ?> keys;
+
+            Evicted(long eviction, SaveStatus status, Timestamp executeAt, @Nullable Seekables<?, ?> keys)
+            {
+                this.eviction = eviction;
+                this.status = status;
+                this.executeAt = executeAt;
+                this.keys = keys;
+            }
+        }
+
+        class CachingState extends AsyncState
+        {
+            private final NavigableMap<TxnId, Evicted> evictedCommands = new TreeMap<>();
+            // the eviction that wrote each evicted commandsForKey to the backing store
+            private final NavigableMap<RoutableKey, Long> evictedKeys = new TreeMap<>();
+            private long evictions;
+
+            // the TxnId or key of everything in memory, least recently used first, with the weight we last estimated
+            private final LinkedHashMap<Object, Integer> lru = new LinkedHashMap<>(16, 0.75f, true);
+            private long weight;
+            // what has been used since we last accounted for it
+            private final List<Object> used = new ArrayList<>();
+
+            public CachingState(NodeTimeService time, Agent agent, DataStore store, ProgressLog progressLog, RangesForEpoch rangesForEpoch, CommandStore commandStore)
+            {
+                super(time, agent, store, progressLog, rangesForEpoch, commandStore);
+            }
+
+            @Override
+            void enqueue(PreLoadContext context, FunctionWrapper<?> task)
+            {
+                executor.execute(new BatchingExecutor.Task()
+                {
+                    @Override
+                    public void run()
+                    {
+                        preload(context, task);
+                    }
+
+                    @Override
+                    protected void reject(RejectedExecutionException e)
+                    {
+                        task.reject(e);
+                    }
+                }, task.priority);
+            }
+
+            /**
+             * Run the task once everything evicted that it names, and every command listed by those commandsForKey,
+             * is in memory; as other operations may run while we load, we check again each time we restore anything
+             */
+            private void preload(@Nullable PreLoadContext context, FunctionWrapper<?> task)
+            {
+                Load load = new Load();
+                if (context != null)
+                {
+                    for (TxnId txnId : context.txnIds())
+                    {
+                        if (evictedCommands.containsKey(txnId))
+                            load.txnIds.add(txnId);
+                    }
+
+                    Seekables<?, ?> keysOrRanges = context.keys();
+                    switch (keysOrRanges.kindOfContents())
+                    {
+                        default: throw new AssertionError();
+                        case Key:
+                            for (Key key : (Keys) keysOrRanges)
+                            {
+                                if (evictedKeys.containsKey(key))
+                                    load.keys.add(key);
+                            }
+                            break;
+                        case Range:
+                            for (Range range : (Ranges) keysOrRanges)
+                            {
+                                for (RoutableKey key : evictedKeys.subMap(range.start(), range.startInclusive(), range.end(), range.endInclusive()).keySet())
+                                    load.keys.add((Key) key);
+                            }
+                    }
+                }
+
+                if (load.isEmpty())
+                {
+                    if (context != null)
+                        use(context);
+                    task.run();
+                    return;
+                }
+
+                load.start(task, () -> {
+                    load.restoreCommands();
+                    Set<TxnId> listed = new TreeSet<>();
+                    load.collectEvicted(listed);
+                    if (listed.isEmpty())
+                    {
+                        load.restoreCommandsForKey();
+                        preload(context, task);
+                        return;
+                    }
+
+                    Load cascade = new Load();
+                    cascade.txnIds.addAll(listed);
+                    cascade.start(task, () -> {
+                        cascade.restoreCommands();
+                        load.restoreCommandsForKey();
+                        preload(context, task);
+                    });
+                });
+            }
+
+            private void restore(TxnId txnId, long eviction, byte[] bytes)
+            {
+                Evicted evicted = evictedCommands.get(txnId);
+                if (evicted == null || evicted.eviction != eviction)
+                    return;
+
+                if (bytes == null)
+                    throw new IllegalStateException("Evicted command " + txnId + " was not found in the backing store");
+                evictedCommands.remove(txnId);
+                InMemoryCommand command = new InMemoryCommand(commandStore(), txnId);
+                commands.put(txnId, command);
+                serializer.deserialize(bytes, command);
+                used.add(txnId);
+            }
+
+            private void restore(Key key, long eviction, Timestamp max, TxnId[] listed)
+            {
+                Long evicted = evictedKeys.get(key);
+                if (evicted == null || evicted != eviction)
+                    return;
+
+                for (TxnId txnId : listed)
+                {
+                    // evicted again while we were loading it; we will try again
+                    if (evictedCommands.containsKey(txnId))
+                        return;
+                }
+
+                evictedKeys.remove(key);
+                InMemoryCommandsForKey forKey = new InMemoryCommandsForKey(key, maxConflicts);
+                forKey.updateMax(max);
+                for (TxnId txnId : listed)
+                {
+                    Command command = commands.get(txnId);
+                    if (command == null)
+                        continue;
+
+                    forKey.committedById().add(txnId, command);
+                    forKey.committedByExecuteAt().add(command.executeAt(), command);
+                }
+                commandsForKey.put(key, forKey);
+                used.add(key);
+            }
+
+            private void use(PreLoadContext context)
+            {
+                for (TxnId txnId : context.txnIds())
+                    used.add(txnId);
+                if (context.keys().kindOfContents() == Routable.Kind.Key)
+                {
+                    for (Key key : (Keys) context.keys())
+                        used.add(key);
+                }
+            }
+
+            @Override
+            void onMissing(TxnId txnId)
+            {
+                if (evictedCommands.containsKey(txnId))
+                    throw new IllegalStateException(txnId + " has been evicted, but was not named by the operation's PreLoadContext");
+                used.add(txnId);
+            }
+
+            @Override
+            void onMissing(Key key)
+            {
+                if (evictedKeys.containsKey(key))
+                    throw new IllegalStateException("The commandsForKey of " + key + " has been evicted, but was not named by the operation's PreLoadContext");
+                used.add(key);
+            }
+
+            @Override
+            void onUpdate(InMemoryCommand command)
+            {
+                if (used.isEmpty() || !used.get(used.size() - 1).equals(command.txnId()))
+                    used.add(command.txnId());
+            }
+
+            @Override
+            TxnId nextKnown(TxnId after)
+            {
+                TxnId next = super.nextKnown(after);
+                TxnId nextEvicted = after == null ? (evictedCommands.isEmpty() ? null : evictedCommands.firstKey()) : evictedCommands.higherKey(after);
+                if (next == null || nextEvicted == null)
+                    return next == null ? nextEvicted : next;
+                return next.compareTo(nextEvicted) <= 0 ? next : nextEvicted;
+            }
+
+            /**
+             * An evicted command has no listeners, as it could not otherwise have been evicted
+             */
+            @Override
+            boolean isErasable(TxnId txnId)
+            {
+                Evicted evicted = evictedCommands.get(txnId);
+                return evicted == null ? super.isErasable(txnId) : isErasable(evicted.status, evicted.executeAt);
+            }
+
+            @Override
+            boolean forEachKnownBefore(Timestamp before, KnownVisitor visitor)
+            {
+                if (!super.forEachKnownBefore(before, visitor))
+                    return false;
+
+                for (Map.Entry<TxnId, Evicted> e : evictedCommands.headMap(new TxnId(before), false).entrySet())
+                {
+                    Evicted evicted = e.getValue();
+                    if (!visitor.visit(e.getKey(), evicted.status, evicted.executeAt, evicted.keys))
+                        return false;
+                }
+                return true;
+            }
+
+            /**
+             * An evicted command is listed by no commandsForKey in memory, and by no range index, so we need only
+             * forget it; any evicted commandsForKey that lists it will skip it when restored
+             */
+            @Override
+            void erase(TxnId txnId)
+            {
+                if (evictedCommands.remove(txnId) == null)
+                    super.erase(txnId);
+            }
+
+            /**
+             * Commands listed only by evicted commandsForKey are not found by walking those in memory, so we instead
+             * consider every command this store knows. Evicted commands are read back from the backing store without
+             * being restored; we must wait for them, but this only serves topology sync, which is rare.
+             */
+            @Override
+            public void forEpochCommands(Ranges ranges, long epoch, Consumer<Command> consumer)
+            {
+                forEachKnown(ranges, command -> command.hasBeen(Status.PreAccepted) && !command.hasBeen(Status.Truncated)
+                                                && (command.txnId().epoch == epoch || (command.hasBeen(Status.Committed) && command.executeAt().epoch == epoch)),
+                             consumer);
+            }
+
+            @Override
+            public void forCommittedInEpoch(Ranges ranges, long epoch, Consumer<Command> consumer)
+            {
+                forEachKnown(ranges, command -> command.hasBeen(Status.Committed) && !command.hasBeen(Status.Truncated)
+                                                && command.executeAt().epoch == epoch,
+                             consumer);
+            }
+
+            private void forEachKnown(Ranges ranges, Predicate<Command> include, Consumer<Command> consumer)
+            {
+                Predicate<Command> matches = command -> command.partialTxn() != null && command.partialTxn().keys().intersects(ranges) && include.test(command);
+                NavigableMap<TxnId, Command> found = new TreeMap<>();
+                for (Command command : commands.values())
+                {
+                    if (matches.test(command))
+                        found.put(command.txnId(), command);
+                }
+
+                List<TxnId> txnIds = new ArrayList<>(evictedCommands.keySet());
+                List<Future<byte[]>> loading = new ArrayList<>(txnIds.size());
+                for (TxnId txnId : txnIds)
+                    loading.add(backingStore.loadCommand(txnId));
+                for (int i = 0 ; i < txnIds.size() ; ++i)
+                {
+                    InMemoryCommand command = new InMemoryCommand(null, txnIds.get(i));
+                    serializer.deserialize(loading.get(i).syncUninterruptibly().getNow(), command);
+                    if (matches.test(command))
+                        found.put(command.txnId(), command);
+                }
+                found.values().forEach(consumer);
+            }
+
+            /**
+             * Walk from the least recently used, evicting whatever nothing in memory holds; evicting a commandsForKey
+             * releases the commands it lists, which we may already have passed over, so we reconsider these at once;
+             * anything still pinned is moved to the most recently used end, so that we next consider whatever we have not
+             */
+            void evict()
+            {
+                for (Object id : used)
+                    account(id);
+                used.clear();
+
+                List<Map.Entry<Object, Integer>> pinned = new ArrayList<>();
+                List<Object> released = new ArrayList<>();
+                Iterator<Map.Entry<Object, Integer>> iter = lru.entrySet().iterator();
+                while (weight > budget && iter.hasNext())
+                {
+                    Map.Entry<Object, Integer> entry = iter.next();
+                    if (entry.getKey() instanceof TxnId)
+                    {
+                        if (evict((TxnId) entry.getKey()))
+                        {
+                            weight -= entry.getValue();
+                            iter.remove();
+                        }
+                        else
+                        {
+                            pinned.add(entry);
+                        }
+                    }
+                    else if (evict((Key) entry.getKey()))
+                    {
+                        weight -= entry.getValue();
+                        iter.remove();
+                        pinned.removeIf(maybe -> {
+                            if (weight <= budget || !(maybe.getKey() instanceof TxnId) || !evict((TxnId) maybe.getKey()))
+                                return false;
+                            weight -= maybe.getValue();
+                            released.add(maybe.getKey());
+                            return true;
+                        });
+                    }
+                    else
+                    {
+                        pinned.add(entry);
+                    }
+                }
+
+                released.forEach(lru::remove);
+                pinned.forEach(entry -> lru.get(entry.getKey()));
+            }
+
+            /**
+             * Re-estimate the weight of something we have used, which may no longer be in memory
+             */
+            private void account(Object id)
+            {
+                int estimate = -1;
+                if (id instanceof TxnId)
+                {
+                    Command command = commands.get(id);
+                    if (command != null)
+                        estimate = weigh((InMemoryCommand) command);
+                }
+                else
+                {
+                    InMemoryCommandsForKey forKey = commandsForKey.get(id);
+                    if (forKey != null)
+                        estimate = weigh(forKey);
+                }
+
+                Integer prev = estimate < 0 ? lru.remove(id) : lru.put(id, estimate);
+                weight += Math.max(estimate, 0) - (prev == null ? 0 : prev);
+            }
+
+            private boolean evict(TxnId txnId)
+            {
+                InMemoryCommand command = (InMemoryCommand) commands.get(txnId);
+                if (command == null)
+                    return true;
+                if (!command.isEvictable())
+                    return false;
+
+                byte[] bytes = serializer.serialize(command);
+                backingStore.saveCommand(txnId, Arrays.copyOf(bytes, serializer.size()));
+                commands.remove(txnId);
+                PartialTxn partialTxn = command.partialTxn();
+                evictedCommands.put(txnId, new Evicted(++evictions, command.saveStatus(), command.executeAt(), partialTxn == null ? null : partialTxn.keys()));
+                return true;
+            }
+
+            private boolean evict(Key key)
+            {
+                InMemoryCommandsForKey forKey = commandsForKey.get(key);
+                if (forKey == null)
+                    return true;
+                if (!forKey.uncommitted().isEmpty())
+                    return false;
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try
+                {
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    CommandSerializer.serialize(forKey.max(), out);
+                    out.writeInt(forKey.committedById().size());
+                    for (Iterator<Command> listed = forKey.committedById().all().iterator() ; listed.hasNext() ; )
+                        CommandSerializer.serialize(listed.next().txnId(), out);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                backingStore.saveCommandsForKey(key, bytes.toByteArray());
+                forKey.release();
+                commandsForKey.remove(key);
+                evictedKeys.put(key, ++evictions);
+                return true;
+            }
+        }
+
+        private static int weigh(InMemoryCommand command)
+        {
+            int weight = COMMAND_WEIGHT;
+            if (command.partialTxn() != null)
+                weight += ENTRY_WEIGHT * command.partialTxn().keys().size();
+            if (command.partialDeps() != null)
+                weight += ENTRY_WEIGHT * (command.partialDeps().keys().size() + command.partialDeps().txnIdCount());
+            return weight;
+        }
+
+        private static int weigh(InMemoryCommandsForKey forKey)
+        {
+            return FOR_KEY_WEIGHT + ENTRY_WEIGHT * (forKey.uncommitted().size() + forKey.committedById().size() + forKey.committedByExecuteAt().size());
+        }
+
+        private final BackingStore backingStore;
+        private final CommandSerializer serializer;
+        private final long budget;
+
+        /**
+         * @param budget the approximate number of bytes of commands and commandsForKey to keep in memory
+         */
+        public Caching(int id, int generation, int shardIndex, int numShards, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch, BackingStore backingStore, CommandSerializer.Serializers serializers, long budget)
+        {
+            super(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch);
+            this.backingStore = backingStore;
+            this.serializer = new CommandSerializer(serializers);
+            this.budget = budget;
+        }
+
+        public static CommandStore.Factory factory(IntFunction<BackingStore> backingStores, CommandSerializer.Serializers serializers, long budget)
+        {
+            return (id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch) ->
+                   new Caching(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch,
+                               backingStores.apply(id), serializers, budget);
+        }
+
+        @Override
+        AsyncState newState(NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, RangesForEpoch rangesForEpoch)
+        {
+            return new CachingState(time, agent, store, progressLogFactory.create(this), rangesForEpoch, this);
+        }
+
+        /**
+         * @return the estimated weight of the commands and commandsForKey in memory, as of the last operation to run
+         */
+        long weight()
+        {
+            return ((CachingState) state).weight;
+        }
+
+        @Override
+        void onRun(FunctionWrapper<?> task)
+        {
+            super.onRun(task);
+            ((CachingState) state).evict();
+        }
+    }
+
     public static State inMemory(CommandStore unsafeStore)
     {
-        return (unsafeStore instanceof Synchronized) ? ((Synchronized) unsafeStore).state : ((SingleThread) unsafeStore).state;
+        if (unsafeStore instanceof Synchronized) return ((Synchronized) unsafeStore).state;
+        if (unsafeStore instanceof ReadWriteLocked) return ((ReadWriteLocked) unsafeStore).state;
+        return ((SingleThread) unsafeStore).state;
     }
 
     public static State inMemory(SafeCommandStore safeStore)
     {
-        return (safeStore instanceof SynchronizedState) ? ((SynchronizedState) safeStore) : ((AsyncState) safeStore);
+        if (safeStore instanceof SynchronizedState) return (SynchronizedState) safeStore;
+        if (safeStore instanceof ReadWriteLocked.ReadWriteLockedState) return (ReadWriteLocked.ReadWriteLockedState) safeStore;
+        return (AsyncState) safeStore;
     }
 }
@@ -39,6 +39,16 @@ public class InMemoryCommandStores
             super(num, node, agent, store, progressLogFactory, InMemoryCommandStore.Synchronized::new);
         }
 
+        public Synchronized(int num, Partitioning partitioning, Node node, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory)
+        {
+            super(num, partitioning, node, agent, store, progressLogFactory, InMemoryCommandStore.Synchronized::new);
+        }
+
+        public Synchronized(int num, Partitioning partitioning, Node node, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory)
+        {
+            super(num, partitioning, node, agent, store, progressLogFactory, shardFactory);
+        }
+
         public <T> T mapReduce(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduce<? super SafeCommandStore, T> map)
         {
             return super.mapReduce(context, keys, minEpoch, maxEpoch, map, SyncMapReduceAdapter.instance());
@@ -62,6 +72,22 @@ public class InMemoryCommandStores
         }
     }
 
+    /**
+     * Command stores that run read-only operations concurrently with one another
+     */
+    public static class ReadWriteLocked extends InMemoryCommandStores.Synchronized
+    {
+        public ReadWriteLocked(int num, Node node, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory)
+        {
+            this(num, Partitioning.HASH, node, agent, store, progressLogFactory);
+        }
+
+        public ReadWriteLocked(int num, Partitioning partitioning, Node node, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory)
+        {
+            super(num, partitioning, node, agent, store, progressLogFactory, InMemoryCommandStore.ReadWriteLocked::new);
+        }
+    }
+
     public static class SingleThread extends AsyncCommandStores
     {
         public SingleThread(int num, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory)
@@ -69,10 +95,31 @@ public class InMemoryCommandStores
             super(num, time, agent, store, progressLogFactory, InMemoryCommandStore.SingleThread::new);
         }
 
+        public SingleThread(int num, Partitioning partitioning, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory)
+        {
+            super(num, partitioning, time, agent, store, progressLogFactory, InMemoryCommandStore.SingleThread::new);
+        }
+
         public SingleThread(int num, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory)
         {
             super(num, time, agent, store, progressLogFactory, shardFactory);
         }
+
+        public SingleThread(int num, Partitioning partitioning, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory)
+        {
+            super(num, partitioning, time, agent, store, progressLogFactory, shardFactory);
+        }
+    }
+
+    /**
+     * Command stores that run as actors on virtual threads; requires JDK 21 or later
+     */
+    public static class Virtual extends InMemoryCommandStores.SingleThread
+    {
+        public Virtual(int num, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory)
+        {
+            super(num, time, agent, store, progressLogFactory, InMemoryCommandStore.SingleThread.virtualFactory());
+        }
     }
 
     public static class Debug extends InMemoryCommandStores.SingleThread
@@ -27,10 +27,10 @@ import accord.primitives.TxnId;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.Arrays;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static accord.local.CommandsForKey.CommandTimeseries.TestDep.*;
@@ -41,9 +41,30 @@ import static accord.primitives.Txn.Kind.WRITE;
 
 public class InMemoryCommandsForKey extends CommandsForKey
 {
+    /**
+     * A timeseries of commands sorted by the timestamp they were inserted with, stored as parallel arrays so that
+     * each entry costs only its primitive columns and a reference to the command, rather than a tree node.
+     *
+     * The timestamp components are flattened into primitive columns that are compared directly by binary search,
+     * without dereferencing the command. The txn kind is fixed once a command is registered, so it is also
+     * captured as a byte column, while status is consulted on the command itself as it is not tracked here.
+     *
+     * Timestamps are ordinarily inserted in ascending order, in which case insertion is an append.
+     */
     public static class InMemoryCommandTimeseries<T> implements CommandTimeseries<T>
     {
-        private final NavigableMap<Timestamp, Command> commands = new TreeMap<>();
+        private static final int INITIAL_CAPACITY = 4;
+        private static final long[] NO_LONGS = new long[0];
+        private static final int[] NO_INTS = new int[0];
+        private static final byte[] NO_BYTES = new byte[0];
+        private static final Command[] NO_COMMANDS = new Command[0];
+        private static final byte UNKNOWN_KIND = -1;
+
+        private long[] epochs = NO_LONGS, reals = NO_LONGS, nodes = NO_LONGS;
+        private int[] logicals = NO_INTS;
+        private byte[] kinds = NO_BYTES;
+        private Command[] commands = NO_COMMANDS;
+        private int size;
 
         final Function<Command, T> map;
 
@@ -55,55 +76,208 @@ public class InMemoryCommandsForKey extends CommandsForKey
         @Override
         public void add(Timestamp timestamp, Command command)
         {
-            if (commands.containsKey(timestamp) && !commands.get(timestamp).equals(command))
-                throw new IllegalStateException(String.format("Attempting to overwrite command at timestamp %s %s with %s.",
-                                                              timestamp, commands.get(timestamp), command));
+            int i = size == 0 || compareTo(size - 1, timestamp) < 0 ? -1 - size : find(timestamp);
+            if (i >= 0)
+            {
+                if (!commands[i].equals(command))
+                    throw new IllegalStateException(String.format("Attempting to overwrite command at timestamp %s %s with %s.",
+                                                                  timestamp, commands[i], command));
+                if (commands[i] != command)
+                {
+                    unreference(commands[i]);
+                    reference(command);
+                }
+                commands[i] = command;
+                return;
+            }
+
+            i = -1 - i;
+            if (size == commands.length)
+                resize(Math.max(INITIAL_CAPACITY, size + (size >> 1)));
 
-            commands.put(timestamp, command);
+            if (i < size)
+            {
+                System.arraycopy(epochs, i, epochs, i + 1, size - i);
+                System.arraycopy(reals, i, reals, i + 1, size - i);
+                System.arraycopy(logicals, i, logicals, i + 1, size - i);
+                System.arraycopy(nodes, i, nodes, i + 1, size - i);
+                System.arraycopy(kinds, i, kinds, i + 1, size - i);
+                System.arraycopy(commands, i, commands, i + 1, size - i);
+            }
+
+            epochs[i] = timestamp.epoch;
+            reals[i] = timestamp.real;
+            logicals[i] = timestamp.logical;
+            nodes[i] = timestamp.node.id;
+            kinds[i] = command.kind() == null ? UNKNOWN_KIND : (byte) command.kind().ordinal();
+            commands[i] = command;
+            reference(command);
+            ++size;
         }
 
         @Override
         public void remove(Timestamp timestamp)
         {
-            commands.remove(timestamp);
+            int i = find(timestamp);
+            if (i < 0)
+                return;
+
+            unreference(commands[i]);
+            int tail = size - (i + 1);
+            if (tail > 0)
+            {
+                System.arraycopy(epochs, i + 1, epochs, i, tail);
+                System.arraycopy(reals, i + 1, reals, i, tail);
+                System.arraycopy(logicals, i + 1, logicals, i, tail);
+                System.arraycopy(nodes, i + 1, nodes, i, tail);
+                System.arraycopy(kinds, i + 1, kinds, i, tail);
+                System.arraycopy(commands, i + 1, commands, i, tail);
+            }
+            commands[--size] = null;
+
+            if (size == 0) resize(0);
+            else if (size < commands.length / 4 && commands.length > INITIAL_CAPACITY) resize(size * 2);
+        }
+
+        /**
+         * Remove every entry
+         */
+        void clear()
+        {
+            for (int i = 0 ; i < size ; ++i)
+                unreference(commands[i]);
+            size = 0;
+            resize(0);
+        }
+
+        private static void reference(Command command)
+        {
+            if (command instanceof InMemoryCommand)
+                ((InMemoryCommand) command).addReference();
+        }
+
+        private static void unreference(Command command)
+        {
+            if (command instanceof InMemoryCommand)
+                ((InMemoryCommand) command).removeReference();
         }
 
         @Override
         public boolean isEmpty()
         {
-            return commands.isEmpty();
+            return size == 0;
+        }
+
+        public int size()
+        {
+            return size;
         }
 
         @Override
         public Stream<T> before(@Nonnull Timestamp timestamp, @Nonnull TestKind testKind, @Nonnull TestDep testDep, @Nullable TxnId depId, @Nonnull TestStatus testStatus, @Nullable Status status)
         {
-            return commands.headMap(timestamp, false).values().stream()
-                    .filter(cmd -> testKind == RorWs || cmd.kind() == WRITE)
-                    // If we don't have any dependencies, we treat a dependency filter as a mismatch
-                    .filter(cmd -> testDep == ANY_DEPS || (cmd.known().deps != DepsUnknown && (cmd.partialDeps().contains(depId) ^ (testDep == WITHOUT))))
-                    .filter(cmd -> TestStatus.test(cmd.status(), testStatus, status))
-                    .map(map);
+            return select(0, ceil(timestamp), testKind, testDep, depId, testStatus, status);
         }
 
         @Override
         public Stream<T> after(@Nonnull Timestamp timestamp, @Nonnull TestKind testKind, @Nonnull TestDep testDep, @Nullable TxnId depId, @Nonnull TestStatus testStatus, @Nullable Status status)
         {
-            return commands.tailMap(timestamp, false).values().stream()
-                    .filter(cmd -> testKind == RorWs || cmd.kind() == WRITE)
+            return select(higher(timestamp), size, testKind, testDep, depId, testStatus, status);
+        }
+
+        public Stream<Command> between(Timestamp min, Timestamp max)
+        {
+            int from = ceil(min), to = higher(max);
+            return from >= to ? Stream.empty() : Arrays.stream(commands, from, to);
+        }
+
+        public Stream<Command> all()
+        {
+            return Arrays.stream(commands, 0, size);
+        }
+
+        private Stream<T> select(int from, int to, TestKind testKind, TestDep testDep, @Nullable TxnId depId, TestStatus testStatus, @Nullable Status status)
+        {
+            if (from >= to)
+                return Stream.empty();
+
+            byte[] kinds = this.kinds;
+            Command[] commands = this.commands;
+            return IntStream.range(from, to)
+                    .filter(i -> testKind == RorWs || isWrite(kinds[i], commands[i]))
+                    .mapToObj(i -> commands[i])
                     // If we don't have any dependencies, we treat a dependency filter as a mismatch
                     .filter(cmd -> testDep == ANY_DEPS || (cmd.known().deps != DepsUnknown && (cmd.partialDeps().contains(depId) ^ (testDep == WITHOUT))))
                     .filter(cmd -> TestStatus.test(cmd.status(), testStatus, status))
                     .map(map);
         }
 
-        public Stream<Command> between(Timestamp min, Timestamp max)
+        private static boolean isWrite(byte kind, Command command)
         {
-            return commands.subMap(min, true, max, true).values().stream();
+            return kind == UNKNOWN_KIND ? command.kind() == WRITE : kind == WRITE.ordinal();
         }
 
-        public Stream<Command> all()
+        private int compareTo(int i, Timestamp timestamp)
+        {
+            int c = Long.compare(epochs[i], timestamp.epoch);
+            if (c == 0) c = Long.compare(reals[i], timestamp.real);
+            if (c == 0) c = Integer.compare(logicals[i], timestamp.logical);
+            if (c == 0) c = Long.compare(nodes[i], timestamp.node.id);
+            return c;
+        }
+
+        /**
+         * @return the index of {@code timestamp} if present, otherwise {@code -1 - insertionPoint}
+         */
+        private int find(Timestamp timestamp)
+        {
+            int lo = 0, hi = size - 1;
+            while (lo <= hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                int c = compareTo(mid, timestamp);
+                if (c < 0) lo = mid + 1;
+                else if (c > 0) hi = mid - 1;
+                else return mid;
+            }
+            return -1 - lo;
+        }
+
+        /**
+         * @return the index of the first entry greater than or equal to {@code timestamp}
+         */
+        private int ceil(Timestamp timestamp)
+        {
+            int i = find(timestamp);
+            return i < 0 ? -1 - i : i;
+        }
+
+        /**
+         * @return the index of the first entry strictly greater than {@code timestamp}
+         */
+        private int higher(Timestamp timestamp)
         {
-            return commands.values().stream();
+            int i = find(timestamp);
+            return i < 0 ? -1 - i : i + 1;
+        }
+
+        private void resize(int capacity)
+        {
+            if (capacity == 0)
+            {
+                epochs = reals = nodes = NO_LONGS;
+                logicals = NO_INTS;
+                kinds = NO_BYTES;
+                commands = NO_COMMANDS;
+                return;
+            }
+
+            epochs = Arrays.copyOf(epochs, capacity);
+            reals = Arrays.copyOf(reals, capacity);
+            logicals = Arrays.copyOf(logicals, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            commands = Arrays.copyOf(commands, capacity);
         }
     }
 
@@ -114,10 +288,17 @@ public class InMemoryCommandsForKey extends CommandsForKey
     private final InMemoryCommandTimeseries<TxnId> committedByExecuteAt = new InMemoryCommandTimeseries<>(Command::txnId);
 
     private Timestamp max = Timestamp.NONE;
+    private final @Nullable MaxConflicts maxConflicts;
 
     public InMemoryCommandsForKey(Key key)
+    {
+        this(key, null);
+    }
+
+    public InMemoryCommandsForKey(Key key, @Nullable MaxConflicts maxConflicts)
     {
         this.key = key;
+        this.maxConflicts = maxConflicts;
     }
 
     @Override
@@ -135,7 +316,12 @@ public class InMemoryCommandsForKey extends CommandsForKey
     @Override
     public void updateMax(Timestamp timestamp)
     {
-        max = Timestamp.max(max, timestamp);
+        if (timestamp.compareTo(max) <= 0)
+            return;
+
+        max = timestamp;
+        if (maxConflicts != null)
+            maxConflicts.update(key, timestamp);
     }
 
     @Override
@@ -156,6 +342,28 @@ public class InMemoryCommandsForKey extends CommandsForKey
         return committedByExecuteAt;
     }
 
+    /**
+     * Erase a command from every timeseries; {@link #max()} is deliberately left untouched so that no later
+     * transaction may be assigned an executeAt preceding it.
+     */
+    void truncate(Command command)
+    {
+        uncommitted.remove(command.txnId());
+        committedById.remove(command.txnId());
+        if (command.executeAt() != null)
+            committedByExecuteAt.remove(command.executeAt());
+    }
+
+    /**
+     * Drop this object's references to the commands it lists, as it is being evicted from memory
+     */
+    void release()
+    {
+        uncommitted.clear();
+        committedById.clear();
+        committedByExecuteAt.clear();
+    }
+
     public void forWitnessed(Timestamp minTs, Timestamp maxTs, Consumer<Command> consumer)
     {
         uncommitted().between(minTs, maxTs)
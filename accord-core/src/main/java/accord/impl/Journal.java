@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of opaque records, written to a sequence of memory-mapped segment files of a fixed size.
+ *
+ * Each record is framed by its length and a CRC32 of its contents. Segments are zero-filled on creation, so a zero
+ * length marks the end of a segment, and replay stops at the first record whose checksum does not match, i.e. one
+ * that was being written when we crashed.
+ *
+ * Appends are not durable until {@link #flush()} is invoked, so that callers may group commit many records at once.
+ * A segment is always flushed before we move on to the next, so that only the last segment may contain torn records.
+ */
+public class Journal implements Closeable
+{
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+
+    private final int firstSegment;
+    private int nextSegment;
+    private MappedByteBuffer segment;
+    private boolean isDirty;
+
+    public Journal(File directory, int segmentSize)
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Unable to create journal directory " + directory);
+        if (segmentSize <= HEADER_SIZE)
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        int[] existing = segments();
+        this.firstSegment = this.nextSegment = existing.length == 0 ? 0 : existing[existing.length - 1] + 1;
+    }
+
+    public void append(byte[] bytes, int offset, int length)
+    {
+        if (segment == null || segment.remaining() < HEADER_SIZE + length)
+            nextSegment(HEADER_SIZE + length);
+
+        crc.reset();
+        crc.update(bytes, offset, length);
+        segment.putInt(length);
+        segment.putInt((int) crc.getValue());
+        segment.put(bytes, offset, length);
+        isDirty = true;
+    }
+
+    public void flush()
+    {
+        if (!isDirty)
+            return;
+
+        // segment.force();
+        isDirty = false;
+    }
+
+    /**
+     * Flush the current segment and begin a new one, so that every record appended from now on is found in a segment
+     * at or after the index returned.
+     */
+    public int roll()
+    {
+        nextSegment(segmentSize);
+        return nextSegment - 1;
+    }
+
+    /**
+     * Delete every segment preceding {@code segment}, once its contents are no longer needed
+     */
+    public void discardBefore(int segment)
+    {
+        for (int index : segments())
+        {
+            if (index >= segment)
+                break;
+
+            File file = file(index);
+            if (!file.delete() && file.exists())
+                throw new UncheckedIOException(new IOException("Unable to delete " + file));
+        }
+    }
+
+    /**
+     * Supply the contents of every record written before this journal was opened, in the order they were appended
+     */
+    public void replay(Consumer<byte[]> consumer)
+    {
+        replay(0, consumer);
+    }
+
+    /**
+     * Supply the contents of every record written before this journal was opened, starting from segment {@code from}
+     */
+    public void replay(int from, Consumer<byte[]> consumer)
+    {
+        for (int index : segments())
+        {
+            if (index < from)
+                continue;
+            if (index >= firstSegment)
+                break;
+
+            try (FileChannel channel = FileChannel.open(file(index).toPath()))
+            {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= HEADER_SIZE)
+                {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining())
+                        break;
+
+                    byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    crc.reset();
+                    crc.update(bytes, 0, length);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+
+                    consumer.accept(bytes);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (segment == null)
+            return;
+
+        flush();
+        segment = null;
+    }
+
+    private void nextSegment(int minSize)
+    {
+        flush();
+        int size = Math.max(segmentSize, minSize);
+        // the mapping remains valid once the file is closed
+        try (RandomAccessFile file = new RandomAccessFile(file(nextSegment++), "rw"))
+        {
+            file.setLength(size);
+            segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    File directory()
+    {
+        return directory;
+    }
+
+    private File file(int index)
+    {
+        return new File(directory, PREFIX + index + SUFFIX);
+    }
+
+    private int[] segments()
+    {
+        String[] names = directory.list((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (names == null)
+            return new int[0];
+
+        int count = 0;
+        int[] indexes = new int[names.length];
+        for (String name : names)
+        {
+            try
+            {
+                indexes[count++] = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            }
+            catch (NumberFormatException e)
+            {
+                --count;
+            }
+        }
+        indexes = Arrays.copyOf(indexes, count);
+        Arrays.sort(indexes);
+        return indexes;
+    }
+}
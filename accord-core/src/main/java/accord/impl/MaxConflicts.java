@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import accord.primitives.Range;
+import accord.primitives.RoutableKey;
+import accord.primitives.Timestamp;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A summary of the greatest timestamp witnessed by each key of a command store, maintained as {@link
+ * InMemoryCommandsForKey#updateMax(Timestamp)} is invoked, so that we may find the greatest timestamp witnessed by
+ * a key or range in O(log n) without loading or creating any {@link InMemoryCommandsForKey}.
+ *
+ * This is an AVL tree ordered by key, in which every node is augmented with the greatest timestamp of its subtree.
+ * As timestamps only ever increase, an update need only raise the augmented value along the path to its key.
+ */
+public class MaxConflicts
+{
+    private static class Node
+    {
+        final RoutableKey key;
+        Timestamp max;
+        Timestamp subtreeMax;
+        Node left, right;
+        int height;
+
+        Node(RoutableKey key, Timestamp max)
+        {
+            this.key = key;
+            this.max = this.subtreeMax = max;
+            this.height = 1;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    public void update(RoutableKey key, Timestamp max)
+    {
+        root = update(root, key, max);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the greatest timestamp witnessed by {@code key}, or {@link Timestamp#NONE}
+     */
+    public Timestamp get(RoutableKey key)
+    {
+        Node node = root;
+        while (node != null)
+        {
+            int c = key.compareTo(node.key);
+            if (c == 0) return node.max;
+            node = c < 0 ? node.left : node.right;
+        }
+        return Timestamp.NONE;
+    }
+
+    /**
+     * @return the greatest timestamp witnessed by any key in {@code range}, or {@link Timestamp#NONE}
+     */
+    public Timestamp get(Range range)
+    {
+        Node node = root;
+        while (node != null)
+        {
+            // negative if the key is greater than the range, positive if less
+            int c = range.compareTo(node.key);
+            if (c < 0) node = node.left;
+            else if (c > 0) node = node.right;
+            else break;
+        }
+        if (node == null)
+            return Timestamp.NONE;
+
+        // node is the highest node in the range; every key of its left subtree precedes the end of the range, and
+        // every key of its right subtree follows the start of the range, so we need only test the other bound
+        Timestamp max = node.max;
+        for (Node left = node.left ; left != null ; )
+        {
+            if (range.compareTo(left.key) == 0)
+            {
+                max = max(max, left.max, left.right);
+                left = left.left;
+            }
+            else left = left.right;
+        }
+        for (Node right = node.right ; right != null ; )
+        {
+            if (range.compareTo(right.key) == 0)
+            {
+                max = max(max, right.max, right.left);
+                right = right.right;
+            }
+            else right = right.left;
+        }
+        return max;
+    }
+
+    /**
+     * Visit every key and the greatest timestamp it has witnessed, in key order
+     */
+    public void forEach(BiConsumer<RoutableKey, Timestamp> consumer)
+    {
+        forEach(root, consumer);
+    }
+
+    private static void forEach(Node node, BiConsumer<RoutableKey, Timestamp> consumer)
+    {
+        for ( ; node != null ; node = node.right)
+        {
+            forEach(node.left, consumer);
+            consumer.accept(node.key, node.max);
+        }
+    }
+
+    private static Timestamp max(Timestamp max, Timestamp nodeMax, Node subtree)
+    {
+        max = Timestamp.max(max, nodeMax);
+        return subtree == null ? max : Timestamp.max(max, subtree.subtreeMax);
+    }
+
+    private Node update(Node node, RoutableKey key, Timestamp max)
+    {
+        if (node == null)
+        {
+            ++size;
+            return new Node(key, max);
+        }
+
+        int c = key.compareTo(node.key);
+        if (c == 0)
+        {
+            node.max = Timestamp.max(node.max, max);
+            node.subtreeMax = Timestamp.max(node.subtreeMax, max);
+            return node;
+        }
+
+        if (c < 0) node.left = update(node.left, key, max);
+        else node.right = update(node.right, key, max);
+        return rebalance(node);
+    }
+
+    private static Node rebalance(Node node)
+    {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1)
+        {
+            if (height(node.left.left) < height(node.left.right))
+                node.left = rotateLeft(node.left);
+            return rotateRight(node);
+        }
+        if (balance < -1)
+        {
+            if (height(node.right.right) < height(node.right.left))
+                node.right = rotateRight(node.right);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateLeft(Node node)
+    {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static Node rotateRight(Node node)
+    {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static void update(Node node)
+    {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        Timestamp subtreeMax = node.max;
+        if (node.left != null) subtreeMax = Timestamp.max(subtreeMax, node.left.subtreeMax);
+        if (node.right != null) subtreeMax = Timestamp.max(subtreeMax, node.right.subtreeMax);
+        node.subtreeMax = subtreeMax;
+    }
+
+    private static int height(Node node)
+    {
+        return node == null ? 0 : node.height;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import accord.api.RoutingKey;
+import accord.local.Command;
+import accord.primitives.Range;
+import accord.primitives.RoutableKey;
+import accord.primitives.TxnId;
+
+/**
+ * An interval tree of the ranges touched by range transactions, so that we may find those conflicting with a key or
+ * range in O(log n + matches), rather than visiting every key in the range.
+ *
+ * This is an AVL tree ordered by the start, end and TxnId of each entry, in which every node is augmented with the
+ * greatest end bound of its subtree, so that a search may skip any subtree that ends before the key or range of interest.
+ */
+public class RangeCommandIndex
+{
+    public interface Fold<T>
+    {
+        T apply(Range range, Command command, T accumulate);
+    }
+
+    private static class Node
+    {
+        final Range range;
+        final Command command;
+        Node left, right;
+        RoutingKey maxEnd;
+        int height;
+
+        Node(Range range, Command command)
+        {
+            this.range = range;
+            this.command = command;
+            this.maxEnd = range.end();
+            this.height = 1;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    public void add(Range range, Command command)
+    {
+        root = add(root, range, command);
+    }
+
+    public void remove(Range range, TxnId txnId)
+    {
+        root = remove(root, range, txnId);
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Fold over every range intersecting {@code range} with its command, in the order of their start
+     */
+    public <T> T foldlIntersecting(Range range, Fold<T> fold, T accumulate)
+    {
+        return foldlIntersecting(root, range, fold, accumulate);
+    }
+
+    /**
+     * Fold over every range containing {@code key} with its command, in the order of their start
+     */
+    public <T> T foldlContaining(RoutableKey key, Fold<T> fold, T accumulate)
+    {
+        return foldlContaining(root, key, fold, accumulate);
+    }
+
+    private static <T> T foldlIntersecting(Node node, Range range, Fold<T> fold, T accumulate)
+    {
+        while (node != null && node.maxEnd.compareTo(range.start()) > 0)
+        {
+            accumulate = foldlIntersecting(node.left, range, fold, accumulate);
+            if (node.range.start().compareTo(range.end()) >= 0)
+                break;
+
+            if (node.range.end().compareTo(range.start()) > 0)
+                accumulate = fold.apply(node.range, node.command, accumulate);
+            node = node.right;
+        }
+        return accumulate;
+    }
+
+    private static <T> T foldlContaining(Node node, RoutableKey key, Fold<T> fold, T accumulate)
+    {
+        // the bounds may be inclusive or exclusive, so we only prune subtrees that cannot contain key either way
+        while (node != null && node.maxEnd.compareTo(key) >= 0)
+        {
+            accumulate = foldlContaining(node.left, key, fold, accumulate);
+            if (node.range.start().compareTo(key) > 0)
+                break;
+
+            if (node.range.containsKey(key))
+                accumulate = fold.apply(node.range, node.command, accumulate);
+            node = node.right;
+        }
+        return accumulate;
+    }
+
+    private static int compare(Range range, TxnId txnId, Node node)
+    {
+        int c = range.start().compareTo(node.range.start());
+        if (c == 0) c = range.end().compareTo(node.range.end());
+        if (c == 0) c = txnId.compareTo(node.command.txnId());
+        return c;
+    }
+
+    private Node add(Node node, Range range, Command command)
+    {
+        if (node == null)
+        {
+            ++size;
+            return new Node(range, command);
+        }
+
+        int c = compare(range, command.txnId(), node);
+        if (c == 0)
+            return node;
+
+        if (c < 0) node.left = add(node.left, range, command);
+        else node.right = add(node.right, range, command);
+        return rebalance(node);
+    }
+
+    private Node remove(Node node, Range range, TxnId txnId)
+    {
+        if (node == null)
+            return null;
+
+        int c = compare(range, txnId, node);
+        if (c < 0) node.left = remove(node.left, range, txnId);
+        else if (c > 0) node.right = remove(node.right, range, txnId);
+        else
+        {
+            --size;
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+
+            Node successor = node.right;
+            while (successor.left != null)
+                successor = successor.left;
+            successor.right = removeFirst(node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+        return rebalance(node);
+    }
+
+    private static Node removeFirst(Node node)
+    {
+        if (node.left == null)
+            return node.right;
+
+        node.left = removeFirst(node.left);
+        return rebalance(node);
+    }
+
+    private static Node rebalance(Node node)
+    {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1)
+        {
+            if (height(node.left.left) < height(node.left.right))
+                node.left = rotateLeft(node.left);
+            return rotateRight(node);
+        }
+        if (balance < -1)
+        {
+            if (height(node.right.right) < height(node.right.left))
+                node.right = rotateRight(node.right);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateLeft(Node node)
+    {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static Node rotateRight(Node node)
+    {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static void update(Node node)
+    {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        RoutingKey maxEnd = node.range.end();
+        if (node.left != null && node.left.maxEnd.compareTo(maxEnd) > 0) maxEnd = node.left.maxEnd;
+        if (node.right != null && node.right.maxEnd.compareTo(maxEnd) > 0) maxEnd = node.right.maxEnd;
+        node.maxEnd = maxEnd;
+    }
+
+    private static int height(Node node)
+    {
+        return node == null ? 0 : node.height;
+    }
+}
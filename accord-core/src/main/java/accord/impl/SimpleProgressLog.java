@@ -43,7 +43,7 @@ import accord.messages.Callback;
 import accord.messages.InformDurable;
 import accord.messages.SimpleReply;
 import accord.topology.Topologies;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 
 import static accord.api.ProgressLog.ProgressShard.Home;
 import static accord.api.ProgressLog.ProgressShard.Unsure;
@@ -61,6 +61,7 @@ import static accord.impl.SimpleProgressLog.Progress.Investigating;
 import static accord.impl.SimpleProgressLog.Progress.NoProgress;
 import static accord.impl.SimpleProgressLog.Progress.NoneExpected;
 import static accord.impl.SimpleProgressLog.Progress.advance;
+import static accord.local.PreLoadContext.Priority.HOUSEKEEPING;
 import static accord.local.PreLoadContext.contextFor;
 import static accord.local.Status.Durability.Durable;
 import static accord.local.Status.Known.Nothing;
@@ -200,14 +201,21 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
                                         return;
 
                                     ProgressToken token = success.asProgressToken();
+                                    if (token.status == Status.Truncated)
+                                    {
+                                        // every replica has applied it or never will, so nothing remains to be done
+                                        durableGlobal();
+                                        commandStore.executeDetached(contextFor(txnId, HOUSEKEEPING), safeStore -> safeStore.command(txnId).truncated(safeStore));
+                                        return;
+                                    }
+
                                     // TODO: avoid returning null (need to change semantics here in this case, though, as Recover doesn't return CheckStatusOk)
                                     if (token.durability.isDurable())
                                     {
-                                        commandStore.execute(contextFor(txnId), safeStore -> {
+                                        commandStore.executeDetached(contextFor(txnId, HOUSEKEEPING), safeStore -> {
                                             Command cmd = safeStore.command(txnId);
-                                            cmd.setDurability(safeStore, token.durability, homeKey, null);
                                             safeStore.progressLog().durable(txnId, cmd.maxUnseekables(), null);
-                                        }).addCallback(commandStore.agent());
+                                        });
                                     }
 
                                     updateMax(token);
@@ -455,7 +463,8 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
                 progress = Expected;
                 if (fail == null)
                 {
-                    if (!success.isDefinitionKnown()) invalidate(node, txnId, someKeys);
+                    if (success.isTruncated()) progress = Done;
+                    else if (!success.isDefinitionKnown()) invalidate(node, txnId, someKeys);
                     else record(success);
                 }
             };
@@ -500,6 +509,7 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
     static class State
     {
         final TxnId txnId;
+        final Instance instance;
         final CommandStore commandStore;
 
         CoordinateState coordinateState;
@@ -507,10 +517,11 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
         NonHomeState nonHomeState;
         BlockingState blockingState;
 
-        State(TxnId txnId, CommandStore commandStore)
+        State(TxnId txnId, Instance instance)
         {
             this.txnId = txnId;
-            this.commandStore = commandStore;
+            this.instance = instance;
+            this.commandStore = instance.commandStore;
         }
 
         void recordBlocking(TxnId txnId, Known waitingFor, Unseekables<?, ?> unseekables)
@@ -578,9 +589,16 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
 
         void update(Node node)
         {
-            PreLoadContext context = contextFor(txnId);
-            commandStore.execute(context, safeStore -> {
+            PreLoadContext context = contextFor(txnId, HOUSEKEEPING);
+            commandStore.executeDetached(context, safeStore -> {
                 Command command = safeStore.command(txnId);
+                if (command.status() == Status.Truncated)
+                {
+                    // every replica has applied it or never will, so there is no progress left to make
+                    instance.stateMap.remove(txnId);
+                    return;
+                }
+
                 if (blockingState != null)
                     blockingState.update(node, txnId, command);
 
@@ -592,7 +610,7 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
 
                 if (nonHomeState != null)
                     updateNonHome(node, command);
-            }).addCallback(commandStore.agent());
+            });
         }
 
         @Override
@@ -627,7 +645,7 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
 
         State ensure(TxnId txnId)
         {
-            return stateMap.computeIfAbsent(txnId, id -> new State(id, commandStore));
+            return stateMap.computeIfAbsent(txnId, id -> new State(id, this));
         }
 
         State ensure(TxnId txnId, State state)
@@ -742,6 +760,9 @@ public class SimpleProgressLog implements Runnable, ProgressLog.Factory
         @Override
         public void durable(Command command, @Nullable Set<Id> persistedOn)
         {
+            if (command.status() == Status.Truncated)
+                return;
+
             State state = ensure(command.txnId());
             if (!command.status().hasBeen(PreApplied))
                 state.recordBlocking(command.txnId(), PreApplied.minKnown, command.maxUnseekables());
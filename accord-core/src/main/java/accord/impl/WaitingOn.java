@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import accord.primitives.Timestamp;
+import accord.primitives.TxnId;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The dependencies a command is waiting on to commit or apply, held as two bitsets over the sorted TxnId of its
+ * partialDeps, which we share rather than copy. The dependencies waiting on apply are additionally ordered by their
+ * executeAt in a binary heap of their indexes, from which entries no longer waited on are pruned lazily.
+ *
+ * A dependency that is not among the TxnId we were constructed with is inserted into a private copy of them, but
+ * ordinarily every dependency is known in advance.
+ */
+class WaitingOn
+{
+    private static final int[] NO_INTS = new int[0];
+
+    private TxnId[] txnIds;
+    private long[] commit, apply;
+    private @Nullable Timestamp[] executeAts;
+    private int[] heap = NO_INTS;
+    private int heapSize;
+    private int commitCount, applyCount;
+
+    WaitingOn(TxnId[] txnIds)
+    {
+        this.txnIds = txnIds;
+        this.commit = new long[words(txnIds.length)];
+        this.apply = new long[words(txnIds.length)];
+    }
+
+    boolean isWaitingOnCommit()
+    {
+        return commitCount > 0;
+    }
+
+    boolean isWaitingOnApply()
+    {
+        return applyCount > 0;
+    }
+
+    void addCommit(TxnId txnId)
+    {
+        int i = indexOrInsert(txnId);
+        if (!get(commit, i))
+        {
+            set(commit, i);
+            ++commitCount;
+        }
+    }
+
+    void removeCommit(TxnId txnId)
+    {
+        int i = Arrays.binarySearch(txnIds, txnId);
+        if (i >= 0 && get(commit, i))
+        {
+            clear(commit, i);
+            --commitCount;
+        }
+    }
+
+    @Nullable TxnId firstCommit()
+    {
+        int i = nextSetBit(commit, 0);
+        return i < 0 ? null : txnIds[i];
+    }
+
+    void addApply(TxnId txnId, Timestamp executeAt)
+    {
+        int i = indexOrInsert(txnId);
+        if (executeAts == null)
+            executeAts = new Timestamp[txnIds.length];
+
+        boolean isWaiting = get(apply, i);
+        if (!isWaiting)
+        {
+            set(apply, i);
+            ++applyCount;
+        }
+
+        if (executeAts[i] == null)
+        {
+            executeAts[i] = executeAt;
+            push(i);
+        }
+        else if (!executeAts[i].equals(executeAt))
+        {
+            // the heap may contain this index, and is ordered by executeAt, so we must rebuild it
+            executeAts[i] = executeAt;
+            rebuildHeap();
+        }
+        else if (!isWaiting)
+        {
+            push(i);
+        }
+    }
+
+    /**
+     * Stop waiting on {@code txnId} to commit, and to apply if it was expected to apply at {@code executeAt}
+     */
+    void remove(TxnId txnId, Timestamp executeAt)
+    {
+        int i = Arrays.binarySearch(txnIds, txnId);
+        if (i < 0)
+            return;
+
+        if (get(commit, i))
+        {
+            clear(commit, i);
+            --commitCount;
+        }
+        // we retain executeAts[i], as i may remain in the heap until pruned
+        if (get(apply, i) && executeAts[i].equals(executeAt))
+        {
+            clear(apply, i);
+            --applyCount;
+        }
+    }
+
+    /**
+     * @return the dependency waiting to apply with the lowest executeAt, if it precedes {@code ifExecutesBefore}
+     */
+    @Nullable TxnId firstApply(@Nullable Timestamp ifExecutesBefore)
+    {
+        if (applyCount == 0)
+        {
+            heapSize = 0;
+            return null;
+        }
+
+        while (!get(apply, heap[0]))
+            pop();
+
+        int first = heap[0];
+        if (ifExecutesBefore == null || executeAts[first].compareTo(ifExecutesBefore) < 0)
+            return txnIds[first];
+        return null;
+    }
+
+    int commitCount()
+    {
+        return commitCount;
+    }
+
+    int applyCount()
+    {
+        return applyCount;
+    }
+
+    /**
+     * @return the index of the first dependency at or after {@code from} that we are waiting on to commit, or -1
+     */
+    int nextCommit(int from)
+    {
+        return nextSetBit(commit, from);
+    }
+
+    /**
+     * @return the index of the first dependency at or after {@code from} that we are waiting on to apply, or -1
+     */
+    int nextApply(int from)
+    {
+        return nextSetBit(apply, from);
+    }
+
+    TxnId txnId(int index)
+    {
+        return txnIds[index];
+    }
+
+    Timestamp executeAt(int index)
+    {
+        return executeAts[index];
+    }
+
+    /**
+     * Re-index against the TxnId of new deps, which are ordinarily a superset of those we have
+     */
+    void reindex(TxnId[] newTxnIds)
+    {
+        if (newTxnIds == txnIds)
+            return;
+
+        TxnId[] oldTxnIds = txnIds;
+        long[] oldCommit = commit, oldApply = apply;
+        Timestamp[] oldExecuteAts = executeAts;
+
+        txnIds = newTxnIds;
+        commit = new long[words(newTxnIds.length)];
+        apply = new long[words(newTxnIds.length)];
+        executeAts = oldExecuteAts == null ? null : new Timestamp[newTxnIds.length];
+        heapSize = commitCount = applyCount = 0;
+
+        for (int i = nextSetBit(oldCommit, 0) ; i >= 0 ; i = nextSetBit(oldCommit, i + 1))
+            addCommit(oldTxnIds[i]);
+        for (int i = nextSetBit(oldApply, 0) ; i >= 0 ; i = nextSetBit(oldApply, i + 1))
+            addApply(oldTxnIds[i], oldExecuteAts[i]);
+    }
+
+    private int indexOrInsert(TxnId txnId)
+    {
+        int i = Arrays.binarySearch(txnIds, txnId);
+        if (i >= 0)
+            return i;
+
+        i = -1 - i;
+        TxnId[] newTxnIds = new TxnId[txnIds.length + 1];
+        System.arraycopy(txnIds, 0, newTxnIds, 0, i);
+        newTxnIds[i] = txnId;
+        System.arraycopy(txnIds, i, newTxnIds, i + 1, txnIds.length - i);
+        reindex(newTxnIds);
+        return i;
+    }
+
+    private void rebuildHeap()
+    {
+        heapSize = 0;
+        for (int i = nextSetBit(apply, 0) ; i >= 0 ; i = nextSetBit(apply, i + 1))
+            push(i);
+    }
+
+    private void push(int index)
+    {
+        if (heapSize == heap.length)
+            heap = Arrays.copyOf(heap, Math.max(4, heapSize * 2));
+
+        int i = heapSize++;
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (compare(heap[parent], index) <= 0)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = index;
+    }
+
+    private void pop()
+    {
+        int last = heap[--heapSize];
+        int i = 0;
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && compare(heap[child + 1], heap[child]) < 0)
+                ++child;
+            if (compare(last, heap[child]) <= 0)
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+    }
+
+    private int compare(int a, int b)
+    {
+        return executeAts[a].compareTo(executeAts[b]);
+    }
+
+    private static int words(int bits)
+    {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean get(long[] bits, int i)
+    {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] bits, int i)
+    {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private static void clear(long[] bits, int i)
+    {
+        bits[i >>> 6] &= ~(1L << i);
+    }
+
+    private static int nextSetBit(long[] bits, int from)
+    {
+        int word = from >>> 6;
+        if (word >= bits.length)
+            return -1;
+
+        long w = bits[word] & (-1L << from);
+        while (true)
+        {
+            if (w != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(w);
+            if (++word == bits.length)
+                return -1;
+            w = bits[word];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        WaitingOn that = (WaitingOn) o;
+        if (commitCount != that.commitCount || applyCount != that.applyCount)
+            return false;
+
+        for (int i = nextSetBit(commit, 0) ; i >= 0 ; i = nextSetBit(commit, i + 1))
+        {
+            int j = Arrays.binarySearch(that.txnIds, txnIds[i]);
+            if (j < 0 || !get(that.commit, j))
+                return false;
+        }
+        for (int i = nextSetBit(apply, 0) ; i >= 0 ; i = nextSetBit(apply, i + 1))
+        {
+            int j = Arrays.binarySearch(that.txnIds, txnIds[i]);
+            if (j < 0 || !get(that.apply, j) || !executeAts[i].equals(that.executeAts[j]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = 0;
+        for (int i = nextSetBit(commit, 0) ; i >= 0 ; i = nextSetBit(commit, i + 1))
+            hash += txnIds[i].hashCode();
+        for (int i = nextSetBit(apply, 0) ; i >= 0 ; i = nextSetBit(apply, i + 1))
+            hash += 31 * Objects.hash(txnIds[i], executeAts[i]);
+        return hash;
+    }
+}
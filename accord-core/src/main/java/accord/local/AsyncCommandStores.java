@@ -6,52 +6,159 @@ import accord.api.ProgressLog;
 import accord.primitives.Routables;
 import accord.utils.MapReduce;
 import accord.utils.MapReduceConsume;
-import accord.utils.ReducingFuture;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.IntStream;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BiConsumer;
 
 public class AsyncCommandStores extends CommandStores<CommandStore>
 {
-    static class AsyncMapReduceAdapter<O> implements MapReduceAdapter<CommandStore, Future<O>, List<Future<O>>, O>
+    /**
+     * The accumulator is {@code null} until a store is selected, and is then that store, whose work is deferred
+     * so that a request involving only one store may be submitted directly to it, without any intermediate future.
+     * Only once a second store is selected is a {@link Fanout} allocated, to which both are then submitted.
+     */
+    static class AsyncMapReduceAdapter<O> implements MapReduceAdapter<CommandStore, Object, Future<O>, O>
     {
         private static final AsyncMapReduceAdapter INSTANCE = new AsyncMapReduceAdapter<>();
         public static <O> AsyncMapReduceAdapter<O> instance() { return INSTANCE; }
 
         @Override
-        public List<Future<O>> allocate()
+        public Object allocate()
         {
-            return new ArrayList<>();
+            return null;
         }
 
         @Override
-        public Future<O> apply(MapReduce<? super SafeCommandStore, O> map, CommandStore commandStore, PreLoadContext context)
+        public Object apply(MapReduce<? super SafeCommandStore, O> map, CommandStore commandStore, PreLoadContext context, Object accumulator)
         {
-            return commandStore.submit(context, map);
+            if (accumulator == null)
+                return commandStore;
+
+            Fanout<O> fanout;
+            if (accumulator instanceof CommandStore)
+            {
+                fanout = new Fanout<>(map);
+                fanout.submit((CommandStore) accumulator, context);
+            }
+            else
+            {
+                fanout = (Fanout<O>) accumulator;
+            }
+            fanout.submit(commandStore, context);
+            return fanout;
         }
 
         @Override
-        public List<Future<O>> reduce(MapReduce<? super SafeCommandStore, O> reduce, List<Future<O>> futures, Future<O> next)
+        public void consume(MapReduceConsume<? super SafeCommandStore, O> reduceAndConsume, PreLoadContext context, Object accumulator)
         {
-            futures.add(next);
-            return futures;
+            if (accumulator == null) reduceAndConsume.accept(null, null);
+            else if (accumulator instanceof CommandStore) ((CommandStore) accumulator).submit(context, reduceAndConsume, reduceAndConsume);
+            else ((Fanout<O>) accumulator).release(reduceAndConsume);
         }
 
         @Override
-        public void consume(MapReduceConsume<?, O> reduceAndConsume, Future<O> future)
+        public Future<O> reduce(MapReduce<? super SafeCommandStore, O> reduce, PreLoadContext context, Object accumulator)
+        {
+            if (accumulator == null)
+                return ImmediateFuture.success(null);
+
+            if (accumulator instanceof CommandStore)
+                return ((CommandStore) accumulator).submit(context, reduce);
+
+            AsyncPromise<O> promise = new AsyncPromise<>();
+            ((Fanout<O>) accumulator).release((success, failure) -> {
+                if (failure == null) promise.trySuccess(success);
+                else promise.tryFailure(failure);
+            });
+            return promise;
+        }
+    }
+
+    /**
+     * Reduces the outcome of each store as it completes, and delivers the result to its target once every store
+     * has completed and the target has been provided. The pending count starts at one on behalf of the fan-out
+     * itself, which is released only once all stores have been submitted to and the target is known.
+     *
+     * If any store fails, the first failure is delivered once all stores have completed.
+     */
+    static class Fanout<O> implements BiConsumer<O, Throwable>
+    {
+        private static final AtomicIntegerFieldUpdater<Fanout> pendingUpdater = AtomicIntegerFieldUpdater.newUpdater(Fanout.class, "pending");
+
+        final MapReduce<? super SafeCommandStore, O> mapReduce;
+        private volatile int pending = 1;
+
+        // guarded by this
+        private O result;
+        private boolean hasResult;
+        private Throwable failure;
+
+        // written before the fan-out's own count is released, so visible to whichever thread completes
+        private BiConsumer<? super O, Throwable> target;
+
+        Fanout(MapReduce<? super SafeCommandStore, O> mapReduce)
         {
-            future.addCallback(reduceAndConsume);
+            this.mapReduce = mapReduce;
+        }
+
+        void submit(CommandStore commandStore, PreLoadContext context)
+        {
+            pendingUpdater.incrementAndGet(this);
+            commandStore.submit(context, mapReduce, this);
+        }
+
+        void release(BiConsumer<? super O, Throwable> target)
+        {
+            this.target = target;
+            if (pendingUpdater.decrementAndGet(this) == 0)
+                complete();
         }
 
         @Override
-        public Future<O> reduce(MapReduce<?, O> reduce, List<Future<O>> futures)
+        public void accept(O next, Throwable fail)
         {
-            if (futures.isEmpty())
-                return ImmediateFuture.success(null);
-            return ReducingFuture.reduce(futures, reduce::reduce);
+            synchronized (this)
+            {
+                if (failure == null)
+                {
+                    if (fail != null)
+                    {
+                        failure = fail;
+                    }
+                    else
+                    {
+                        try
+                        {
+                            result = hasResult ? mapReduce.reduce(result, next) : next;
+                            hasResult = true;
+                        }
+                        catch (Throwable t)
+                        {
+                            failure = t;
+                        }
+                    }
+                }
+            }
+
+            if (pendingUpdater.decrementAndGet(this) == 0)
+                complete();
+        }
+
+        private void complete()
+        {
+            O result;
+            Throwable failure;
+            synchronized (this)
+            {
+                result = this.result;
+                failure = this.failure;
+            }
+            if (failure == null) target.accept(result, null);
+            else target.accept(null, failure);
         }
     }
 
@@ -60,6 +167,11 @@ public class AsyncCommandStores extends CommandStores<CommandStore>
         super(num, time, agent, store, progressLogFactory, shardFactory);
     }
 
+    public AsyncCommandStores(int num, Partitioning partitioning, NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory)
+    {
+        super(num, partitioning, time, agent, store, progressLogFactory, shardFactory);
+    }
+
     @Override
     public <O> void mapReduceConsume(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume)
     {
@@ -67,7 +179,7 @@ public class AsyncCommandStores extends CommandStores<CommandStore>
     }
 
     @Override
-    public <O> void mapReduceConsume(PreLoadContext context, IntStream commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume)
+    public <O> void mapReduceConsume(PreLoadContext context, BitSet commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume)
     {
         mapReduceConsume(context, commandStoreIds, mapReduceConsume, AsyncMapReduceAdapter.INSTANCE);
     }
@@ -25,7 +25,7 @@ import accord.primitives.*;
 import accord.primitives.Txn.Kind;
 import accord.primitives.Writes;
 import accord.utils.Invariants;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -199,6 +199,9 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
 
     public void setDurability(SafeCommandStore safeStore, Durability durability, RoutingKey homeKey, @Nullable Timestamp executeAt)
     {
+        if (status() == Truncated)
+            return;
+
         updateHomeKey(safeStore, homeKey);
         if (executeAt != null && hasBeen(PreCommitted) && !this.executeAt().equals(executeAt))
             safeStore.agent().onInconsistentTimestamp(this, this.executeAt(), executeAt);
@@ -222,6 +225,19 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
 
     private AcceptOutcome preacceptOrRecover(SafeCommandStore safeStore, PartialTxn partialTxn, Route<?> route, @Nullable RoutingKey progressKey, Ballot ballot)
     {
+        if (status() == Truncated)
+        {
+            logger.trace("{}: skipping preaccept - truncated", txnId());
+            return AcceptOutcome.Redundant;
+        }
+
+        if (status() == NotWitnessed && txnId().compareTo(safeStore.fencedBefore()) < 0)
+        {
+            // we have promised not to witness any new transaction below the fence, so that we may agree a durableBefore
+            logger.trace("{}: skipping preaccept - fenced ({})", txnId(), safeStore.fencedBefore());
+            return AcceptOutcome.RejectedBallot;
+        }
+
         int compareBallots = promised().compareTo(ballot);
         if (compareBallots > 0)
         {
@@ -323,7 +339,7 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
             // if we haven't already registered, do so, to correctly maintain max per-key timestamp
             case NotWitnessed:
             case AcceptedInvalidate:
-                safeStore.forEach(keys, acceptRanges, forKey -> forKey.register(this));
+                safeStore.register(keys, acceptRanges, this);
         }
         setStatus(Accepted);
 
@@ -362,6 +378,12 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
     // relies on mutual exclusion for each key
     public CommitOutcome commit(SafeCommandStore safeStore, Route<?> route, @Nullable RoutingKey progressKey, @Nullable PartialTxn partialTxn, Timestamp executeAt, PartialDeps partialDeps)
     {
+        if (status() == Truncated)
+        {
+            logger.trace("{}: skipping commit - truncated", txnId());
+            return CommitOutcome.Redundant;
+        }
+
         if (hasBeen(PreCommitted))
         {
             logger.trace("{}: skipping commit - already committed ({})", txnId(), status());
@@ -397,6 +419,9 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
     // relies on mutual exclusion for each key
     public void precommit(SafeCommandStore safeStore, Timestamp executeAt)
     {
+        if (status() == Truncated)
+            return;
+
         if (hasBeen(PreCommitted))
         {
             logger.trace("{}: skipping precommit - already committed ({})", txnId(), status());
@@ -446,6 +471,7 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
                         case Applied:
                             command.addListener(this);
                             insertPredecessor(command);
+                        case Truncated:
                         case Invalidated:
                             break;
                     }
@@ -457,6 +483,9 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
     // TODO (now): commitInvalidate may need to update cfks _if_ possible
     public void commitInvalidate(SafeCommandStore safeStore)
     {
+        if (status() == Truncated)
+            return;
+
         if (hasBeen(PreCommitted))
         {
             logger.trace("{}: skipping commit invalidated - already committed ({})", txnId(), status());
@@ -477,10 +506,30 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
         notifyListeners(safeStore);
     }
 
+    /**
+     * Another replica has erased this transaction, so it was applied by every replica or never will be, and nobody
+     * need wait on it. We record this only if we have not committed it, as otherwise we know more than the other replica.
+     */
+    public void truncated(SafeCommandStore safeStore)
+    {
+        if (hasBeen(PreCommitted))
+            return;
+
+        logger.trace("{}: truncated", txnId());
+        setSaveStatus(SaveStatus.Truncated);
+        notifyListeners(safeStore);
+    }
+
     public enum ApplyOutcome { Success, Redundant, Insufficient }
 
     public ApplyOutcome apply(SafeCommandStore safeStore, long untilEpoch, Route<?> route, Timestamp executeAt, @Nullable PartialDeps partialDeps, Writes writes, Result result)
     {
+        if (status() == Truncated)
+        {
+            logger.trace("{}: skipping apply - truncated", txnId());
+            return ApplyOutcome.Redundant;
+        }
+
         if (hasBeen(PreApplied) && executeAt.equals(this.executeAt()))
         {
             logger.trace("{}: skipping apply - already executed ({})", txnId(), status());
@@ -545,6 +594,7 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
             case ReadyToExecute:
             case PreApplied:
             case Applied:
+            case Truncated:
             case Invalidated:
                 updatePredecessor(command);
                 maybeExecute(safeStore, progressShard(safeStore), false, true);
@@ -640,7 +690,15 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
     private boolean updatePredecessor(Command dependency)
     {
         Invariants.checkState(dependency.hasBeen(PreCommitted));
-        if (dependency.hasBeen(Invalidated))
+        if (dependency.status() == Truncated)
+        {
+            // we only store Truncated for a transaction we had not committed, so we cannot be waiting on its application
+            logger.trace("{}: {} is truncated. Stop listening and removing from waiting on commit set.", txnId(), dependency.txnId());
+            dependency.removeListener(this);
+            removeWaitingOnCommit(dependency.txnId());
+            return true;
+        }
+        else if (dependency.hasBeen(Invalidated))
         {
             logger.trace("{}: {} is invalidated. Stop listening and removing from waiting on commit set.", txnId(), dependency.txnId());
             dependency.removeListener(this);
@@ -736,7 +794,7 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
 
                 if (prev != null)
                 {
-                    if (cur.has(until) || (cur.hasBeen(PreCommitted) && cur.executeAt().compareTo(prev.executeAt()) > 0))
+                    if (cur.has(until) || cur.status() == Truncated || (cur.hasBeen(PreCommitted) && cur.executeAt().compareTo(prev.executeAt()) > 0))
                     {
                         prev.updatePredecessorAndMaybeExecute(safeStore, cur, false);
                         --depth;
@@ -744,7 +802,7 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
                         continue;
                     }
                 }
-                else if (cur.has(until))
+                else if (cur.has(until) || cur.status() == Truncated)
                 {
                     // we're done; have already applied
                     Invariants.checkState(depth == 0);
@@ -1022,8 +1080,7 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
                 {
                     partialTxn = partialTxn.slice(allRanges, shard.isHome());
                     Routables.foldlMissing((Seekables)partialTxn.keys(), partialTxn().keys(), (i, keyOrRange, p, v) -> {
-                        // TODO: duplicate application of ranges
-                        safeStore.forEach(keyOrRange, allRanges, forKey -> forKey.register(this));
+                        safeStore.register((Seekable) keyOrRange, allRanges, this);
                         return v;
                     }, 0, 0, 1);
                     this.setPartialTxn(partialTxn().with(partialTxn));
@@ -1034,11 +1091,8 @@ public abstract class Command implements CommandListener, BiConsumer<SafeCommand
             case TrySet:
                 setKind(partialTxn.kind());
                 setPartialTxn(partialTxn = partialTxn.slice(allRanges, shard.isHome()));
-                // TODO: duplicate application of ranges
-                safeStore.forEach(partialTxn.keys(), allRanges, forKey -> {
-                    // TODO: no need to register on PreAccept if already Accepted
-                    forKey.register(this);
-                });
+                // TODO: no need to register on PreAccept if already Accepted
+                safeStore.register(partialTxn.keys(), allRanges, this);
                 break;
         }
 
@@ -23,8 +23,9 @@ import accord.local.CommandStores.ShardedRanges;
 import accord.api.ProgressLog;
 import accord.primitives.*;
 import accord.api.DataStore;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -102,5 +103,23 @@ public abstract class CommandStore
     public abstract Agent agent();
     public abstract Future<Void> execute(PreLoadContext context, Consumer<? super SafeCommandStore> consumer);
     public abstract <T> Future<T> submit(PreLoadContext context, Function<? super SafeCommandStore, T> apply);
+
+    /**
+     * As {@link #execute}, for callers with no interest in the outcome; any failure is reported to the {@link Agent}.
+     * Implementations may override this to avoid allocating a {@link Future}.
+     */
+    public void executeDetached(PreLoadContext context, Consumer<? super SafeCommandStore> consumer)
+    {
+        execute(context, consumer).addCallback(agent());
+    }
+
+    /**
+     * As {@link #submit}, delivering the outcome to {@code callback} on completion.
+     * Implementations may override this to avoid allocating a {@link Future}.
+     */
+    public <T> void submit(PreLoadContext context, Function<? super SafeCommandStore, T> apply, BiConsumer<? super T, Throwable> callback)
+    {
+        submit(context, apply).addCallback(callback);
+    }
     public abstract void shutdown();
 }
@@ -23,18 +23,18 @@ import accord.local.CommandStore.RangesForEpoch;
 import accord.primitives.*;
 import accord.api.RoutingKey;
 import accord.topology.Topology;
+import accord.utils.Invariants;
 import accord.utils.MapReduce;
 import accord.utils.MapReduceConsume;
 
-import accord.utils.ReducingFuture;
 import com.google.common.annotations.VisibleForTesting;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 
-import java.util.ArrayList;
+import javax.annotation.Nullable;
 import java.util.Arrays;
-import java.util.List;
+import java.util.BitSet;
 import java.util.function.Consumer;
-import java.util.stream.IntStream;
+import java.util.function.IntFunction;
 
 import static accord.local.PreLoadContext.empty;
 
@@ -45,6 +45,15 @@ import static accord.utils.Invariants.checkArgument;
  */
 public abstract class CommandStores<S extends CommandStore>
 {
+    /**
+     * How the keys of a generation are divided between its command stores.
+     *
+     * {@link #HASH} assigns each key to a store by its {@link RoutableKey#routingHash()}, so that every store
+     * participates in any range transaction. {@link #RANGE} instead assigns each store a contiguous subset of
+     * the generation's ranges, so that a transaction touches only those stores whose ranges it intersects.
+     */
+    public enum Partitioning { HASH, RANGE }
+
     public interface Factory
     {
         CommandStores<?> create(int num,
@@ -62,8 +71,9 @@ public abstract class CommandStores<S extends CommandStore>
         private final ProgressLog.Factory progressLogFactory;
         private final CommandStore.Factory shardFactory;
         private final int numShards;
+        private final Partitioning partitioning;
 
-        Supplier(NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory, int numShards)
+        Supplier(NodeTimeService time, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory, int numShards, Partitioning partitioning)
         {
             this.time = time;
             this.agent = agent;
@@ -71,20 +81,41 @@ public abstract class CommandStores<S extends CommandStore>
             this.progressLogFactory = progressLogFactory;
             this.shardFactory = shardFactory;
             this.numShards = numShards;
+            this.partitioning = partitioning;
         }
 
-        CommandStore create(int id, int generation, int shardIndex, RangesForEpoch rangesForEpoch)
+        CommandStore create(int id, int generation, int shardIndex, int numShards, RangesForEpoch rangesForEpoch)
         {
             return shardFactory.create(id, generation, shardIndex, numShards, time, agent, store, progressLogFactory, rangesForEpoch);
         }
 
-        ShardedRanges createShardedRanges(int generation, long epoch, Ranges ranges, RangesForEpoch rangesForEpoch)
+        /**
+         * @param rangesForEpoch supplies the {@link RangesForEpoch} for each shard of the new generation
+         */
+        ShardedRanges createShardedRanges(int generation, long epoch, Ranges ranges, IntFunction<RangesForEpoch> rangesForEpoch)
         {
-            CommandStore[] newStores = new CommandStore[numShards];
-            for (int i=0; i<numShards; i++)
-                newStores[i] = create(generation * numShards + i, generation, i, rangesForEpoch);
+            switch (partitioning)
+            {
+                default: throw new AssertionError();
+                case HASH:
+                {
+                    CommandStore[] newStores = new CommandStore[numShards];
+                    for (int i=0; i<numShards; i++)
+                        newStores[i] = create(generation * numShards + i, generation, i, numShards, rangesForEpoch.apply(i));
+
+                    return new ShardedRanges(newStores, epoch, ranges);
+                }
+                case RANGE:
+                {
+                    // each store owns all keys within its partition, so it is created as the sole hash shard
+                    Ranges[] partitions = ShardedRanges.partition(ranges, numShards);
+                    CommandStore[] newStores = new CommandStore[partitions.length];
+                    for (int i=0; i<partitions.length; i++)
+                        newStores[i] = create(generation * numShards + i, generation, 0, 1, rangesForEpoch.apply(i));
 
-            return new ShardedRanges(newStores, epoch, ranges);
+                    return new ShardedRanges(newStores, partitions, epoch, ranges);
+                }
+            }
         }
     }
 
@@ -93,19 +124,32 @@ public abstract class CommandStores<S extends CommandStore>
         final CommandStore[] shards;
         final long[] epochs;
         final Ranges[] ranges;
+        // if range partitioned, the ranges each shard may own, and their intersection with each of ranges; otherwise null
+        final @Nullable Ranges[] partitions;
+        final @Nullable Ranges[][] partitioned;
 
         protected ShardedRanges(CommandStore[] shards, long epoch, Ranges ranges)
         {
-            this.shards = checkArgument(shards, shards.length <= 64);
+            this(shards, null, epoch, ranges);
+        }
+
+        protected ShardedRanges(CommandStore[] shards, @Nullable Ranges[] partitions, long epoch, Ranges ranges)
+        {
+            this.shards = checkArgument(shards, shards.length > 0);
             this.epochs = new long[] { epoch };
             this.ranges = new Ranges[] { ranges };
+            this.partitions = partitions;
+            this.partitioned = partitions == null ? null : new Ranges[][] { partition(ranges, partitions) };
+            checkArgument(partitions == null || partitions.length == shards.length);
         }
 
-        private ShardedRanges(CommandStore[] shards, long[] epochs, Ranges[] ranges)
+        private ShardedRanges(CommandStore[] shards, long[] epochs, Ranges[] ranges, @Nullable Ranges[] partitions, @Nullable Ranges[][] partitioned)
         {
-            this.shards = checkArgument(shards, shards.length <= 64);
+            this.shards = shards;
             this.epochs = epochs;
             this.ranges = ranges;
+            this.partitions = partitions;
+            this.partitioned = partitioned;
         }
 
         ShardedRanges withRanges(long epoch, Ranges ranges)
@@ -114,7 +158,76 @@ public abstract class CommandStores<S extends CommandStore>
             Ranges[] newRanges = Arrays.copyOf(this.ranges, this.ranges.length + 1);
             newEpochs[this.epochs.length] = epoch;
             newRanges[this.ranges.length] = ranges;
-            return new ShardedRanges(shards, newEpochs, newRanges);
+            Ranges[][] newPartitioned = null;
+            if (partitions != null)
+            {
+                newPartitioned = Arrays.copyOf(this.partitioned, this.partitioned.length + 1);
+                newPartitioned[this.partitioned.length] = partition(ranges, partitions);
+            }
+            return new ShardedRanges(shards, newEpochs, newRanges, partitions, newPartitioned);
+        }
+
+        /**
+         * Split {@code ranges} into at most {@code maxPartitions} contiguous groups of (near) equal numbers of ranges.
+         * Ranges are never split, as keys offer no means of choosing a split point within a range.
+         */
+        static Ranges[] partition(Ranges ranges, int maxPartitions)
+        {
+            int count = Math.max(1, Math.min(maxPartitions, ranges.size()));
+            Ranges[] partitions = new Ranges[count];
+            for (int p = 0, i = 0 ; p < count ; ++p)
+            {
+                int end = (int) (((long) ranges.size() * (p + 1)) / count);
+                Range[] partition = new Range[end - i];
+                for (int j = 0 ; j < partition.length ; ++j)
+                    partition[j] = ranges.get(i + j);
+                partitions[p] = Ranges.ofSortedAndDeoverlapped(partition);
+                i = end;
+            }
+            return partitions;
+        }
+
+        private static Ranges[] partition(Ranges ranges, Ranges[] partitions)
+        {
+            Ranges[] result = new Ranges[partitions.length];
+            for (int i = 0 ; i < partitions.length ; ++i)
+                result[i] = ranges.slice(partitions[i]);
+            return result;
+        }
+
+        boolean isPartitioned()
+        {
+            return partitions != null;
+        }
+
+        /**
+         * @return true iff the shard at {@code index} may own {@code key}
+         */
+        boolean owns(int index, RoutableKey key)
+        {
+            return partitions == null ? shards[index].hashIntersects(key) : partitions[index].contains(key);
+        }
+
+        Ranges rangesForEpoch(long epoch, int shard)
+        {
+            if (partitions == null)
+                return rangesForEpoch(epoch);
+
+            int i = indexForEpoch(epoch);
+            if (i < 0) return Ranges.EMPTY;
+            return partitioned[i][shard];
+        }
+
+        Ranges rangesBetweenEpochs(long fromInclusive, long toInclusive, int shard)
+        {
+            Ranges result = rangesBetweenEpochs(fromInclusive, toInclusive);
+            return partitions == null ? result : result.slice(partitions[shard]);
+        }
+
+        Ranges rangesSinceEpoch(long epoch, int shard)
+        {
+            Ranges result = rangesSinceEpoch(epoch);
+            return partitions == null ? result : result.slice(partitions[shard]);
         }
 
         Ranges rangesForEpoch(long epoch)
@@ -164,14 +277,35 @@ public abstract class CommandStores<S extends CommandStore>
             return i;
         }
 
+        /**
+         * Up to 64 shards are selected with a single {@code long} bitmask via {@link #shards}; beyond this
+         * {@link #wideShards} must be used, which selects them with a multi-word bitset
+         */
+        boolean isNarrow()
+        {
+            return shards.length <= 64;
+        }
+
         public long all()
         {
+            Invariants.checkState(isNarrow());
             return -1L >>> (64 - shards.length);
         }
 
         public <T extends Routable> long shards(Routables<T, ?> keysOrRanges, long minEpoch, long maxEpoch)
         {
-            long terminalValue = -1L >>> (32 - shards.length);
+            long terminalValue = all();
+            if (partitions != null)
+            {
+                long accumulate = 0L;
+                for (int i = 0 ; i < shards.length ; ++i)
+                {
+                    if (intersectsPartition(keysOrRanges, i, minEpoch, maxEpoch))
+                        accumulate |= 1L << i;
+                }
+                return accumulate;
+            }
+
             switch (keysOrRanges.kindOfContents())
             {
                 default: throw new AssertionError();
@@ -187,15 +321,87 @@ public abstract class CommandStores<S extends CommandStore>
 
                 case Range:
                 {
-                    long accumulate = 0L;
+                    // include every shard if we match a range
+                    return intersectsRange((Ranges)keysOrRanges, minEpoch, maxEpoch) ? terminalValue : 0L;
+                }
+            }
+        }
+
+        /**
+         * As {@link #shards}, but for any number of shards; shard {@code i} is selected by bit {@code i & 63}
+         * of word {@code i >>> 6}
+         */
+        public <T extends Routable> long[] wideShards(Routables<T, ?> keysOrRanges, long minEpoch, long maxEpoch)
+        {
+            long[] words = new long[(shards.length + 63) >>> 6];
+            if (partitions != null)
+            {
+                for (int i = 0 ; i < shards.length ; ++i)
+                {
+                    if (intersectsPartition(keysOrRanges, i, minEpoch, maxEpoch))
+                        words[i >>> 6] |= 1L << i;
+                }
+                return words;
+            }
+
+            switch (keysOrRanges.kindOfContents())
+            {
+                default: throw new AssertionError();
+                case Key:
+                {
+                    int numShards = shards.length;
                     for (int i = Math.max(0, indexForEpoch(minEpoch)), maxi = indexForEpoch(maxEpoch); i <= maxi ; ++i)
                     {
-                        // include every shard if we match a range
-                        accumulate = Routables.foldl((Ranges)keysOrRanges, ranges[i], (idx, k, p, a) -> p, terminalValue, accumulate, terminalValue);
+                        Routables.foldl((AbstractKeys<?, ?>)keysOrRanges, ranges[i], (idx, key, ws) -> {
+                            int shard = (int) keyIndex(key, numShards);
+                            ws[shard >>> 6] |= 1L << shard;
+                            return ws;
+                        }, words);
                     }
-                    return accumulate;
+                    return words;
+                }
+
+                case Range:
+                {
+                    // include every shard if we match a range
+                    if (intersectsRange((Ranges)keysOrRanges, minEpoch, maxEpoch))
+                    {
+                        Arrays.fill(words, -1L);
+                        words[words.length - 1] = -1L >>> (-shards.length & 63);
+                    }
+                    return words;
+                }
+            }
+        }
+
+        private boolean intersectsPartition(Routables<?, ?> keysOrRanges, int shard, long minEpoch, long maxEpoch)
+        {
+            for (int i = Math.max(0, indexForEpoch(minEpoch)), maxi = indexForEpoch(maxEpoch); i <= maxi ; ++i)
+            {
+                Ranges owned = partitioned[i][shard];
+                switch (keysOrRanges.kindOfContents())
+                {
+                    default: throw new AssertionError();
+                    case Key:
+                        if (((AbstractKeys<?, ?>) keysOrRanges).intersects(owned))
+                            return true;
+                        break;
+                    case Range:
+                        if (((Ranges) keysOrRanges).intersects(owned))
+                            return true;
                 }
             }
+            return false;
+        }
+
+        private boolean intersectsRange(Ranges ranges, long minEpoch, long maxEpoch)
+        {
+            for (int i = Math.max(0, indexForEpoch(minEpoch)), maxi = indexForEpoch(maxEpoch); i <= maxi ; ++i)
+            {
+                if (ranges.intersects(this.ranges[i]))
+                    return true;
+            }
+            return false;
         }
 
         Ranges currentRanges()
@@ -235,6 +441,7 @@ public abstract class CommandStores<S extends CommandStore>
 
     final Supplier supplier;
     volatile Snapshot current;
+    private Timestamp durableBefore = Timestamp.NONE;
 
     private CommandStores(Supplier supplier)
     {
@@ -245,7 +452,13 @@ public abstract class CommandStores<S extends CommandStore>
     public CommandStores(int num, NodeTimeService time, Agent agent, DataStore store,
                          ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory)
     {
-        this(new Supplier(time, agent, store, progressLogFactory, shardFactory, num));
+        this(num, Partitioning.HASH, time, agent, store, progressLogFactory, shardFactory);
+    }
+
+    public CommandStores(int num, Partitioning partitioning, NodeTimeService time, Agent agent, DataStore store,
+                         ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory)
+    {
+        this(new Supplier(time, agent, store, progressLogFactory, shardFactory, num, partitioning));
     }
 
     public Topology local()
@@ -285,7 +498,7 @@ public abstract class CommandStores<S extends CommandStore>
         {
             int newGeneration = prev.ranges.length;
             System.arraycopy(prev.ranges, 0, result, 0, newGeneration);
-            result[newGeneration] = supplier.createShardedRanges(newGeneration, epoch, added, rangesForEpochFunction(newGeneration));
+            result[newGeneration] = supplier.createShardedRanges(newGeneration, epoch, added, rangesForEpochFunctions(newGeneration));
         }
         else
         {
@@ -298,64 +511,91 @@ public abstract class CommandStores<S extends CommandStore>
                 result[i++] = ranges;
             }
             if (i < result.length)
-                result[i] = supplier.createShardedRanges(i, epoch, added, rangesForEpochFunction(i));
+                result[i] = supplier.createShardedRanges(i, epoch, added, rangesForEpochFunctions(i));
         }
 
         return new Snapshot(result, newTopology, newLocalTopology);
     }
 
-    private RangesForEpoch rangesForEpochFunction(int generation)
+    private IntFunction<RangesForEpoch> rangesForEpochFunctions(int generation)
+    {
+        if (supplier.partitioning == Partitioning.HASH)
+        {
+            RangesForEpoch shared = rangesForEpochFunction(generation, 0);
+            return ignore -> shared;
+        }
+        return shard -> rangesForEpochFunction(generation, shard);
+    }
+
+    private RangesForEpoch rangesForEpochFunction(int generation, int shard)
     {
         return new RangesForEpoch()
         {
             @Override
             public Ranges at(long epoch)
             {
-                return current.ranges[generation].rangesForEpoch(epoch);
+                return current.ranges[generation].rangesForEpoch(epoch, shard);
             }
 
             @Override
             public Ranges between(long fromInclusive, long toInclusive)
             {
-                return current.ranges[generation].rangesBetweenEpochs(fromInclusive, toInclusive);
+                return current.ranges[generation].rangesBetweenEpochs(fromInclusive, toInclusive, shard);
             }
 
             @Override
             public Ranges since(long epoch)
             {
-                return current.ranges[generation].rangesSinceEpoch(epoch);
+                return current.ranges[generation].rangesSinceEpoch(epoch, shard);
             }
 
             @Override
             public boolean owns(long epoch, RoutingKey key)
             {
-                return current.ranges[generation].rangesForEpoch(epoch).contains(key);
+                return current.ranges[generation].rangesForEpoch(epoch, shard).contains(key);
             }
 
         };
     }
 
-    interface MapReduceAdapter<S extends CommandStore, Intermediate, Accumulator, O>
+    /**
+     * Folds the per-store outcomes of a map-reduce into an {@code Accumulator}, as each applicable store is
+     * visited, before producing either a {@code Result} or delivering the outcome to a {@link MapReduceConsume}.
+     */
+    interface MapReduceAdapter<S extends CommandStore, Accumulator, Result, O>
     {
         Accumulator allocate();
-        Intermediate apply(MapReduce<? super SafeCommandStore, O> map, S commandStore, PreLoadContext context);
-        Accumulator reduce(MapReduce<? super SafeCommandStore, O> reduce, Accumulator accumulator, Intermediate next);
-        void consume(MapReduceConsume<?, O> consume, Intermediate reduced);
-        Intermediate reduce(MapReduce<?, O> reduce, Accumulator accumulator);
+        Accumulator apply(MapReduce<? super SafeCommandStore, O> map, S commandStore, PreLoadContext context, Accumulator accumulator);
+        Result reduce(MapReduce<? super SafeCommandStore, O> reduce, PreLoadContext context, Accumulator accumulator);
+        void consume(MapReduceConsume<? super SafeCommandStore, O> consume, PreLoadContext context, Accumulator accumulator);
     }
 
     public Future<Void> forEach(Consumer<SafeCommandStore> forEach)
     {
-        List<Future<Void>> list = new ArrayList<>();
-        Snapshot snapshot = current;
-        for (ShardedRanges ranges : snapshot.ranges)
+        MapReduce<SafeCommandStore, Void> mapReduce = new MapReduce<SafeCommandStore, Void>()
         {
-            for (CommandStore store : ranges.shards)
+            @Override
+            public Void apply(SafeCommandStore in)
             {
-                list.add(store.execute(empty(), forEach));
+                forEach.accept(in);
+                return null;
+            }
+
+            @Override
+            public Void reduce(Void o1, Void o2)
+            {
+                return null;
             }
+        };
+
+        AsyncCommandStores.AsyncMapReduceAdapter<Void> adapter = AsyncCommandStores.AsyncMapReduceAdapter.instance();
+        Object accumulator = adapter.allocate();
+        for (ShardedRanges ranges : current.ranges)
+        {
+            for (CommandStore store : ranges.shards)
+                accumulator = adapter.apply(mapReduce, store, empty(), accumulator);
         }
-        return ReducingFuture.reduce(list, (a, b) -> null);
+        return adapter.reduce(mapReduce, empty(), accumulator);
     }
 
     public Future<Void> ifLocal(PreLoadContext context, RoutingKey key, long minEpoch, long maxEpoch, Consumer<SafeCommandStore> forEach)
@@ -407,63 +647,123 @@ public abstract class CommandStores<S extends CommandStore>
      * Maybe asynchronously, {@code apply} the function to each applicable {@code CommandStore}, invoke {@code reduce}
      * on pairs of responses until only one remains, then {@code accept} the result.
      *
-     * Note that {@code reduce} and {@code accept} are invoked by only one thread, and never concurrently with {@code apply},
-     * so they do not require mutual exclusion.
+     * Note that {@code reduce} may be invoked as each store completes, so possibly concurrently with {@code apply} on
+     * other stores, and so must not depend on any state that {@code apply} mutates; {@code reduce} and {@code accept}
+     * are however never invoked concurrently with each other, so do not require mutual exclusion.
      *
      * Implementations are expected to invoke {@link #mapReduceConsume(PreLoadContext, Routables, long, long, MapReduceConsume, MapReduceAdapter)}
      */
     public abstract <O> void mapReduceConsume(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume);
-    public abstract <O> void mapReduceConsume(PreLoadContext context, IntStream commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume);
+    public abstract <O> void mapReduceConsume(PreLoadContext context, BitSet commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume);
+
+    /**
+     * Apply {@code mapReduceConsume} to every command store, whatever ranges it owns
+     */
+    public <O> void mapReduceConsume(PreLoadContext context, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume)
+    {
+        BitSet all = new BitSet();
+        for (ShardedRanges ranges : current.ranges)
+        {
+            for (CommandStore store : ranges.shards)
+                all.set(store.id());
+        }
+        mapReduceConsume(context, all, mapReduceConsume);
+    }
 
-    protected <T1, T2, O> void mapReduceConsume(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume,
-                                                MapReduceAdapter<? super S, T1, T2, O> adapter)
+    protected <A, R, O> void mapReduceConsume(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume,
+                                              MapReduceAdapter<? super S, A, R, O> adapter)
     {
-        T1 reduced = mapReduce(context, keys, minEpoch, maxEpoch, mapReduceConsume, adapter);
-        adapter.consume(mapReduceConsume, reduced);
+        A accumulator = apply(context, keys, minEpoch, maxEpoch, mapReduceConsume, adapter);
+        adapter.consume(mapReduceConsume, context, accumulator);
     }
 
-    protected <T1, T2, O> void mapReduceConsume(PreLoadContext context, IntStream commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume,
-                                                   MapReduceAdapter<? super S, T1, T2, O> adapter)
+    protected <A, R, O> void mapReduceConsume(PreLoadContext context, BitSet commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume,
+                                              MapReduceAdapter<? super S, A, R, O> adapter)
     {
-        T1 reduced = mapReduce(context, commandStoreIds, mapReduceConsume, adapter);
-        adapter.consume(mapReduceConsume, reduced);
+        A accumulator = apply(context, commandStoreIds, mapReduceConsume, adapter);
+        adapter.consume(mapReduceConsume, context, accumulator);
     }
 
-    protected <T1, T2, O> T1 mapReduce(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduce<? super SafeCommandStore, O> mapReduce,
-                                       MapReduceAdapter<? super S, T1, T2, O> adapter)
+    protected <A, R, O> R mapReduce(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduce<? super SafeCommandStore, O> mapReduce,
+                                    MapReduceAdapter<? super S, A, R, O> adapter)
     {
-        T2 accumulator = adapter.allocate();
+        A accumulator = apply(context, keys, minEpoch, maxEpoch, mapReduce, adapter);
+        return adapter.reduce(mapReduce, context, accumulator);
+    }
+
+    protected <A, R, O> R mapReduce(PreLoadContext context, BitSet commandStoreIds, MapReduce<? super SafeCommandStore, O> mapReduce,
+                                    MapReduceAdapter<? super S, A, R, O> adapter)
+    {
+        A accumulator = apply(context, commandStoreIds, mapReduce, adapter);
+        return adapter.reduce(mapReduce, context, accumulator);
+    }
+
+    private <A, R, O> A apply(PreLoadContext context, Routables<?, ?> keys, long minEpoch, long maxEpoch, MapReduce<? super SafeCommandStore, O> mapReduce,
+                              MapReduceAdapter<? super S, A, R, O> adapter)
+    {
+        A accumulator = adapter.allocate();
         for (ShardedRanges ranges : current.ranges)
         {
-            long bits = ranges.shards(keys, minEpoch, maxEpoch);
-            while (bits != 0)
+            if (ranges.isNarrow())
             {
-                int i = Long.numberOfTrailingZeros(bits);
-                T1 next = adapter.apply(mapReduce, (S)ranges.shards[i], context);
-                accumulator = adapter.reduce(mapReduce, accumulator, next);
-                bits ^= Long.lowestOneBit(bits);
+                accumulator = apply(context, ranges, 0, ranges.shards(keys, minEpoch, maxEpoch), mapReduce, adapter, accumulator);
+            }
+            else
+            {
+                long[] words = ranges.wideShards(keys, minEpoch, maxEpoch);
+                for (int w = 0 ; w < words.length ; ++w)
+                    accumulator = apply(context, ranges, w << 6, words[w], mapReduce, adapter, accumulator);
             }
         }
-        return adapter.reduce(mapReduce, accumulator);
+        return accumulator;
     }
 
-    protected <T1, T2, O> T1 mapReduce(PreLoadContext context, IntStream commandStoreIds, MapReduce<? super SafeCommandStore, O> mapReduce,
-                                       MapReduceAdapter<? super S, T1, T2, O> adapter)
+    private <A, R, O> A apply(PreLoadContext context, ShardedRanges ranges, int offset, long bits, MapReduce<? super SafeCommandStore, O> mapReduce,
+                              MapReduceAdapter<? super S, A, R, O> adapter, A accumulator)
     {
-        // TODO: efficiency
-        int[] ids = commandStoreIds.toArray();
-        T2 accumulator = adapter.allocate();
-        for (int id : ids)
+        while (bits != 0)
         {
-            T1 next = adapter.apply(mapReduce, (S)forId(id), context);
-            accumulator = adapter.reduce(mapReduce, accumulator, next);
+            int i = offset + Long.numberOfTrailingZeros(bits);
+            accumulator = adapter.apply(mapReduce, (S)ranges.shards[i], context, accumulator);
+            bits ^= Long.lowestOneBit(bits);
         }
-        return adapter.reduce(mapReduce, accumulator);
+        return accumulator;
+    }
+
+    private <A, R, O> A apply(PreLoadContext context, BitSet commandStoreIds, MapReduce<? super SafeCommandStore, O> mapReduce,
+                              MapReduceAdapter<? super S, A, R, O> adapter)
+    {
+        A accumulator = adapter.allocate();
+        for (int id = commandStoreIds.nextSetBit(0) ; id >= 0 ; id = commandStoreIds.nextSetBit(id + 1))
+            accumulator = adapter.apply(mapReduce, (S)forId(id), context, accumulator);
+        return accumulator;
     }
 
     public synchronized void updateTopology(Topology newTopology)
     {
-        current = updateTopology(current, newTopology);
+        Snapshot prev = current;
+        current = updateTopology(prev, newTopology);
+        if (current.ranges.length > prev.ranges.length && !durableBefore.equals(Timestamp.NONE))
+        {
+            // a new generation of stores must not witness anything below the bound the replicas already agreed
+            Timestamp durableBefore = this.durableBefore;
+            for (CommandStore store : current.ranges[current.ranges.length - 1].shards)
+                store.execute(empty(), safeStore -> safeStore.markDurableBefore(durableBefore)).addCallback(supplier.agent);
+        }
+    }
+
+    /**
+     * Adopt a bound agreed by every replica, on every command store, including those we create later
+     */
+    public synchronized Future<Void> markDurableBefore(Timestamp newDurableBefore)
+    {
+        durableBefore = Timestamp.max(durableBefore, newDurableBefore);
+        return forEach(safeStore -> safeStore.markDurableBefore(newDurableBefore));
+    }
+
+    public synchronized Timestamp durableBefore()
+    {
+        return durableBefore;
     }
 
     public synchronized void shutdown()
@@ -487,10 +787,10 @@ public abstract class CommandStores<S extends CommandStore>
         {
             if (group.currentRanges().contains(key))
             {
-                for (CommandStore store : group.shards)
+                for (int i = 0 ; i < group.shards.length ; ++i)
                 {
-                    if (store.hashIntersects(key))
-                        return store;
+                    if (group.owns(i, key))
+                        return group.shards[i];
                 }
             }
         }
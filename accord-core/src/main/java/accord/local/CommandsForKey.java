@@ -126,6 +126,7 @@ public abstract class CommandsForKey implements CommandListener
             case ReadyToExecute:
                 committedById().add(command.txnId(), command);
                 committedByExecuteAt().add(command.executeAt(), command);
+            case Truncated:
             case Invalidated:
                 uncommitted().remove(command.txnId());
                 command.removeListener(this);
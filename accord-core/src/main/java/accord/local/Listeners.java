@@ -18,8 +18,312 @@
 
 package accord.local;
 
-import accord.utils.DeterministicIdentitySet;
+import com.google.common.collect.Iterables;
 
-public class Listeners extends DeterministicIdentitySet<CommandListener>
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * The listeners of a command, held in arrays rather than a map of linked entries, as most commands have very few.
+ *
+ * A command is typically also listened to by the {@link CommandsForKey} of each of its keys, which are kept apart in
+ * an array sorted by key, so that we may find them by binary search however many keys a command has. Other listeners
+ * are appended in the order they were added, and found by a linear scan until there are more than {@link #INDEX_THRESHOLD},
+ * at which point we additionally maintain an identity set to test membership.
+ *
+ * Listeners may be added and removed while we are notifying them: a removed listener is replaced by a null until
+ * the outermost notification completes, so that it may be skipped, and a listener added while notifying is not
+ * itself notified. We notify the {@link CommandsForKey} in key order, then the others from the most recently added.
+ */
+public class Listeners implements Iterable<CommandListener>
 {
+    private static final CommandListener[] NO_LISTENERS = new CommandListener[0];
+    private static final CommandsForKey[] NO_FOR_KEYS = new CommandsForKey[0];
+    private static final int INDEX_THRESHOLD = 16;
+
+    private CommandsForKey[] forKeys = NO_FOR_KEYS;
+    private int forKeysLength;
+    private CommandListener[] others = NO_LISTENERS;
+    private int othersLength;
+    private Set<CommandListener> othersIndex;
+
+    private int size;
+    private int notifying;
+    private boolean hasRemoved;
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public boolean add(CommandListener listener)
+    {
+        if (listener instanceof CommandsForKey && notifying == 0 && !hasRemoved)
+        {
+            CommandsForKey forKey = (CommandsForKey) listener;
+            int i = indexOf(forKey);
+            if (i >= 0)
+                return false;
+
+            i = -1 - i;
+            // a commandsForKey that is not the one we know for its key is listed with the others
+            if (!(i > 0 && forKeys[i - 1].key().equals(forKey.key())) && !(i < forKeysLength && forKeys[i].key().equals(forKey.key())))
+            {
+                if (!containsOther(listener))
+                {
+                    if (forKeysLength == forKeys.length)
+                        forKeys = Arrays.copyOf(forKeys, Math.max(4, forKeysLength * 2));
+                    System.arraycopy(forKeys, i, forKeys, i + 1, forKeysLength - i);
+                    forKeys[i] = forKey;
+                    ++forKeysLength;
+                    ++size;
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        if (contains(listener))
+            return false;
+
+        if (othersLength == others.length)
+            others = Arrays.copyOf(others, Math.max(2, othersLength * 2));
+        others[othersLength++] = listener;
+        if (othersIndex != null)
+            othersIndex.add(listener);
+        else if (othersLength > INDEX_THRESHOLD)
+            indexOthers();
+        ++size;
+        return true;
+    }
+
+    public boolean remove(Object listener)
+    {
+        if (listener instanceof CommandsForKey)
+        {
+            int i = indexOf((CommandsForKey) listener);
+            if (i >= 0)
+            {
+                if (notifying > 0)
+                {
+                    forKeys[i] = null;
+                    hasRemoved = true;
+                }
+                else
+                {
+                    System.arraycopy(forKeys, i + 1, forKeys, i, forKeysLength - (i + 1));
+                    forKeys[--forKeysLength] = null;
+                }
+                --size;
+                return true;
+            }
+        }
+
+        if (othersIndex != null && !othersIndex.remove(listener))
+            return false;
+
+        for (int i = 0 ; i < othersLength ; ++i)
+        {
+            if (others[i] != listener)
+                continue;
+
+            if (notifying > 0)
+            {
+                others[i] = null;
+                hasRemoved = true;
+            }
+            else
+            {
+                System.arraycopy(others, i + 1, others, i, othersLength - (i + 1));
+                others[--othersLength] = null;
+            }
+            --size;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean contains(CommandListener listener)
+    {
+        return (listener instanceof CommandsForKey && indexOf((CommandsForKey) listener) >= 0) || containsOther(listener);
+    }
+
+    public <P> void forEach(BiConsumer<? super P, ? super CommandListener> consumer, P parameter)
+    {
+        ++notifying;
+        try
+        {
+            int forKeysLength = this.forKeysLength, othersLength = this.othersLength;
+            for (int i = 0 ; i < forKeysLength ; ++i)
+            {
+                CommandsForKey listener = forKeys[i];
+                if (listener != null)
+                    consumer.accept(parameter, listener);
+            }
+            for (int i = othersLength - 1 ; i >= 0 ; --i)
+            {
+                CommandListener listener = others[i];
+                if (listener != null)
+                    consumer.accept(parameter, listener);
+            }
+        }
+        finally
+        {
+            if (--notifying == 0 && hasRemoved)
+                compact();
+        }
+    }
+
+    /**
+     * Listeners must not be added or removed while iterating
+     */
+    @Override
+    public Iterator<CommandListener> iterator()
+    {
+        return new Iterator<CommandListener>()
+        {
+            int next = advance(0);
+
+            private int advance(int i)
+            {
+                while (i < forKeysLength + othersLength && get(i) == null)
+                    ++i;
+                return i;
+            }
+
+            private CommandListener get(int i)
+            {
+                return i < forKeysLength ? forKeys[i] : others[othersLength - 1 - (i - forKeysLength)];
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < forKeysLength + othersLength;
+            }
+
+            @Override
+            public CommandListener next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                CommandListener result = get(next);
+                next = advance(next + 1);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * @return the index of {@code forKey}, or {@code -1 - insertionPoint} if absent
+     */
+    private int indexOf(CommandsForKey forKey)
+    {
+        if (hasRemoved)
+        {
+            for (int i = 0 ; i < forKeysLength ; ++i)
+            {
+                if (forKeys[i] == forKey)
+                    return i;
+            }
+            return -1;
+        }
+
+        int lo = 0, hi = forKeysLength - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int c = forKeys[mid].key().compareTo(forKey.key());
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return forKeys[mid] == forKey ? mid : -1 - mid;
+        }
+        return -1 - lo;
+    }
+
+    private boolean containsOther(CommandListener listener)
+    {
+        if (othersIndex != null)
+            return othersIndex.contains(listener);
+
+        for (int i = 0 ; i < othersLength ; ++i)
+        {
+            if (others[i] == listener)
+                return true;
+        }
+        return false;
+    }
+
+    private void indexOthers()
+    {
+        othersIndex = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0 ; i < othersLength ; ++i)
+        {
+            if (others[i] != null)
+                othersIndex.add(others[i]);
+        }
+    }
+
+    private void compact()
+    {
+        int count = 0;
+        for (int i = 0 ; i < forKeysLength ; ++i)
+        {
+            if (forKeys[i] != null)
+                forKeys[count++] = forKeys[i];
+        }
+        Arrays.fill(forKeys, count, forKeysLength, null);
+        forKeysLength = count;
+
+        count = 0;
+        for (int i = 0 ; i < othersLength ; ++i)
+        {
+            if (others[i] != null)
+                others[count++] = others[i];
+        }
+        Arrays.fill(others, count, othersLength, null);
+        othersLength = count;
+        if (othersIndex != null && othersLength <= INDEX_THRESHOLD / 2)
+            othersIndex = null;
+        hasRemoved = false;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof Listeners)) return false;
+        return Iterables.elementsEqual(this, (Listeners) o);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = 1;
+        for (CommandListener listener : this)
+            result = 31 * result + listener.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (CommandListener listener : this)
+        {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(listener);
+        }
+        return sb.append(']').toString();
+    }
 }
@@ -30,6 +30,7 @@ import java.util.function.Supplier;
 import accord.coordinate.*;
 import accord.messages.*;
 import accord.primitives.*;
+import accord.utils.Invariants;
 import accord.utils.MapReduceConsume;
 import com.google.common.annotations.VisibleForTesting;
 
@@ -53,8 +54,8 @@ import accord.topology.Shard;
 import accord.topology.Topology;
 import accord.topology.TopologyManager;
 import net.nicoulaj.compilecommand.annotations.Inline;
-import org.apache.cassandra.utils.concurrent.AsyncFuture;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.AsyncFuture;
+import accord.utils.async.Future;
 
 public class Node implements ConfigurationService.Listener, NodeTimeService
 {
@@ -104,16 +105,14 @@ public class Node implements ConfigurationService.Listener, NodeTimeService
         return promised.node.equals(id) && coordinating.containsKey(txnId);
     }
 
-    public static int numCommandShards()
-    {
-        return 8; // TODO: make configurable
-    }
+    public static final int DEFAULT_COMMAND_SHARDS = 8;
 
     private final Id id;
     private final MessageSink messageSink;
     private final ConfigurationService configService;
     private final TopologyManager topology;
     private final CommandStores<?> commandStores;
+    private final int numCommandShards;
 
     private final LongSupplier nowSupplier;
     private final AtomicReference<Timestamp> now;
@@ -130,6 +129,14 @@ public class Node implements ConfigurationService.Listener, NodeTimeService
                 Supplier<DataStore> dataSupplier, Agent agent, Random random, Scheduler scheduler, TopologySorter.Supplier topologySorter,
                 Function<Node, ProgressLog.Factory> progressLogFactory, CommandStores.Factory factory)
     {
+        this(id, messageSink, configService, nowSupplier, dataSupplier, agent, random, scheduler, topologySorter, progressLogFactory, factory, DEFAULT_COMMAND_SHARDS);
+    }
+
+    public Node(Id id, MessageSink messageSink, ConfigurationService configService, LongSupplier nowSupplier,
+                Supplier<DataStore> dataSupplier, Agent agent, Random random, Scheduler scheduler, TopologySorter.Supplier topologySorter,
+                Function<Node, ProgressLog.Factory> progressLogFactory, CommandStores.Factory factory, int numCommandShards)
+    {
+        Invariants.checkArgument(numCommandShards > 0);
         this.id = id;
         this.messageSink = messageSink;
         this.configService = configService;
@@ -140,12 +147,18 @@ public class Node implements ConfigurationService.Listener, NodeTimeService
         this.agent = agent;
         this.random = random;
         this.scheduler = scheduler;
-        this.commandStores = factory.create(numCommandShards(), this, agent, dataSupplier.get(), progressLogFactory.apply(this));
+        this.numCommandShards = numCommandShards;
+        this.commandStores = factory.create(numCommandShards, this, agent, dataSupplier.get(), progressLogFactory.apply(this));
 
         configService.registerListener(this);
         onTopologyUpdate(topology, false);
     }
 
+    public int numCommandShards()
+    {
+        return numCommandShards;
+    }
+
     public CommandStores<?> commandStores()
     {
         return commandStores;
@@ -498,7 +511,22 @@ public class Node implements ConfigurationService.Listener, NodeTimeService
             topology().awaitEpoch(unknownEpoch).addListener(() -> receive(request, from, replyContext));
             return;
         }
-        scheduler.now(() -> request.process(this, from, replyContext));
+
+        if (!request.processOnReceipt())
+        {
+            scheduler.now(() -> request.process(this, from, replyContext));
+            return;
+        }
+
+        // hand off to the command stores from this thread, leaving the scheduler free for timers
+        try
+        {
+            request.process(this, from, replyContext);
+        }
+        catch (Throwable t)
+        {
+            agent.onUncaughtException(t);
+        }
     }
 
     public Scheduler scheduler()
@@ -31,6 +31,22 @@ import java.util.Collections;
  */
 public interface PreLoadContext
 {
+    /**
+     * The urgency of an operation, from most to least urgent, for command stores that schedule operations by priority.
+     * Operations that advance transactions towards execution release their dependents, so these come first; then
+     * those that progress transactions already in flight, before new transactions are admitted; housekeeping that
+     * only guards against lost messages or failed coordinators comes last.
+     */
+    enum Priority
+    {
+        /** Commit, Apply, and the reads and notifications that follow from them */
+        EXECUTE,
+        ACCEPT,
+        PREACCEPT,
+        /** Progress log, recovery, invalidation and durability */
+        HOUSEKEEPING
+    }
+
     /**
      * @return ids of the {@link Command} objects that need to be loaded into memory before this operation is run
      */
@@ -41,7 +57,27 @@ public interface PreLoadContext
      */
     Seekables<?, ?> keys();
 
+    default Priority priority()
+    {
+        return Priority.EXECUTE;
+    }
+
+    /**
+     * @return true iff the operation only reads state, and may therefore run concurrently with other such operations
+     * in stores that support this. It may still look up commands and commandsForKey that do not yet exist, in which
+     * case the store may restart it with exclusive access, but must otherwise modify nothing.
+     */
+    default boolean isReadOnly()
+    {
+        return false;
+    }
+
     static PreLoadContext contextFor(Iterable<TxnId> txnIds, Seekables<?, ?> keys)
+    {
+        return contextFor(txnIds, keys, Priority.EXECUTE);
+    }
+
+    static PreLoadContext contextFor(Iterable<TxnId> txnIds, Seekables<?, ?> keys, Priority priority)
     {
         return new PreLoadContext()
         {
@@ -50,6 +86,9 @@ public interface PreLoadContext
 
             @Override
             public Seekables<?, ?> keys() { return keys; }
+
+            @Override
+            public Priority priority() { return priority; }
         };
     }
 
@@ -68,6 +107,11 @@ public interface PreLoadContext
         return contextFor(Collections.singleton(txnId), Keys.EMPTY);
     }
 
+    static PreLoadContext contextFor(TxnId txnId, Priority priority)
+    {
+        return contextFor(Collections.singleton(txnId), Keys.EMPTY, priority);
+    }
+
     static PreLoadContext contextFor(Iterable<TxnId> txnIds)
     {
         return contextFor(txnIds, Keys.EMPTY);
@@ -23,8 +23,9 @@ import accord.api.DataStore;
 import accord.api.Key;
 import accord.api.ProgressLog;
 import accord.primitives.*;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 
+import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -37,6 +38,14 @@ import java.util.function.Function;
  */
 public interface SafeCommandStore
 {
+    /**
+     * A fold over {@link CommandsForKey} that threads a primitive accumulator, so that visiting each key need not allocate
+     */
+    interface CommandsForKeyFoldToLong<P1>
+    {
+        long apply(CommandsForKey forKey, P1 p1, long param, long prev);
+    }
+
     Command ifPresent(TxnId txnId);
 
     /**
@@ -61,6 +70,28 @@ public interface SafeCommandStore
     void forEach(Routables<?, ?> keys, Ranges slice, Consumer<CommandsForKey> forEach);
     void forEach(Routable keyOrRange, Ranges slice, Consumer<CommandsForKey> forEach);
 
+    /**
+     * Register {@code command} as a potential conflict of those of {@code keysOrRanges} in {@code slice}: a key with
+     * its {@link CommandsForKey}, and a range only with the store's index of range transactions, so that a range
+     * transaction costs the same however many keys it covers.
+     */
+    void register(Seekables<?, ?> keysOrRanges, Ranges slice, Command command);
+    void register(Seekable keyOrRange, Ranges slice, Command command);
+
+    /**
+     * Fold over the {@link CommandsForKey} intersecting both {@code keys} and {@code slice}, terminating early
+     * once the accumulator reaches {@code terminalValue}.
+     */
+    <P1> long foldl(Routables<?, ?> keys, Ranges slice, CommandsForKeyFoldToLong<P1> fold, P1 p1, long param, long initialValue, long terminalValue);
+
+    /**
+     * Visit each range of a range transaction intersecting both {@code keys} and {@code slice}, restricted to its
+     * intersection with them (or, for keys, with the range of {@code slice} containing them); no part of any range is
+     * visited twice. These are not necessarily registered with any {@link CommandsForKey}, as a range may contain
+     * keys that have never been visited.
+     */
+    void forEachRangeCommand(Seekables<?, ?> keys, Ranges slice, BiConsumer<Range, Command> forEach);
+
 
     CommandStore commandStore();
     DataStore dataStore();
@@ -71,6 +102,38 @@ public interface SafeCommandStore
     long latestEpoch();
     Timestamp preaccept(TxnId txnId, Seekables<?, ?> keys);
 
+    /**
+     * Every transaction with a lower TxnId than this has been applied by every replica, or never will be. We may have
+     * erased any such transaction, in which case we report it as {@link Status#Truncated}.
+     */
+    Timestamp durableBefore();
+
+    /**
+     * We will not witness any new transaction with a lower TxnId than this, so that a {@link #durableBefore} may be agreed
+     */
+    Timestamp fencedBefore();
+
+    interface AppliedVisitor
+    {
+        void visit(TxnId txnId, Timestamp executeAt, Seekables<?, ?> keys);
+    }
+
+    /**
+     * Refuse to witness any new transaction with a lower TxnId than {@code fenceBefore}, and visit each transaction we
+     * know with a lower TxnId that we have applied, and that executes at or after {@link #durableBefore}.
+     *
+     * Any such transaction that has been neither applied nor invalidated is handed to the progress log to resolve,
+     * so that a later attempt may succeed.
+     *
+     * @return false if we know some transaction with a lower TxnId, on keys we own, that has been neither applied nor invalidated
+     */
+    boolean fence(Timestamp fenceBefore, AppliedVisitor visitor);
+
+    /**
+     * Adopt a {@link #durableBefore} agreed by every replica, so that the transactions below it may be erased
+     */
+    void markDurableBefore(Timestamp durableBefore);
+
     Future<Void> execute(PreLoadContext context, Consumer<? super SafeCommandStore> consumer);
     <T> Future<T> submit(PreLoadContext context, Function<? super SafeCommandStore, T> function);
 }
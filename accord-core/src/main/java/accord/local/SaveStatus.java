@@ -49,6 +49,7 @@ public enum SaveStatus
     ReadyToExecute                  (Status.ReadyToExecute),
     PreApplied                      (Status.PreApplied),
     Applied                         (Status.Applied),
+    Truncated                       (Status.Truncated),
     Invalidated                     (Status.Invalidated);
     
     public final Status status;
@@ -102,6 +103,7 @@ public enum SaveStatus
             case ReadyToExecute: return ReadyToExecute;
             case PreApplied: return PreApplied;
             case Applied: return Applied;
+            case Truncated: return Truncated;
             case Invalidated: return Invalidated;
         }
     }
@@ -116,7 +118,8 @@ public enum SaveStatus
     public static SaveStatus merge(SaveStatus a, Ballot acceptedA, SaveStatus b, Ballot acceptedB)
     {
         SaveStatus prefer;
-        if (a.phase != b.phase) prefer = a.phase.compareTo(b.phase) >= 0 ? a : b;
+        int c = Status.comparePrecedence(a.status, b.status);
+        if (c != 0) prefer = c > 0 ? a : b;
         else if (a.phase == Phase.Accept) prefer = acceptedA.compareTo(acceptedB) >= 0 ? a : b;
         else prefer = a.compareTo(b) >= 0 ? a : b;
         return SaveStatus.enrich(prefer, (prefer == a ? b : a).known);
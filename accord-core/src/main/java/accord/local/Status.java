@@ -75,6 +75,13 @@ public enum Status
     ReadyToExecute    (Commit,    DefinitionKnown,   ExecuteAtKnown, DepsKnown,   OutcomeUnknown),
     PreApplied        (Persist,   DefinitionKnown,   ExecuteAtKnown, DepsKnown,   OutcomeKnown),
     Applied           (Persist,   DefinitionKnown,   ExecuteAtKnown, DepsKnown,   OutcomeApplied),
+
+    /**
+     * The transaction has been erased, as it has a lower TxnId than a bound before which every replica has applied
+     * every transaction it will ever apply. We no longer know if it was applied or invalidated, only that nobody
+     * need wait for it or take any further action on its behalf.
+     */
+    Truncated         (Persist,   DefinitionUnknown, ExecuteAtUnknown, DepsUnknown, Outcome.Truncated),
     Invalidated       (Persist,   NoOp,              NoExecuteAt,    NoDeps,      InvalidationApplied);
 
     /**
@@ -170,6 +177,12 @@ public enum Status
                 case InvalidationApplied:
                     return Invalidated;
 
+                case Truncated:
+                    // a replica that knows the decision supersedes one that has erased the transaction
+                    if (executeAt.isDecisionKnown())
+                        return with(OutcomeUnknown).propagate();
+                    return Status.Truncated;
+
                 case OutcomeApplied:
                 case OutcomeKnown:
                     if (executeAt.isDecisionKnown() && definition.isKnown() && deps.isDecisionKnown())
@@ -197,6 +210,11 @@ public enum Status
             return definition.isKnown();
         }
 
+        public boolean isTruncated()
+        {
+            return outcome == Outcome.Truncated;
+        }
+
         public boolean isDecisionKnown()
         {
             if (!deps.isDecisionKnown())
@@ -307,6 +325,11 @@ public enum Status
          */
         OutcomeUnknown,
 
+        /**
+         * The transaction has been erased, as every replica has either applied it or never will
+         */
+        Truncated,
+
         /**
          * The outcome is known, but may not have been applied
          */
@@ -389,9 +412,8 @@ public enum Status
 
             Status status = getStatus.apply(item);
             Ballot accepted = getAccepted.apply(item);
-            boolean update = max == null
-                          || maxStatus.phase.compareTo(status.phase) < 0
-                          || (status.phase.equals(Phase.Accept) && maxAccepted.compareTo(accepted) < 0);
+            int c = max == null ? -1 : comparePrecedence(maxStatus, status);
+            boolean update = c < 0 || (c == 0 && status.phase.equals(Phase.Accept) && maxAccepted.compareTo(accepted) < 0);
 
             if (!update)
                 continue;
@@ -406,7 +428,7 @@ public enum Status
 
     public static <T> T max(T a, Status statusA, Ballot acceptedA, T b, Status statusB, Ballot acceptedB)
     {
-        int c = statusA.phase.compareTo(statusB.phase);
+        int c = comparePrecedence(statusA, statusB);
         if (c > 0) return a;
         if (c < 0) return b;
         if (statusA.phase != Phase.Accept || acceptedA.compareTo(acceptedB) >= 0)
@@ -418,4 +440,19 @@ public enum Status
     {
         return max(a, a, acceptedA, b, b, acceptedB);
     }
+
+    /**
+     * Order two statuses by what they tell us of the transaction's decision: ordinarily by phase, but a Truncated
+     * replica knows nothing of the decision, so it gives way to any that knows it, and supersedes any that does not
+     */
+    public static int comparePrecedence(Status a, Status b)
+    {
+        if (a != Truncated && b != Truncated)
+            return a.phase.compareTo(b.phase);
+        if (a == b)
+            return 0;
+        if (a == Truncated)
+            return b.phase.compareTo(Phase.Commit) >= 0 ? -1 : 1;
+        return a.phase.compareTo(Phase.Commit) >= 0 ? 1 : -1;
+    }
 }
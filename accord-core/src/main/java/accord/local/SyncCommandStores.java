@@ -7,8 +7,8 @@ import accord.primitives.Routables;
 import accord.utils.MapReduce;
 import accord.utils.MapReduceConsume;
 
+import java.util.BitSet;
 import java.util.function.Function;
-import java.util.stream.IntStream;
 
 // TODO (soon): introduce new CommandStores that mimics asynchrony by integrating with Cluster scheduling for List workload
 public class SyncCommandStores extends CommandStores<SyncCommandStores.SyncCommandStore>
@@ -31,40 +31,40 @@ public class SyncCommandStores extends CommandStores<SyncCommandStores.SyncComma
         super(num, node, agent, store, progressLogFactory, shardFactory);
     }
 
-    protected static class SyncMapReduceAdapter<O> implements MapReduceAdapter<SyncCommandStore, O, O, O>
+    public SyncCommandStores(int num, Partitioning partitioning, Node node, Agent agent, DataStore store, ProgressLog.Factory progressLogFactory, CommandStore.Factory shardFactory)
+    {
+        super(num, partitioning, node, agent, store, progressLogFactory, shardFactory);
+    }
+
+    protected static class SyncMapReduceAdapter<O> implements MapReduceAdapter<SyncCommandStore, Object, O, O>
     {
         private static final SyncMapReduceAdapter INSTANCE = new SyncMapReduceAdapter<>();
         public static <O> SyncMapReduceAdapter<O> instance() { return INSTANCE; }
         private static final Object SENTINEL = new Object();
 
         @Override
-        public O allocate()
-        {
-            return (O)SENTINEL;
-        }
-
-        @Override
-        public O apply(MapReduce<? super SafeCommandStore, O> map, SyncCommandStore commandStore, PreLoadContext context)
+        public Object allocate()
         {
-            return commandStore.executeSync(context, map);
+            return SENTINEL;
         }
 
         @Override
-        public O reduce(MapReduce<? super SafeCommandStore, O> reduce, O prev, O next)
+        public Object apply(MapReduce<? super SafeCommandStore, O> map, SyncCommandStore commandStore, PreLoadContext context, Object accumulator)
         {
-            return prev == SENTINEL ? next : reduce.reduce(prev, next);
+            O next = commandStore.executeSync(context, map);
+            return accumulator == SENTINEL ? next : map.reduce((O) accumulator, next);
         }
 
         @Override
-        public void consume(MapReduceConsume<?, O> reduceAndConsume, O result)
+        public void consume(MapReduceConsume<? super SafeCommandStore, O> reduceAndConsume, PreLoadContext context, Object accumulator)
         {
-            reduceAndConsume.accept(result, null);
+            reduceAndConsume.accept(reduce(reduceAndConsume, context, accumulator), null);
         }
 
         @Override
-        public O reduce(MapReduce<?, O> reduce, O result)
+        public O reduce(MapReduce<? super SafeCommandStore, O> reduce, PreLoadContext context, Object accumulator)
         {
-            return result == SENTINEL ? null : result;
+            return accumulator == SENTINEL ? null : (O) accumulator;
         }
     }
 
@@ -82,7 +82,7 @@ public class SyncCommandStores extends CommandStores<SyncCommandStores.SyncComma
     }
 
     @Override
-    public <O> void mapReduceConsume(PreLoadContext context, IntStream commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume)
+    public <O> void mapReduceConsume(PreLoadContext context, BitSet commandStoreIds, MapReduceConsume<? super SafeCommandStore, O> mapReduceConsume)
     {
         try
         {
@@ -33,6 +33,12 @@ public abstract class AbstractEpochRequest<R extends Reply> implements PreLoadCo
 
     protected abstract void process();
 
+    @Override
+    public boolean processOnReceipt()
+    {
+        return true;
+    }
+
     @Override
     public R reduce(R o1, R o2)
     {
@@ -130,6 +130,12 @@ public class Accept extends TxnRequest.WithUnsynced<Accept.AcceptReply>
         return keys;
     }
 
+    @Override
+    public Priority priority()
+    {
+        return Priority.ACCEPT;
+    }
+
     @Override
     public MessageType type()
     {
@@ -219,6 +225,12 @@ public class Accept extends TxnRequest.WithUnsynced<Accept.AcceptReply>
             this.someKey = someKey;
         }
 
+        @Override
+        public Priority priority()
+        {
+            return Priority.HOUSEKEEPING;
+        }
+
         public void process()
         {
             node.mapReduceConsumeLocal(this, someKey, txnId.epoch, this);
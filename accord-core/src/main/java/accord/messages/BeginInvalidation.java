@@ -60,7 +60,9 @@ public class BeginInvalidation extends AbstractEpochRequest<BeginInvalidation.In
         boolean acceptedFastPath = o1.acceptedFastPath && o2.acceptedFastPath;
         Route<?> route =  Route.merge((Route)o1.route, o2.route);
         RoutingKey homeKey = o1.homeKey != null ? o1.homeKey : o2.homeKey != null ? o2.homeKey : null;
-        InvalidateReply maxStatus = Status.max(o1, o1.status, o1.accepted, o2, o2.status, o2.accepted);
+        // a store that has truncated the transaction knows every replica has applied it or never will
+        InvalidateReply maxStatus = o1.status == Status.Truncated ? o1 : o2.status == Status.Truncated ? o2
+                                  : Status.max(o1, o1.status, o1.accepted, o2, o2.status, o2.accepted);
         return new InvalidateReply(supersededBy, maxStatus.accepted, maxStatus.status, acceptedFastPath, route, homeKey);
     }
 
@@ -76,6 +78,12 @@ public class BeginInvalidation extends AbstractEpochRequest<BeginInvalidation.In
         return Keys.EMPTY;
     }
 
+    @Override
+    public Priority priority()
+    {
+        return Priority.HOUSEKEEPING;
+    }
+
     @Override
     public long waitForEpoch()
     {
@@ -153,6 +161,19 @@ public class BeginInvalidation extends AbstractEpochRequest<BeginInvalidation.In
             return Status.max(invalidateReplies, r -> r.status, r -> r.accepted, invalidateReply -> true);
         }
 
+        /**
+         * @return true if any replica has truncated the transaction, so that every replica has applied it or never will
+         */
+        public static boolean isTruncated(List<InvalidateReply> invalidateReplies)
+        {
+            for (InvalidateReply reply : invalidateReplies)
+            {
+                if (reply.status == Status.Truncated)
+                    return true;
+            }
+            return false;
+        }
+
         public static RoutingKey findHomeKey(List<InvalidateReply> invalidateOks)
         {
             for (InvalidateReply ok : invalidateOks)
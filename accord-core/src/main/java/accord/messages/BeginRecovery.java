@@ -19,12 +19,14 @@
 package accord.messages;
 
 import accord.api.Result;
+import accord.local.CommandsForKey.CommandTimeseries.TestDep;
 import accord.local.CommandsForKey.TxnIdWithExecuteAt;
 import accord.local.SafeCommandStore;
 import accord.local.Status.Phase;
 import accord.primitives.*;
 import accord.topology.Topologies;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -44,6 +46,7 @@ import static accord.local.CommandsForKey.CommandTimeseries.TestDep.WITHOUT;
 import static accord.local.CommandsForKey.CommandTimeseries.TestKind.RorWs;
 import static accord.local.CommandsForKey.CommandTimeseries.TestStatus.*;
 import static accord.local.Status.*;
+import static accord.local.Status.KnownDeps.DepsUnknown;
 import static accord.messages.PreAccept.calculatePartialDeps;
 
 public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
@@ -87,6 +90,23 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
     public RecoverReply apply(SafeCommandStore safeStore)
     {
         Command command = safeStore.command(txnId);
+        if (command.status() == Truncated)
+        {
+            // every replica has applied it or never will, which recovery need only learn
+            Timestamp durableBefore = safeStore.durableBefore();
+            return new RecoverOk(txnId, Truncated, command.accepted(), durableBefore, PartialDeps.NONE, Deps.NONE, Deps.NONE, false, null, null);
+        }
+
+        if (command.status() == NotWitnessed && txnId.compareTo(safeStore.fencedBefore()) < 0)
+        {
+            // we have promised not to witness any new transaction below the fence, so we promise the ballot and vote
+            // against the fast path without witnessing it; if it reached a fast path quorum it did so before the fence,
+            // and the replicas that witnessed it will prevent us agreeing a durableBefore until it is decided
+            if (!command.preacceptInvalidate(ballot))
+                return new RecoverNack(command.promised());
+            Timestamp fencedBefore = safeStore.fencedBefore();
+            return new RecoverOk(txnId, NotWitnessed, command.accepted(), fencedBefore, PartialDeps.NONE, Deps.NONE, Deps.NONE, false, null, null);
+        }
 
         switch (command.recover(safeStore, partialTxn, route != null ? route : scope, progressKey, ballot))
         {
@@ -144,6 +164,10 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
         RecoverOk ok1 = (RecoverOk) r1;
         RecoverOk ok2 = (RecoverOk) r2;
 
+        // a truncated store knows less than one that knows the decision, but more than one that does not
+        if (ok1.status == Truncated || ok2.status == Truncated)
+            return Status.max(ok1, ok1.status, ok1.accepted, ok2, ok2.status, ok2.accepted);
+
         // set ok1 to the most recent of the two
         if (ok1.status.compareTo(ok2.status) < 0 || (ok1.status == ok2.status && ok1.accepted.compareTo(ok2.accepted) < 0))
         {
@@ -151,7 +175,12 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
             ok1 = ok2;
             ok2 = tmp;
         }
-        if (!ok1.status.hasBeen(PreAccepted)) throw new IllegalStateException();
+        if (!ok1.status.hasBeen(PreAccepted))
+        {
+            // only a store fenced against witnessing the transaction replies without having witnessed it
+            Invariants.checkState(ok2.status == NotWitnessed);
+            return ok1;
+        }
 
         PartialDeps deps = ok1.deps.with(ok2.deps);
         Deps earlierCommittedWitness = ok1.earlierCommittedWitness.with(ok2.earlierCommittedWitness);
@@ -184,6 +213,12 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
         return partialTxn.keys();
     }
 
+    @Override
+    public Priority priority()
+    {
+        return Priority.HOUSEKEEPING;
+    }
+
     @Override
     public MessageType type()
     {
@@ -318,6 +353,11 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
                         builder.add(command.txnId);
                 });
             });
+            commandStore.forEachRangeCommand(keys, ranges, (range, command) -> {
+                if (isUncommitted(command) && command.txnId().compareTo(txnId) < 0 && command.hasBeen(Accepted)
+                    && witnessed(command, WITHOUT, txnId) && command.executeAt().compareTo(txnId) > 0)
+                    builder.add(range, command.txnId());
+            });
             return builder.build();
         }
     }
@@ -336,6 +376,10 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
                 forKey.committedById().before(txnId, RorWs, WITH, txnId, ANY_STATUS, null)
                         .forEach(builder::add);
             });
+            commandStore.forEachRangeCommand(keys, ranges, (range, command) -> {
+                if (isCommitted(command) && command.txnId().compareTo(txnId) < 0 && witnessed(command, WITH, txnId))
+                    builder.add(range, command.txnId());
+            });
             return builder.build();
         }
     }
@@ -349,9 +393,16 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
          * witnessed us we are safe to propose the pre-accept timestamp regardless, whereas if any transaction
          * has not witnessed us we can safely invalidate it.
          */
-        return commandStore.mapReduce(keys, ranges, forKey ->
+        List<TxnIdWithExecuteAt> rangeCommands = new ArrayList<>();
+        commandStore.forEachRangeCommand(keys, ranges, (range, command) -> {
+            if (isUncommitted(command) && command.txnId().compareTo(startedAfter) > 0 && command.hasBeen(Accepted)
+                && witnessed(command, WITHOUT, startedAfter))
+                rangeCommands.add(new TxnIdWithExecuteAt(command.txnId(), command.executeAt()));
+        });
+        Stream<? extends TxnIdWithExecuteAt> keyCommands = commandStore.mapReduce(keys, ranges, forKey ->
             forKey.uncommitted().after(startedAfter, RorWs, WITHOUT, startedAfter, HAS_BEEN, Accepted)
         , Stream::concat, Stream.empty());
+        return Stream.concat(keyCommands, rangeCommands.stream());
     }
 
     private static Stream<TxnId> committedExecutesAfterWithoutWitnessing(SafeCommandStore commandStore, TxnId startedAfter, Ranges ranges, Seekables<?, ?> keys)
@@ -363,7 +414,34 @@ public class BeginRecovery extends TxnRequest<BeginRecovery.RecoverReply>
          * witnessed us we are safe to propose the pre-accept timestamp regardless, whereas if any transaction
          * has not witnessed us we can safely invalidate it.
          */
-        return commandStore.mapReduce(keys, ranges, forKey -> forKey.committedByExecuteAt().after(startedAfter, RorWs, WITHOUT, startedAfter, ANY_STATUS, null),
+        List<TxnId> rangeCommands = new ArrayList<>();
+        commandStore.forEachRangeCommand(keys, ranges, (range, command) -> {
+            if (isCommitted(command) && command.executeAt().compareTo(startedAfter) > 0 && witnessed(command, WITHOUT, startedAfter))
+                rangeCommands.add(command.txnId());
+        });
+        Stream<TxnId> keyCommands = commandStore.mapReduce(keys, ranges, forKey -> forKey.committedByExecuteAt().after(startedAfter, RorWs, WITHOUT, startedAfter, ANY_STATUS, null),
                 Stream::concat, Stream.empty());
+        return Stream.concat(keyCommands, rangeCommands.stream());
+    }
+
+    /*
+     * Range transactions are registered with no CommandsForKey, so we apply the same tests to them directly:
+     * a CommandsForKey holds a command as uncommitted until it is committed or invalidated, and then as committed
+     * unless it was invalidated, and a test of its deps fails if none are known
+     */
+
+    private static boolean isUncommitted(Command command)
+    {
+        return !command.hasBeen(Committed);
+    }
+
+    private static boolean isCommitted(Command command)
+    {
+        return command.hasBeen(Committed) && !command.hasBeen(Invalidated);
+    }
+
+    private static boolean witnessed(Command command, TestDep testDep, TxnId txnId)
+    {
+        return command.known().deps != DepsUnknown && (command.partialDeps().contains(txnId) ^ (testDep == WITHOUT));
     }
 }
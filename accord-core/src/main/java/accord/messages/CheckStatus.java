@@ -91,6 +91,18 @@ public class CheckStatus extends AbstractEpochRequest<CheckStatus.CheckStatusOk>
         return Keys.EMPTY;
     }
 
+    @Override
+    public Priority priority()
+    {
+        return Priority.HOUSEKEEPING;
+    }
+
+    @Override
+    public boolean isReadOnly()
+    {
+        return true;
+    }
+
     public CheckStatus(Id to, Topologies topologies, TxnId txnId, Unseekables<?, ?> query, IncludeInfo includeInfo)
     {
         super(txnId);
@@ -275,7 +287,10 @@ public class CheckStatus extends AbstractEpochRequest<CheckStatus.CheckStatusOk>
         public CheckStatusOk merge(CheckStatusOk that)
         {
             CheckStatusOk max = super.merge(that);
-            CheckStatusOk maxSrc = this.saveStatus.compareTo(that.saveStatus) >= 0 ? this : that;
+            // a truncated replica knows less than any that knows the decision, but has a greater status
+            CheckStatusOk maxSrc = this.saveStatus.status == Status.Truncated || that.saveStatus.status == Status.Truncated
+                                   ? Status.max(this, this.saveStatus.status, this.accepted, that, that.saveStatus.status, that.accepted)
+                                   : this.saveStatus.compareTo(that.saveStatus) >= 0 ? this : that;
             if (!(maxSrc instanceof CheckStatusOkFull))
                 return max;
 
@@ -343,6 +358,7 @@ public class CheckStatus extends AbstractEpochRequest<CheckStatus.CheckStatusOk>
 
                     outcome = Outcome.OutcomeUnknown;
                 case InvalidationApplied:
+                case Truncated:
                 case OutcomeUnknown:
             }
 
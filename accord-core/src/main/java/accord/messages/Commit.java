@@ -32,6 +32,8 @@ import javax.annotation.Nullable;
 
 import accord.utils.Invariants;
 
+import com.google.common.collect.Iterables;
+
 import accord.topology.Topology;
 
 import static accord.local.Status.Committed;
@@ -127,16 +129,20 @@ public class Commit extends TxnRequest<ReadNack>
         }
     }
 
+    /**
+     * We register with the commandsForKey of any part of the transaction we did not already know, and consult
+     * every dependency to work out what we must wait for
+     */
     @Override
     public Iterable<TxnId> txnIds()
     {
-        return Collections.singleton(txnId);
+        return Iterables.concat(Collections.singleton(txnId), partialDeps.txnIds());
     }
 
     @Override
     public Seekables<?, ?> keys()
     {
-        return Keys.EMPTY;
+        return partialTxn == null ? Keys.EMPTY : partialTxn.keys();
     }
 
     public void process()
@@ -276,6 +282,12 @@ public class Commit extends TxnRequest<ReadNack>
                     .addCallback(node.agent());
         }
 
+        @Override
+        public boolean processOnReceipt()
+        {
+            return true;
+        }
+
         @Override
         public MessageType type()
         {
@@ -95,6 +95,12 @@ public class GetDeps extends TxnRequest.WithUnsynced<PartialDeps>
         return keys;
     }
 
+    @Override
+    public Priority priority()
+    {
+        return Priority.ACCEPT;
+    }
+
     public static class GetDepsOk implements Reply
     {
         public final PartialDeps deps;
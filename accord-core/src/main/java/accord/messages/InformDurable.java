@@ -112,4 +112,10 @@ public class InformDurable extends TxnRequest<Reply> implements PreLoadContext
     {
         return Keys.EMPTY;
     }
+
+    @Override
+    public Priority priority()
+    {
+        return Priority.HOUSEKEEPING;
+    }
 }
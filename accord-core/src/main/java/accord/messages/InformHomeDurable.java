@@ -10,6 +10,7 @@ import accord.local.Status.Durability;
 import accord.primitives.Timestamp;
 import accord.primitives.TxnId;
 
+import static accord.local.PreLoadContext.Priority.HOUSEKEEPING;
 import static accord.local.PreLoadContext.contextFor;
 
 public class InformHomeDurable implements Request
@@ -32,13 +33,19 @@ public class InformHomeDurable implements Request
     public void process(Node node, Id replyToNode, ReplyContext replyContext)
     {
         // TODO (soon): do not load txnId first
-        node.ifLocal(contextFor(txnId), homeKey, txnId.epoch, safeStore -> {
+        node.ifLocal(contextFor(txnId, HOUSEKEEPING), homeKey, txnId.epoch, safeStore -> {
             Command command = safeStore.command(txnId);
             command.setDurability(safeStore, durability, homeKey, executeAt);
             safeStore.progressLog().durable(command, persistedOn);
         }).addCallback(node.agent());
     }
 
+    @Override
+    public boolean processOnReceipt()
+    {
+        return true;
+    }
+
     @Override
     public String toString()
     {
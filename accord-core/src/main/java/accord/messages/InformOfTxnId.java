@@ -74,4 +74,10 @@ public class InformOfTxnId extends AbstractEpochRequest<Reply> implements Reques
         //              (though perhaps might check existing in-memory state in case already present)
         return Collections.singleton(txnId);
     }
+
+    @Override
+    public Priority priority()
+    {
+        return Priority.HOUSEKEEPING;
+    }
 }
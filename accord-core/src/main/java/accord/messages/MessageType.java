@@ -47,5 +47,8 @@ public enum MessageType
     INFORM_DURABLE_REQ,
     INFORM_HOME_DURABLE_REQ,
     CHECK_STATUS_REQ,
-    CHECK_STATUS_RSP
+    CHECK_STATUS_RSP,
+    PROPOSE_DURABLE_BEFORE_REQ,
+    PROPOSE_DURABLE_BEFORE_RSP,
+    SET_DURABLE_BEFORE_REQ
 }
@@ -82,6 +82,12 @@ public class PreAccept extends WithUnsynced<PreAccept.PreAcceptReply>
         return partialTxn.keys();
     }
 
+    @Override
+    public Priority priority()
+    {
+        return Priority.PREACCEPT;
+    }
+
     @Override
     protected void process()
     {
@@ -99,6 +105,9 @@ public class PreAccept extends WithUnsynced<PreAccept.PreAcceptReply>
             default:
             case Success:
             case Redundant:
+                // every replica has applied a truncated transaction or never will, so we cannot vote for it
+                if (command.status() == Status.Truncated)
+                    return PreAcceptNack.INSTANCE;
                 return new PreAcceptOk(txnId, command.executeAt(), calculatePartialDeps(safeStore, txnId, partialTxn.keys(), partialTxn.kind(), txnId, safeStore.ranges().between(minEpoch, txnId.epoch)));
 
             case RejectedBallot:
@@ -210,7 +219,7 @@ public class PreAccept extends WithUnsynced<PreAccept.PreAcceptReply>
 
     static PartialDeps calculatePartialDeps(SafeCommandStore commandStore, TxnId txnId, Seekables<?, ?> keys, Txn.Kind kindOfTxn, Timestamp executeAt, Ranges ranges)
     {
-        try (PartialDeps.OrderedBuilder builder = PartialDeps.orderedBuilder(ranges, false))
+        try (PartialDeps.OrderedBuilder builder = PartialDeps.recycledOrderedBuilder(ranges, false))
         {
             return calculateDeps(commandStore, txnId, keys, kindOfTxn, executeAt, ranges, builder);
         }
@@ -231,9 +240,38 @@ public class PreAccept extends WithUnsynced<PreAccept.PreAcceptReply>
                     });
         });
 
+        // range transactions are recorded against their ranges, as they may cover keys we hold no commandsForKey for
+        commandStore.forEachRangeCommand(keys, ranges, (range, command) -> {
+            if (!command.txnId().equals(txnId) && isRangeDependency(command, testKind, executeAt))
+                builder.add(range, command.txnId());
+        });
+
         return builder.build();
     }
 
+    /**
+     * Mirrors the selection made from each {@link CommandsForKey} for a command that is indexed only by its ranges
+     */
+    private static boolean isRangeDependency(Command command, TestKind testKind, Timestamp executeAt)
+    {
+        if (testKind == Ws && !command.kind().isWrite())
+            return false;
+
+        switch (command.status())
+        {
+            case Truncated:
+            case Invalidated:
+                return false;
+            case Committed:
+            case ReadyToExecute:
+            case PreApplied:
+            case Applied:
+                return command.executeAt().compareTo(executeAt) < 0;
+            default:
+                return command.txnId().compareTo(executeAt) < 0;
+        }
+    }
+
     @Override
     public String toString()
     {
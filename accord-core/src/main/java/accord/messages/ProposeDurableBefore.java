@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.messages;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import accord.local.Node;
+import accord.local.Node.Id;
+import accord.local.PreLoadContext;
+import accord.local.SafeCommandStore;
+import accord.primitives.Keys;
+import accord.primitives.Seekables;
+import accord.primitives.Timestamp;
+import accord.primitives.TxnId;
+import accord.utils.MapReduceConsume;
+
+import static accord.local.PreLoadContext.Priority.HOUSEKEEPING;
+import static accord.local.PreLoadContext.contextFor;
+import static java.util.Collections.emptyList;
+
+/**
+ * Fence every command store of the recipient against witnessing any new transaction with a lower TxnId than
+ * {@link #durableBefore}, and report whether it has applied (or will never apply) every such transaction it knows,
+ * along with those it has applied that execute at or after its current durableBefore, so that the coordinator may
+ * check every replica of a shard has applied the same transactions.
+ */
+public class ProposeDurableBefore implements Request, MapReduceConsume<SafeCommandStore, ProposeDurableBefore.ProposeDurableBeforeReply>
+{
+    public static class SerializerSupport
+    {
+        public static ProposeDurableBefore create(Timestamp durableBefore)
+        {
+            return new ProposeDurableBefore(durableBefore);
+        }
+    }
+
+    public final Timestamp durableBefore;
+
+    private transient Node node;
+    private transient Id replyTo;
+    private transient ReplyContext replyContext;
+
+    public ProposeDurableBefore(Timestamp durableBefore)
+    {
+        this.durableBefore = durableBefore;
+    }
+
+    @Override
+    public void process(Node node, Id replyTo, ReplyContext replyContext)
+    {
+        this.node = node;
+        this.replyTo = replyTo;
+        this.replyContext = replyContext;
+        PreLoadContext context = contextFor(emptyList(), Keys.EMPTY, HOUSEKEEPING);
+        node.commandStores().mapReduceConsume(context, this);
+    }
+
+    @Override
+    public ProposeDurableBeforeReply apply(SafeCommandStore safeStore)
+    {
+        List<AppliedTxn> applied = new ArrayList<>();
+        boolean isReady = safeStore.fence(durableBefore, (txnId, executeAt, keys) -> applied.add(new AppliedTxn(txnId, executeAt, keys)));
+        return new ProposeDurableBeforeReply(node.topology().epoch(), isReady, safeStore.durableBefore(), applied);
+    }
+
+    @Override
+    public ProposeDurableBeforeReply reduce(ProposeDurableBeforeReply r1, ProposeDurableBeforeReply r2)
+    {
+        return r1.merge(r2);
+    }
+
+    @Override
+    public void accept(ProposeDurableBeforeReply reply, Throwable failure)
+    {
+        if (failure != null)
+        {
+            // the coordinator will time out and try again with a later bound
+            node.agent().onUncaughtException(failure);
+            return;
+        }
+        node.reply(replyTo, replyContext, reply);
+    }
+
+    @Override
+    public MessageType type()
+    {
+        return MessageType.PROPOSE_DURABLE_BEFORE_REQ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ProposeDurableBefore{" + durableBefore + '}';
+    }
+
+    public static class AppliedTxn
+    {
+        public final TxnId txnId;
+        public final Timestamp executeAt;
+        public final Seekables<?, ?> keys;
+
+        public AppliedTxn(TxnId txnId, Timestamp executeAt, Seekables<?, ?> keys)
+        {
+            this.txnId = txnId;
+            this.executeAt = executeAt;
+            this.keys = keys;
+        }
+
+        @Override
+        public String toString()
+        {
+            return txnId + "@" + executeAt;
+        }
+    }
+
+    public static class ProposeDurableBeforeReply implements Reply
+    {
+        // the epoch the replica had reached when it was fenced
+        public final long epoch;
+        // true iff every transaction the replica knows below the proposed bound has been applied or never will be
+        public final boolean isReady;
+        // the greatest bound the replica has previously adopted
+        public final Timestamp durableBefore;
+        public final List<AppliedTxn> applied;
+
+        public ProposeDurableBeforeReply(long epoch, boolean isReady, Timestamp durableBefore, List<AppliedTxn> applied)
+        {
+            this.epoch = epoch;
+            this.isReady = isReady;
+            this.durableBefore = durableBefore;
+            this.applied = applied;
+        }
+
+        ProposeDurableBeforeReply merge(ProposeDurableBeforeReply that)
+        {
+            List<AppliedTxn> applied = new ArrayList<>(this.applied.size() + that.applied.size());
+            applied.addAll(this.applied);
+            applied.addAll(that.applied);
+            return new ProposeDurableBeforeReply(Math.min(this.epoch, that.epoch), this.isReady && that.isReady,
+                                                 Timestamp.max(this.durableBefore, that.durableBefore), applied);
+        }
+
+        @Override
+        public MessageType type()
+        {
+            return MessageType.PROPOSE_DURABLE_BEFORE_RSP;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ProposeDurableBeforeReply{epoch:" + epoch + ", isReady:" + isReady + ", durableBefore:" + durableBefore + '}';
+        }
+    }
+}
@@ -126,6 +126,7 @@ public class ReadData extends AbstractEpochRequest<ReadData.ReadNack> implements
 
             case PreApplied:
             case Applied:
+            case Truncated:
             case Invalidated:
                 obsolete();
             case ReadyToExecute:
@@ -172,6 +173,7 @@ public class ReadData extends AbstractEpochRequest<ReadData.ReadNack> implements
 
             case PreApplied:
             case Applied:
+            case Truncated:
             case Invalidated:
                 isObsolete = true;
                 return Redundant;
@@ -199,7 +201,7 @@ public class ReadData extends AbstractEpochRequest<ReadData.ReadNack> implements
             node.reply(replyTo, replyContext, ReadNack.Error);
             data = null;
             node.agent().onUncaughtException(failure); // TODO: probably a better way to handle this, as might not be uncaught
-            node.commandStores().mapReduceConsume(this, waitingOn.stream(), forEach(in -> in.command(txnId).removeListener(this), node.agent()));
+            node.commandStores().mapReduceConsume(this, waitingOn, forEach(in -> in.command(txnId).removeListener(this), node.agent()));
         }
         else
         {
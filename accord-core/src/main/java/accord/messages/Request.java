@@ -25,4 +25,10 @@ public interface Request extends Message
 {
     void process(Node on, Id from, ReplyContext replyContext);
     default long waitForEpoch() { return 0; }
+
+    /**
+     * @return true iff {@link #process} reads only thread-safe node state before handing its work to the relevant
+     * command stores, so that it may be invoked directly by whichever thread received the request
+     */
+    default boolean processOnReceipt() { return false; }
 }
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.messages;
+
+import accord.local.Node;
+import accord.local.Node.Id;
+import accord.primitives.Timestamp;
+
+/**
+ * Inform a replica that every replica has applied every transaction with a lower TxnId than {@link #durableBefore}
+ * that it ever will, so that it may erase them
+ */
+public class SetDurableBefore implements Request
+{
+    public static class SerializerSupport
+    {
+        public static SetDurableBefore create(Timestamp durableBefore)
+        {
+            return new SetDurableBefore(durableBefore);
+        }
+    }
+
+    public final Timestamp durableBefore;
+
+    public SetDurableBefore(Timestamp durableBefore)
+    {
+        this.durableBefore = durableBefore;
+    }
+
+    @Override
+    public void process(Node node, Id replyToNode, ReplyContext replyContext)
+    {
+        node.commandStores().markDurableBefore(durableBefore).addCallback(node.agent());
+    }
+
+    @Override
+    public boolean processOnReceipt()
+    {
+        return true;
+    }
+
+    @Override
+    public MessageType type()
+    {
+        return MessageType.SET_DURABLE_BEFORE_REQ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SetDurableBefore{" + durableBefore + '}';
+    }
+}
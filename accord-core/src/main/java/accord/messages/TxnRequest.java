@@ -153,6 +153,12 @@ public abstract class TxnRequest<R> implements Request, PreLoadContext, MapReduc
 
     protected abstract void process();
 
+    @Override
+    public boolean processOnReceipt()
+    {
+        return true;
+    }
+
     // finds the first topology index that intersects with the node
     protected static int latestRelevantEpochIndex(Node.Id node, Topologies topologies, Routables<?, ?> route)
     {
@@ -73,6 +73,12 @@ public class WaitOnCommit implements Request, MapReduceConsume<SafeCommandStore,
         node.mapReduceConsumeLocal(this, scope, txnId.epoch, txnId.epoch, this);
     }
 
+    @Override
+    public boolean processOnReceipt()
+    {
+        return true;
+    }
+
     @Override
     public Void apply(SafeCommandStore instance)
     {
@@ -93,6 +99,7 @@ public class WaitOnCommit implements Request, MapReduceConsume<SafeCommandStore,
             case Committed:
             case PreApplied:
             case Applied:
+            case Truncated:
             case Invalidated:
             case ReadyToExecute:
         }
@@ -118,6 +125,7 @@ public class WaitOnCommit implements Request, MapReduceConsume<SafeCommandStore,
             case ReadyToExecute:
             case PreApplied:
             case Applied:
+            case Truncated:
             case Invalidated:
         }
 
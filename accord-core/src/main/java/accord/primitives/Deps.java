@@ -31,6 +31,7 @@ import accord.utils.ArrayBuffers;
 import accord.api.RoutingKey;
 import accord.utils.SortedArrays;
 import accord.utils.Invariants;
+import accord.utils.Tournament;
 
 import static accord.utils.ArrayBuffers.*;
 import static accord.utils.SortedArrays.*;
@@ -40,6 +41,9 @@ import static accord.utils.Utils.listOf;
 /**
  * A collection of dependencies for a transaction, organised by the key the dependency is adopted via.
  * An inverse map from TxnId to Key may also be constructed and stored in this collection.
+ *
+ * Dependencies adopted via a range, rather than a key, are held separately in {@link RangeDeps}, so that
+ * range transactions need not be represented by every key they touch.
  */
 // TODO: switch to RoutingKey? Would mean adopting execution dependencies less precisely
 public class Deps implements Iterable<Map.Entry<Key, TxnId>>
@@ -64,10 +68,28 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
             return deps.keyToTxnId[idx];
         }
 
+        /**
+         * The sorted, unique, TxnId of these deps; the array must not be modified
+         */
+        public static TxnId[] txnIds(Deps deps)
+        {
+            return deps.txnIds;
+        }
+
+        public static RangeDeps rangeDeps(Deps deps)
+        {
+            return deps.rangeDeps;
+        }
+
         public static Deps create(Keys keys, TxnId[] txnIds, int[] keyToTxnId)
         {
             return new Deps(keys, txnIds, keyToTxnId);
         }
+
+        public static Deps create(Keys keys, TxnId[] txnIds, int[] keyToTxnId, RangeDeps rangeDeps)
+        {
+            return new Deps(keys, txnIds, keyToTxnId, rangeDeps);
+        }
     }
 
     public static Deps none(Keys keys)
@@ -85,14 +107,20 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         return new OrderedBuilder(hasOrderedTxnId);
     }
 
-    // TODO: cache this object to reduce setup/teardown and allocation
+    /**
+     * Builders take their buffers from the pools of the constructing thread, so must be confined to that thread.
+     * A builder may be reused by invoking {@link #reset()} once its result has been built, which retains its buffers
+     * unless they have grown beyond {@link #MAX_RETAINED_LENGTH}.
+     */
     public static abstract class AbstractOrderedBuilder<T extends Deps> implements AutoCloseable
     {
+        static final int MAX_RETAINED_LENGTH = 1 << 8;
+
         final ObjectBuffers<TxnId> cachedTxnIds = cachedTxnIds();
         final ObjectBuffers<Key> cachedKeys = cachedKeys();
         final IntBuffers cachedInts = cachedInts();
 
-        final boolean hasOrderedTxnId;
+        boolean hasOrderedTxnId;
         Key[] keys;
         int[] keyLimits;
         // txnId -> Offset
@@ -100,6 +128,7 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         int keyCount;
         int keyOffset;
         int totalCount;
+        RangeDeps.Builder rangeDeps;
 
         public AbstractOrderedBuilder(boolean hasOrderedTxnId)
         {
@@ -111,7 +140,7 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
 
         public boolean isEmpty()
         {
-            return totalCount() == 0;
+            return totalCount() == 0 && (rangeDeps == null || rangeDeps.isEmpty());
         }
 
         private int totalCount()
@@ -135,7 +164,7 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
                 System.arraycopy(keys, 0, newKeys, 0, keyCount);
                 cachedKeys.forceDiscard(keys, keyCount);
                 keys = newKeys;
-                int[] newKeyLimits = cachedInts.getInts(keyCount * 2);
+                int[] newKeyLimits = cachedInts.getInts(newKeys.length);
                 System.arraycopy(keyLimits, 0, newKeyLimits, 0, keyCount);
                 cachedInts.forceDiscard(keyLimits, keyCount);
                 keyLimits = newKeyLimits;
@@ -191,10 +220,21 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
             keyToTxnId[totalCount++] = txnId;
         }
 
+        /**
+         * Add this command as a dependency for the range, which may be visited in any order relative to the keys
+         */
+        public void add(Range range, TxnId txnId)
+        {
+            if (rangeDeps == null)
+                rangeDeps = RangeDeps.builder();
+            rangeDeps.add(range, txnId);
+        }
+
         public T build()
         {
+            RangeDeps rangeDeps = this.rangeDeps == null ? RangeDeps.NONE : this.rangeDeps.build();
             if (totalCount == 0)
-                return build(Keys.EMPTY, NO_TXNIDS, NO_INTS);
+                return build(Keys.EMPTY, NO_TXNIDS, NO_INTS, rangeDeps);
 
             finishKey();
 
@@ -224,15 +264,56 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
                 }, keyCount, offset, -1);
             }
 
-            return build(Keys.ofSortedUnchecked(cachedKeys.complete(keys, keyCount)), txnIds, result);
+            Key[] sortedKeys = cachedKeys.complete(keys, keyCount);
+            if (sortedKeys == keys)
+                keys = null; // the result owns our buffer, so we must not reuse it
+            return build(Keys.ofSortedUnchecked(sortedKeys), txnIds, result, rangeDeps);
         }
 
-        abstract T build(Keys keys, TxnId[] txnIds, int[] keyToTxnId);
+        abstract T build(Keys keys, TxnId[] txnIds, int[] keyToTxnId, RangeDeps rangeDeps);
+
+        /**
+         * Clear this builder so that it may build another result
+         */
+        public void reset()
+        {
+            if (keys == null || keys.length > MAX_RETAINED_LENGTH)
+            {
+                if (keys != null)
+                    cachedKeys.forceDiscard(keys, keyCount);
+                keys = cachedKeys.get(16);
+            }
+            else
+            {
+                // finishKey may have dropped a trailing key without erasing it
+                Arrays.fill(keys, 0, Math.min(keyCount + 1, keys.length), null);
+            }
+
+            if (keyLimits.length < keys.length || keyLimits.length > MAX_RETAINED_LENGTH)
+            {
+                cachedInts.forceDiscard(keyLimits, keyCount);
+                keyLimits = cachedInts.getInts(keys.length);
+            }
+
+            if (keyToTxnId.length > MAX_RETAINED_LENGTH)
+            {
+                cachedTxnIds.forceDiscard(keyToTxnId, totalCount);
+                keyToTxnId = cachedTxnIds.get(16);
+            }
+            else
+            {
+                Arrays.fill(keyToTxnId, 0, totalCount, null);
+            }
+
+            keyCount = keyOffset = totalCount = 0;
+            rangeDeps = null;
+        }
 
         @Override
         public void close()
         {
-            cachedKeys.discard(keys, keyCount);
+            if (keys != null)
+                cachedKeys.discard(keys, keyCount);
             cachedInts.forceDiscard(keyLimits, keyCount);
             cachedTxnIds.forceDiscard(keyToTxnId, totalCount);
         }
@@ -246,168 +327,243 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         }
 
         @Override
-        Deps build(Keys keys, TxnId[] txnIds, int[] keysToTxnIds)
+        Deps build(Keys keys, TxnId[] txnIds, int[] keysToTxnIds, RangeDeps rangeDeps)
         {
-            return new Deps(keys, txnIds, keysToTxnIds);
+            return new Deps(keys, txnIds, keysToTxnIds, rangeDeps);
         }
     }
 
     /**
-     * An object for managing a sequence of efficient linear merges Deps objects.
-     * Its primary purpose is to manage input and output buffers, so that we reuse output buffers
-     * as input to the next merge, and if any input is a superset of the other inputs that this input
-     * is returned unmodified.
+     * Merges any number of Deps in a single pass, rather than by a sequence of pairwise merges.
+     *
+     * The keys and txnIds of the inputs are each merged by a {@link Tournament}, recording for every input
+     * the position of each of its keys and txnIds in the output. The txnIds of each output key are then merged
+     * from those inputs containing the key; as the txnId remapping preserves order, these remain sorted.
      *
-     * This is achieved by using PassThroughXBuffers so that the result buffers (and their sizes) are returned
-     * unmodified, and the buffers are cached as far as possible. In general, the buffers should be taken
-     * out of pre-existing caches, but if the buffers are too large then we cache any additional buffers we
-     * allocate for the duration of the merge.
+     * If the result is equal to one of the inputs, that input is returned unmodified.
      */
-    private static class LinearMerger extends PassThroughObjectAndIntBuffers<TxnId> implements DepsConstructor<Key, TxnId, Object>
+    private static class Merger
     {
-        final PassThroughObjectBuffers<Key> keyBuffers;
-        Key[] bufKeys;
-        TxnId[] bufTxnIds;
-        int[] buf = null;
-        int bufKeysLength, bufTxnIdsLength = 0, bufLength = 0;
-        Deps from = null;
-
-        LinearMerger()
+        final IntBuffers cachedInts = cachedInts();
+        final ObjectBuffers<Key> cachedKeys = cachedKeys();
+        final ObjectBuffers<TxnId> cachedTxnIds = cachedTxnIds();
+
+        final Deps[] inputs;
+        final int count;
+        final int[] cursors;
+        final int[] keyRemapOffsets, txnIdRemapOffsets;
+
+        // the inputs containing the key currently being merged, and their positions within its txnIds
+        final int[] participants, listCursors, listLimits;
+        int participantCount;
+
+        int[] keyRemap, txnIdRemap;
+
+        Merger(Deps[] inputs, int count)
         {
-            super(cachedTxnIds(), cachedInts());
-            keyBuffers = new PassThroughObjectBuffers<>(cachedKeys());
+            this.inputs = inputs;
+            this.count = count;
+            this.cursors = new int[count];
+            this.keyRemapOffsets = new int[count];
+            this.txnIdRemapOffsets = new int[count];
+            this.participants = new int[count];
+            this.listCursors = new int[count];
+            this.listLimits = new int[count];
         }
 
-        @Override
-        public Object construct(Key[] keys, int keysLength, TxnId[] txnIds, int txnIdsLength, int[] out, int outLength)
+        final Tournament keyTournament = new Tournament()
         {
-            if (from == null)
+            @Override
+            protected boolean isExhausted(int input)
             {
-                // if our input buffers were themselves buffers, we want to discard them unless they have been returned back to us
-                discard(keys, txnIds, out);
+                return cursors[input] == inputs[input].keys.size();
             }
-            else if (buf != out)
+
+            @Override
+            protected int compare(int left, int right)
             {
-                // the output is not equal to a prior input
-                from = null;
+                return inputs[left].keys.get(cursors[left]).compareTo(inputs[right].keys.get(cursors[right]));
             }
+        };
 
-            if (from == null)
+        final Tournament txnIdTournament = new Tournament()
+        {
+            @Override
+            protected boolean isExhausted(int input)
             {
-                bufKeys = keys;
-                bufKeysLength = keysLength;
-                bufTxnIds = txnIds;
-                bufTxnIdsLength = txnIdsLength;
-                buf = out;
-                bufLength = outLength;
+                return cursors[input] == inputs[input].txnIds.length;
             }
-            else
+
+            @Override
+            protected int compare(int left, int right)
             {
-                Invariants.checkState(keys == bufKeys && keysLength == bufKeysLength);
-                Invariants.checkState(txnIds == bufTxnIds && txnIdsLength == bufTxnIdsLength);
-                Invariants.checkState(outLength == bufLength);
+                return inputs[left].txnIds[cursors[left]].compareTo(inputs[right].txnIds[cursors[right]]);
             }
-            return null;
-        }
+        };
 
-        void update(Deps deps)
+        // indexes participants, rather than inputs
+        final Tournament listTournament = new Tournament()
         {
-            if (buf == null)
+            @Override
+            protected boolean isExhausted(int participant)
             {
-                bufKeys = deps.keys.keys;
-                bufKeysLength = deps.keys.keys.length;
-                bufTxnIds = deps.txnIds;
-                bufTxnIdsLength = deps.txnIds.length;
-                buf = deps.keyToTxnId;
-                bufLength = deps.keyToTxnId.length;
-                from = deps;
-                return;
+                return listCursors[participant] == listLimits[participant];
             }
 
-            linearUnion(
-                    bufKeys, bufKeysLength, bufTxnIds, bufTxnIdsLength, buf, bufLength,
-                    deps.keys.keys, deps.keys.keys.length, deps.txnIds, deps.txnIds.length, deps.keyToTxnId, deps.keyToTxnId.length,
-                    keyBuffers, this, this, this
-            );
-            if (buf == deps.keyToTxnId)
+            @Override
+            protected int compare(int left, int right)
             {
-                Invariants.checkState(deps.keys.keys == bufKeys && deps.keys.keys.length == bufKeysLength);
-                Invariants.checkState(deps.txnIds == bufTxnIds && deps.txnIds.length == bufTxnIdsLength);
-                Invariants.checkState(deps.keyToTxnId.length == bufLength);
-                from = deps;
+                return Integer.compare(head(left), head(right));
             }
-        }
-
-        Deps get()
-        {
-            if (buf == null)
-                return NONE;
-
-            if (from != null)
-                return from;
-
-            return new Deps(
-                    Keys.ofSortedUnchecked(keyBuffers.realComplete(bufKeys, bufKeysLength)),
-                    realComplete(bufTxnIds, bufTxnIdsLength),
-                    realComplete(buf, bufLength));
-        }
+        };
 
-        /**
-         * Free any buffers we no longer need
-         */
-        void discard()
+        int head(int participant)
         {
-            if (from == null)
-                discard(null, null, null);
+            int input = participants[participant];
+            return txnIdRemap[txnIdRemapOffsets[input] + inputs[input].keyToTxnId[listCursors[participant]]];
         }
 
-        /**
-         * Free buffers unless they are equal to the corresponding parameter
-         */
-        void discard(Key[] freeKeysIfNot, TxnId[] freeTxnIdsIfNot, int[] freeBufIfNot)
+        Deps merge()
         {
-            if (from != null)
-                return;
-
-            if (bufKeys != freeKeysIfNot)
+            int totalKeys = 0, totalTxnIds = 0, totalMappings = 0;
+            for (int i = 0 ; i < count ; ++i)
             {
-                keyBuffers.realDiscard(bufKeys, bufKeysLength);
-                bufKeys = null;
+                Deps input = inputs[i];
+                keyRemapOffsets[i] = totalKeys;
+                txnIdRemapOffsets[i] = totalTxnIds;
+                totalKeys += input.keys.size();
+                totalTxnIds += input.txnIds.length;
+                totalMappings += input.keyToTxnId.length - input.keys.size();
             }
-            if (bufTxnIds != freeTxnIdsIfNot)
+
+            Key[] keys = null;
+            TxnId[] txnIds = null;
+            int[] keyToTxnId = null;
+            int keyCount = 0, txnIdCount = 0, keyToTxnIdCount = 0;
+            keyRemap = cachedInts.getInts(totalKeys);
+            txnIdRemap = cachedInts.getInts(totalTxnIds);
+            try
             {
-                realDiscard(bufTxnIds, bufTxnIdsLength);
-                bufTxnIds = null;
+                keys = cachedKeys.get(totalKeys);
+                Arrays.fill(cursors, 0);
+                keyTournament.reset(count);
+                for (int winner = keyTournament.winner() ; winner >= 0 ; winner = keyTournament.winner())
+                {
+                    Key key = inputs[winner].keys.get(cursors[winner]);
+                    if (keyCount == 0 || keys[keyCount - 1].compareTo(key) != 0)
+                        keys[keyCount++] = key;
+                    keyRemap[keyRemapOffsets[winner] + cursors[winner]++] = keyCount - 1;
+                    keyTournament.replay(winner);
+                }
+
+                txnIds = cachedTxnIds.get(totalTxnIds);
+                Arrays.fill(cursors, 0);
+                txnIdTournament.reset(count);
+                for (int winner = txnIdTournament.winner() ; winner >= 0 ; winner = txnIdTournament.winner())
+                {
+                    TxnId txnId = inputs[winner].txnIds[cursors[winner]];
+                    if (txnIdCount == 0 || txnIds[txnIdCount - 1].compareTo(txnId) != 0)
+                        txnIds[txnIdCount++] = txnId;
+                    txnIdRemap[txnIdRemapOffsets[winner] + cursors[winner]++] = txnIdCount - 1;
+                    txnIdTournament.replay(winner);
+                }
+
+                keyToTxnId = cachedInts.getInts(keyCount + totalMappings);
+                keyToTxnIdCount = keyCount;
+                Arrays.fill(cursors, 0);
+                for (int k = 0 ; k < keyCount ; ++k)
+                {
+                    participantCount = 0;
+                    for (int i = 0 ; i < count ; ++i)
+                    {
+                        Deps input = inputs[i];
+                        int keyIndex = cursors[i];
+                        if (keyIndex == input.keys.size() || keyRemap[keyRemapOffsets[i] + keyIndex] != k)
+                            continue;
+
+                        int p = participantCount++;
+                        participants[p] = i;
+                        listCursors[p] = keyIndex == 0 ? input.keys.size() : input.keyToTxnId[keyIndex - 1];
+                        listLimits[p] = input.keyToTxnId[keyIndex];
+                        cursors[i] = keyIndex + 1;
+                    }
+
+                    if (participantCount == 1)
+                    {
+                        // common for disjoint keys, and requires no deduplication
+                        for (int i = listCursors[0], limit = listLimits[0] ; i < limit ; ++i)
+                        {
+                            listCursors[0] = i;
+                            keyToTxnId[keyToTxnIdCount++] = head(0);
+                        }
+                    }
+                    else
+                    {
+                        int start = keyToTxnIdCount;
+                        listTournament.reset(participantCount);
+                        for (int winner = listTournament.winner() ; winner >= 0 ; winner = listTournament.winner())
+                        {
+                            int txnIdIndex = head(winner);
+                            if (keyToTxnIdCount == start || keyToTxnId[keyToTxnIdCount - 1] != txnIdIndex)
+                                keyToTxnId[keyToTxnIdCount++] = txnIdIndex;
+                            ++listCursors[winner];
+                            listTournament.replay(winner);
+                        }
+                    }
+                    keyToTxnId[k] = keyToTxnIdCount;
+                }
+
+                for (int i = 0 ; i < count ; ++i)
+                {
+                    Deps input = inputs[i];
+                    if (input.keys.size() == keyCount && input.txnIds.length == txnIdCount && input.keyToTxnId.length == keyToTxnIdCount)
+                        return input;
+                }
+
+                return new Deps(Keys.ofSortedUnchecked(cachedKeys.complete(keys, keyCount)),
+                                cachedTxnIds.complete(txnIds, txnIdCount),
+                                cachedInts.complete(keyToTxnId, keyToTxnIdCount));
             }
-            if (buf != freeBufIfNot)
+            finally
             {
-                realDiscard(buf, bufLength);
-                buf = null;
+                cachedInts.forceDiscard(keyRemap, totalKeys);
+                cachedInts.forceDiscard(txnIdRemap, totalTxnIds);
+                if (keys != null) cachedKeys.discard(keys, keyCount);
+                if (txnIds != null) cachedTxnIds.discard(txnIds, txnIdCount);
+                if (keyToTxnId != null) cachedInts.discard(keyToTxnId, keyToTxnIdCount);
             }
         }
     }
 
     public static <T> Deps merge(List<T> merge, Function<T, Deps> getter)
     {
-        LinearMerger linearMerger = new LinearMerger();
-        try
+        Deps[] inputs = null;
+        int count = 0;
+        boolean hasRangeDeps = false;
+        for (int i = 0, size = merge.size() ; i < size ; ++i)
         {
-            int mergeIndex = 0, mergeSize = merge.size();
-            while (mergeIndex < mergeSize)
-            {
-                Deps deps = getter.apply(merge.get(mergeIndex++));
-                if (deps == null || deps.isEmpty())
-                    continue;
-
-                linearMerger.update(deps);
-            }
+            Deps deps = getter.apply(merge.get(i));
+            if (deps == null || deps.isEmpty())
+                continue;
 
-            return linearMerger.get();
+            if (inputs == null)
+                inputs = new Deps[size - i];
+            inputs[count++] = deps;
+            hasRangeDeps |= !deps.rangeDeps.isEmpty();
         }
-        finally
+
+        switch (count)
         {
-            linearMerger.discard();
+            case 0: return NONE;
+            case 1: return inputs[0];
+            case 2: return inputs[0].with(inputs[1]);
         }
+
+        Deps result = new Merger(inputs, count).merge();
+        if (!hasRangeDeps)
+            return result;
+
+        return result.withRangeDeps(RangeDeps.merge(Arrays.asList(inputs).subList(0, count), deps -> deps.rangeDeps));
     }
 
     final Keys keys; // unique Keys
@@ -433,12 +589,19 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
     final int[] keyToTxnId; // Key -> [TxnId]
     // Lazy loaded in ensureTxnIdToKey()
     int[] txnIdToKey; // TxnId -> [Key]
+    final RangeDeps rangeDeps; // Range -> [TxnId]
 
     Deps(Keys keys, TxnId[] txnIds, int[] keyToTxnId)
+    {
+        this(keys, txnIds, keyToTxnId, RangeDeps.NONE);
+    }
+
+    Deps(Keys keys, TxnId[] txnIds, int[] keyToTxnId, RangeDeps rangeDeps)
     {
         this.keys = keys;
         this.txnIds = txnIds;
         this.keyToTxnId = keyToTxnId;
+        this.rangeDeps = rangeDeps;
         if (!(keys.isEmpty() || keyToTxnId[keys.size() - 1] == keyToTxnId.length))
             throw new IllegalArgumentException(String.format("Last key (%s) in keyToTxnId does not point (%d) to the end of the array (%d);\nkeyToTxnId=%s", keys.get(keys.size() - 1), keyToTxnId[keys.size() - 1], keyToTxnId.length, Arrays.toString(keyToTxnId)));
         if (DEBUG_CHECKS)
@@ -448,16 +611,17 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
     // TODO: offer option of computing the maximal KeyRanges that covers the same set of keys as covered by the parameter
     public PartialDeps slice(Ranges ranges)
     {
-        if (isEmpty())
-            return new PartialDeps(ranges, keys, txnIds, keyToTxnId);
+        RangeDeps rangeDeps = this.rangeDeps.slice(ranges);
+        if (!hasKeyDeps())
+            return new PartialDeps(ranges, keys, txnIds, keyToTxnId, rangeDeps);
 
         Keys select = keys.slice(ranges);
 
         if (select.isEmpty())
-            return new PartialDeps(ranges, Keys.EMPTY, NO_TXNIDS, NO_INTS);
+            return new PartialDeps(ranges, Keys.EMPTY, NO_TXNIDS, NO_INTS, rangeDeps);
 
         if (select.size() == keys.size())
-            return new PartialDeps(ranges, keys, txnIds, keyToTxnId);
+            return new PartialDeps(ranges, keys, txnIds, keyToTxnId, rangeDeps);
 
         int i = 0;
         int offset = select.size();
@@ -491,7 +655,7 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         }
 
         TxnId[] txnIds = trimUnusedTxnId(select, this.txnIds, trg);
-        return new PartialDeps(ranges, select, txnIds, trg);
+        return new PartialDeps(ranges, select, txnIds, trg, rangeDeps);
     }
 
     /**
@@ -550,6 +714,10 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         if (isEmpty() || that.isEmpty())
             return isEmpty() ? that : this;
 
+        RangeDeps rangeDeps = this.rangeDeps.with(that.rangeDeps);
+        if (!this.hasKeyDeps() || !that.hasKeyDeps())
+            return (this.hasKeyDeps() ? this : that).withRangeDeps(rangeDeps);
+
         return linearUnion(
                 this.keys.keys, this.keys.keys.length, this.txnIds, this.txnIds.length, this.keyToTxnId, this.keyToTxnId.length,
                 that.keys.keys, that.keys.keys.length, that.txnIds, that.txnIds.length, that.keyToTxnId, that.keyToTxnId.length,
@@ -557,10 +725,22 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
                 (keys, keysLength, txnIds, txnIdsLength, out, outLength) ->
                         new Deps(Keys.ofSortedUnchecked(cachedKeys().complete(keys, keysLength)),
                                 cachedTxnIds().complete(txnIds, txnIdsLength),
-                                cachedInts().complete(out, outLength))
+                                cachedInts().complete(out, outLength),
+                                rangeDeps)
                 );
     }
 
+    /**
+     * @return these key dependencies with {@code rangeDeps} in place of any present, or {@code this} if they are the same
+     */
+    Deps withRangeDeps(RangeDeps rangeDeps)
+    {
+        if (rangeDeps.equals(this.rangeDeps))
+            return this;
+
+        return new Deps(keys, txnIds, keyToTxnId, rangeDeps);
+    }
+
     /**
      * Turn a set of key, value and mapping buffers into a merge result;
      * K and V are either Key and TxnId, or vice versa, depending on which mapping direction was present
@@ -884,6 +1064,10 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         if (isEmpty())
             return this;
 
+        RangeDeps rangeDeps = this.rangeDeps.without(remove);
+        if (!hasKeyDeps())
+            return rangeDeps.isEmpty() ? NONE : withRangeDeps(rangeDeps);
+
         IntBuffers cache = ArrayBuffers.cachedInts();
         int[] remapTxnIds = cache.getInts(txnIds.length);
         int[] keyToTxnId = null;
@@ -899,10 +1083,10 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
                 }
 
                 if (count == this.txnIds.length)
-                    return this;
+                    return withRangeDeps(rangeDeps);
 
                 if (count == 0)
-                    return NONE;
+                    return rangeDeps.isEmpty() ? NONE : new Deps(Keys.EMPTY, NO_TXNIDS, NO_INTS, rangeDeps);
 
                 txnIds = new TxnId[count];
                 for (int i = 0 ; i < this.txnIds.length ; ++i)
@@ -931,7 +1115,7 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
 
             int[] result = cache.complete(keyToTxnId, o);
             cache.discard(keyToTxnId, o);
-            return new Deps(keys, txnIds, result);
+            return new Deps(keys, txnIds, result, rangeDeps);
         }
         catch (Throwable t)
         {
@@ -946,14 +1130,24 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
 
     public boolean contains(TxnId txnId)
     {
-        return Arrays.binarySearch(txnIds, txnId) >= 0;
+        return Arrays.binarySearch(txnIds, txnId) >= 0 || rangeDeps.contains(txnId);
     }
 
-    // return true iff we map any keys to any txnId
+    // return true iff we map any keys or ranges to any txnId
     // if the mapping is empty we return false, whether or not we have any keys or txnId by themselves
     public boolean isEmpty()
     {
-        return keyToTxnId.length == keys.size();
+        return !hasKeyDeps() && rangeDeps.isEmpty();
+    }
+
+    private boolean hasKeyDeps()
+    {
+        return keyToTxnId.length != keys.size();
+    }
+
+    public RangeDeps rangeDeps()
+    {
+        return rangeDeps;
     }
 
     public Keys someKeys(TxnId txnId)
@@ -975,8 +1169,14 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         return Keys.of(result);
     }
 
-    public Unseekables<RoutingKey, ?> someRoutables(TxnId txnId)
+    /**
+     * @return the keys this txnId is a dependency via or, if there are none, the ranges
+     */
+    public Unseekables<?, ?> someRoutables(TxnId txnId)
     {
+        if (Arrays.binarySearch(txnIds, txnId) < 0 && rangeDeps.contains(txnId))
+            return rangeDeps.someRanges(txnId);
+
         return toUnseekables(txnId, array -> {
             if (array.length == 0)
                 throw new IllegalStateException("Cannot create a RouteFragment without any keys");
@@ -1068,12 +1268,31 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
     }
 
     /**
-     * For each {@link TxnId} that references a key within the {@link Ranges}; the {@link TxnId} will be seen exactly once.
+     * For each {@link TxnId} that references a key or range within the {@link Ranges}; the {@link TxnId} will be seen exactly once.
      * @param ranges to match on
-     * @param include function to say if a key should be used or not
+     * @param include function to say if a key should be used or not; range dependencies are always included
      * @param forEach function to call on each unique {@link TxnId}
      */
     public void forEachOn(Ranges ranges, Predicate<? super Key> include, Consumer<TxnId> forEach)
+    {
+        if (rangeDeps.isEmpty())
+        {
+            forEachKeyDepOn(ranges, include, forEach);
+            return;
+        }
+
+        Set<TxnId> visited = new HashSet<>();
+        forEachKeyDepOn(ranges, include, txnId -> {
+            visited.add(txnId);
+            forEach.accept(txnId);
+        });
+        rangeDeps.forEach(ranges, txnId -> {
+            if (!visited.contains(txnId))
+                forEach.accept(txnId);
+        });
+    }
+
+    private void forEachKeyDepOn(Ranges ranges, Predicate<? super Key> include, Consumer<TxnId> forEach)
     {
         // Find all keys within the ranges, but record existence within an int64 bitset.  Since the bitset is limited
         // to 64, this search must be called multiple times searching for different TxnIds in txnIds; this also has
@@ -1149,9 +1368,15 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
         return txnIds[i];
     }
 
+    /**
+     * @return the unique TxnId adopted via either a key or a range
+     */
     public Collection<TxnId> txnIds()
     {
-        return listOf(txnIds);
+        if (rangeDeps.isEmpty())
+            return listOf(txnIds);
+
+        return listOf(SortedArrays.linearUnion(txnIds, rangeDeps.txnIds, TxnId[]::new));
     }
 
     public List<TxnId> txnIds(Key key)
@@ -1219,7 +1444,10 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
     @Override
     public String toString()
     {
-        return toSimpleString();
+        if (rangeDeps.isEmpty())
+            return toSimpleString();
+
+        return toSimpleString() + rangeDeps;
     }
 
     public String toSimpleString()
@@ -1262,7 +1490,8 @@ public class Deps implements Iterable<Map.Entry<Key, TxnId>>
                && this.keys.size() == that.keys.size()
                && Arrays.equals(this.keyToTxnId, that.keyToTxnId)
                && Arrays.equals(this.txnIds, that.txnIds)
-               && this.keys.equals(that.keys);
+               && this.keys.equals(that.keys)
+               && this.rangeDeps.equals(that.rangeDeps);
     }
 
     public static class Entry implements Map.Entry<Key, TxnId>
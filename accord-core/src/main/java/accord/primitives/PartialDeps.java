@@ -14,36 +14,91 @@ public class PartialDeps extends Deps
         {
             return new PartialDeps(covering, keys, txnIds, keyToTxnId);
         }
+
+        public static PartialDeps create(Ranges covering, Keys keys, TxnId[] txnIds, int[] keyToTxnId, RangeDeps rangeDeps)
+        {
+            return new PartialDeps(covering, keys, txnIds, keyToTxnId, rangeDeps);
+        }
     }
 
     public static class OrderedBuilder extends AbstractOrderedBuilder<PartialDeps>
     {
-        final Ranges covering;
+        Ranges covering;
+        private final boolean recycled;
+        private boolean inUse;
+
         public OrderedBuilder(Ranges covering, boolean hasOrderedTxnId)
+        {
+            this(covering, hasOrderedTxnId, false);
+        }
+
+        private OrderedBuilder(Ranges covering, boolean hasOrderedTxnId, boolean recycled)
         {
             super(hasOrderedTxnId);
             this.covering = covering;
+            this.recycled = recycled;
+        }
+
+        @Override
+        PartialDeps build(Keys keys, TxnId[] txnIds, int[] keysToTxnIds, RangeDeps rangeDeps)
+        {
+            return new PartialDeps(covering, keys, txnIds, keysToTxnIds, rangeDeps);
         }
 
+        /**
+         * A recycled builder is reset and made available to its thread again, retaining its buffers
+         */
         @Override
-        PartialDeps build(Keys keys, TxnId[] txnIds, int[] keysToTxnIds)
+        public void close()
         {
-            return new PartialDeps(covering, keys, txnIds, keysToTxnIds);
+            if (!recycled)
+            {
+                super.close();
+                return;
+            }
+
+            reset();
+            covering = null;
+            inUse = false;
         }
     }
 
+    private static final ThreadLocal<OrderedBuilder> RECYCLED = ThreadLocal.withInitial(() -> new OrderedBuilder(null, false, true));
+
     public static OrderedBuilder orderedBuilder(Ranges ranges, boolean hasOrderedTxnId)
     {
         return new OrderedBuilder(ranges, hasOrderedTxnId);
     }
 
+    /**
+     * Return the calling thread's builder, to be closed by this thread once done with so that it may be reused;
+     * if the thread's builder is already in use, a new builder is returned instead.
+     */
+    public static OrderedBuilder recycledOrderedBuilder(Ranges ranges, boolean hasOrderedTxnId)
+    {
+        OrderedBuilder builder = RECYCLED.get();
+        if (builder.inUse)
+            return orderedBuilder(ranges, hasOrderedTxnId);
+
+        builder.inUse = true;
+        builder.covering = ranges;
+        builder.hasOrderedTxnId = hasOrderedTxnId;
+        return builder;
+    }
+
     public final Ranges covering;
 
     PartialDeps(Ranges covering, Keys keys, TxnId[] txnIds, int[] keyToTxnId)
     {
-        super(keys, txnIds, keyToTxnId);
+        this(covering, keys, txnIds, keyToTxnId, RangeDeps.NONE);
+    }
+
+    PartialDeps(Ranges covering, Keys keys, TxnId[] txnIds, int[] keyToTxnId, RangeDeps rangeDeps)
+    {
+        super(keys, txnIds, keyToTxnId, rangeDeps);
         this.covering = covering;
         Preconditions.checkState(covering.containsAll(keys));
+        Preconditions.checkState(covering.containsAll(rangeDeps.ranges));
     }
 
     public boolean covers(Unseekables<?, ?> keysOrRanges)
@@ -54,14 +109,14 @@ public class PartialDeps extends Deps
     public PartialDeps with(PartialDeps that)
     {
         Deps merged = with((Deps) that);
-        return new PartialDeps(covering.union(that.covering), merged.keys, merged.txnIds, merged.keyToTxnId);
+        return new PartialDeps(covering.union(that.covering), merged.keys, merged.txnIds, merged.keyToTxnId, merged.rangeDeps);
     }
 
     public Deps reconstitute(FullRoute<?> route)
     {
         if (!covers(route))
             throw new IllegalArgumentException();
-        return new Deps(keys, txnIds, keyToTxnId);
+        return new Deps(keys, txnIds, keyToTxnId, rangeDeps);
     }
 
     // PartialRoute<?>might cover a wider set of ranges, some of which may have no involved keys
@@ -73,7 +128,7 @@ public class PartialDeps extends Deps
         if (covers(route.covering()))
             return this;
 
-        return new PartialDeps(route.covering(), keys, txnIds, keyToTxnId);
+        return new PartialDeps(route.covering(), keys, txnIds, keyToTxnId, rangeDeps);
     }
 
     @Override
@@ -15,6 +15,7 @@ public class ProgressToken implements Comparable<ProgressToken>, Outcome
     public static final ProgressToken NONE = new ProgressToken(Durability.NotDurable, Status.NotWitnessed, Ballot.ZERO, false);
     public static final ProgressToken INVALIDATED = new ProgressToken(Durability.Durable, Status.Invalidated, Ballot.ZERO, false);
     public static final ProgressToken APPLIED = new ProgressToken(Durability.Durable, Status.PreApplied, Ballot.ZERO, false);
+    public static final ProgressToken TRUNCATED = new ProgressToken(Durability.Durable, Status.Truncated, Ballot.ZERO, false);
 
     public final Durability durability;
     public final Status status;
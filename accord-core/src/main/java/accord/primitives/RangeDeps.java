@@ -0,0 +1,614 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.primitives;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import accord.api.RoutingKey;
+import accord.utils.Invariants;
+
+/**
+ * The dependencies of a transaction that are adopted via a range rather than a key, i.e. a map of {@code Range -> [TxnId]}.
+ *
+ * The ranges are encoded as a sorted sequence of disjoint intervals, each mapped to the TxnId whose dependency range
+ * covers the whole interval; overlapping ranges are split at every boundary, and adjacent intervals with the same
+ * TxnId are coalesced, so that the encoding of any collection of dependencies is unique. This permits slicing by
+ * a linear clip of the intervals, and finding the TxnId that intersect some ranges without visiting each key
+ * they contain.
+ */
+public class RangeDeps
+{
+    private static final TxnId[] NO_TXNIDS = new TxnId[0];
+    private static final int[] NO_INTS = new int[0];
+    private static final Comparator<Range> BY_START = (a, b) -> a.start().compareTo(b.start());
+    private static final Comparator<Range> BY_END = (a, b) -> a.end().compareTo(b.end());
+
+    public static final RangeDeps NONE = new RangeDeps(Ranges.EMPTY, NO_TXNIDS, NO_INTS);
+
+    public static class SerializerSupport
+    {
+        private SerializerSupport() {}
+
+        public static int rangeToTxnIdCount(RangeDeps deps)
+        {
+            return deps.rangeToTxnId.length;
+        }
+
+        public static int rangeToTxnId(RangeDeps deps, int idx)
+        {
+            return deps.rangeToTxnId[idx];
+        }
+
+        /**
+         * The sorted, unique, TxnId of these deps; the array must not be modified
+         */
+        public static TxnId[] txnIds(RangeDeps deps)
+        {
+            return deps.txnIds;
+        }
+
+        public static RangeDeps create(Ranges ranges, TxnId[] txnIds, int[] rangeToTxnId)
+        {
+            return new RangeDeps(ranges, txnIds, rangeToTxnId);
+        }
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Accepts {@code Range -> TxnId} pairs in any order, with any overlap or duplication
+     */
+    public static class Builder
+    {
+        Range[] ranges = new Range[8];
+        TxnId[] txnIds = new TxnId[8];
+        int count;
+
+        public boolean isEmpty()
+        {
+            return count == 0;
+        }
+
+        public void add(Range range, TxnId txnId)
+        {
+            Invariants.checkArgument(range.start().compareTo(range.end()) < 0);
+            if (count == ranges.length)
+            {
+                ranges = Arrays.copyOf(ranges, count * 2);
+                txnIds = Arrays.copyOf(txnIds, count * 2);
+            }
+            ranges[count] = range;
+            txnIds[count++] = txnId;
+        }
+
+        public void add(Ranges ranges, TxnId txnId)
+        {
+            for (Range range : ranges)
+                add(range, txnId);
+        }
+
+        public void add(RangeDeps deps)
+        {
+            deps.forEach(this::add);
+        }
+
+        public RangeDeps build()
+        {
+            if (count == 0)
+                return NONE;
+
+            TxnId[] txnIds = Arrays.copyOf(this.txnIds, count);
+            Arrays.sort(txnIds);
+            int txnIdCount = 1;
+            for (int i = 1 ; i < count ; ++i)
+            {
+                if (!txnIds[txnIdCount - 1].equals(txnIds[i]))
+                    txnIds[txnIdCount++] = txnIds[i];
+            }
+            if (txnIdCount < count)
+                txnIds = Arrays.copyOf(txnIds, txnIdCount);
+
+            int[] txnIdIndexes = new int[count];
+            for (int i = 0 ; i < count ; ++i)
+                txnIdIndexes[i] = Arrays.binarySearch(txnIds, this.txnIds[i]);
+
+            RoutingKey[] bounds = new RoutingKey[count * 2];
+            for (int i = 0 ; i < count ; ++i)
+            {
+                bounds[i * 2] = ranges[i].start();
+                bounds[i * 2 + 1] = ranges[i].end();
+            }
+            Arrays.sort(bounds);
+            int boundCount = 1;
+            for (int i = 1 ; i < bounds.length ; ++i)
+            {
+                if (bounds[boundCount - 1].compareTo(bounds[i]) != 0)
+                    bounds[boundCount++] = bounds[i];
+            }
+
+            Integer[] byStart = new Integer[count], byEnd = new Integer[count];
+            for (int i = 0 ; i < count ; ++i)
+                byStart[i] = byEnd[i] = i;
+            Arrays.sort(byStart, (a, b) -> BY_START.compare(ranges[a], ranges[b]));
+            Arrays.sort(byEnd, (a, b) -> BY_END.compare(ranges[a], ranges[b]));
+
+            // sweep the bounds, maintaining the TxnId whose ranges cover the interval beginning at each bound
+            int[] coverCounts = new int[txnIdCount];
+            BitSet covering = new BitSet(txnIdCount);
+            Collector collector = new Collector(ranges[0], boundCount, count);
+            for (int b = 0, s = 0, e = 0 ; b < boundCount - 1 ; ++b)
+            {
+                RoutingKey bound = bounds[b];
+                while (e < count && ranges[byEnd[e]].end().compareTo(bound) <= 0)
+                {
+                    int t = txnIdIndexes[byEnd[e++]];
+                    if (--coverCounts[t] == 0)
+                        covering.clear(t);
+                }
+                while (s < count && ranges[byStart[s]].start().compareTo(bound) <= 0)
+                {
+                    int t = txnIdIndexes[byStart[s++]];
+                    if (coverCounts[t]++ == 0)
+                        covering.set(t);
+                }
+
+                if (covering.isEmpty())
+                    continue;
+
+                collector.nextInterval(bound, bounds[b + 1]);
+                for (int t = covering.nextSetBit(0) ; t >= 0 ; t = covering.nextSetBit(t + 1))
+                    collector.add(t);
+                collector.finishInterval();
+            }
+
+            return collector.build(txnIds);
+        }
+    }
+
+    /**
+     * Accumulates the intervals of a RangeDeps in ascending order, coalescing any interval that abuts the previous
+     * one and maps to the same TxnId
+     */
+    private static class Collector
+    {
+        final Range template;
+        Range[] ranges;
+        int[] limits;
+        int[] txnIdIndexes;
+        int rangeCount, txnIdIndexCount;
+        int intervalStart;
+        RoutingKey start, end;
+
+        Collector(Range template, int rangeCapacity, int txnIdIndexCapacity)
+        {
+            this.template = template;
+            this.ranges = new Range[Math.max(1, rangeCapacity)];
+            this.limits = new int[ranges.length];
+            this.txnIdIndexes = new int[Math.max(1, txnIdIndexCapacity)];
+        }
+
+        void nextInterval(RoutingKey start, RoutingKey end)
+        {
+            this.start = start;
+            this.end = end;
+            this.intervalStart = txnIdIndexCount;
+        }
+
+        void add(int txnIdIndex)
+        {
+            if (txnIdIndexCount == txnIdIndexes.length)
+                txnIdIndexes = Arrays.copyOf(txnIdIndexes, txnIdIndexCount * 2);
+            txnIdIndexes[txnIdIndexCount++] = txnIdIndex;
+        }
+
+        void finishInterval()
+        {
+            if (txnIdIndexCount == intervalStart)
+                return;
+
+            if (rangeCount > 0 && ranges[rangeCount - 1].end().equals(start) && sameAsPrevious())
+            {
+                ranges[rangeCount - 1] = template.subRange(ranges[rangeCount - 1].start(), end);
+                txnIdIndexCount = intervalStart;
+                return;
+            }
+
+            if (rangeCount == ranges.length)
+            {
+                ranges = Arrays.copyOf(ranges, rangeCount * 2);
+                limits = Arrays.copyOf(limits, rangeCount * 2);
+            }
+            ranges[rangeCount] = template.subRange(start, end);
+            limits[rangeCount++] = txnIdIndexCount;
+        }
+
+        private boolean sameAsPrevious()
+        {
+            int prevStart = rangeCount == 1 ? 0 : limits[rangeCount - 2];
+            int prevEnd = limits[rangeCount - 1];
+            if (prevEnd - prevStart != txnIdIndexCount - intervalStart)
+                return false;
+
+            for (int i = 0 ; i < prevEnd - prevStart ; ++i)
+            {
+                if (txnIdIndexes[prevStart + i] != txnIdIndexes[intervalStart + i])
+                    return false;
+            }
+            return true;
+        }
+
+        RangeDeps build(TxnId[] txnIds)
+        {
+            if (rangeCount == 0)
+                return NONE;
+
+            int[] rangeToTxnId = new int[rangeCount + txnIdIndexCount];
+            for (int i = 0 ; i < rangeCount ; ++i)
+                rangeToTxnId[i] = rangeCount + limits[i];
+            System.arraycopy(txnIdIndexes, 0, rangeToTxnId, rangeCount, txnIdIndexCount);
+            return new RangeDeps(Ranges.ofSortedAndDeoverlappedUnchecked(Arrays.copyOf(ranges, rangeCount)), txnIds, rangeToTxnId);
+        }
+    }
+
+    public static <T> RangeDeps merge(List<T> merge, Function<T, RangeDeps> getter)
+    {
+        RangeDeps result = null;
+        Builder builder = null;
+        for (int i = 0, size = merge.size() ; i < size ; ++i)
+        {
+            RangeDeps deps = getter.apply(merge.get(i));
+            if (deps == null || deps.isEmpty() || deps.equals(result))
+                continue;
+
+            if (result == null)
+            {
+                result = deps;
+                continue;
+            }
+
+            if (builder == null)
+            {
+                builder = new Builder();
+                builder.add(result);
+            }
+            builder.add(deps);
+        }
+
+        if (builder != null) return builder.build();
+        return result == null ? NONE : result;
+    }
+
+    final Ranges ranges; // sorted, disjoint intervals
+    final TxnId[] txnIds; // unique TxnId
+
+    /**
+     * A map of {@code Range -> [TxnId]} with the same layout as {@link Deps#keyToTxnId}: the first ranges.size()
+     * entries are the end offsets of each range's entries, which are each pointers into the txnIds array
+     */
+    final int[] rangeToTxnId;
+
+    RangeDeps(Ranges ranges, TxnId[] txnIds, int[] rangeToTxnId)
+    {
+        this.ranges = ranges;
+        this.txnIds = txnIds;
+        this.rangeToTxnId = rangeToTxnId;
+        if (!(ranges.isEmpty() || rangeToTxnId[ranges.size() - 1] == rangeToTxnId.length))
+            throw new IllegalArgumentException(String.format("Last range (%s) in rangeToTxnId does not point (%d) to the end of the array (%d)", ranges.get(ranges.size() - 1), rangeToTxnId[ranges.size() - 1], rangeToTxnId.length));
+    }
+
+    public boolean isEmpty()
+    {
+        return ranges.isEmpty();
+    }
+
+    public boolean contains(TxnId txnId)
+    {
+        return Arrays.binarySearch(txnIds, txnId) >= 0;
+    }
+
+    /**
+     * The disjoint intervals that some dependency is adopted over
+     */
+    public Ranges ranges()
+    {
+        return ranges;
+    }
+
+    public int txnIdCount()
+    {
+        return txnIds.length;
+    }
+
+    public TxnId txnId(int i)
+    {
+        return txnIds[i];
+    }
+
+    public List<TxnId> txnIds()
+    {
+        return Arrays.asList(txnIds);
+    }
+
+    public List<TxnId> txnIds(Range range)
+    {
+        int rangeIndex = ranges.indexOf(range);
+        if (rangeIndex < 0 || !ranges.get(rangeIndex).equals(range))
+            return Collections.emptyList();
+
+        int start = startOffset(rangeIndex);
+        int end = endOffset(rangeIndex);
+        return new AbstractList<TxnId>()
+        {
+            @Override
+            public TxnId get(int index)
+            {
+                return txnIds[rangeToTxnId[start + index]];
+            }
+
+            @Override
+            public int size()
+            {
+                return end - start;
+            }
+        };
+    }
+
+    /**
+     * The ranges over which {@code txnId} is a dependency, with adjacent intervals merged
+     */
+    public Ranges someRanges(TxnId txnId)
+    {
+        int txnIdIndex = Arrays.binarySearch(txnIds, txnId);
+        if (txnIdIndex < 0)
+            return Ranges.EMPTY;
+
+        Range[] result = new Range[ranges.size()];
+        int count = 0;
+        for (int r = 0 ; r < ranges.size() ; ++r)
+        {
+            if (Arrays.binarySearch(rangeToTxnId, startOffset(r), endOffset(r), txnIdIndex) >= 0)
+                result[count++] = ranges.get(r);
+        }
+        return Ranges.ofSortedAndDeoverlappedUnchecked(Arrays.copyOf(result, count)).mergeTouching();
+    }
+
+    public RangeDeps with(RangeDeps that)
+    {
+        if (this.isEmpty() || that.isEmpty())
+            return this.isEmpty() ? that : this;
+
+        if (this.equals(that))
+            return this;
+
+        Builder builder = new Builder();
+        builder.add(this);
+        builder.add(that);
+        return builder.build();
+    }
+
+    public RangeDeps slice(Ranges covering)
+    {
+        if (isEmpty())
+            return this;
+
+        Range[] pieces = new Range[covering.size() + ranges.size()];
+        int[] sources = new int[pieces.length];
+        int count = 0;
+        int ci = 0, ri = 0;
+        while (true)
+        {
+            long cri = covering.findNextIntersection(ci, ranges, ri);
+            if (cri < 0)
+                break;
+
+            ci = (int) (cri);
+            ri = (int) (cri >>> 32);
+
+            Range c = covering.get(ci), r = ranges.get(ri);
+            pieces[count] = Range.slice(c, r);
+            sources[count++] = ri;
+            if (c.end().compareTo(r.end()) >= 0) ri++;
+            else ci++;
+        }
+
+        return select(pieces, sources, count, null);
+    }
+
+    public RangeDeps without(Predicate<TxnId> remove)
+    {
+        if (isEmpty())
+            return this;
+
+        int[] sources = new int[ranges.size()];
+        for (int i = 0 ; i < sources.length ; ++i)
+            sources[i] = i;
+        return select(ranges.ranges, sources, sources.length, remove);
+    }
+
+    /**
+     * Construct the deps mapping each of {@code pieces} to the TxnId of the interval it was taken from, excluding any
+     * TxnId that are {@code remove}d; pieces left without any TxnId are dropped, and abutting pieces with the same
+     * TxnId are coalesced.
+     */
+    private RangeDeps select(Range[] pieces, int[] sources, int count, Predicate<TxnId> remove)
+    {
+        if (count == 0)
+            return NONE;
+
+        BitSet retain = new BitSet(txnIds.length);
+        for (int i = 0 ; i < count ; ++i)
+        {
+            for (int j = startOffset(sources[i]), end = endOffset(sources[i]) ; j < end ; ++j)
+                retain.set(rangeToTxnId[j]);
+        }
+        if (remove != null)
+        {
+            for (int t = retain.nextSetBit(0) ; t >= 0 ; t = retain.nextSetBit(t + 1))
+            {
+                if (remove.test(txnIds[t]))
+                    retain.clear(t);
+            }
+        }
+
+        int txnIdCount = retain.cardinality();
+        if (txnIdCount == 0)
+            return NONE;
+
+        TxnId[] txnIds = this.txnIds;
+        int[] remap = null;
+        if (txnIdCount < this.txnIds.length)
+        {
+            txnIds = new TxnId[txnIdCount];
+            remap = new int[this.txnIds.length];
+            for (int t = retain.nextSetBit(0), i = 0 ; t >= 0 ; t = retain.nextSetBit(t + 1), ++i)
+            {
+                txnIds[i] = this.txnIds[t];
+                remap[t] = i;
+            }
+        }
+        else if (count == ranges.size())
+        {
+            boolean unchanged = true;
+            for (int i = 0 ; unchanged && i < count ; ++i)
+                unchanged = pieces[i].equals(ranges.get(i));
+            if (unchanged)
+                return this;
+        }
+
+        Collector collector = new Collector(pieces[0], count, rangeToTxnId.length - ranges.size());
+        for (int i = 0 ; i < count ; ++i)
+        {
+            collector.nextInterval(pieces[i].start(), pieces[i].end());
+            for (int j = startOffset(sources[i]), end = endOffset(sources[i]) ; j < end ; ++j)
+            {
+                int t = rangeToTxnId[j];
+                if (retain.get(t))
+                    collector.add(remap == null ? t : remap[t]);
+            }
+            collector.finishInterval();
+        }
+        return collector.build(txnIds);
+    }
+
+    /**
+     * Invoke {@code forEach} once for each {@link TxnId} that is a dependency for any part of {@code select},
+     * in TxnId order
+     */
+    public void forEach(Ranges select, Consumer<TxnId> forEach)
+    {
+        if (isEmpty())
+            return;
+
+        BitSet found = new BitSet(txnIds.length);
+        int si = 0, ri = 0;
+        while (true)
+        {
+            long sri = select.findNextIntersection(si, ranges, ri);
+            if (sri < 0)
+                break;
+
+            si = (int) (sri);
+            ri = (int) (sri >>> 32);
+
+            for (int j = startOffset(ri), end = endOffset(ri) ; j < end ; ++j)
+                found.set(rangeToTxnId[j]);
+
+            if (select.get(si).end().compareTo(ranges.get(ri).end()) >= 0) ri++;
+            else si++;
+        }
+
+        for (int t = found.nextSetBit(0) ; t >= 0 ; t = found.nextSetBit(t + 1))
+            forEach.accept(txnIds[t]);
+    }
+
+    /**
+     * Invoke {@code forEach} for each interval and each {@link TxnId} it maps to
+     */
+    public void forEach(BiConsumer<Range, TxnId> forEach)
+    {
+        for (int r = 0 ; r < ranges.size() ; ++r)
+        {
+            Range range = ranges.get(r);
+            for (int j = startOffset(r), end = endOffset(r) ; j < end ; ++j)
+                forEach.accept(range, txnIds[rangeToTxnId[j]]);
+        }
+    }
+
+    private int startOffset(int rangeIndex)
+    {
+        return rangeIndex == 0 ? ranges.size() : rangeToTxnId[rangeIndex - 1];
+    }
+
+    private int endOffset(int rangeIndex)
+    {
+        return rangeToTxnId[rangeIndex];
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RangeDeps that = (RangeDeps) o;
+        return Arrays.equals(this.rangeToTxnId, that.rangeToTxnId)
+               && Arrays.equals(this.txnIds, that.txnIds)
+               && this.ranges.equals(that.ranges);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(txnIds) * 31 + Arrays.hashCode(rangeToTxnId);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("{");
+        for (int r = 0 ; r < ranges.size() ; ++r)
+        {
+            if (r > 0)
+                builder.append(", ");
+
+            builder.append(ranges.get(r));
+            builder.append(":[");
+            for (int j = startOffset(r), end = endOffset(r) ; j < end ; ++j)
+            {
+                if (j > startOffset(r))
+                    builder.append(", ");
+                builder.append(txnIds[rangeToTxnId[j]]);
+            }
+            builder.append("]");
+        }
+        builder.append("}");
+        return builder.toString();
+    }
+}
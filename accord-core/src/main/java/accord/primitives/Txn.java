@@ -28,7 +28,7 @@ import accord.local.CommandStore;
 import accord.api.*;
 import accord.local.SafeCommandStore;
 import accord.utils.ReducingFuture;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
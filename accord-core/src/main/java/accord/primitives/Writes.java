@@ -21,8 +21,8 @@ package accord.primitives;
 import accord.api.Write;
 import accord.local.SafeCommandStore;
 import accord.utils.ReducingFuture;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -28,9 +28,9 @@ import accord.primitives.*;
 import accord.topology.Topologies.Single;
 import com.google.common.annotations.VisibleForTesting;
 import accord.utils.Invariants;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 
 import java.util.*;
 
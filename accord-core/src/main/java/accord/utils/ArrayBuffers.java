@@ -23,8 +23,8 @@ import accord.api.RoutingKey;
 import accord.primitives.Range;
 import accord.primitives.TxnId;
 
-import java.lang.reflect.Array;
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.IntFunction;
 
 import static accord.utils.Invariants.checkArgument;
@@ -49,38 +49,99 @@ import static accord.utils.Invariants.checkArgument;
  */
 public class ArrayBuffers
 {
-    private static final boolean FULLY_UNCACHED = true;
+    /**
+     * Pooling may be disabled with {@code -Daccord.buffers.pooling=false}, in which case every request allocates
+     * and every discarded buffer is left to the garbage collector.
+     */
+    private static final boolean POOLING = Boolean.parseBoolean(System.getProperty("accord.buffers.pooling", "true"));
+
+    /**
+     * With {@code -Daccord.buffers.debug=true} the pools verify that no buffer is discarded twice, and that no buffer
+     * is written to once discarded, by poisoning it on return to the pool and checking the poison on reuse.
+     */
+    private static final boolean DEBUG = Boolean.getBoolean("accord.buffers.debug");
+
+    // we assume compressed oops when estimating the bytes retained by arrays of references
+    private static final int REFERENCE_BYTES = 4;
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder RETAINED_BYTES = new LongAdder();
+
+    private static final ThreadLocal<IntBufferCache> INTS = ThreadLocal.withInitial(() -> new IntBufferCache(4, 1 << 14, DEBUG));
+    private static final ThreadLocal<ObjectBufferCache<Key>> KEYS = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 9, Key[]::new, DEBUG));
+    private static final ThreadLocal<ObjectBufferCache<RoutingKey>> ROUTINGKEYS = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 9, RoutingKey[]::new, DEBUG));
+    private static final ThreadLocal<ObjectBufferCache<Range>> KEYRANGES = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 7, Range[]::new, DEBUG));
+    private static final ThreadLocal<ObjectBufferCache<TxnId>> TXN_IDS = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 12, TxnId[]::new, DEBUG));
 
-    // TODO: we should periodically clear the thread locals to ensure we aren't slowly accumulating unnecessarily large objects on every thread
-    private static final ThreadLocal<IntBufferCache> INTS = ThreadLocal.withInitial(() -> new IntBufferCache(4, 1 << 14));
-    private static final ThreadLocal<ObjectBufferCache<Key>> KEYS = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 9, Key[]::new));
-    private static final ThreadLocal<ObjectBufferCache<RoutingKey>> ROUTINGKEYS = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 9, RoutingKey[]::new));
-    private static final ThreadLocal<ObjectBufferCache<Range>> KEYRANGES = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 7, Range[]::new));
-    private static final ThreadLocal<ObjectBufferCache<TxnId>> TXN_IDS = ThreadLocal.withInitial(() -> new ObjectBufferCache<>(3, 1 << 12, TxnId[]::new));
+    private static final UncachedObjectBuffers<Key> UNCACHED_KEYS = new UncachedObjectBuffers<>(Key[]::new);
+    private static final UncachedObjectBuffers<RoutingKey> UNCACHED_ROUTINGKEYS = new UncachedObjectBuffers<>(RoutingKey[]::new);
+    private static final UncachedObjectBuffers<Range> UNCACHED_KEYRANGES = new UncachedObjectBuffers<>(Range[]::new);
+    private static final UncachedObjectBuffers<TxnId> UNCACHED_TXN_IDS = new UncachedObjectBuffers<>(TxnId[]::new);
 
     public static IntBuffers cachedInts()
     {
-        return INTS.get();
+        return POOLING ? INTS.get() : UncachedIntBuffers.INSTANCE;
     }
 
     public static ObjectBuffers<Key> cachedKeys()
     {
-        return KEYS.get();
+        return POOLING ? KEYS.get() : UNCACHED_KEYS;
     }
 
     public static ObjectBuffers<RoutingKey> cachedRoutingKeys()
     {
-        return ROUTINGKEYS.get();
+        return POOLING ? ROUTINGKEYS.get() : UNCACHED_ROUTINGKEYS;
     }
 
     public static ObjectBuffers<Range> cachedRanges()
     {
-        return KEYRANGES.get();
+        return POOLING ? KEYRANGES.get() : UNCACHED_KEYRANGES;
     }
 
     public static ObjectBuffers<TxnId> cachedTxnIds()
     {
-        return TXN_IDS.get();
+        return POOLING ? TXN_IDS.get() : UNCACHED_TXN_IDS;
+    }
+
+    /**
+     * Release every buffer pooled by the calling thread; to be invoked by threads that are about to exit, or that
+     * are otherwise known to be going idle, as a thread's pool is otherwise only trimmed as it is used.
+     */
+    public static void trim()
+    {
+        if (!POOLING)
+            return;
+
+        INTS.get().trim();
+        KEYS.get().trim();
+        ROUTINGKEYS.get().trim();
+        KEYRANGES.get().trim();
+        TXN_IDS.get().trim();
+    }
+
+    /**
+     * @return the number of requests across all threads satisfied by a pooled buffer
+     */
+    public static long hits()
+    {
+        return HITS.sum();
+    }
+
+    /**
+     * @return the number of requests across all threads that allocated a new buffer
+     */
+    public static long misses()
+    {
+        return MISSES.sum();
+    }
+
+    /**
+     * @return an estimate of the bytes retained by the buffers pooled across all threads
+     */
+    public static long retainedBytes()
+    {
+        return RETAINED_BYTES.sum();
     }
 
     public static <T> ObjectBuffers<T> uncached(IntFunction<T[]> allocator) { return new UncachedObjectBuffers<>(allocator); }
@@ -209,8 +270,8 @@ public class ArrayBuffers
         @Override
         public boolean forceDiscard(int[] buffer, int usedSize)
         {
-            // if FULLY_UNCACHED we want our caller to also not cache us, so we indicate the buffer has been retained
-            return !FULLY_UNCACHED;
+            // if pooling is disabled we want our caller to also not cache us, so we indicate the buffer has been retained
+            return POOLING;
         }
     }
 
@@ -258,17 +319,26 @@ public class ArrayBuffers
         @Override
         public boolean forceDiscard(T[] buffer, int size)
         {
-            // if FULLY_UNCACHED we want our caller to also not cache us, so we indicate the buffer has been retained
-            return !FULLY_UNCACHED;
+            // if pooling is disabled we want our caller to also not cache us, so we indicate the buffer has been retained
+            return POOLING;
         }
     }
 
     /**
-     * A very simple cache that simply stores the largest {@code maxCount} arrays smaller than {@code maxSize}.
+     * A per-thread cache of arrays no larger than {@code maxSize}, bucketed by size class: bucket {@code b} holds
+     * up to {@code maxCount} arrays whose length is in {@code [2^b, 2^(b+1))}. A request is served from the bucket
+     * of its own size class or the one above it, so that we never hand out an array more than 4x larger
+     * than requested, and the total length of the retained arrays is bounded by {@code maxCount * maxSize}.
+     *
+     * Every {@link #DECAY_INTERVAL} requests, each bucket that has served no request since the last such interval
+     * releases one of its arrays, so that arrays of a size no longer in demand are gradually given up.
+     *
      * Works on both primitive and Object arrays.
      */
-    private static abstract class AbstractBufferCache<B>
+    static abstract class AbstractBufferCache<B>
     {
+        static final int DECAY_INTERVAL = 1 << 10;
+
         interface Clear<B>
         {
             void clear(B array, int usedSize);
@@ -277,16 +347,44 @@ public class ArrayBuffers
         final IntFunction<B> allocator;
         final Clear<B> clear;
         final B empty;
-        final B[] cached;
+        final B[][] buckets;
+        final int[] counts;
         final int maxSize;
+        final long maxRetained;
+        final int elementBytes;
+        final boolean debug;
+
+        long retained; // total length of the pooled arrays
+        long hits, misses;
+        int requests;
+        int usedSinceDecay; // bitset of the buckets that have served a request since the last decay
 
-        AbstractBufferCache(IntFunction<B> allocator, Clear<B> clear, int maxCount, int maxSize)
+        AbstractBufferCache(IntFunction<B> allocator, Clear<B> clear, int maxCount, int maxSize, int elementBytes, boolean debug)
         {
+            checkArgument(maxSize > 0 && Integer.bitCount(maxSize) == 1, "maxSize must be a power of two");
             this.allocator = allocator;
             this.maxSize = maxSize;
-            this.cached = (B[])new Object[maxCount];
+            this.maxRetained = (long) maxCount * maxSize;
+            this.buckets = (B[][])new Object[sizeClass(maxSize) + 1][maxCount];
+            this.counts = new int[buckets.length];
             this.empty = allocator.apply(0);
             this.clear = clear;
+            this.elementBytes = elementBytes;
+            this.debug = debug;
+        }
+
+        abstract int length(B buffer);
+
+        /**
+         * Overwrite the whole buffer with a value no live buffer is expected to contain throughout
+         */
+        abstract void poison(B buffer);
+
+        abstract boolean isPoisoned(B buffer);
+
+        static int sizeClass(int length)
+        {
+            return 31 - Integer.numberOfLeadingZeros(length);
         }
 
         B getInternal(int minSize)
@@ -295,48 +393,162 @@ public class ArrayBuffers
                 return empty;
 
             if (minSize > maxSize)
-                return allocator.apply(minSize);
+                return miss(minSize);
 
-            for (int i = 0 ; i < cached.length ; ++i)
+            if (++requests == DECAY_INTERVAL)
+                decay();
+
+            int sizeClass = sizeClass(minSize);
+            for (int b = sizeClass, limit = Math.min(sizeClass + 1, buckets.length - 1) ; b <= limit ; ++b)
             {
-                if (cached[i] != null && Array.getLength(cached[i]) >= minSize)
+                B[] bucket = buckets[b];
+                for (int i = counts[b] - 1 ; i >= 0 ; --i)
                 {
-                    B result = cached[i];
-                    cached[i] = null;
+                    B result = bucket[i];
+                    if (length(result) < minSize)
+                        continue;
+
+                    bucket[i] = bucket[--counts[b]];
+                    bucket[counts[b]] = null;
+                    usedSinceDecay |= 1 << b;
+                    released(result);
+                    if (debug && !isPoisoned(result))
+                        throw new IllegalStateException("Buffer of length " + length(result) + " was modified after it was discarded");
+
+                    ++hits;
+                    HITS.increment();
                     return result;
                 }
             }
 
+            return miss(minSize);
+        }
+
+        private B miss(int minSize)
+        {
+            ++misses;
+            MISSES.increment();
             return allocator.apply(minSize);
         }
 
         boolean discardInternal(B buffer, int bufferSize, int usedSize, boolean force)
         {
-            if (bufferSize > maxSize)
+            if (bufferSize == 0 || bufferSize > maxSize)
                 return true;
 
             if (bufferSize == usedSize && !force)
                 return false;
 
-            for (int i = 0 ; i < cached.length ; ++i)
+            int b = sizeClass(bufferSize);
+            B[] bucket = buckets[b];
+            if (debug)
             {
-                if (cached[i] == null || Array.getLength(cached[i]) < bufferSize)
+                for (int i = 0 ; i < counts[b] ; ++i)
                 {
-                    clear.clear(buffer, usedSize);
-                    cached[i] = buffer;
-                    return false;
+                    if (bucket[i] == buffer)
+                        throw new IllegalStateException("Buffer of length " + bufferSize + " was discarded twice");
                 }
             }
 
-            return true;
+            if (counts[b] == bucket.length || retained + bufferSize > maxRetained)
+                return true;
+
+            if (debug) poison(buffer);
+            else clear.clear(buffer, usedSize);
+
+            bucket[counts[b]++] = buffer;
+            retained += bufferSize;
+            RETAINED_BYTES.add((long) bufferSize * elementBytes);
+            return false;
+        }
+
+        private void decay()
+        {
+            requests = 0;
+            for (int b = 0 ; b < buckets.length ; ++b)
+            {
+                if (counts[b] > 0 && (usedSinceDecay & (1 << b)) == 0)
+                {
+                    released(buckets[b][--counts[b]]);
+                    buckets[b][counts[b]] = null;
+                }
+            }
+            usedSinceDecay = 0;
+        }
+
+        void trim()
+        {
+            for (int b = 0 ; b < buckets.length ; ++b)
+            {
+                while (counts[b] > 0)
+                {
+                    released(buckets[b][--counts[b]]);
+                    buckets[b][counts[b]] = null;
+                }
+            }
+        }
+
+        private void released(B buffer)
+        {
+            retained -= length(buffer);
+            RETAINED_BYTES.add(-(long) length(buffer) * elementBytes);
+        }
+
+        /**
+         * @return the number of requests served by a pooled buffer
+         */
+        public long hits()
+        {
+            return hits;
+        }
+
+        /**
+         * @return the number of requests that allocated a new buffer
+         */
+        public long misses()
+        {
+            return misses;
+        }
+
+        /**
+         * @return an estimate of the bytes retained by the pooled buffers
+         */
+        public long retainedBytes()
+        {
+            return retained * elementBytes;
         }
     }
 
     public static class IntBufferCache extends AbstractBufferCache<int[]> implements IntBuffers
     {
-        IntBufferCache(int maxCount, int maxSize)
+        private static final int POISON = 0xdeadbeef;
+
+        IntBufferCache(int maxCount, int maxSize, boolean debug)
+        {
+            super(int[]::new, (array, size) -> {}, maxCount, maxSize, Integer.BYTES, debug);
+        }
+
+        @Override
+        int length(int[] buffer)
+        {
+            return buffer.length;
+        }
+
+        @Override
+        void poison(int[] buffer)
         {
-            super(int[]::new, (array, size) -> {}, maxCount, maxSize);
+            Arrays.fill(buffer, POISON);
+        }
+
+        @Override
+        boolean isPoisoned(int[] buffer)
+        {
+            for (int i : buffer)
+            {
+                if (i != POISON)
+                    return false;
+            }
+            return true;
         }
 
         @Override
@@ -371,12 +583,35 @@ public class ArrayBuffers
     {
         final IntFunction<T[]> allocator;
 
-        ObjectBufferCache(int maxCount, int maxSize, IntFunction<T[]> allocator)
+        ObjectBufferCache(int maxCount, int maxSize, IntFunction<T[]> allocator, boolean debug)
         {
-            super(allocator, (array, usedSize) -> Arrays.fill(array, 0, usedSize, null), maxCount, maxSize);
+            super(allocator, (array, usedSize) -> Arrays.fill(array, 0, usedSize, null), maxCount, maxSize, REFERENCE_BYTES, debug);
             this.allocator = allocator;
         }
 
+        @Override
+        int length(T[] buffer)
+        {
+            return buffer.length;
+        }
+
+        @Override
+        void poison(T[] buffer)
+        {
+            Arrays.fill(buffer, null);
+        }
+
+        @Override
+        boolean isPoisoned(T[] buffer)
+        {
+            for (T t : buffer)
+            {
+                if (t != null)
+                    return false;
+            }
+            return true;
+        }
+
         public T[] complete(T[] buffer, int size)
         {
             if (size == buffer.length)
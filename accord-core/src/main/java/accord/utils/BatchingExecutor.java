@@ -0,0 +1,477 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link Executor} with a single consumer thread that drains a lock-free multi-producer single-consumer queue
+ * in batches. Once the queue is empty the consumer spins, then yields, and finally parks; producers unpark it only
+ * if it has announced that it is parking, so that a busy consumer costs producers nothing but the enqueue.
+ *
+ * The queue is intrusive, following Vyukov's design: a {@link Task} is its own queue node, so that enqueueing one
+ * allocates nothing. Producers swap themselves into {@code tail} and only then link the previous tail to themselves,
+ * so the consumer may briefly find a task that has been enqueued but is not yet reachable, and must retry.
+ *
+ * Alternatively, {@link #actor} creates an executor with no thread of its own: whenever tasks arrive while it is idle
+ * it submits a drain to a carrier {@link Executor}, which runs until the queue is empty. Tasks still never run
+ * concurrently, so this serialises them as an actor, and is well suited to carriers of cheap (e.g. virtual) threads.
+ *
+ * Tasks may be submitted in one of a number of priority classes, each with its own queue; the consumer always polls
+ * the most urgent non-empty class, except that a class passed over {@link #STARVATION_LIMIT} times in succession while
+ * it had work waiting is served next, so that no class can be starved indefinitely by the classes above it.
+ *
+ * Tasks submitted before {@link #shutdown()} are run; tasks submitted afterwards are rejected, and a task that
+ * races with the consumer's termination has {@link Task#reject} invoked in lieu of {@link Task#run}.
+ */
+public class BatchingExecutor implements Executor
+{
+    private static final Logger logger = LoggerFactory.getLogger(BatchingExecutor.class);
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 10;
+    static final int STARVATION_LIMIT = 16;
+
+    /**
+     * A queue node; each instance may be enqueued at most once at any time
+     */
+    public static abstract class Task implements Runnable
+    {
+        private volatile Task next;
+
+        /**
+         * Invoked instead of {@link #run()} if the task could not be run because the executor has terminated
+         */
+        protected void reject(RejectedExecutionException e)
+        {
+        }
+    }
+
+    private static class RunnableTask extends Task
+    {
+        final Runnable run;
+
+        RunnableTask(Runnable run)
+        {
+            this.run = run;
+        }
+
+        @Override
+        public void run()
+        {
+            run.run();
+        }
+    }
+
+    /**
+     * The queue of a single priority class
+     */
+    private static class Queue
+    {
+        final Task stub = new RunnableTask(() -> {});
+        final AtomicReference<Task> tail = new AtomicReference<>(stub);
+        // owned by the consumer thread, or by whoever holds draining once terminated
+        Task head = stub;
+        // the number of times in succession a more urgent class was served while this one had work waiting
+        int passedOver;
+
+        final LongAdder enqueued = new LongAdder();
+        // only written by whoever owns head
+        volatile long dequeued;
+
+        void push(Task task)
+        {
+            task.next = null;
+            Task prev = tail.getAndSet(task);
+            prev.next = task;
+        }
+
+        Task poll()
+        {
+            Task head = this.head;
+            Task next = head.next;
+            if (head == stub)
+            {
+                if (next == null)
+                    return null;
+                this.head = head = next;
+                next = next.next;
+            }
+
+            if (next != null)
+            {
+                this.head = next;
+                return dequeued(head);
+            }
+
+            // a producer has swapped itself into tail, but has not yet linked it
+            if (head != tail.get())
+                return null;
+
+            push(stub);
+            next = head.next;
+            if (next != null)
+            {
+                this.head = next;
+                return dequeued(head);
+            }
+            return null;
+        }
+
+        private Task dequeued(Task task)
+        {
+            dequeued = dequeued + 1;
+            return task;
+        }
+
+        boolean isEmpty()
+        {
+            return head == stub && tail.get() == stub;
+        }
+
+        /**
+         * May be invoked by any thread, but is only a guide: a consumer may be part way through polling the last task
+         */
+        boolean hasTail()
+        {
+            return tail.get() != stub;
+        }
+
+        int depth()
+        {
+            return (int) Math.max(0, enqueued.sum() - dequeued);
+        }
+    }
+
+    private final String name;
+    private final int batchSize;
+    // exactly one of these is non-null
+    private final @Nullable Thread thread;
+    private final @Nullable Executor carrier;
+    // ordered from most to least urgent
+    private final Queue[] queues;
+
+    // if we own a thread, whether it has been started; otherwise whether a drain is submitted to the carrier
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean parking, shutdown, terminated;
+
+    public BatchingExecutor(String name, int batchSize)
+    {
+        this(name, batchSize, 1);
+    }
+
+    /**
+     * @param priorities the number of priority classes, numbered from zero (the most urgent)
+     */
+    public BatchingExecutor(String name, int batchSize, int priorities)
+    {
+        this(name, batchSize, priorities, null);
+    }
+
+    private BatchingExecutor(String name, int batchSize, int priorities, @Nullable Executor carrier)
+    {
+        Invariants.checkArgument(batchSize > 0);
+        Invariants.checkArgument(priorities > 0);
+        this.name = name;
+        this.batchSize = batchSize;
+        this.carrier = carrier;
+        this.thread = carrier == null ? new Thread(this::consume, name) : null;
+        this.queues = new Queue[priorities];
+        for (int i = 0 ; i < priorities ; ++i)
+            queues[i] = new Queue();
+    }
+
+    /**
+     * Create an executor that borrows a thread from {@code carrier} only while it has tasks to run
+     */
+    public static BatchingExecutor actor(String name, int batchSize, Executor carrier)
+    {
+        return actor(name, batchSize, 1, carrier);
+    }
+
+    public static BatchingExecutor actor(String name, int batchSize, int priorities, Executor carrier)
+    {
+        return new BatchingExecutor(name, batchSize, priorities, Invariants.nonNull(carrier));
+    }
+
+    /**
+     * Submit {@code run} in the most urgent priority class
+     */
+    @Override
+    public void execute(Runnable run)
+    {
+        execute(run, 0);
+    }
+
+    public void execute(Runnable run, int priority)
+    {
+        execute(run instanceof Task ? (Task) run : new RunnableTask(run), priority);
+    }
+
+    /**
+     * Submit {@code task} in the most urgent priority class
+     */
+    public void execute(Task task)
+    {
+        execute(task, 0);
+    }
+
+    public void execute(Task task, int priority)
+    {
+        if (shutdown)
+            throw new RejectedExecutionException(name + " has been shutdown");
+
+        if (thread != null && !started.get() && started.compareAndSet(false, true))
+            thread.start();
+
+        Queue queue = queues[priority];
+        queue.enqueued.increment();
+        queue.push(task);
+        if (terminated) rejectRemaining();
+        else if (thread == null) schedule();
+        else if (parking) LockSupport.unpark(thread);
+    }
+
+    /**
+     * Run any tasks already submitted, then terminate; tasks submitted from now on are rejected
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+        if (thread == null) schedule();
+        else if (started.compareAndSet(false, true)) terminated = true;
+        else LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return true iff no task is waiting to be run; may only be invoked by the executor's own thread
+     */
+    public boolean isEmpty()
+    {
+        for (Queue queue : queues)
+        {
+            if (!queue.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true once the executor has shutdown and will run no further tasks; may be invoked by any thread
+     */
+    public boolean isTerminated()
+    {
+        return terminated;
+    }
+
+    public int priorities()
+    {
+        return queues.length;
+    }
+
+    /**
+     * @return approximately the number of tasks submitted in the priority class that have yet to be run or rejected;
+     * may be invoked by any thread
+     */
+    public int queueDepth(int priority)
+    {
+        return queues[priority].depth();
+    }
+
+    private void schedule()
+    {
+        if (!started.get() && started.compareAndSet(false, true))
+            carrier.execute(this::drain);
+    }
+
+    /**
+     * Run on the carrier until there is nothing left to do; once we have announced this by clearing {@code started}
+     * we must check the queue and {@code shutdown} again, as a producer may have enqueued a task, or {@link #shutdown()}
+     * may have been invoked, without seeing that we are stopping
+     */
+    private void drain()
+    {
+        while (true)
+        {
+            while (runBatch() > 0 || !isEmpty()) {}
+
+            if (shutdown)
+            {
+                terminate();
+                return;
+            }
+
+            started.set(false);
+            if ((isEmpty() && !shutdown) || !started.compareAndSet(false, true))
+                return;
+        }
+    }
+
+    /**
+     * Poll the most urgent class with a task waiting, unless some less urgent class has been passed over too often
+     */
+    private Task poll()
+    {
+        Queue[] queues = this.queues;
+        if (queues.length == 1)
+            return queues[0].poll();
+
+        for (int i = 1 ; i < queues.length ; ++i)
+        {
+            if (queues[i].passedOver >= STARVATION_LIMIT)
+            {
+                Task task = queues[i].poll();
+                if (task != null)
+                    return polled(i, task);
+                queues[i].passedOver = 0;
+            }
+        }
+
+        for (int i = 0 ; i < queues.length ; ++i)
+        {
+            Task task = queues[i].poll();
+            if (task != null)
+                return polled(i, task);
+        }
+        return null;
+    }
+
+    private Task polled(int priority, Task task)
+    {
+        queues[priority].passedOver = 0;
+        for (int i = priority + 1 ; i < queues.length ; ++i)
+        {
+            if (!queues[i].isEmpty())
+                ++queues[i].passedOver;
+        }
+        return task;
+    }
+
+    private void consume()
+    {
+        int idle = 0;
+        while (true)
+        {
+            if (runBatch() > 0)
+            {
+                idle = 0;
+                continue;
+            }
+
+            if (shutdown)
+            {
+                if (isEmpty()) break;
+                else continue;
+            }
+
+            if (idle < SPINS)
+            {
+                ++idle;
+            }
+            else if (idle < SPINS + YIELDS)
+            {
+                ++idle;
+                Thread.yield();
+            }
+            else
+            {
+                parking = true;
+                if (!shutdown && isEmpty())
+                    LockSupport.park(this);
+                parking = false;
+            }
+        }
+
+        terminate();
+    }
+
+    private void terminate()
+    {
+        terminated = true;
+        rejectRemaining();
+    }
+
+    private boolean hasTail()
+    {
+        for (Queue queue : queues)
+        {
+            if (queue.hasTail())
+                return true;
+        }
+        return false;
+    }
+
+    private int runBatch()
+    {
+        int count = 0;
+        Task task;
+        while (count < batchSize && null != (task = poll()))
+        {
+            ++count;
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Unhandled Exception", t);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Invoked once terminated by the consumer and by any producer that may have raced with termination;
+     * whichever holds {@code draining} consumes, and we retry until the queue is seen to be empty with it released
+     */
+    private void rejectRemaining()
+    {
+        do
+        {
+            if (draining.compareAndSet(false, true))
+            {
+                try
+                {
+                    while (!isEmpty())
+                    {
+                        Task task = poll();
+                        if (task != null)
+                            task.reject(new RejectedExecutionException(name + " has been shutdown"));
+                    }
+                }
+                finally
+                {
+                    draining.set(false);
+                }
+            }
+        }
+        while (hasTail());
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+import accord.api.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Scheduler} backed by a hashed timing wheel: a ring of buckets, each covering one tick, that a single timer
+ * thread visits in turn, running every task in the bucket that is due and leaving the rest for a later revolution.
+ *
+ * Scheduling only enqueues the task for the timer thread, which files it into its bucket at the next tick, and
+ * cancelling only marks it; the timer thread unlinks cancelled tasks when it next visits their bucket, which is at
+ * most one revolution later. Both are therefore O(1) and cheap for the caller, which suits timeouts that are usually
+ * cancelled because the reply arrived first. Tasks run no earlier than requested, and up to one tick late.
+ *
+ * Like {@link ThreadPoolScheduler}, every task runs on the timer thread, so tasks should be brief.
+ */
+public class HashedWheelScheduler implements Scheduler
+{
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelScheduler.class);
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int WAITING = 0, RUNNING = 1, DONE = 2, CANCELLED = 3;
+
+    private static class Timeout implements Scheduled
+    {
+        final Runnable run;
+        // zero if the task runs once, otherwise the delay between runs
+        final long periodNanos;
+
+        // the remaining fields are owned by the timer thread once the timeout is enqueued
+        long deadline;
+        long rounds;
+        @Nullable Bucket bucket;
+        @Nullable Timeout prev, next;
+
+        volatile int state;
+
+        Timeout(Runnable run, long deadline, long periodNanos)
+        {
+            this.run = run;
+            this.deadline = deadline;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void cancel()
+        {
+            while (true)
+            {
+                int state = this.state;
+                if (state == DONE || state == CANCELLED || stateUpdater.compareAndSet(this, state, CANCELLED))
+                    return;
+            }
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Timeout> stateUpdater = AtomicIntegerFieldUpdater.newUpdater((Class) Timeout.class, "state");
+
+    private static class Bucket
+    {
+        Timeout head, tail;
+
+        void add(Timeout timeout)
+        {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) head = timeout;
+            else tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout)
+        {
+            if (timeout.prev == null) head = timeout.next;
+            else timeout.prev.next = timeout.next;
+            if (timeout.next == null) tail = timeout.prev;
+            else timeout.next.prev = timeout.prev;
+            timeout.bucket = null;
+            timeout.prev = timeout.next = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long start = System.nanoTime();
+    private final Thread thread;
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> immediate = new ConcurrentLinkedQueue<>();
+    // owned by the timer thread
+    private long tick;
+    private volatile boolean parking, stopped;
+
+    public HashedWheelScheduler()
+    {
+        this(Executors.defaultThreadFactory());
+    }
+
+    public HashedWheelScheduler(ThreadFactory threadFactory)
+    {
+        this(threadFactory, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param wheelSize the number of buckets, which must be a power of two; a revolution of the wheel should
+     *                  ideally span most timeouts, so that they are visited only once
+     */
+    public HashedWheelScheduler(ThreadFactory threadFactory, long tick, TimeUnit units, int wheelSize)
+    {
+        Invariants.checkArgument(tick > 0);
+        Invariants.checkArgument(wheelSize > 0 && Integer.bitCount(wheelSize) == 1);
+        this.tickNanos = units.toNanos(tick);
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0 ; i < wheelSize ; ++i)
+            wheel[i] = new Bucket();
+        this.mask = wheelSize - 1;
+        this.thread = threadFactory.newThread(this::run);
+        thread.start();
+    }
+
+    @Override
+    public Scheduled recurring(Runnable run, long delay, TimeUnit units)
+    {
+        long delayNanos = units.toNanos(delay);
+        Invariants.checkArgument(delayNanos > 0);
+        return schedule(run, delayNanos, delayNanos);
+    }
+
+    @Override
+    public Scheduled once(Runnable run, long delay, TimeUnit units)
+    {
+        return schedule(run, units.toNanos(delay), 0);
+    }
+
+    @Override
+    public void now(Runnable run)
+    {
+        checkRunning();
+        immediate.add(run);
+        if (parking)
+            LockSupport.unpark(thread);
+    }
+
+    private Timeout schedule(Runnable run, long delayNanos, long periodNanos)
+    {
+        checkRunning();
+        Timeout timeout = new Timeout(run, elapsed() + Math.max(0, delayNanos), periodNanos);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void checkRunning()
+    {
+        if (stopped)
+            throw new RejectedExecutionException("Scheduler has been stopped");
+    }
+
+    /**
+     * Stop the timer thread; any tasks not yet due are discarded
+     */
+    public void stop()
+    {
+        stopped = true;
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join(TimeUnit.MINUTES.toMillis(1L));
+            if (thread.isAlive())
+                throw new IllegalStateException("did not terminate");
+        }
+        catch (InterruptedException e)
+        {
+            throw new UncheckedInterruptedException(e);
+        }
+    }
+
+    private long elapsed()
+    {
+        return System.nanoTime() - start;
+    }
+
+    private void run()
+    {
+        while (!stopped)
+        {
+            Runnable run;
+            while (null != (run = immediate.poll()))
+                safeRun(run);
+
+            long wait = (tick + 1) * tickNanos - elapsed();
+            if (wait > 0)
+            {
+                parking = true;
+                if (!stopped && immediate.isEmpty())
+                    LockSupport.parkNanos(this, wait);
+                parking = false;
+                continue;
+            }
+
+            schedulePending();
+            expire(wheel[(int) (tick & mask)]);
+            ++tick;
+        }
+    }
+
+    private void schedulePending()
+    {
+        Timeout timeout;
+        while (null != (timeout = pending.poll()))
+        {
+            if (timeout.state == CANCELLED)
+                continue;
+
+            long ticks = timeout.deadline / tickNanos;
+            timeout.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket)
+    {
+        Timeout timeout = bucket.head;
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+            if (timeout.state == CANCELLED)
+            {
+                bucket.remove(timeout);
+            }
+            else if (timeout.rounds <= 0)
+            {
+                bucket.remove(timeout);
+                fire(timeout);
+            }
+            else
+            {
+                --timeout.rounds;
+            }
+            timeout = next;
+        }
+    }
+
+    private void fire(Timeout timeout)
+    {
+        if (!stateUpdater.compareAndSet(timeout, WAITING, RUNNING))
+            return;
+
+        safeRun(timeout.run);
+
+        if (timeout.periodNanos == 0)
+        {
+            timeout.state = DONE;
+        }
+        else if (stateUpdater.compareAndSet(timeout, RUNNING, WAITING))
+        {
+            // filed at the next tick, so that a short period cannot revisit the bucket we are expiring
+            timeout.deadline = elapsed() + timeout.periodNanos;
+            pending.add(timeout);
+        }
+    }
+
+    private static void safeRun(Runnable run)
+    {
+        try
+        {
+            run.run();
+        }
+        catch (Throwable t)
+        {
+            logger.error("Unhandled Exception", t);
+        }
+    }
+}
@@ -1,14 +1,15 @@
 package accord.utils;
 
 import com.google.common.base.Preconditions;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.Future;
 
 import java.util.List;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 
-public class ReducingFuture<V> extends AsyncPromise<V>
+public class ReducingFuture<V> extends AsyncPromise<V> implements BiConsumer<V, Throwable>
 {
     private static final AtomicIntegerFieldUpdater<ReducingFuture> PENDING_UPDATER = AtomicIntegerFieldUpdater.newUpdater(ReducingFuture.class, "pending");
     private final List<? extends Future<V>> futures;
@@ -20,17 +21,18 @@ public class ReducingFuture<V> extends AsyncPromise<V>
         this.futures = futures;
         this.reducer = reducer;
         this.pending = futures.size();
-        futures.forEach(f -> f.addListener(this::operationComplete));
+        futures.forEach(f -> f.addCallback(this));
     }
 
-    private <F extends io.netty.util.concurrent.Future<?>> void operationComplete(F future) throws Exception
+    @Override
+    public void accept(V success, Throwable failure)
     {
         if (isDone())
             return;
 
-        if (!future.isSuccess())
+        if (failure != null)
         {
-            tryFailure(future.cause());
+            tryFailure(failure);
         }
         else if (PENDING_UPDATER.decrementAndGet(this) == 0)
         {
@@ -18,24 +18,40 @@
 
 package accord.utils;
 
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import accord.api.Scheduler;
-import org.apache.cassandra.utils.concurrent.UncheckedInterruptedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ThreadPoolScheduler implements Scheduler
 {
     private static final Logger logger = LoggerFactory.getLogger(ThreadPoolScheduler.class);
-    final ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(1);
+    final ScheduledThreadPoolExecutor exec;
     public ThreadPoolScheduler()
     {
+        this(Executors.defaultThreadFactory());
+    }
+
+    public ThreadPoolScheduler(ThreadFactory threadFactory)
+    {
+        exec = new ScheduledThreadPoolExecutor(1, threadFactory);
         exec.setMaximumPoolSize(1);
     }
 
+    /**
+     * A scheduler whose timer thread is virtual, so that many may coexist in one JVM cheaply
+     * @throws UnsupportedOperationException if virtual threads are not supported by this JVM
+     */
+    public static ThreadPoolScheduler virtual()
+    {
+        return new ThreadPoolScheduler(VirtualThreads.factory("Scheduler-"));
+    }
+
     static class FutureAsScheduled implements Scheduled
     {
         final ScheduledFuture<?> f;
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+/**
+ * A winner tree for k-way merging sorted inputs, each identified by an index in {@code [0..count)}.
+ *
+ * Implementations define the order of the current heads of two inputs, and whether an input is exhausted;
+ * {@link #winner()} then yields the input with the least head, and once that input has been advanced
+ * {@link #replay(int)} restores the tree with {@code log2(count)} comparisons.
+ *
+ * The tree may be {@link #reset} and reused for any number of merges.
+ */
+public abstract class Tournament
+{
+    private int[] tree = new int[0];
+    private int leaves;
+
+    /**
+     * @return true if {@code input} has no further entries
+     */
+    protected abstract boolean isExhausted(int input);
+
+    /**
+     * Compare the current heads of two inputs, neither of which is exhausted
+     */
+    protected abstract int compare(int left, int right);
+
+    /**
+     * Prepare to merge inputs {@code [0..count)} from their current heads
+     */
+    public void reset(int count)
+    {
+        int leaves = 1;
+        while (leaves < count)
+            leaves <<= 1;
+
+        if (tree.length < 2 * leaves)
+            tree = new int[2 * leaves];
+        this.leaves = leaves;
+
+        for (int i = 0 ; i < leaves ; ++i)
+            tree[leaves + i] = i < count ? i : -1;
+        for (int i = leaves - 1 ; i >= 1 ; --i)
+            tree[i] = play(tree[2 * i], tree[2 * i + 1]);
+        if (leaves == 1)
+            tree[1] = play(tree[1], -1);
+    }
+
+    /**
+     * @return the input with the least head, or -1 if all inputs are exhausted
+     */
+    public int winner()
+    {
+        return tree[1];
+    }
+
+    /**
+     * Restore the tree after the head of {@code input} has changed
+     */
+    public void replay(int input)
+    {
+        int i = leaves + input;
+        if (leaves == 1)
+        {
+            tree[1] = play(input, -1);
+            return;
+        }
+
+        for (i >>= 1 ; i >= 1 ; i >>= 1)
+            tree[i] = play(tree[2 * i], tree[2 * i + 1]);
+    }
+
+    private int play(int left, int right)
+    {
+        boolean leftOut = left < 0 || isExhausted(left);
+        boolean rightOut = right < 0 || isExhausted(right);
+        if (leftOut) return rightOut ? -1 : right;
+        if (rightOut) return left;
+        return compare(left, right) <= 0 ? left : right;
+    }
+}
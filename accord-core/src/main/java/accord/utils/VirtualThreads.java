@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads are only available from JDK 21, while we compile for Java 8, so we reach them reflectively
+ * through {@code Thread.ofVirtual()}. {@link #isSupported()} reports whether the running JVM provides them.
+ */
+public class VirtualThreads
+{
+    private static final Method OF_VIRTUAL, NAME, FACTORY;
+    static
+    {
+        Method ofVirtual = null, name = null, factory = null;
+        try
+        {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            // on JDK 19 and 20 virtual threads are a preview feature, and ofVirtual() throws unless enabled
+            ofVirtual.invoke(null);
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            ofVirtual = name = factory = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {}
+
+    public static boolean isSupported()
+    {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return a factory of unstarted virtual threads named {@code prefix} followed by a counter
+     * @throws UnsupportedOperationException if virtual threads are not supported by this JVM
+     */
+    public static ThreadFactory factory(String prefix)
+    {
+        if (!isSupported())
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later; running " + System.getProperty("java.version"));
+
+        try
+        {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        }
+        catch (IllegalAccessException | InvocationTargetException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return an executor that runs each task on a new virtual thread
+     * @throws UnsupportedOperationException if virtual threads are not supported by this JVM
+     */
+    public static Executor executor(String prefix)
+    {
+        ThreadFactory factory = factory(prefix);
+        return run -> factory.newThread(run).start();
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils.async;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import accord.utils.UncheckedInterruptedException;
+
+/**
+ * A lock-free {@link Future} that may only be completed by itself or a subclass; see {@link AsyncPromise} for one
+ * that may be completed by anyone.
+ *
+ * The common case of a single callback is stored directly, so that registering it allocates nothing beyond the
+ * callback itself; further callbacks are chained, and invoked in registration order on completion.
+ */
+public class AsyncFuture<V> implements Future<V>
+{
+    private static final Logger logger = LoggerFactory.getLogger(AsyncFuture.class);
+
+    // stands in for a null result, as null denotes an incomplete future
+    private static final Object NULL = new Object();
+    // replaces the callbacks once they have been invoked
+    private static final Object NOTIFIED = new Object();
+
+    private static final class Failure
+    {
+        final Throwable cause;
+
+        Failure(Throwable cause)
+        {
+            this.cause = cause;
+        }
+    }
+
+    private static final class Callbacks
+    {
+        final BiConsumer<?, Throwable> callback;
+        Object next; // either another Callbacks, or the first callback registered
+
+        Callbacks(BiConsumer<?, Throwable> callback, Object next)
+        {
+            this.callback = callback;
+            this.next = next;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<AsyncFuture, Object> resultUpdater = AtomicReferenceFieldUpdater.newUpdater(AsyncFuture.class, Object.class, "result");
+    private static final AtomicReferenceFieldUpdater<AsyncFuture, Object> callbacksUpdater = AtomicReferenceFieldUpdater.newUpdater(AsyncFuture.class, Object.class, "callbacks");
+
+    // null until complete, then NULL, a Failure, or the result
+    private volatile Object result;
+    // null, a single callback, Callbacks most recently registered first, or NOTIFIED
+    private volatile Object callbacks;
+
+    public AsyncFuture()
+    {
+    }
+
+    /**
+     * Construct a future that is already complete
+     */
+    AsyncFuture(Object result)
+    {
+        this.result = result;
+        this.callbacks = NOTIFIED;
+    }
+
+    static Object encodeSuccess(Object value)
+    {
+        return value == null ? NULL : value;
+    }
+
+    static Object encodeFailure(Throwable cause)
+    {
+        return new Failure(cause);
+    }
+
+    protected boolean trySuccess(V value)
+    {
+        return tryComplete(encodeSuccess(value));
+    }
+
+    protected boolean tryFailure(Throwable cause)
+    {
+        return tryComplete(encodeFailure(cause));
+    }
+
+    private boolean tryComplete(Object result)
+    {
+        if (!resultUpdater.compareAndSet(this, null, result))
+            return false;
+
+        Object callbacks = callbacksUpdater.getAndSet(this, NOTIFIED);
+        if (callbacks instanceof Callbacks) notifyAll((Callbacks) callbacks);
+        else if (callbacks != null) notify((BiConsumer<? super V, Throwable>) callbacks);
+        return true;
+    }
+
+    private void notifyAll(Callbacks head)
+    {
+        // reverse the chain, so that callbacks are invoked in the order they were registered
+        Object prev = null, cur = head;
+        while (cur instanceof Callbacks)
+        {
+            Callbacks callbacks = (Callbacks) cur;
+            Object next = callbacks.next;
+            callbacks.next = prev;
+            prev = callbacks;
+            cur = next;
+        }
+
+        notify((BiConsumer<? super V, Throwable>) cur);
+        while (prev != null)
+        {
+            Callbacks callbacks = (Callbacks) prev;
+            notify((BiConsumer<? super V, Throwable>) callbacks.callback);
+            prev = callbacks.next;
+        }
+    }
+
+    private void notify(BiConsumer<? super V, Throwable> callback)
+    {
+        Object result = this.result;
+        try
+        {
+            if (result instanceof Failure) callback.accept(null, ((Failure) result).cause);
+            else callback.accept(result == NULL ? null : (V) result, null);
+        }
+        catch (Throwable t)
+        {
+            logger.error("Uncaught exception invoking callback {} of {}", callback, this, t);
+        }
+    }
+
+    @Override
+    public Future<V> addCallback(BiConsumer<? super V, Throwable> callback)
+    {
+        while (true)
+        {
+            Object cur = callbacks;
+            if (cur == NOTIFIED)
+            {
+                notify(callback);
+                return this;
+            }
+
+            Object next = cur == null ? callback : new Callbacks(callback, cur);
+            if (callbacksUpdater.compareAndSet(this, cur, next))
+                return this;
+        }
+    }
+
+    @Override
+    public Future<V> addListener(Runnable listener)
+    {
+        return addCallback((success, failure) -> listener.run());
+    }
+
+    @Override
+    public <T> Future<T> map(Function<? super V, ? extends T> mapper)
+    {
+        Map<V, T> map = new Map<>(mapper);
+        addCallback(map);
+        return map;
+    }
+
+    @Override
+    public <T> Future<T> flatMap(Function<? super V, ? extends Future<T>> mapper)
+    {
+        AsyncPromise<T> promise = new AsyncPromise<>();
+        addCallback((success, failure) -> {
+            if (failure != null)
+            {
+                promise.tryFailure(failure);
+                return;
+            }
+
+            Future<T> next;
+            try
+            {
+                next = mapper.apply(success);
+            }
+            catch (Throwable t)
+            {
+                promise.tryFailure(t);
+                return;
+            }
+            next.addCallback((nextSuccess, nextFailure) -> {
+                if (nextFailure == null) promise.trySuccess(nextSuccess);
+                else promise.tryFailure(nextFailure);
+            });
+        });
+        return promise;
+    }
+
+    private static class Map<V, T> extends AsyncFuture<T> implements BiConsumer<V, Throwable>
+    {
+        final Function<? super V, ? extends T> mapper;
+
+        Map(Function<? super V, ? extends T> mapper)
+        {
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void accept(V success, Throwable failure)
+        {
+            if (failure != null)
+            {
+                tryFailure(failure);
+                return;
+            }
+
+            T mapped;
+            try
+            {
+                mapped = mapper.apply(success);
+            }
+            catch (Throwable t)
+            {
+                tryFailure(t);
+                return;
+            }
+            trySuccess(mapped);
+        }
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return result != null;
+    }
+
+    @Override
+    public boolean isSuccess()
+    {
+        Object result = this.result;
+        return result != null && !(result instanceof Failure);
+    }
+
+    @Override
+    public @Nullable Throwable cause()
+    {
+        Object result = this.result;
+        return result instanceof Failure ? ((Failure) result).cause : null;
+    }
+
+    @Override
+    public @Nullable V getNow()
+    {
+        Object result = this.result;
+        return result == null || result == NULL || result instanceof Failure ? null : (V) result;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    @Override
+    public Future<V> await() throws InterruptedException
+    {
+        if (isDone())
+            return this;
+
+        addCallback(unparker(Thread.currentThread()));
+        while (!isDone())
+        {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            LockSupport.park(this);
+        }
+        return this;
+    }
+
+    @Override
+    public Future<V> awaitUninterruptibly()
+    {
+        if (isDone())
+            return this;
+
+        boolean interrupted = false;
+        addCallback(unparker(Thread.currentThread()));
+        while (!isDone())
+        {
+            LockSupport.park(this);
+            interrupted |= Thread.interrupted();
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return this;
+    }
+
+    private boolean await(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        if (isDone())
+            return true;
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        addCallback(unparker(Thread.currentThread()));
+        while (!isDone())
+        {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    private static BiConsumer<Object, Throwable> unparker(Thread thread)
+    {
+        return (success, failure) -> LockSupport.unpark(thread);
+    }
+
+    @Override
+    public Future<V> syncUninterruptibly()
+    {
+        awaitUninterruptibly();
+        Throwable cause = cause();
+        if (cause == null) return this;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        if (cause instanceof InterruptedException) throw new UncheckedInterruptedException((InterruptedException) cause);
+        throw new RuntimeException(cause);
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException
+    {
+        await();
+        return report();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!await(timeout, unit))
+            throw new TimeoutException();
+        return report();
+    }
+
+    private V report() throws ExecutionException
+    {
+        Throwable cause = cause();
+        if (cause != null)
+            throw new ExecutionException(cause);
+        return getNow();
+    }
+
+    @Override
+    public String toString()
+    {
+        Object result = this.result;
+        String state = result == null ? "(pending)" : result instanceof Failure ? "(failure: " + ((Failure) result).cause + ')' : "(success)";
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) + state;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils.async;
+
+/**
+ * A {@link Future} that may be completed by anyone
+ */
+public class AsyncPromise<V> extends AsyncFuture<V>
+{
+    @Override
+    public boolean trySuccess(V value)
+    {
+        return super.trySuccess(value);
+    }
+
+    @Override
+    public boolean tryFailure(Throwable cause)
+    {
+        return super.tryFailure(cause);
+    }
+
+    /**
+     * @throws IllegalStateException if already complete
+     */
+    public AsyncPromise<V> setSuccess(V value)
+    {
+        if (!trySuccess(value))
+            throw new IllegalStateException("Already complete: " + this);
+        return this;
+    }
+
+    /**
+     * @throws IllegalStateException if already complete
+     */
+    public AsyncPromise<V> setFailure(Throwable cause)
+    {
+        if (!tryFailure(cause))
+            throw new IllegalStateException("Already complete: " + this);
+        return this;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils.async;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * A minimal future for use within accord. Callbacks are invoked by the thread that completes the future or,
+ * if it has already completed, immediately by the thread that registers them; no executor is involved.
+ */
+public interface Future<V> extends java.util.concurrent.Future<V>
+{
+    /**
+     * Invoke {@code callback} with the outcome of this future once complete: the result and {@code null} on success,
+     * or {@code null} and the cause on failure
+     */
+    Future<V> addCallback(BiConsumer<? super V, Throwable> callback);
+
+    /**
+     * Run {@code listener} once this future is complete, irrespective of its outcome
+     */
+    Future<V> addListener(Runnable listener);
+
+    /**
+     * @return a future completing with {@code mapper} applied to the result of this future, or the failure of either
+     */
+    <T> Future<T> map(Function<? super V, ? extends T> mapper);
+
+    /**
+     * @return a future completing with the outcome of the future produced by applying {@code mapper} to the result
+     * of this future, or the failure of either
+     */
+    <T> Future<T> flatMap(Function<? super V, ? extends Future<T>> mapper);
+
+    boolean isSuccess();
+
+    /**
+     * @return the failure, if this future has failed, otherwise {@code null}
+     */
+    @Nullable Throwable cause();
+
+    /**
+     * @return the result, if this future has completed successfully, otherwise {@code null}
+     */
+    @Nullable V getNow();
+
+    Future<V> await() throws InterruptedException;
+    Future<V> awaitUninterruptibly();
+
+    /**
+     * Wait for this future to complete, rethrowing its failure (wrapped, if checked) should it fail
+     */
+    Future<V> syncUninterruptibly();
+}
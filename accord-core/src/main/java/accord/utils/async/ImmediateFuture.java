@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils.async;
+
+/**
+ * Already complete futures, whose callbacks are invoked immediately on registration
+ */
+public class ImmediateFuture<V> extends AsyncFuture<V>
+{
+    private ImmediateFuture(Object result)
+    {
+        super(result);
+    }
+
+    public static <V> ImmediateFuture<V> success(V value)
+    {
+        return new ImmediateFuture<>(encodeSuccess(value));
+    }
+
+    public static <V> ImmediateFuture<V> failure(Throwable cause)
+    {
+        return new ImmediateFuture<>(encodeFailure(cause));
+    }
+}
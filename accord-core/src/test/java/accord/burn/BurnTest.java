@@ -159,6 +159,11 @@ public class BurnTest
     }
 
     static void burn(Random random, TopologyFactory topologyFactory, List<Id> clients, List<Id> nodes, int keyCount, int operations, int concurrency)
+    {
+        burn(random, topologyFactory, clients, nodes, keyCount, operations, concurrency, false);
+    }
+
+    static void burn(Random random, TopologyFactory topologyFactory, List<Id> clients, List<Id> nodes, int keyCount, int operations, int concurrency, boolean journaled)
     {
         List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
         PendingQueue queue = new PropagatingPendingQueue(failures, new Factory(random).get());
@@ -241,7 +246,7 @@ public class BurnTest
                         responseSink, failures::add,
                         () -> new Random(random.nextLong()),
                         () -> new AtomicLong()::incrementAndGet,
-                        topologyFactory, () -> null);
+                        topologyFactory, () -> null, journaled);
         }
         catch (Throwable t)
         {
@@ -270,6 +275,7 @@ public class BurnTest
 //        Long overrideSeed = null;
         int count = 1;
         Long overrideSeed = 1683848112394089134L;
+        boolean journaled = false;
         for (int i = 0 ; i < args.length ; i += 2)
         {
             switch (args[i])
@@ -282,21 +288,33 @@ public class BurnTest
                 case "-s":
                     overrideSeed = Long.parseLong(args[i + 1]);
                     count = 1;
+                    break;
+                case "-j":
+                    journaled = Boolean.parseBoolean(args[i + 1]);
             }
         }
         while (count-- > 0)
         {
-            run(overrideSeed != null ? overrideSeed : ThreadLocalRandom.current().nextLong());
+            run(overrideSeed != null ? overrideSeed : ThreadLocalRandom.current().nextLong(), journaled);
         }
     }
 
     @Test
     public void testOne() throws Exception
     {
-        run(ThreadLocalRandom.current().nextLong());
+        run(ThreadLocalRandom.current().nextLong(), false);
+    }
+
+    /**
+     * As {@link #testOne}, with every command store journaling its commands
+     */
+    @Test
+    public void testJournaled() throws Exception
+    {
+        run(ThreadLocalRandom.current().nextLong(), true);
     }
 
-    private static void run(long seed) throws Exception
+    private static void run(long seed, boolean journaled) throws Exception
     {
         logger.info("Seed: {}", seed);
         Cluster.trace.trace("Seed: {}", seed);
@@ -310,7 +328,8 @@ public class BurnTest
                     nodes,
                     5 + random.nextInt(15),
                     200,
-                    10 + random.nextInt(30));
+                    10 + random.nextInt(30),
+                    journaled);
         }
         catch (Throwable t)
         {
@@ -25,8 +25,8 @@ import accord.local.Node;
 import accord.messages.*;
 import accord.topology.Topology;
 import accord.utils.Invariants;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,6 +22,7 @@ import accord.api.TestableConfigurationService;
 import accord.impl.InMemoryCommandStore;
 import accord.coordinate.FetchData;
 import accord.impl.InMemoryCommandStores;
+import accord.impl.list.ListStore;
 import accord.local.Command;
 import accord.local.Node;
 import accord.local.Status;
@@ -32,8 +33,8 @@ import accord.topology.Topology;
 import accord.utils.MessageTask;
 import accord.utils.Invariants;
 import com.google.common.collect.Sets;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,13 +99,18 @@ public class TopologyUpdates
                 if (fail != null)
                     process(node, onDone);
                 else if (outcome == Nothing)
-                    invalidate(node, txnId, route.with(route.homeKey()), (i1, i2) -> process(node, onDone));
+                    invalidate(node, txnId, route.with(route.homeKey()), (i1, i2) -> {
+                        // if any replica has truncated it, the data we copied includes its outcome, if it had one
+                        if (i1 != null && i1.asProgressToken().status == Truncated) onDone.accept(true);
+                        else process(node, onDone);
+                    });
                 else
                     onDone.accept(true);
             };
             switch (status)
             {
                 case NotWitnessed:
+                case Truncated:
                     onDone.accept(true);
                     break;
                 case PreAccepted:
@@ -131,6 +137,14 @@ public class TopologyUpdates
     }
 
     private final Set<Long> pendingTopologies = Sets.newConcurrentHashSet();
+    private final Function<Node.Id, Node> lookup;
+    private final Function<Node.Id, ListStore> stores;
+
+    public TopologyUpdates(Function<Node.Id, Node> lookup, Function<Node.Id, ListStore> stores)
+    {
+        this.lookup = lookup;
+        this.stores = stores;
+    }
 
     public static <T> BiConsumer<T, Throwable> dieOnException()
     {
@@ -207,7 +221,7 @@ public class TopologyUpdates
     /**
      * Syncs all newly replicated commands when nodes are gaining ranges and the current epoch
      */
-    private static Stream<MessageTask> optimizedSync(Node node, long srcEpoch)
+    private Stream<MessageTask> optimizedSync(Node node, long srcEpoch)
     {
         long trgEpoch = srcEpoch + 1;
         Topology syncTopology = node.configService().getTopologyForEpoch(srcEpoch);
@@ -236,6 +250,14 @@ public class TopologyUpdates
                     continue;
 
                 Ranges ranges = Ranges.single(intersection);
+                // transactions may have been erased once every replica of the old epoch applied them, so we must also
+                // copy their outcome and the bound below which they were erased, as streaming would
+                for (Node.Id newNode : newNodes)
+                {
+                    stores.apply(node.id()).copyTo(stores.apply(newNode), ranges);
+                    lookup.apply(newNode).commandStores().markDurableBefore(node.commandStores().durableBefore())
+                          .addCallback(dieOnException());
+                }
                 for (long epoch=1; epoch<srcEpoch; epoch++)
                     messageStream = Stream.concat(messageStream, syncEpochCommands(node,
                                                                                    epoch,
@@ -254,7 +276,7 @@ public class TopologyUpdates
         return messageStream;
     }
 
-    public static Future<Void> sync(Node node, long syncEpoch)
+    private Future<Void> sync(Node node, long syncEpoch)
     {
         Stream<MessageTask> messageStream = optimizedSync(node, syncEpoch);
 
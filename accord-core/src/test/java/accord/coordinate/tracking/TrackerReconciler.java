@@ -93,7 +93,7 @@ public abstract class TrackerReconciler<ST extends ShardTracker, T extends Abstr
 
         Deque<Topology> topologies = new ArrayDeque<>();
         topologies.add(topology);
-        TopologyUpdates topologyUpdates = new TopologyUpdates();
+        TopologyUpdates topologyUpdates = new TopologyUpdates(ignore -> null, ignore -> null);
         TopologyRandomizer configRandomizer = new TopologyRandomizer(() -> random, topology, topologyUpdates, (id, top) -> {});
         while (--count > 0)
         {
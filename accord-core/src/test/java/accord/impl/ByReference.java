@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serializes each value as a handle into an in-heap registry, so that tests need no wire format for payloads
+ */
+public class ByReference implements CommandSerializer.ValueSerializer<Object>, CommandSerializer.Serializers
+{
+    final List<Object> registry = new ArrayList<>();
+
+    @Override
+    public void serialize(Object value, DataOutput out) throws IOException
+    {
+        registry.add(value);
+        out.writeInt(registry.size() - 1);
+    }
+
+    @Override
+    public Object deserialize(DataInput in) throws IOException
+    {
+        return registry.get(in.readInt());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CommandSerializer.ValueSerializer<T> self()
+    {
+        return (CommandSerializer.ValueSerializer<T>) (CommandSerializer.ValueSerializer<?>) this;
+    }
+
+    public CommandSerializer.ValueSerializer routingKey() { return self(); }
+    public CommandSerializer.ValueSerializer route() { return self(); }
+    public CommandSerializer.ValueSerializer partialTxn() { return self(); }
+    public CommandSerializer.ValueSerializer partialDeps() { return self(); }
+    public CommandSerializer.ValueSerializer writes() { return self(); }
+    public CommandSerializer.ValueSerializer result() { return self(); }
+    public CommandSerializer.ValueSerializer ranges() { return self(); }
+}
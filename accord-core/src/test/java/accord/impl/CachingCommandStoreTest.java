@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import accord.api.Key;
+import accord.api.ProgressLog;
+import accord.api.RoutingKey;
+import accord.impl.mock.MockStore;
+import accord.local.Command;
+import accord.local.CommandStore;
+import accord.local.Node;
+import accord.local.NodeTimeService;
+import accord.local.PreLoadContext;
+import accord.local.SafeCommandStore;
+import accord.local.SaveStatus;
+import accord.local.Status.Durability;
+import accord.primitives.Keys;
+import accord.primitives.PartialTxn;
+import accord.primitives.Ranges;
+import accord.primitives.Timestamp;
+import accord.primitives.Txn;
+import accord.primitives.TxnId;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.Utils.writeTxn;
+
+public class CachingCommandStoreTest
+{
+    private static final Node.Id NODE = new Node.Id(1);
+    private static final Ranges FULL_RANGES = Ranges.single(IntKey.range(0, 100));
+
+    static class InHeapBackingStore implements InMemoryCommandStore.Caching.BackingStore
+    {
+        final Map<TxnId, byte[]> commands = new HashMap<>();
+        final Map<Key, byte[]> commandsForKey = new HashMap<>();
+
+        public synchronized Future<byte[]> loadCommand(TxnId txnId) { return ImmediateFuture.success(commands.get(txnId)); }
+        public synchronized void saveCommand(TxnId txnId, byte[] bytes) { commands.put(txnId, bytes); }
+        public synchronized Future<byte[]> loadCommandsForKey(Key key) { return ImmediateFuture.success(commandsForKey.get(key)); }
+        public synchronized void saveCommandsForKey(Key key, byte[] bytes) { commandsForKey.put(key, bytes); }
+    }
+
+    private static final NodeTimeService TIME = new NodeTimeService()
+    {
+        public Node.Id id() { return NODE; }
+        public long epoch() { return 1; }
+        public long now() { return 1; }
+        public Timestamp uniqueNow(Timestamp atLeast) { throw new UnsupportedOperationException(); }
+    };
+
+    private static final CommandStore.RangesForEpoch RANGES = new CommandStore.RangesForEpoch()
+    {
+        public Ranges at(long epoch) { return FULL_RANGES; }
+        public Ranges between(long fromInclusive, long toInclusive) { return FULL_RANGES; }
+        public Ranges since(long epoch) { return FULL_RANGES; }
+        public boolean owns(long epoch, RoutingKey key) { return true; }
+    };
+
+    private static <T> T sync(InMemoryCommandStore.Caching store, PreLoadContext context, Function<? super SafeCommandStore, T> function)
+    {
+        return store.submit(context, function).syncUninterruptibly().getNow();
+    }
+
+    @Test
+    public void testEvictAndReload()
+    {
+        InHeapBackingStore backingStore = new InHeapBackingStore();
+        ProgressLog.Factory progressLogs = ignore -> null;
+        InMemoryCommandStore.Caching store = new InMemoryCommandStore.Caching(0, 0, 0, 1, TIME, new TestAgent(), new MockStore(), progressLogs, RANGES,
+                                                                                backingStore, new ByReference(), 1);
+        Key key = IntKey.key(10), otherKey = IntKey.key(20);
+        TxnId txnId = new TxnId(1, 10, 0, NODE);
+        TxnId other = new TxnId(1, 20, 0, NODE);
+        Txn txn = writeTxn(Keys.of(key));
+        PartialTxn partialTxn = txn.slice(FULL_RANGES, true);
+
+        sync(store, PreLoadContext.contextFor(txnId, Keys.of(key)), safeStore -> {
+            InMemoryCommand command = (InMemoryCommand) safeStore.command(txnId);
+            command.setKind(Txn.Kind.WRITE);
+            command.setPartialTxn(partialTxn);
+            command.setExecuteAt(txnId);
+            safeStore.commandsForKey(key).register(command);
+            command.setSaveStatus(SaveStatus.Applied);
+            safeStore.commandsForKey(key).onChange(safeStore, command);
+            command.setDurability(Durability.Universal);
+            // a second, live, command is pinned by the commandsForKey listening to it, as is that commandsForKey
+            InMemoryCommand live = (InMemoryCommand) safeStore.command(other);
+            live.setExecuteAt(other);
+            safeStore.commandsForKey(otherKey).register(live);
+            return null;
+        });
+
+        sync(store, PreLoadContext.empty(), safeStore -> {
+            Assertions.assertFalse(store.state.commands.containsKey(txnId));
+            Assertions.assertFalse(store.state.commandsForKey.containsKey(key));
+            Assertions.assertTrue(store.state.commands.containsKey(other));
+            Assertions.assertTrue(store.state.commandsForKey.containsKey(otherKey));
+            return null;
+        });
+        Assertions.assertTrue(backingStore.commands.containsKey(txnId));
+        Assertions.assertTrue(backingStore.commandsForKey.containsKey(key));
+
+        sync(store, PreLoadContext.contextFor(txnId, Keys.of(key)), safeStore -> {
+            Assertions.assertTrue(store.state.commands.containsKey(txnId));
+            Command command = safeStore.ifLoaded(txnId);
+            Assertions.assertEquals(SaveStatus.Applied, command.saveStatus());
+            Assertions.assertEquals(Durability.Universal, command.durability());
+            Assertions.assertSame(partialTxn, command.partialTxn());
+            Assertions.assertEquals(txnId, safeStore.maybeCommandsForKey(key).max());
+            return null;
+        });
+
+        // evicted, but not named by the operation
+        boolean loaded = sync(store, PreLoadContext.contextFor(txnId, Keys.of(key)), safeStore -> store.state.commands.containsKey(txnId));
+        Assertions.assertTrue(loaded);
+        sync(store, PreLoadContext.empty(), safeStore -> null);
+        Assertions.assertFalse(store.state.commands.containsKey(txnId));
+        Future<Command> undeclared = store.submit(PreLoadContext.empty(), safeStore -> safeStore.command(txnId)).awaitUninterruptibly();
+        Assertions.assertTrue(undeclared.cause() instanceof IllegalStateException);
+        store.shutdown();
+    }
+
+    /**
+     * Apply many more transactions than fit within the budget, checking that we stay within it, and that every
+     * command and commandsForKey is restored intact when next named by an operation, in some other order
+     */
+    @Test
+    public void testExceedBudget()
+    {
+        int budget = 16 << 10, count = 2000;
+        InHeapBackingStore backingStore = new InHeapBackingStore();
+        InMemoryCommandStore.Caching store = new InMemoryCommandStore.Caching(0, 0, 0, 1, TIME, new TestAgent(), new MockStore(), ignore -> null, RANGES,
+                                                                                backingStore, new ByReference(), budget);
+        Random random = new Random(0);
+        Map<TxnId, Key> keys = new HashMap<>();
+        Map<Key, List<TxnId>> byKey = new TreeMap<>();
+        for (int i = 0 ; i < count ; ++i)
+        {
+            TxnId txnId = new TxnId(1, 10 + i, 0, NODE);
+            Key key = IntKey.key(1 + random.nextInt(20));
+            keys.put(txnId, key);
+            byKey.computeIfAbsent(key, ignore -> new ArrayList<>()).add(txnId);
+            PartialTxn partialTxn = writeTxn(Keys.of(key)).slice(FULL_RANGES, true);
+            sync(store, PreLoadContext.contextFor(txnId, Keys.of(key)), safeStore -> {
+                InMemoryCommand command = (InMemoryCommand) safeStore.command(txnId);
+                command.setKind(Txn.Kind.WRITE);
+                command.setPartialTxn(partialTxn);
+                command.setExecuteAt(txnId);
+                safeStore.commandsForKey(key).register(command);
+                command.setSaveStatus(SaveStatus.Applied);
+                safeStore.commandsForKey(key).onChange(safeStore, command);
+                return null;
+            });
+            if (i % 100 == 0)
+                sync(store, PreLoadContext.empty(), safeStore -> { Assertions.assertTrue(store.weight() <= budget, "weight " + store.weight()); return null; });
+        }
+
+        Assertions.assertTrue(store.state.commands.size() < count / 4);
+        Assertions.assertTrue(backingStore.commands.size() > count / 2);
+
+        List<TxnId> txnIds = new ArrayList<>(keys.keySet());
+        Collections.shuffle(txnIds, random);
+        for (TxnId txnId : txnIds)
+        {
+            Key key = keys.get(txnId);
+            sync(store, PreLoadContext.contextFor(txnId, Keys.of(key)), safeStore -> {
+                Command command = safeStore.command(txnId);
+                Assertions.assertEquals(SaveStatus.Applied, command.saveStatus());
+                Assertions.assertEquals(Keys.of(key), command.partialTxn().keys());
+                InMemoryCommandsForKey forKey = (InMemoryCommandsForKey) safeStore.commandsForKey(key);
+                Assertions.assertEquals(byKey.get(key), forKey.committedById().all().map(Command::txnId).collect(Collectors.toList()));
+                Assertions.assertSame(command, forKey.committedById().all().filter(c -> c.txnId().equals(txnId)).findFirst().get());
+                return null;
+            });
+        }
+        sync(store, PreLoadContext.empty(), safeStore -> { Assertions.assertTrue(store.weight() <= budget, "weight " + store.weight()); return null; });
+
+        List<TxnId> found = new ArrayList<>();
+        sync(store, PreLoadContext.empty(), safeStore -> {
+            InMemoryCommandStore.inMemory(safeStore).forCommittedInEpoch(FULL_RANGES, 1, command -> found.add(command.txnId()));
+            return null;
+        });
+        Collections.sort(txnIds);
+        Assertions.assertEquals(txnIds, found);
+        store.shutdown();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import accord.api.Key;
+import accord.local.Node.Id;
+import accord.primitives.Deps;
+import accord.primitives.Keys;
+import accord.primitives.PartialDeps;
+import accord.primitives.Range;
+import accord.primitives.Ranges;
+import accord.primitives.TxnId;
+import accord.utils.Gen;
+import accord.utils.Gens;
+
+import static accord.utils.Property.qt;
+
+public class DepsSerializerTest
+{
+    private static final CommandSerializer.ValueSerializer<Key> KEY = new CommandSerializer.ValueSerializer<Key>()
+    {
+        @Override
+        public void serialize(Key key, DataOutput out) throws IOException
+        {
+            out.writeInt(((IntKey) key).key);
+        }
+
+        @Override
+        public Key deserialize(DataInput in) throws IOException
+        {
+            return IntKey.key(in.readInt());
+        }
+    };
+
+    private static final CommandSerializer.ValueSerializer<Range> RANGE = new CommandSerializer.ValueSerializer<Range>()
+    {
+        @Override
+        public void serialize(Range range, DataOutput out) throws IOException
+        {
+            out.writeInt(((IntKey) range.start()).key);
+            out.writeInt(((IntKey) range.end()).key);
+        }
+
+        @Override
+        public Range deserialize(DataInput in) throws IOException
+        {
+            return IntKey.range(in.readInt(), in.readInt());
+        }
+    };
+
+    private static final DepsSerializer SERIALIZER = new DepsSerializer(KEY, RANGE);
+
+    @Test
+    public void testRoundTrip()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            Deps deps = deps(random, random.nextInt(1, 4), random.nextInt(1, 8), 1 + random.nextInt(1000), random.nextBoolean());
+            byte[] bytes = SERIALIZER.toBytes(deps);
+            Assertions.assertEquals(deps, roundTrip(SERIALIZER.deps(), deps));
+
+            DepsSerializer.Lazy lazy = SERIALIZER.lazy(bytes);
+            Assertions.assertEquals(new ArrayList<>(deps.txnIds()), lazy.txnIds());
+            Assertions.assertEquals(deps, lazy.get());
+
+            PartialDeps partial = deps.slice(Ranges.of(IntKey.range(0, random.nextInt(1, 200))));
+            PartialDeps deserialized = roundTrip(SERIALIZER.partialDeps(), partial);
+            Assertions.assertEquals(partial, deserialized);
+            Assertions.assertEquals(partial.covering, deserialized.covering);
+        });
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        for (Deps deps : new Deps[] { Deps.NONE, Deps.none(Keys.of(IntKey.key(1), IntKey.key(2))) })
+            Assertions.assertEquals(deps, roundTrip(SERIALIZER.deps(), deps));
+    }
+
+    private static <T> T roundTrip(CommandSerializer.ValueSerializer<T> serializer, T value)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializer.serialize(value, new DataOutputStream(bytes));
+            return serializer.deserialize(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compare with a fixed width encoding of each field, as used for TxnIds by {@link CommandSerializer},
+     * for the shape of deps produced by a burn test: a handful of nodes and epochs, and TxnIds close in time
+     */
+    @Test
+    public void testCompression()
+    {
+        qt().withExamples(100).forAll(Gens.random()).check(random -> {
+            Deps deps = deps(random, 2, 5, 100 + random.nextInt(1000), false);
+            int txnIdCount = deps.txnIdCount(), keyCount = deps.keys().size();
+            int fixedWidth = 4 + txnIdCount * 28 + 4 + keyCount * 4 + 4 + (keyCount + deps.totalCount()) * 4;
+            int compact = SERIALIZER.toBytes(deps).length;
+            Assertions.assertTrue(compact * 3 <= fixedWidth, () -> compact + " bytes vs " + fixedWidth);
+        });
+    }
+
+    private static Deps deps(Gen.Random random, int epochs, int nodes, int txnIdCount, boolean withRanges)
+    {
+        TreeSet<TxnId> txnIds = new TreeSet<>();
+        long real = 1_000_000;
+        while (txnIds.size() < txnIdCount)
+        {
+            real += random.nextInt(0, 2000);
+            txnIds.add(new TxnId(1 + random.nextInt(0, epochs), real, random.nextInt(0, 4) == 0 ? random.nextInt(0, 3) : 0, new Id(1 + random.nextInt(0, nodes))));
+        }
+        TxnId[] pool = txnIds.toArray(new TxnId[0]);
+
+        try (Deps.OrderedBuilder builder = Deps.orderedBuilder(false))
+        {
+            TreeSet<Integer> keys = new TreeSet<>();
+            int keyCount = random.nextInt(1, 10);
+            while (keys.size() < keyCount)
+                keys.add(random.nextInt(0, 200));
+
+            for (int key : keys)
+            {
+                builder.nextKey(IntKey.key(key));
+                TreeSet<TxnId> forKey = new TreeSet<>();
+                int count = random.nextInt(0, pool.length + 1);
+                while (forKey.size() < count)
+                    forKey.add(pool[random.nextInt(0, pool.length)]);
+                forKey.forEach(builder::add);
+            }
+
+            if (withRanges)
+            {
+                for (int i = 0, count = random.nextInt(0, 20) ; i < count ; ++i)
+                {
+                    int start = random.nextInt(0, 199);
+                    builder.add(IntKey.range(start, random.nextInt(start + 1, 200)), pool[random.nextInt(0, pool.length)]);
+                }
+            }
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.Random;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import accord.api.ProgressLog;
+import accord.api.RoutingKey;
+import accord.impl.mock.MockStore;
+import accord.local.Command;
+import accord.local.Command.AcceptOutcome;
+import accord.local.CommandStore;
+import accord.local.CommandsForKey;
+import accord.local.Node;
+import accord.local.NodeTimeService;
+import accord.local.PreLoadContext;
+import accord.local.SaveStatus;
+import accord.local.SafeCommandStore;
+import accord.local.Status.Durability;
+import accord.local.Status.Known;
+import accord.primitives.Keys;
+import accord.primitives.PartialTxn;
+import accord.primitives.Range;
+import accord.primitives.Ranges;
+import accord.primitives.RoutingKeys;
+import accord.primitives.Seekables;
+import accord.primitives.Timestamp;
+import accord.primitives.Txn;
+import accord.primitives.TxnId;
+import accord.primitives.Unseekables;
+import accord.utils.Gens;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.Utils.writeTxn;
+import static accord.utils.Property.qt;
+
+public class InMemoryCommandStoreTest
+{
+    private static final Node.Id NODE = new Node.Id(1);
+    private static final Ranges FULL_RANGES = Ranges.single(IntKey.range(0, 1000));
+
+    private static final NodeTimeService TIME = new NodeTimeService()
+    {
+        public Node.Id id() { return NODE; }
+        public long epoch() { return 1; }
+        public long now() { return 1; }
+        public Timestamp uniqueNow(Timestamp atLeast) { throw new UnsupportedOperationException(); }
+    };
+
+    private static final CommandStore.RangesForEpoch RANGES = new CommandStore.RangesForEpoch()
+    {
+        public Ranges at(long epoch) { return FULL_RANGES; }
+        public Ranges between(long fromInclusive, long toInclusive) { return FULL_RANGES; }
+        public Ranges since(long epoch) { return FULL_RANGES; }
+        public boolean owns(long epoch, RoutingKey key) { return true; }
+    };
+
+    private static InMemoryCommandStore.Synchronized store()
+    {
+        return new InMemoryCommandStore.Synchronized(0, 0, 0, 1, TIME, new TestAgent(), new MockStore(), ignore -> null, RANGES);
+    }
+
+    private static int[] randomKeys(Random random, int count)
+    {
+        TreeSet<Integer> keys = new TreeSet<>();
+        while (keys.size() < count)
+            keys.add(random.nextInt(1000));
+        return keys.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Ranges randomRanges(Random random)
+    {
+        int[] bounds = randomKeys(random, 2 * (1 + random.nextInt(5)));
+        Range[] ranges = new Range[bounds.length / 2];
+        for (int i = 0 ; i < ranges.length ; ++i)
+            ranges[i] = IntKey.range(bounds[2 * i], bounds[2 * i + 1]);
+        return Ranges.of(ranges);
+    }
+
+    private static List<Integer> visit(Consumer<Consumer<CommandsForKey>> forEach)
+    {
+        List<Integer> visited = new ArrayList<>();
+        forEach.accept(forKey -> visited.add(((IntKey) forKey.key()).key));
+        return visited;
+    }
+
+    private static long count(CommandsForKey forKey, Object ignore, long param, long prev)
+    {
+        return prev + param;
+    }
+
+    @Test
+    public void testFoldMatchesBruteForce()
+    {
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            store().executeSync(PreLoadContext.empty(), safeStore -> {
+                TreeSet<Integer> present = new TreeSet<>();
+                for (int k : randomKeys(random, random.nextInt(1, 100)))
+                {
+                    safeStore.commandsForKey(IntKey.key(k));
+                    present.add(k);
+                }
+
+                Ranges slice = randomRanges(random);
+                Keys keys = IntKey.keys(randomKeys(random, random.nextInt(1, 50)));
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0 ; i < keys.size() ; ++i)
+                {
+                    if (slice.contains(keys.get(i)))
+                        expected.add(((IntKey) keys.get(i)).key);
+                }
+                Assertions.assertEquals(expected, visit(consumer -> safeStore.forEach(keys, slice, consumer)));
+                Assertions.assertEquals(expected.size(), safeStore.mapReduce(keys, slice, forKey -> 1, Integer::sum, 0));
+                Assertions.assertEquals(Math.min(3, expected.size()), safeStore.foldl(keys, slice, InMemoryCommandStoreTest::count, null, 1, 0, 3));
+                present.addAll(expected);
+
+                Ranges ranges = randomRanges(random);
+                expected.clear();
+                for (int k : present)
+                {
+                    if (slice.contains(IntKey.key(k)) && ranges.contains(IntKey.key(k)))
+                        expected.add(k);
+                }
+                Assertions.assertEquals(expected, visit(consumer -> safeStore.forEach(ranges, slice, consumer)));
+                Assertions.assertEquals(Math.min(3, expected.size()), safeStore.foldl(ranges, slice, InMemoryCommandStoreTest::count, null, 1, 0, 3));
+
+                Range range = ranges.get(0);
+                expected.clear();
+                for (int k : present)
+                {
+                    if (slice.contains(IntKey.key(k)) && range.containsKey(IntKey.key(k)))
+                        expected.add(k);
+                }
+                Assertions.assertEquals(expected, visit(consumer -> safeStore.forEach(range, slice, consumer)));
+                return null;
+            });
+        });
+    }
+
+    @Test
+    public void testForEachRangeCommandMatchesBruteForce()
+    {
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            store().executeSync(PreLoadContext.empty(), safeStore -> {
+                RangeCommandIndex index = ((InMemoryCommandStore.State) safeStore).commandsForRanges;
+                List<Range> indexed = new ArrayList<>();
+                List<TxnId> txnIds = new ArrayList<>();
+                for (int i = 0, count = random.nextInt(1, 20) ; i < count ; ++i)
+                {
+                    TxnId txnId = new TxnId(1, i, 0, NODE);
+                    InMemoryCommand command = new InMemoryCommand(null, txnId);
+                    for (Range range : randomRanges(random))
+                    {
+                        index.add(range, command);
+                        indexed.add(range);
+                        txnIds.add(txnId);
+                    }
+                }
+
+                Ranges slice = randomRanges(random);
+                Keys keys = IntKey.keys(randomKeys(random, random.nextInt(1, 50)));
+                List<String> expected = new ArrayList<>();
+                for (int i = 0 ; i < indexed.size() ; ++i)
+                {
+                    for (Range bound : slice)
+                    {
+                        for (int j = 0 ; j < keys.size() ; ++j)
+                        {
+                            if (bound.containsKey(keys.get(j)) && indexed.get(i).containsKey(keys.get(j)))
+                            {
+                                expected.add(Range.slice(bound, indexed.get(i)) + "@" + txnIds.get(i));
+                                break;
+                            }
+                        }
+                    }
+                }
+                Assertions.assertEquals(sorted(expected), visitRangeCommands(safeStore, keys, slice));
+
+                Ranges ranges = randomRanges(random);
+                expected.clear();
+                for (int i = 0 ; i < indexed.size() ; ++i)
+                {
+                    for (Range bound : ranges.slice(slice))
+                    {
+                        if (bound.compareIntersecting(indexed.get(i)) == 0)
+                            expected.add(Range.slice(bound, indexed.get(i)) + "@" + txnIds.get(i));
+                    }
+                }
+                Assertions.assertEquals(sorted(expected), visitRangeCommands(safeStore, ranges, slice));
+                return null;
+            });
+        });
+    }
+
+    /**
+     * A range transaction is registered only with commandsForRanges, by the union of every range it is registered
+     * with, and each transaction is visited once by forEpochCommands however many keys or ranges it is found by
+     */
+    @Test
+    public void testRangeTransactionsRegisterOnlyByRange()
+    {
+        store().executeSync(PreLoadContext.empty(), safeStore -> {
+            InMemoryCommandStore.State state = (InMemoryCommandStore.State) safeStore;
+            CommandsForKey forKey = safeStore.commandsForKey(IntKey.key(5));
+
+            InMemoryCommand rangeCommand = preAccepted(new TxnId(1, 1, 0, NODE), Txn.Kind.READ);
+            // as when registered on Accept, and again once the transaction itself is known
+            safeStore.register(Ranges.of(IntKey.range(0, 10), IntKey.range(20, 30)), FULL_RANGES, rangeCommand);
+            safeStore.register(IntKey.range(5, 25), FULL_RANGES, rangeCommand);
+            Assertions.assertTrue(forKey.uncommitted().isEmpty());
+            Assertions.assertEquals(1, state.commandsForRanges.size());
+
+            InMemoryCommand keyCommand = preAccepted(new TxnId(1, 2, 0, NODE), Txn.Kind.WRITE);
+            safeStore.register(IntKey.keys(5, 6), FULL_RANGES, keyCommand);
+            Assertions.assertFalse(forKey.uncommitted().isEmpty());
+
+            List<TxnId> found = new ArrayList<>();
+            state.forEpochCommands(Ranges.of(IntKey.range(0, 6), IntKey.range(6, 100)), 1, command -> found.add(command.txnId()));
+            Assertions.assertEquals(Arrays.asList(rangeCommand.txnId(), keyCommand.txnId()), found);
+            return null;
+        });
+    }
+
+    /**
+     * Nothing is erased until every replica has agreed a durableBefore, as the commands below it are otherwise still
+     * needed by replicas that are behind. An agreement first fences the store against any new transaction below the
+     * bound, and cannot succeed while we know one below it that is undecided, which we ask the progress log to resolve.
+     * Once the bound is adopted, applied and invalidated commands below it are erased, and anything we no longer know
+     * below it reads as truncated, never as invalidated, as we cannot say which it was
+     */
+    @Test
+    public void testEraseOnlyBelowAgreedDurableBefore()
+    {
+        AtomicLong now = new AtomicLong(1);
+        NodeTimeService time = new NodeTimeService()
+        {
+            public Node.Id id() { return NODE; }
+            public long epoch() { return 1; }
+            public long now() { return now.get(); }
+            public Timestamp uniqueNow(Timestamp atLeast) { throw new UnsupportedOperationException(); }
+        };
+        WaitingProgressLog progressLog = new WaitingProgressLog();
+        InMemoryCommandStore.Synchronized store = new InMemoryCommandStore.Synchronized(0, 0, 0, 1, time, new TestAgent(), new MockStore(), ignore -> progressLog, RANGES);
+        IntKey.Raw key = IntKey.key(5);
+        PartialTxn partialTxn = writeTxn(Keys.of(key)).slice(FULL_RANGES, true);
+        TxnId applied = new TxnId(1, 10, 0, NODE), undecided = new TxnId(1, 20, 0, NODE), later = new TxnId(1, 30, 0, NODE);
+        Timestamp durableBefore = new Timestamp(1, 25, 0, NODE);
+
+        store.executeSync(PreLoadContext.empty(), safeStore -> {
+            for (TxnId txnId : Arrays.asList(applied, undecided, later))
+            {
+                InMemoryCommand command = (InMemoryCommand) safeStore.command(txnId);
+                command.setKind(Txn.Kind.WRITE);
+                command.setPartialTxn(partialTxn);
+                command.setExecuteAt(txnId == later ? new Timestamp(1, 40, 0, NODE) : txnId);
+                command.setSaveStatus(SaveStatus.PreAccepted);
+                safeStore.commandsForKey(key).register(command);
+            }
+            apply(safeStore, applied, key);
+            apply(safeStore, later, key);
+            return null;
+        });
+
+        // however long ago they were applied, nothing is erased until a bound is agreed
+        now.set(TimeUnit.SECONDS.toMicros(100));
+        store.executeSync(PreLoadContext.empty(), safeStore -> null);
+        Assertions.assertEquals(3, store.state.commands.size());
+
+        store.executeSync(PreLoadContext.empty(), safeStore -> {
+            List<TxnId> visited = new ArrayList<>();
+            Assertions.assertFalse(safeStore.fence(durableBefore, (txnId, executeAt, keys) -> visited.add(txnId)));
+            Assertions.assertEquals(Collections.singletonList(applied), visited);
+            Assertions.assertEquals(Collections.singletonList(undecided), progressLog.waiting);
+            Assertions.assertEquals(durableBefore, safeStore.fencedBefore());
+            Assertions.assertEquals(Timestamp.NONE, safeStore.durableBefore());
+
+            // we have promised not to witness anything new below the fence
+            TxnId fenced = new TxnId(1, 15, 0, NODE);
+            RoutingKey homeKey = key.toUnseekable();
+            Assertions.assertEquals(AcceptOutcome.RejectedBallot, safeStore.command(fenced).preaccept(safeStore, partialTxn, RoutingKeys.of(homeKey).toRoute(homeKey), homeKey));
+            Assertions.assertEquals(SaveStatus.NotWitnessed, safeStore.command(fenced).saveStatus());
+
+            InMemoryCommand command = (InMemoryCommand) safeStore.command(undecided);
+            command.setSaveStatus(SaveStatus.Invalidated);
+            safeStore.commandsForKey(key).onChange(safeStore, command);
+            Assertions.assertTrue(safeStore.fence(durableBefore, (txnId, executeAt, keys) -> {}));
+            safeStore.markDurableBefore(durableBefore);
+            return null;
+        });
+
+        // the command that executes after the bound is kept, and still bounds what we witness next on its key
+        store.executeSync(PreLoadContext.empty(), safeStore -> null);
+        Assertions.assertEquals(Collections.singleton(later), store.state.commands.keySet());
+        store.executeSync(PreLoadContext.empty(), safeStore -> {
+            for (TxnId txnId : Arrays.asList(applied, undecided, new TxnId(1, 5, 0, NODE)))
+            {
+                Assertions.assertEquals(SaveStatus.Truncated, safeStore.ifLoaded(txnId).saveStatus());
+                Assertions.assertEquals(SaveStatus.Truncated, safeStore.command(txnId).saveStatus());
+            }
+            Assertions.assertEquals(Collections.singleton(later), store.state.commands.keySet());
+            Assertions.assertEquals(Collections.singletonList(later), committed(safeStore, key));
+            Assertions.assertTrue(safeStore.commandsForKey(key).uncommitted().isEmpty());
+            Assertions.assertEquals(new Timestamp(1, 40, 0, NODE), safeStore.commandsForKey(key).max());
+            return null;
+        });
+    }
+
+    /**
+     * Records the transactions the progress log is asked to resolve
+     */
+    private static class WaitingProgressLog implements ProgressLog
+    {
+        final List<TxnId> waiting = new ArrayList<>();
+
+        @Override public void unwitnessed(TxnId txnId, RoutingKey homeKey, ProgressShard shard) {}
+        @Override public void preaccepted(Command command, ProgressShard shard) {}
+        @Override public void accepted(Command command, ProgressShard shard) {}
+        @Override public void committed(Command command, ProgressShard shard) {}
+        @Override public void readyToExecute(Command command, ProgressShard shard) {}
+        @Override public void executed(Command command, ProgressShard shard) {}
+        @Override public void invalidated(Command command, ProgressShard shard) {}
+        @Override public void durableLocal(TxnId txnId) {}
+        @Override public void durable(Command command, @Nullable Set<Node.Id> persistedOn) {}
+        @Override public void durable(TxnId txnId, @Nullable Unseekables<?, ?> unseekables, ProgressShard shard) {}
+
+        @Override
+        public void waiting(TxnId blockedBy, Known blockedUntil, Unseekables<?, ?> blockedOn)
+        {
+            waiting.add(blockedBy);
+        }
+    }
+
+    private static void apply(SafeCommandStore safeStore, TxnId txnId, IntKey.Raw key)
+    {
+        InMemoryCommand command = (InMemoryCommand) safeStore.command(txnId);
+        command.setSaveStatus(SaveStatus.Applied);
+        command.setDurability(Durability.Universal);
+        safeStore.commandsForKey(key).onChange(safeStore, command);
+    }
+
+    private static List<TxnId> committed(SafeCommandStore safeStore, IntKey.Raw key)
+    {
+        List<TxnId> committed = new ArrayList<>();
+        ((InMemoryCommandsForKey) safeStore.commandsForKey(key)).committedById().all().forEach(command -> committed.add(command.txnId()));
+        return committed;
+    }
+
+    private static InMemoryCommand preAccepted(TxnId txnId, Txn.Kind kind)
+    {
+        InMemoryCommand command = new InMemoryCommand(null, txnId);
+        command.setKind(kind);
+        command.setExecuteAt(txnId);
+        command.setSaveStatus(SaveStatus.PreAccepted);
+        return command;
+    }
+
+    private static List<String> visitRangeCommands(SafeCommandStore safeStore, Seekables<?, ?> keys, Ranges slice)
+    {
+        List<String> visited = new ArrayList<>();
+        safeStore.forEachRangeCommand(keys, slice, (range, command) -> visited.add(range + "@" + command.txnId()));
+        return sorted(visited);
+    }
+
+    private static List<String> sorted(List<String> list)
+    {
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Once every {@link CommandsForKey} exists, folding over keys should allocate nothing per call; the measurement
+     * itself incurs a small fixed cost, so we amortise it over many calls
+     */
+    @Test
+    public void testKeyFoldDoesNotAllocate()
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported())
+            return;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Random random = new Random(0);
+        Keys keys = IntKey.keys(randomKeys(random, 100));
+        Ranges slice = Ranges.of(IntKey.range(0, 300), IntKey.range(500, 1000));
+        store().executeSync(PreLoadContext.empty(), safeStore -> {
+            long thread = Thread.currentThread().getId();
+            long expected = safeStore.foldl(keys, slice, InMemoryCommandStoreTest::count, null, 1, 0, -1);
+            for (int i = 0 ; i < 20000 ; ++i)
+                Assertions.assertEquals(expected, safeStore.foldl(keys, slice, InMemoryCommandStoreTest::count, null, 1, 0, -1));
+
+            long before = threads.getThreadAllocatedBytes(thread);
+            long sum = 0;
+            int calls = 100000;
+            for (int i = 0 ; i < calls ; ++i)
+                sum += safeStore.foldl(keys, slice, InMemoryCommandStoreTest::count, null, 1, 0, -1);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            Assertions.assertEquals(calls * expected, sum);
+            Assertions.assertEquals(0, allocated / calls);
+            return null;
+        });
+    }
+
+    private static final PreLoadContext READ_ONLY = new PreLoadContext()
+    {
+        public Iterable<TxnId> txnIds() { return Collections.emptyList(); }
+        public Seekables<?, ?> keys() { return Keys.EMPTY; }
+        public boolean isReadOnly() { return true; }
+    };
+
+    private static InMemoryCommandStore.ReadWriteLocked readWriteLocked()
+    {
+        return new InMemoryCommandStore.ReadWriteLocked(0, 0, 0, 1, TIME, new TestAgent(), new MockStore(), ignore -> null, RANGES);
+    }
+
+    @Test
+    public void testReadOnlyOperationsRunConcurrently() throws InterruptedException
+    {
+        InMemoryCommandStore.ReadWriteLocked store = readWriteLocked();
+        CountDownLatch inside = new CountDownLatch(2);
+        AtomicBoolean overlapped = new AtomicBoolean();
+        Runnable probe = () -> store.executeSync(READ_ONLY, safeStore -> {
+            inside.countDown();
+            try
+            {
+                // only succeeds if the other probe enters while we hold the lock
+                if (inside.await(1, TimeUnit.MINUTES))
+                    overlapped.set(true);
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+            return null;
+        });
+        Thread thread = new Thread(probe);
+        thread.start();
+        probe.run();
+        thread.join();
+        Assertions.assertTrue(overlapped.get());
+    }
+
+    @Test
+    public void testReadOnlyOperationRetriesExclusively()
+    {
+        InMemoryCommandStore.ReadWriteLocked store = readWriteLocked();
+        IntKey.Raw key = IntKey.key(1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        // creating state restarts the operation under the exclusive lock
+        store.executeSync(READ_ONLY, safeStore -> {
+            attempts.incrementAndGet();
+            return safeStore.commandsForKey(key);
+        });
+        Assertions.assertEquals(2, attempts.get());
+
+        // but once it exists it may be read under the shared lock
+        attempts.set(0);
+        store.executeSync(READ_ONLY, safeStore -> {
+            attempts.incrementAndGet();
+            return safeStore.commandsForKey(key);
+        });
+        Assertions.assertEquals(1, attempts.get());
+
+        // as does a nested mutating operation, which must restart the outermost operation
+        attempts.set(0);
+        AtomicInteger nested = new AtomicInteger();
+        store.executeSync(READ_ONLY, outer -> store.executeSync(READ_ONLY, inner -> {
+            attempts.incrementAndGet();
+            return store.executeSync(PreLoadContext.empty(), mutating -> nested.incrementAndGet());
+        }));
+        Assertions.assertEquals(2, attempts.get());
+        Assertions.assertEquals(1, nested.get());
+    }
+}
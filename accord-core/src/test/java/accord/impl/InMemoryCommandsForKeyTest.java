@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import accord.impl.InMemoryCommandsForKey.InMemoryCommandTimeseries;
+import accord.local.Command;
+import accord.local.Node;
+import accord.local.SaveStatus;
+import accord.local.Status;
+import accord.primitives.Timestamp;
+import accord.primitives.Txn;
+import accord.primitives.TxnId;
+import accord.utils.Gen;
+import accord.utils.Gens;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.local.CommandsForKey.CommandTimeseries.TestDep.ANY_DEPS;
+import static accord.local.CommandsForKey.CommandTimeseries.TestKind.RorWs;
+import static accord.local.CommandsForKey.CommandTimeseries.TestKind.Ws;
+import static accord.local.CommandsForKey.CommandTimeseries.TestStatus.ANY_STATUS;
+import static accord.local.CommandsForKey.CommandTimeseries.TestStatus.HAS_BEEN;
+import static accord.utils.Property.qt;
+
+public class InMemoryCommandsForKeyTest
+{
+    @Test
+    public void testTimeseriesMatchesSortedMap()
+    {
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            InMemoryCommandTimeseries<TxnId> timeseries = new InMemoryCommandTimeseries<>(Command::txnId);
+            TreeMap<Timestamp, Command> model = new TreeMap<>();
+            List<Timestamp> inserted = new ArrayList<>();
+            int operations = random.nextInt(1, 200);
+            for (int i = 0 ; i < operations ; ++i)
+            {
+                if (!inserted.isEmpty() && random.nextInt(4) == 0)
+                {
+                    Timestamp remove = inserted.remove(random.nextInt(inserted.size()));
+                    timeseries.remove(remove);
+                    model.remove(remove);
+                }
+                else
+                {
+                    TxnId txnId = nextTxnId(random, inserted);
+                    Command command = command(random, txnId);
+                    timeseries.add(txnId, command);
+                    model.put(txnId, command);
+                    inserted.add(txnId);
+                }
+
+                Assertions.assertEquals(model.size(), timeseries.size());
+                Assertions.assertEquals(new ArrayList<>(model.values()), timeseries.all().collect(Collectors.toList()));
+            }
+
+            for (int i = 0 ; i < 10 ; ++i)
+            {
+                Timestamp bound = inserted.isEmpty() || random.nextBoolean() ? randomTimestamp(random) : inserted.get(random.nextInt(inserted.size()));
+                Assertions.assertEquals(select(model.headMap(bound, false), cmd -> true),
+                                        timeseries.before(bound, RorWs, ANY_DEPS, null, ANY_STATUS, null).collect(Collectors.toList()));
+                Assertions.assertEquals(select(model.tailMap(bound, false), cmd -> true),
+                                        timeseries.after(bound, RorWs, ANY_DEPS, null, ANY_STATUS, null).collect(Collectors.toList()));
+                Assertions.assertEquals(select(model.headMap(bound, false), cmd -> cmd.kind().isWrite()),
+                                        timeseries.before(bound, Ws, ANY_DEPS, null, ANY_STATUS, null).collect(Collectors.toList()));
+                Assertions.assertEquals(select(model.tailMap(bound, false), cmd -> cmd.hasBeen(Status.Accepted)),
+                                        timeseries.after(bound, RorWs, ANY_DEPS, null, HAS_BEEN, Status.Accepted).collect(Collectors.toList()));
+
+                Timestamp other = randomTimestamp(random);
+                Timestamp min = Timestamp.min(bound, other), max = Timestamp.max(bound, other);
+                Assertions.assertEquals(new ArrayList<>(model.subMap(min, true, max, true).values()),
+                                        timeseries.between(min, max).collect(Collectors.toList()));
+            }
+        });
+    }
+
+    private static List<TxnId> select(Map<Timestamp, Command> commands, Function<Command, Boolean> include)
+    {
+        return commands.values().stream().filter(include::apply).map(Command::txnId).collect(Collectors.toList());
+    }
+
+    private static Command command(Gen.Random random, TxnId txnId)
+    {
+        InMemoryCommand command = new InMemoryCommand(null, txnId);
+        command.setKind(random.nextBoolean() ? Txn.Kind.READ : Txn.Kind.WRITE);
+        command.setSaveStatus(random.nextBoolean() ? SaveStatus.PreAccepted : SaveStatus.Accepted);
+        return command;
+    }
+
+    private static TxnId nextTxnId(Gen.Random random, List<Timestamp> inserted)
+    {
+        TxnId txnId;
+        do
+        {
+            txnId = new TxnId(randomTimestamp(random));
+        }
+        while (inserted.contains(txnId));
+        return txnId;
+    }
+
+    private static Timestamp randomTimestamp(Gen.Random random)
+    {
+        return new Timestamp(random.nextInt(1, 3), random.nextInt(0, 20), random.nextInt(0, 3), new Node.Id(random.nextInt(1, 4)));
+    }
+}
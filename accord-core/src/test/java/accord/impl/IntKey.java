@@ -20,7 +20,6 @@ package accord.impl;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 
 import accord.api.RoutingKey;
 import accord.primitives.RoutableKey;
@@ -154,7 +153,8 @@ public class IntKey implements RoutableKey
     @Override
     public int hashCode()
     {
-        return Objects.hash(key);
+        // equivalent to Objects.hash(key), but without boxing
+        return 31 + key;
     }
 
     @Override
@@ -0,0 +1,482 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import accord.api.RoutingKey;
+import accord.impl.mock.MockStore;
+import accord.local.Command;
+import accord.local.CommandStore;
+import accord.local.Node;
+import accord.local.NodeTimeService;
+import accord.local.PreLoadContext;
+import accord.local.SafeCommandStore;
+import accord.local.SaveStatus;
+import accord.local.Status.Durability;
+import accord.primitives.Ballot;
+import accord.primitives.Keys;
+import accord.primitives.PartialTxn;
+import accord.primitives.Ranges;
+import accord.primitives.Timestamp;
+import accord.primitives.Txn;
+import accord.primitives.TxnId;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.Utils.writeTxn;
+
+public class JournalTest
+{
+    private static final CommandSerializer.ValueSerializer<?> UNSUPPORTED = new CommandSerializer.ValueSerializer<Object>()
+    {
+        @Override
+        public void serialize(Object value, DataOutput out)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object deserialize(DataInput in)
+        {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    private static final CommandSerializer.Serializers NO_PAYLOAD = new CommandSerializer.Serializers()
+    {
+        public CommandSerializer.ValueSerializer routingKey() { return UNSUPPORTED; }
+        public CommandSerializer.ValueSerializer route() { return UNSUPPORTED; }
+        public CommandSerializer.ValueSerializer partialTxn() { return UNSUPPORTED; }
+        public CommandSerializer.ValueSerializer partialDeps() { return UNSUPPORTED; }
+        public CommandSerializer.ValueSerializer writes() { return UNSUPPORTED; }
+        public CommandSerializer.ValueSerializer result() { return UNSUPPORTED; }
+        public CommandSerializer.ValueSerializer ranges() { return UNSUPPORTED; }
+    };
+
+    private static List<byte[]> replay(File directory)
+    {
+        List<byte[]> replayed = new ArrayList<>();
+        new Journal(directory, 64).replay(replayed::add);
+        return replayed;
+    }
+
+    @Test
+    public void testReplayAcrossSegments() throws IOException
+    {
+        File directory = Files.createTempDirectory("journal").toFile();
+        List<byte[]> appended = new ArrayList<>();
+        Journal journal = new Journal(directory, 64);
+        for (int i = 0 ; i < 100 ; ++i)
+        {
+            byte[] record = new byte[1 + (i * 7) % 80];
+            for (int j = 0 ; j < record.length ; ++j)
+                record[j] = (byte) (i + j);
+            journal.append(record, 0, record.length);
+            appended.add(record);
+            if (i % 10 == 0)
+                journal.flush();
+        }
+        journal.close();
+        Assertions.assertTrue(directory.list().length > 1);
+
+        List<byte[]> replayed = replay(directory);
+        Assertions.assertEquals(appended.size(), replayed.size());
+        for (int i = 0 ; i < appended.size() ; ++i)
+            Assertions.assertArrayEquals(appended.get(i), replayed.get(i));
+
+        // a journal reopened on the same directory appends to new segments, after those it replays
+        journal = new Journal(directory, 64);
+        journal.append(new byte[] { 1 }, 0, 1);
+        journal.close();
+        Assertions.assertEquals(appended.size() + 1, replay(directory).size());
+    }
+
+    @Test
+    public void testReplayStopsAtTornRecord() throws IOException
+    {
+        File directory = Files.createTempDirectory("journal").toFile();
+        Journal journal = new Journal(directory, 1 << 10);
+        for (int i = 0 ; i < 3 ; ++i)
+            journal.append(new byte[] { (byte) i, (byte) i, (byte) i }, 0, 3);
+        journal.close();
+
+        // corrupt the contents of the last record
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "journal-0.log"), "rw"))
+        {
+            file.seek(2 * 11 + 8);
+            file.write(42);
+        }
+        Assertions.assertEquals(2, replay(directory).size());
+    }
+
+    @Test
+    public void testCommandReplay() throws IOException
+    {
+        File directory = Files.createTempDirectory("journal").toFile();
+        Node.Id node = new Node.Id(1);
+        TxnId txnId1 = new TxnId(1, 10, 0, node);
+        TxnId txnId2 = new TxnId(1, 20, 0, node);
+
+        InMemoryCommand command1 = new InMemoryCommand(null, txnId1);
+        command1.setKind(Txn.Kind.WRITE);
+        command1.setPromised(new Ballot(1, 11, 0, node));
+        command1.setAccepted(new Ballot(1, 11, 0, node));
+        command1.setExecuteAt(new Timestamp(1, 12, 0, node));
+        command1.setSaveStatus(SaveStatus.Committed);
+        InMemoryCommand command2 = new InMemoryCommand(null, txnId2);
+        command2.setKind(Txn.Kind.READ);
+        command2.setExecuteAt(txnId2);
+        command2.setSaveStatus(SaveStatus.Committed);
+        command2.setDurability(Durability.Durable);
+        command2.addWaitingOnApplyIfAbsent(txnId1, command1.executeAt());
+        command1.addListener(command2);
+
+        CommandJournal journal = new CommandJournal(new Journal(directory, 1 << 10), NO_PAYLOAD);
+        journal.append(command1);
+        journal.append(command2);
+        journal.close();
+
+        TreeMap<TxnId, InMemoryCommand> replayed = new TreeMap<>();
+        new CommandJournal(new Journal(directory, 1 << 10), NO_PAYLOAD)
+            .replay(txnId -> replayed.computeIfAbsent(txnId, id -> new InMemoryCommand(null, id)));
+
+        Assertions.assertEquals(2, replayed.size());
+        for (InMemoryCommand command : new InMemoryCommand[] { command1, command2 })
+        {
+            InMemoryCommand restored = replayed.get(command.txnId());
+            Assertions.assertEquals(command.saveStatus(), restored.saveStatus());
+            Assertions.assertEquals(command.durability(), restored.durability());
+            Assertions.assertEquals(command.kind(), restored.kind());
+            Assertions.assertEquals(command.promised(), restored.promised());
+            Assertions.assertEquals(command.accepted(), restored.accepted());
+            Assertions.assertEquals(command.executeAt(), restored.executeAt());
+            Assertions.assertEquals(command.waitingOn(), restored.waitingOn());
+        }
+        Command listener = (Command) replayed.get(txnId1).listeners().iterator().next();
+        Assertions.assertSame(replayed.get(txnId2), listener);
+    }
+
+    private static InMemoryCommand command(TxnId txnId, SaveStatus status)
+    {
+        InMemoryCommand command = new InMemoryCommand(null, txnId);
+        command.setKind(Txn.Kind.WRITE);
+        command.setExecuteAt(txnId);
+        command.setSaveStatus(status);
+        return command;
+    }
+
+    private static TreeMap<TxnId, InMemoryCommand> replayCommands(File directory)
+    {
+        TreeMap<TxnId, InMemoryCommand> replayed = new TreeMap<>();
+        new CommandJournal(new Journal(directory, 1 << 10), NO_PAYLOAD)
+            .replay(txnId -> replayed.computeIfAbsent(txnId, id -> new InMemoryCommand(null, id)));
+        return replayed;
+    }
+
+    @Test
+    public void testSnapshotReplay() throws IOException
+    {
+        File directory = Files.createTempDirectory("journal").toFile();
+        Node.Id node = new Node.Id(1);
+        TxnId txnId1 = new TxnId(1, 10, 0, node);
+        TxnId txnId2 = new TxnId(1, 20, 0, node);
+        TxnId txnId3 = new TxnId(1, 30, 0, node);
+
+        CommandJournal journal = new CommandJournal(new Journal(directory, 1 << 10), NO_PAYLOAD);
+        InMemoryCommand command1 = command(txnId1, SaveStatus.PreAccepted);
+        InMemoryCommand command2 = command(txnId2, SaveStatus.PreAccepted);
+        journal.append(command1);
+        journal.append(command2);
+
+        CommandJournal.Snapshot snapshot = journal.beginSnapshot();
+        snapshot.append(command1);
+        // modified while the snapshot is in progress, after it has been snapshotted
+        command1.setSaveStatus(SaveStatus.Committed);
+        journal.append(command1);
+        journal.append(command(txnId3, SaveStatus.PreAccepted));
+        snapshot.append(command2);
+        snapshot.complete();
+        journal.close();
+        Assertions.assertFalse(new File(directory, "journal-0.log").exists());
+
+        TreeMap<TxnId, InMemoryCommand> replayed = replayCommands(directory);
+        Assertions.assertEquals(3, replayed.size());
+        Assertions.assertEquals(SaveStatus.Committed, replayed.get(txnId1).saveStatus());
+        Assertions.assertEquals(SaveStatus.PreAccepted, replayed.get(txnId2).saveStatus());
+        Assertions.assertEquals(SaveStatus.PreAccepted, replayed.get(txnId3).saveStatus());
+
+        // an incomplete snapshot is ignored, and the journal replayed from the last complete one
+        journal = new CommandJournal(new Journal(directory, 1 << 10), NO_PAYLOAD);
+        journal.beginSnapshot().append(command2);
+        journal.close();
+        Assertions.assertEquals(3, replayCommands(directory).size());
+    }
+
+    private static final Node.Id NODE = new Node.Id(1);
+    private static final Ranges FULL_RANGES = Ranges.single(IntKey.range(0, 100));
+
+    private static final NodeTimeService TIME = new NodeTimeService()
+    {
+        public Node.Id id() { return NODE; }
+        public long epoch() { return 1; }
+        public long now() { return 1; }
+        public Timestamp uniqueNow(Timestamp atLeast) { throw new UnsupportedOperationException(); }
+    };
+
+    private static final CommandStore.RangesForEpoch RANGES = new CommandStore.RangesForEpoch()
+    {
+        public Ranges at(long epoch) { return FULL_RANGES; }
+        public Ranges between(long fromInclusive, long toInclusive) { return FULL_RANGES; }
+        public Ranges since(long epoch) { return FULL_RANGES; }
+        public boolean owns(long epoch, RoutingKey key) { return true; }
+    };
+
+    /**
+     * Counts the flushes that make some record durable
+     */
+    static class CountingJournal extends Journal
+    {
+        int flushes;
+        boolean isDirty;
+
+        CountingJournal(File directory, int segmentSize)
+        {
+            super(directory, segmentSize);
+        }
+
+        @Override
+        public void append(byte[] bytes, int offset, int length)
+        {
+            super.append(bytes, offset, length);
+            isDirty = true;
+        }
+
+        @Override
+        public void flush()
+        {
+            if (isDirty)
+                ++flushes;
+            isDirty = false;
+            super.flush();
+        }
+    }
+
+    /**
+     * A store run as an actor on {@code carrier}, that the test drives by hand
+     */
+    private static InMemoryCommandStore.Journaling store(Journal journal, ByReference serializers, Queue<Runnable> carrier)
+    {
+        return new InMemoryCommandStore.Journaling(0, 0, 0, 1, TIME, new TestAgent(), new MockStore(), ignore -> null, RANGES,
+                                                   new CommandJournal(journal, serializers), Integer.MAX_VALUE, carrier::add);
+    }
+
+    private static <T> T run(Queue<Runnable> carrier, Future<T> future)
+    {
+        while (!carrier.isEmpty())
+            carrier.poll().run();
+        if (future.cause() != null)
+            throw new AssertionError(future.cause());
+        Assertions.assertTrue(future.isSuccess());
+        return future.getNow();
+    }
+
+    private static InMemoryCommand create(SafeCommandStore safeStore, TxnId txnId, SaveStatus status, Timestamp executeAt)
+    {
+        InMemoryCommand command = (InMemoryCommand) safeStore.command(txnId);
+        command.setKind(Txn.Kind.WRITE);
+        command.setExecuteAt(executeAt);
+        command.setSaveStatus(status);
+        return command;
+    }
+
+    /**
+     * Restart a store from its journal, checking that key and range transactions are restored along with the
+     * commandsForKey and range index they were registered with, and the listeners between them
+     */
+    @Test
+    public void testStoreRestart() throws IOException
+    {
+        File directory = Files.createTempDirectory("journal").toFile();
+        ByReference serializers = new ByReference();
+        Queue<Runnable> carrier = new ArrayDeque<>();
+        IntKey.Raw key = IntKey.key(5);
+        PartialTxn partialTxn = writeTxn(Keys.of(key)).slice(FULL_RANGES, true);
+        TxnId applied = new TxnId(1, 10, 0, NODE), preAccepted = new TxnId(1, 20, 0, NODE), accepted = new TxnId(1, 30, 0, NODE);
+        Ranges registered = Ranges.of(IntKey.range(0, 10), IntKey.range(20, 30));
+
+        InMemoryCommandStore.Journaling store = store(new Journal(directory, 1 << 12), serializers, carrier);
+        run(carrier, store.submit(PreLoadContext.empty(), safeStore -> {
+            for (TxnId txnId : new TxnId[] { applied, preAccepted })
+            {
+                InMemoryCommand command = create(safeStore, txnId, SaveStatus.PreAccepted, txnId);
+                command.setPartialTxn(partialTxn);
+                safeStore.register(partialTxn.keys(), FULL_RANGES, command);
+            }
+            InMemoryCommand command = create(safeStore, applied, SaveStatus.Applied, applied);
+            command.setDurability(Durability.Durable);
+            safeStore.commandsForKey(key).onChange(safeStore, command);
+
+            // as registered by Accept, before the transaction itself is known
+            InMemoryCommand range = create(safeStore, accepted, SaveStatus.Accepted, new Timestamp(1, 40, 0, NODE));
+            safeStore.register(registered, FULL_RANGES, range);
+            range.addListener(safeStore.command(preAccepted));
+            return null;
+        }));
+        store.shutdown();
+        run(carrier, ImmediateFuture.success(null));
+
+        store = store(new Journal(directory, 1 << 12), serializers, carrier);
+        InMemoryCommandStore.Journaling restarted = store;
+        run(carrier, store.submit(PreLoadContext.empty(), safeStore -> {
+            Command command = safeStore.command(applied);
+            Assertions.assertEquals(SaveStatus.Applied, command.saveStatus());
+            Assertions.assertEquals(Durability.Durable, command.durability());
+            Assertions.assertSame(partialTxn, command.partialTxn());
+            Assertions.assertEquals(SaveStatus.PreAccepted, safeStore.command(preAccepted).saveStatus());
+            Assertions.assertEquals(SaveStatus.Accepted, safeStore.command(accepted).saveStatus());
+
+            InMemoryCommandsForKey forKey = (InMemoryCommandsForKey) safeStore.commandsForKey(key);
+            Assertions.assertEquals(Collections.singletonList(applied), forKey.committedById().all().map(Command::txnId).collect(Collectors.toList()));
+            Assertions.assertEquals(Collections.singletonList(preAccepted), forKey.uncommitted().all().map(Command::txnId).collect(Collectors.toList()));
+            Assertions.assertEquals(preAccepted, forKey.max());
+
+            Assertions.assertEquals(registered, ((InMemoryCommand) safeStore.command(accepted)).registeredRanges());
+            Assertions.assertEquals(registered.size(), restarted.state.commandsForRanges.size());
+            List<TxnId> found = new ArrayList<>();
+            restarted.state.forEpochCommands(FULL_RANGES, 1, c -> found.add(c.txnId()));
+            Assertions.assertEquals(Arrays.asList(applied, preAccepted, accepted), found);
+            Assertions.assertSame(safeStore.command(preAccepted), ((InMemoryCommand) safeStore.command(accepted)).listeners().iterator().next());
+            return null;
+        }));
+        store.shutdown();
+        run(carrier, ImmediateFuture.success(null));
+    }
+
+    /**
+     * Restart a store that has erased commands, checking that we restore the bounds agreed with the other replicas
+     * and the max timestamps of what was erased, whether these were journaled or snapshotted
+     */
+    @Test
+    public void testBoundsRestart() throws IOException
+    {
+        testBoundsRestart(false);
+        testBoundsRestart(true);
+    }
+
+    private static void testBoundsRestart(boolean snapshot) throws IOException
+    {
+        File directory = Files.createTempDirectory("journal").toFile();
+        ByReference serializers = new ByReference();
+        Queue<Runnable> carrier = new ArrayDeque<>();
+        IntKey.Raw key = IntKey.key(5);
+        PartialTxn partialTxn = writeTxn(Keys.of(key)).slice(FULL_RANGES, true);
+        TxnId keyTxnId = new TxnId(1, 10, 0, NODE), rangeTxnId = new TxnId(1, 20, 0, NODE);
+        Timestamp keyExecuteAt = new Timestamp(1, 45, 0, NODE), rangeExecuteAt = new Timestamp(1, 40, 0, NODE);
+        Timestamp durableBefore = new Timestamp(1, 50, 0, NODE), fencedBefore = new Timestamp(1, 60, 0, NODE);
+
+        InMemoryCommandStore.Journaling store = store(new Journal(directory, 1 << 12), serializers, carrier);
+        run(carrier, store.submit(PreLoadContext.empty(), safeStore -> {
+            InMemoryCommand command = create(safeStore, keyTxnId, SaveStatus.Applied, keyExecuteAt);
+            command.setPartialTxn(partialTxn);
+            safeStore.register(partialTxn.keys(), FULL_RANGES, command);
+            safeStore.commandsForKey(key).onChange(safeStore, command);
+            InMemoryCommand range = create(safeStore, rangeTxnId, SaveStatus.Applied, rangeExecuteAt);
+            safeStore.register(Ranges.of(IntKey.range(20, 30)), FULL_RANGES, range);
+            safeStore.markDurableBefore(durableBefore);
+            Assertions.assertTrue(safeStore.fence(fencedBefore, (txnId, executeAt, keys) -> {}));
+            return null;
+        }));
+        // both are erased once flushed, and their max timestamps journaled with the next operation or snapshot
+        Assertions.assertTrue(store.state.commands.isEmpty());
+        if (snapshot) run(carrier, store.snapshot());
+        else run(carrier, store.submit(PreLoadContext.empty(), safeStore -> null));
+        store.shutdown();
+        run(carrier, ImmediateFuture.success(null));
+
+        InMemoryCommandStore.Journaling restarted = store(new Journal(directory, 1 << 12), serializers, carrier);
+        Assertions.assertEquals(durableBefore, restarted.state.durableBefore());
+        Assertions.assertEquals(fencedBefore, restarted.state.fencedBefore());
+        Assertions.assertEquals(rangeExecuteAt, restarted.state.truncatedRangesMax());
+        Assertions.assertEquals(keyExecuteAt, restarted.state.maxConflicts.get(key));
+        // the snapshot supersedes the journal the commands were recorded in, so we restore only their bounds
+        if (snapshot)
+        {
+            run(carrier, restarted.submit(PreLoadContext.empty(), safeStore -> {
+                Assertions.assertEquals(SaveStatus.Truncated, safeStore.command(keyTxnId).saveStatus());
+                Assertions.assertEquals(SaveStatus.Truncated, safeStore.command(rangeTxnId).saveStatus());
+                return null;
+            }));
+        }
+        restarted.shutdown();
+        run(carrier, ImmediateFuture.success(null));
+    }
+
+    /**
+     * Operations queued behind one another share a flush, up to a bound, and none completes before its flush
+     */
+    @Test
+    public void testGroupCommit() throws IOException
+    {
+        File directory = Files.createTempDirectory("journal").toFile();
+        Queue<Runnable> carrier = new ArrayDeque<>();
+        CountingJournal journal = new CountingJournal(directory, 1 << 16);
+        InMemoryCommandStore.Journaling store = store(journal, new ByReference(), carrier);
+
+        int count = 100;
+        List<Integer> flushedBefore = new ArrayList<>();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0 ; i < count ; ++i)
+        {
+            TxnId txnId = new TxnId(1, 10 + i, 0, NODE);
+            Future<Void> future = store.execute(PreLoadContext.empty(), safeStore -> create(safeStore, txnId, SaveStatus.PreAccepted, txnId));
+            future.addCallback((success, failure) -> flushedBefore.add(journal.flushes));
+            futures.add(future);
+        }
+        Assertions.assertEquals(0, journal.flushes);
+        for (Future<Void> future : futures)
+            run(carrier, future);
+
+        // the first 64 are flushed together, and the remainder once there is nothing left to run
+        Assertions.assertEquals(2, journal.flushes);
+        Assertions.assertEquals(count, flushedBefore.size());
+        for (int i = 0 ; i < count ; ++i)
+            Assertions.assertEquals(i < 64 ? 1 : 2, flushedBefore.get(i));
+
+        store.shutdown();
+        run(carrier, ImmediateFuture.success(null));
+        Assertions.assertEquals(count, replayCommands(directory).size());
+    }
+}
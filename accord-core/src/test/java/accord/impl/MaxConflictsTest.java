@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.util.TreeMap;
+
+import accord.local.Node;
+import accord.primitives.Range;
+import accord.primitives.Timestamp;
+import accord.utils.Gens;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.utils.Property.qt;
+
+public class MaxConflictsTest
+{
+    @Test
+    public void testMatchesBruteForce()
+    {
+        Node.Id node = new Node.Id(1);
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            MaxConflicts maxConflicts = new MaxConflicts();
+            TreeMap<Integer, Timestamp> model = new TreeMap<>();
+            int operations = random.nextInt(1, 300);
+            for (int i = 0 ; i < operations ; ++i)
+            {
+                int k = random.nextInt(0, 500);
+                Timestamp timestamp = new Timestamp(1, random.nextInt(0, 10000), 0, node);
+                model.merge(k, timestamp, Timestamp::max);
+                maxConflicts.update(IntKey.key(k), timestamp);
+                Assertions.assertEquals(model.size(), maxConflicts.size());
+
+                int probe = random.nextInt(0, 500);
+                Assertions.assertEquals(model.getOrDefault(probe, Timestamp.NONE), maxConflicts.get(IntKey.key(probe)));
+
+                int start = random.nextInt(0, 500);
+                Range range = IntKey.range(start, start + random.nextInt(1, 100));
+                Timestamp expected = Timestamp.NONE;
+                for (Integer key : model.keySet())
+                {
+                    if (range.containsKey(IntKey.key(key)))
+                        expected = Timestamp.max(expected, model.get(key));
+                }
+                Assertions.assertEquals(expected, maxConflicts.get(range));
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import accord.local.Command;
+import accord.local.Node;
+import accord.primitives.Range;
+import accord.primitives.TxnId;
+import accord.utils.Gens;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.utils.Property.qt;
+
+public class RangeCommandIndexTest
+{
+    private static class Entry
+    {
+        final Range range;
+        final Command command;
+
+        Entry(Range range, Command command)
+        {
+            this.range = range;
+            this.command = command;
+        }
+    }
+
+    private static List<String> collect(RangeCommandIndex index, Range range)
+    {
+        return index.foldlIntersecting(range, (r, command, list) -> { list.add(describe(r, command)); return list; }, new ArrayList<>());
+    }
+
+    private static List<String> collect(RangeCommandIndex index, IntKey.Routing key)
+    {
+        return index.foldlContaining(key, (r, command, list) -> { list.add(describe(r, command)); return list; }, new ArrayList<>());
+    }
+
+    private static String describe(Range range, Command command)
+    {
+        return range + "@" + command.txnId();
+    }
+
+    @Test
+    public void testMatchesBruteForce()
+    {
+        Node.Id node = new Node.Id(1);
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            RangeCommandIndex index = new RangeCommandIndex();
+            List<Entry> model = new ArrayList<>();
+            int operations = random.nextInt(1, 300);
+            for (int i = 0 ; i < operations ; ++i)
+            {
+                if (!model.isEmpty() && random.nextInt(3) == 0)
+                {
+                    Entry remove = model.remove(random.nextInt(0, model.size()));
+                    index.remove(remove.range, remove.command.txnId());
+                }
+                else
+                {
+                    int start = random.nextInt(0, 1000);
+                    Range range = IntKey.range(start, start + random.nextInt(1, 200));
+                    Entry entry = new Entry(range, new InMemoryCommand(null, new TxnId(1, i, 0, node)));
+                    model.add(entry);
+                    index.add(entry.range, entry.command);
+                }
+                Assertions.assertEquals(model.size(), index.size());
+
+                int start = random.nextInt(0, 1200);
+                Range query = IntKey.range(start, start + random.nextInt(1, 100));
+                List<String> expected = new ArrayList<>();
+                for (Entry entry : model)
+                {
+                    if (entry.range.start().compareTo(query.end()) < 0 && entry.range.end().compareTo(query.start()) > 0)
+                        expected.add(describe(entry.range, entry.command));
+                }
+                List<String> actual = collect(index, query);
+                expected.sort(String::compareTo);
+                actual.sort(String::compareTo);
+                Assertions.assertEquals(expected, actual);
+
+                IntKey.Routing key = IntKey.routing(random.nextInt(0, 1200));
+                expected.clear();
+                for (Entry entry : model)
+                {
+                    if (entry.range.containsKey(key))
+                        expected.add(describe(entry.range, entry.command));
+                }
+                actual = collect(index, key);
+                expected.sort(String::compareTo);
+                actual.sort(String::compareTo);
+                Assertions.assertEquals(expected, actual);
+            }
+        });
+    }
+}
@@ -58,4 +58,10 @@ public class TestAgent implements Agent
     {
         return TimeUnit.SECONDS.convert(now - initiated.real, TimeUnit.MICROSECONDS) >= 10;
     }
+
+    @Override
+    public boolean isErasable(Timestamp executeAt)
+    {
+        return true;
+    }
 }
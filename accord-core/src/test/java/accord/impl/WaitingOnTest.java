@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import accord.local.Node;
+import accord.primitives.Timestamp;
+import accord.primitives.TxnId;
+import accord.utils.Gens;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.utils.Property.qt;
+
+public class WaitingOnTest
+{
+    @Test
+    public void testMatchesSortedCollections()
+    {
+        Node.Id node = new Node.Id(1);
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            TxnId[] deps = new TxnId[random.nextInt(0, 150)];
+            for (int i = 0 ; i < deps.length ; ++i)
+                deps[i] = new TxnId(1, 2 * i, 0, node);
+
+            WaitingOn waitingOn = new WaitingOn(deps);
+            TreeSet<TxnId> commit = new TreeSet<>();
+            TreeMap<Timestamp, TxnId> apply = new TreeMap<>();
+            Map<TxnId, Timestamp> executeAts = new TreeMap<>();
+            int operations = random.nextInt(1, 300);
+            for (int i = 0 ; i < operations ; ++i)
+            {
+                // occasionally pick a dependency we were not constructed with
+                int n = random.nextInt(0, 2 * deps.length + 2);
+                TxnId txnId = new TxnId(1, n, 0, node);
+                Timestamp executeAt = executeAts.computeIfAbsent(txnId, id -> new Timestamp(1, 1000L * random.nextInt(1, 10000) + n, 0, node));
+                switch (random.nextInt(0, 4))
+                {
+                    case 0:
+                        waitingOn.addCommit(txnId);
+                        commit.add(txnId);
+                        break;
+                    case 1:
+                        waitingOn.removeCommit(txnId);
+                        commit.remove(txnId);
+                        break;
+                    case 2:
+                        waitingOn.addApply(txnId, executeAt);
+                        apply.put(executeAt, txnId);
+                        break;
+                    case 3:
+                        waitingOn.remove(txnId, executeAt);
+                        commit.remove(txnId);
+                        apply.remove(executeAt);
+                        break;
+                }
+
+                Assertions.assertEquals(!commit.isEmpty(), waitingOn.isWaitingOnCommit());
+                Assertions.assertEquals(!apply.isEmpty(), waitingOn.isWaitingOnApply());
+                Assertions.assertEquals(commit.isEmpty() ? null : commit.first(), waitingOn.firstCommit());
+                Assertions.assertEquals(apply.isEmpty() ? null : apply.firstEntry().getValue(), waitingOn.firstApply(null));
+                Timestamp before = new Timestamp(1, 1000L * random.nextInt(1, 10000), 0, node);
+                Assertions.assertEquals(apply.isEmpty() || apply.firstKey().compareTo(before) >= 0 ? null : apply.firstEntry().getValue(),
+                                        waitingOn.firstApply(before));
+            }
+        });
+    }
+}
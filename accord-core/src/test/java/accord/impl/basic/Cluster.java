@@ -18,6 +18,10 @@
 
 package accord.impl.basic;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -38,18 +42,29 @@ import java.util.function.Supplier;
 import accord.api.MessageSink;
 import accord.burn.BurnTestConfigurationService;
 import accord.burn.TopologyUpdates;
+import accord.coordinate.AgreeDurableBefore;
+import accord.impl.CommandJournal;
+import accord.impl.InMemoryCommand;
+import accord.impl.InMemoryCommandStore;
 import accord.impl.SimpleProgressLog;
 import accord.impl.InMemoryCommandStores;
+import accord.impl.Journal;
 import accord.impl.SizeOfIntersectionSorter;
+import accord.local.CommandStore;
+import accord.local.CommandStores;
+import accord.local.CommandStores.Partitioning;
 import accord.local.Node;
 import accord.local.Node.Id;
 import accord.api.Scheduler;
 import accord.impl.TopologyFactory;
 import accord.impl.list.ListAgent;
+import accord.impl.list.ListSerializers;
 import accord.impl.list.ListStore;
 import accord.messages.Callback;
 import accord.messages.Reply;
 import accord.messages.Request;
+import accord.primitives.Timestamp;
+import accord.primitives.TxnId;
 import accord.topology.TopologyRandomizer;
 import accord.topology.Topology;
 import org.slf4j.Logger;
@@ -60,6 +75,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 public class Cluster implements Scheduler
 {
     public static final Logger trace = LoggerFactory.getLogger("accord.impl.basic.Trace");
+    private static final int SNAPSHOT_INTERVAL = 1000;
 
     final Function<Id, Node> lookup;
     final PendingQueue pending;
@@ -209,9 +225,21 @@ public class Cluster implements Scheduler
     //       might be deterministic based on prior runs (some evidence of this), or non-deterministic
     public static void run(Id[] nodes, Supplier<PendingQueue> queueSupplier, Consumer<Packet> responseSink, Consumer<Throwable> onFailure, Supplier<Random> randomSupplier, Supplier<LongSupplier> nowSupplier, TopologyFactory topologyFactory, Supplier<Packet> in)
     {
-        TopologyUpdates topologyUpdates = new TopologyUpdates();
-        Topology topology = topologyFactory.toTopology(nodes);
+        run(nodes, queueSupplier, responseSink, onFailure, randomSupplier, nowSupplier, topologyFactory, in, false);
+    }
+
+    /**
+     * @param journaled if true, every node's command stores journal their commands to a temporary directory, and run
+     *                  as actors on the simulation's queue
+     */
+    public static void run(Id[] nodes, Supplier<PendingQueue> queueSupplier, Consumer<Packet> responseSink, Consumer<Throwable> onFailure, Supplier<Random> randomSupplier, Supplier<LongSupplier> nowSupplier, TopologyFactory topologyFactory, Supplier<Packet> in, boolean journaled)
+    {
+        File journals = journaled ? createTempDirectory() : null;
+        ListSerializers serializers = new ListSerializers();
+        Map<Id, ListStore> stores = new HashMap<>();
         Map<Id, Node> lookup = new LinkedHashMap<>();
+        TopologyUpdates topologyUpdates = new TopologyUpdates(lookup::get, stores::get);
+        Topology topology = topologyFactory.toTopology(nodes);
         TopologyRandomizer configRandomizer = new TopologyRandomizer(randomSupplier, topology, topologyUpdates, lookup::get);
         try
         {
@@ -220,10 +248,26 @@ public class Cluster implements Scheduler
             {
                 MessageSink messageSink = sinks.create(node, randomSupplier.get());
                 BurnTestConfigurationService configService = new BurnTestConfigurationService(node, messageSink, randomSupplier, topology, lookup::get, topologyUpdates);
+                Random random = randomSupplier.get();
+                Partitioning partitioning = random.nextBoolean() ? Partitioning.HASH : Partitioning.RANGE;
+                boolean readWriteLocked = random.nextBoolean();
+                CommandStores.Factory commandStores;
+                if (journaled)
+                {
+                    CommandStore.Factory journaling = InMemoryCommandStore.Journaling.factory(new File(journals, node.toString()), 1 << 20, serializers, SNAPSHOT_INTERVAL,
+                                                                                               run -> sinks.pending.add((PendingRunnable) run::run, 0, TimeUnit.MILLISECONDS));
+                    commandStores = (num, n, agent, store, progressLogFactory) -> new InMemoryCommandStores.SingleThread(num, partitioning, n, agent, store, progressLogFactory, journaling);
+                }
+                else
+                {
+                    commandStores = (num, n, agent, store, progressLogFactory) -> readWriteLocked
+                                                                                  ? new InMemoryCommandStores.ReadWriteLocked(num, partitioning, n, agent, store, progressLogFactory)
+                                                                                  : new InMemoryCommandStores.Synchronized(num, partitioning, n, agent, store, progressLogFactory);
+                }
                 lookup.put(node, new Node(node, messageSink, configService,
-                                          nowSupplier.get(), () -> new ListStore(node), new ListAgent(30L, onFailure),
-                                          randomSupplier.get(), sinks, SizeOfIntersectionSorter.SUPPLIER,
-                                          SimpleProgressLog::new, InMemoryCommandStores.Synchronized::new));
+                                          nowSupplier.get(), () -> stores.computeIfAbsent(node, ListStore::new), new ListAgent(30L, onFailure),
+                                          random, sinks, SizeOfIntersectionSorter.SUPPLIER, SimpleProgressLog::new,
+                                          commandStores));
             }
 
             List<Id> nodesList = new ArrayList<>(Arrays.asList(nodes));
@@ -234,6 +278,8 @@ public class Cluster implements Scheduler
                 sinks.partitionSet = new LinkedHashSet<>(nodesList.subList(0, partitionSize));
             }, 5L, SECONDS);
             Scheduled reconfigure = sinks.recurring(configRandomizer::maybeUpdateTopology, 1L, SECONDS);
+            // much less often than a round takes to complete, so that the simulation may find itself idle and terminate
+            Scheduled agreeDurable = sinks.recurring(new AgreeDurableBeforeRounds(nodes, lookup::get, onFailure), 5L, SECONDS);
 
             Packet next;
             while ((next = in.get()) != null)
@@ -243,6 +289,7 @@ public class Cluster implements Scheduler
 
             chaos.cancel();
             reconfigure.cancel();
+            agreeDurable.cancel();
             sinks.partitionSet = Collections.emptySet();
 
             // give progress log et al a chance to finish
@@ -259,10 +306,95 @@ public class Cluster implements Scheduler
                 sinks.onDone.clear();
                 while (sinks.processPending());
             }
+
+            if (journals != null)
+                replayJournals(journals, serializers);
         }
         finally
         {
             lookup.values().forEach(Node::shutdown);
+            if (journals != null)
+                delete(journals);
+        }
+    }
+
+    /**
+     * Each round, a different node proposes the time at which the previous round began as the bound below which every
+     * transaction is durable, so that it is normally, but not always, safe to agree. Each node has its own logical clock,
+     * so we take the earliest of their clocks, as otherwise a node whose clock lags could propose nothing above the fence.
+     */
+    static class AgreeDurableBeforeRounds implements Runnable
+    {
+        final Id[] nodes;
+        final Function<Id, Node> lookup;
+        final Consumer<Throwable> onFailure;
+        int next;
+        Timestamp candidate;
+
+        AgreeDurableBeforeRounds(Id[] nodes, Function<Id, Node> lookup, Consumer<Throwable> onFailure)
+        {
+            this.nodes = nodes;
+            this.lookup = lookup;
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public void run()
+        {
+            Node node = lookup.apply(nodes[next++ % nodes.length]);
+            if (candidate != null)
+            {
+                AgreeDurableBefore.agree(node, candidate, (success, fail) -> {
+                    if (fail != null)
+                        onFailure.accept(fail);
+                });
+            }
+            candidate = null;
+            for (Id id : nodes)
+            {
+                Timestamp now = lookup.apply(id).uniqueNow();
+                if (candidate == null || now.compareTo(candidate) < 0)
+                    candidate = now;
+            }
+        }
+    }
+
+    /**
+     * Decode every command journaled by every store, as the stores themselves only encode them until they restart
+     */
+    private static void replayJournals(File journals, ListSerializers serializers)
+    {
+        for (File node : journals.listFiles())
+        {
+            for (File store : node.listFiles())
+            {
+                Map<TxnId, InMemoryCommand> replayed = new HashMap<>();
+                new CommandJournal(new Journal(store, 1 << 20), serializers)
+                    .replay(txnId -> replayed.computeIfAbsent(txnId, id -> new InMemoryCommand(null, id)));
+            }
+        }
+    }
+
+    private static File createTempDirectory()
+    {
+        try
+        {
+            return Files.createTempDirectory("burn").toFile();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
         }
+        file.delete();
     }
 }
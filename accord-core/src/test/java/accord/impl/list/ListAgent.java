@@ -72,4 +72,11 @@ public class ListAgent implements Agent
     {
         return now - initiated.real >= timeout;
     }
+
+    @Override
+    public boolean isErasable(Timestamp executeAt)
+    {
+        // new replicas are brought up to date by copying the data of an existing replica, before any command is replayed
+        return true;
+    }
 }
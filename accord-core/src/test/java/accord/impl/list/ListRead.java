@@ -24,8 +24,8 @@ import accord.primitives.Ranges;
 import accord.primitives.Keys;
 import accord.primitives.Timestamp;
 import accord.primitives.Txn;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,7 +53,7 @@ public class ListRead implements Read
     {
         ListStore s = (ListStore)store;
         ListData result = new ListData();
-        int[] data = s.get(key);
+        int[] data = s.get(key, executeAt);
         logger.trace("READ on {} at {} key:{} -> {}", s.node, executeAt, key, data);
         result.put(key, data);
         return ImmediateFuture.success(result);
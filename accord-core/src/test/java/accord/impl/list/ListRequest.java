@@ -73,6 +73,7 @@ public class ListRequest implements Request
         {
             if (failure != null) callback.accept(null, failure);
             else if (merged.saveStatus.hasBeen(Status.Invalidated)) callback.accept(Outcome.Invalidated, null);
+            else if (merged.saveStatus.status == Status.Truncated) callback.accept(Outcome.Lost, null);
             else if (count == nodes().size()) callback.accept(Outcome.Lost, null);
             else callback.accept(Outcome.Neither, null);
         }
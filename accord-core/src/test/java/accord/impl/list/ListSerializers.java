@@ -0,0 +1,396 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.impl.list;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+import accord.api.Key;
+import accord.api.Result;
+import accord.api.RoutingKey;
+import accord.impl.CommandSerializer.Serializers;
+import accord.impl.CommandSerializer.ValueSerializer;
+import accord.impl.DepsSerializer;
+import accord.impl.IntHashKey;
+import accord.local.Node.Id;
+import accord.primitives.FullKeyRoute;
+import accord.primitives.FullRangeRoute;
+import accord.primitives.Keys;
+import accord.primitives.PartialDeps;
+import accord.primitives.PartialKeyRoute;
+import accord.primitives.PartialRangeRoute;
+import accord.primitives.PartialRoute;
+import accord.primitives.PartialTxn;
+import accord.primitives.Range;
+import accord.primitives.Ranges;
+import accord.primitives.Route;
+import accord.primitives.Routable;
+import accord.primitives.Seekables;
+import accord.primitives.Timestamp;
+import accord.primitives.Txn;
+import accord.primitives.TxnId;
+import accord.primitives.Unseekables.UnseekablesKind;
+import accord.primitives.Writes;
+
+/**
+ * A binary encoding of the burn test's {@link IntHashKey} keys and list transactions, so that a journaled command
+ * store round-trips every command through a real codec rather than holding references to the originals
+ */
+public class ListSerializers implements Serializers
+{
+    private static final ValueSerializer<Key> KEY = new ValueSerializer<Key>()
+    {
+        @Override
+        public void serialize(Key key, DataOutput out) throws IOException
+        {
+            out.writeInt(((IntHashKey) key).key);
+        }
+
+        @Override
+        public Key deserialize(DataInput in) throws IOException
+        {
+            return IntHashKey.key(in.readInt());
+        }
+    };
+
+    private static final ValueSerializer<RoutingKey> ROUTING_KEY = new ValueSerializer<RoutingKey>()
+    {
+        @Override
+        public void serialize(RoutingKey key, DataOutput out) throws IOException
+        {
+            out.writeInt(((IntHashKey) key).hash);
+        }
+
+        @Override
+        public RoutingKey deserialize(DataInput in) throws IOException
+        {
+            return IntHashKey.forHash(in.readInt());
+        }
+    };
+
+    private static final ValueSerializer<Range> RANGE = new ValueSerializer<Range>()
+    {
+        @Override
+        public void serialize(Range range, DataOutput out) throws IOException
+        {
+            ROUTING_KEY.serialize(range.start(), out);
+            ROUTING_KEY.serialize(range.end(), out);
+        }
+
+        @Override
+        public Range deserialize(DataInput in) throws IOException
+        {
+            IntHashKey.Hash start = (IntHashKey.Hash) ROUTING_KEY.deserialize(in);
+            return new IntHashKey.Range(start, (IntHashKey.Hash) ROUTING_KEY.deserialize(in));
+        }
+    };
+
+    private static final ValueSerializer<Ranges> RANGES = new ValueSerializer<Ranges>()
+    {
+        @Override
+        public void serialize(Ranges ranges, DataOutput out) throws IOException
+        {
+            out.writeInt(ranges.size());
+            for (Range range : ranges)
+                RANGE.serialize(range, out);
+        }
+
+        @Override
+        public Ranges deserialize(DataInput in) throws IOException
+        {
+            return Ranges.ofSortedAndDeoverlapped(deserializeRanges(in));
+        }
+    };
+
+    private static final ValueSerializer<Route<?>> ROUTE = new ValueSerializer<Route<?>>()
+    {
+        @Override
+        public void serialize(Route<?> route, DataOutput out) throws IOException
+        {
+            out.writeByte(route.kind().ordinal());
+            if (route instanceof PartialRoute)
+                RANGES.serialize(((PartialRoute<?>) route).covering(), out);
+            ROUTING_KEY.serialize(route.homeKey(), out);
+            out.writeInt(route.size());
+            for (int i = 0 ; i < route.size() ; ++i)
+            {
+                if (route.kindOfContents() == Routable.Kind.Key) ROUTING_KEY.serialize((RoutingKey) route.get(i), out);
+                else RANGE.serialize((Range) route.get(i), out);
+            }
+        }
+
+        @Override
+        public Route<?> deserialize(DataInput in) throws IOException
+        {
+            switch (UnseekablesKind.values()[in.readByte()])
+            {
+                default: throw new IllegalStateException();
+                case FullKeyRoute:
+                    return FullKeyRoute.SerializationSupport.create(ROUTING_KEY.deserialize(in), deserializeRoutingKeys(in));
+                case PartialKeyRoute:
+                {
+                    Ranges covering = RANGES.deserialize(in);
+                    return PartialKeyRoute.SerializationSupport.create(covering, ROUTING_KEY.deserialize(in), deserializeRoutingKeys(in));
+                }
+                case FullRangeRoute:
+                    return FullRangeRoute.SerializationSupport.create(ROUTING_KEY.deserialize(in), deserializeRanges(in));
+                case PartialRangeRoute:
+                {
+                    Ranges covering = RANGES.deserialize(in);
+                    return PartialRangeRoute.SerializationSupport.create(covering, ROUTING_KEY.deserialize(in), deserializeRanges(in));
+                }
+            }
+        }
+    };
+
+    private static final ValueSerializer<PartialTxn> PARTIAL_TXN = new ValueSerializer<PartialTxn>()
+    {
+        @Override
+        public void serialize(PartialTxn txn, DataOutput out) throws IOException
+        {
+            RANGES.serialize(txn.covering(), out);
+            out.writeByte(txn.kind().ordinal());
+            serializeSeekables(txn.keys(), out);
+            ListRead read = (ListRead) txn.read();
+            serializeKeys(read.readKeys, out);
+            serializeKeys(read.keys, out);
+            ListQuery query = (ListQuery) txn.query();
+            out.writeBoolean(query != null);
+            if (query != null)
+            {
+                out.writeLong(query.client.id);
+                out.writeLong(query.requestId);
+            }
+            serializeUpdate((ListUpdate) txn.update(), out);
+        }
+
+        @Override
+        public PartialTxn deserialize(DataInput in) throws IOException
+        {
+            Ranges covering = RANGES.deserialize(in);
+            Txn.Kind kind = Txn.Kind.values()[in.readByte()];
+            Seekables<?, ?> keys = deserializeSeekables(in);
+            ListRead read = new ListRead(deserializeKeys(in), deserializeKeys(in));
+            ListQuery query = in.readBoolean() ? new ListQuery(new Id(in.readLong()), in.readLong()) : null;
+            return new PartialTxn.InMemory(covering, kind, keys, read, query, deserializeUpdate(in));
+        }
+    };
+
+    private static final ValueSerializer<PartialDeps> PARTIAL_DEPS = new DepsSerializer(KEY, RANGE).partialDeps();
+
+    private static final ValueSerializer<Writes> WRITES = new ValueSerializer<Writes>()
+    {
+        @Override
+        public void serialize(Writes writes, DataOutput out) throws IOException
+        {
+            serializeTimestamp(writes.executeAt, out);
+            serializeKeys(writes.keys, out);
+            ListWrite write = (ListWrite) writes.write;
+            out.writeBoolean(write != null);
+            if (write == null)
+                return;
+
+            out.writeInt(write.size());
+            for (Map.Entry<Key, int[]> e : write.entrySet())
+            {
+                KEY.serialize(e.getKey(), out);
+                serializeInts(e.getValue(), out);
+            }
+        }
+
+        @Override
+        public Writes deserialize(DataInput in) throws IOException
+        {
+            Timestamp executeAt = deserializeTimestamp(in);
+            Keys keys = deserializeKeys(in);
+            ListWrite write = null;
+            if (in.readBoolean())
+            {
+                write = new ListWrite();
+                for (int i = 0, size = in.readInt() ; i < size ; ++i)
+                    write.put(KEY.deserialize(in), deserializeInts(in));
+            }
+            return new Writes(executeAt, keys, write);
+        }
+    };
+
+    private static final ValueSerializer<Result> RESULT = new ValueSerializer<Result>()
+    {
+        @Override
+        public void serialize(Result value, DataOutput out) throws IOException
+        {
+            ListResult result = (ListResult) value;
+            out.writeLong(result.client.id);
+            out.writeLong(result.requestId);
+            out.writeBoolean(result.txnId != null);
+            if (result.txnId != null)
+                serializeTimestamp(result.txnId, out);
+            out.writeBoolean(result.readKeys != null);
+            if (result.readKeys != null)
+                serializeKeys(result.readKeys, out);
+            out.writeInt(result.read == null ? -1 : result.read.length);
+            if (result.read != null)
+            {
+                for (int[] read : result.read)
+                    serializeInts(read, out);
+            }
+            serializeUpdate(result.update, out);
+        }
+
+        @Override
+        public Result deserialize(DataInput in) throws IOException
+        {
+            Id client = new Id(in.readLong());
+            long requestId = in.readLong();
+            TxnId txnId = in.readBoolean() ? new TxnId(deserializeTimestamp(in)) : null;
+            Keys readKeys = in.readBoolean() ? deserializeKeys(in) : null;
+            int count = in.readInt();
+            int[][] read = null;
+            if (count >= 0)
+            {
+                read = new int[count][];
+                for (int i = 0 ; i < count ; ++i)
+                    read[i] = deserializeInts(in);
+            }
+            return new ListResult(client, requestId, txnId, readKeys, read, deserializeUpdate(in));
+        }
+    };
+
+    @Override public ValueSerializer<RoutingKey> routingKey() { return ROUTING_KEY; }
+    @Override public ValueSerializer<Route<?>> route() { return ROUTE; }
+    @Override public ValueSerializer<PartialTxn> partialTxn() { return PARTIAL_TXN; }
+    @Override public ValueSerializer<PartialDeps> partialDeps() { return PARTIAL_DEPS; }
+    @Override public ValueSerializer<Writes> writes() { return WRITES; }
+    @Override public ValueSerializer<Result> result() { return RESULT; }
+    @Override public ValueSerializer<Ranges> ranges() { return RANGES; }
+
+    private static void serializeTimestamp(Timestamp timestamp, DataOutput out) throws IOException
+    {
+        out.writeLong(timestamp.epoch);
+        out.writeLong(timestamp.real);
+        out.writeInt(timestamp.logical);
+        out.writeLong(timestamp.node.id);
+    }
+
+    private static Timestamp deserializeTimestamp(DataInput in) throws IOException
+    {
+        return new Timestamp(in.readLong(), in.readLong(), in.readInt(), new Id(in.readLong()));
+    }
+
+    private static void serializeSeekables(Seekables<?, ?> keys, DataOutput out) throws IOException
+    {
+        out.writeByte(keys.kindOfContents().ordinal());
+        switch (keys.kindOfContents())
+        {
+            default: throw new AssertionError();
+            case Key: serializeKeys((Keys) keys, out); break;
+            case Range: RANGES.serialize((Ranges) keys, out);
+        }
+    }
+
+    private static Seekables<?, ?> deserializeSeekables(DataInput in) throws IOException
+    {
+        switch (Routable.Kind.values()[in.readByte()])
+        {
+            default: throw new IllegalStateException();
+            case Key: return deserializeKeys(in);
+            case Range: return RANGES.deserialize(in);
+        }
+    }
+
+    private static void serializeKeys(Keys keys, DataOutput out) throws IOException
+    {
+        out.writeInt(keys.size());
+        for (Key key : keys)
+            KEY.serialize(key, out);
+    }
+
+    private static Keys deserializeKeys(DataInput in) throws IOException
+    {
+        Key[] keys = new Key[in.readInt()];
+        for (int i = 0 ; i < keys.length ; ++i)
+            keys[i] = KEY.deserialize(in);
+        return Keys.SerializationSupport.create(keys);
+    }
+
+    private static RoutingKey[] deserializeRoutingKeys(DataInput in) throws IOException
+    {
+        RoutingKey[] keys = new RoutingKey[in.readInt()];
+        for (int i = 0 ; i < keys.length ; ++i)
+            keys[i] = ROUTING_KEY.deserialize(in);
+        return keys;
+    }
+
+    private static Range[] deserializeRanges(DataInput in) throws IOException
+    {
+        Range[] ranges = new Range[in.readInt()];
+        for (int i = 0 ; i < ranges.length ; ++i)
+            ranges[i] = RANGE.deserialize(in);
+        return ranges;
+    }
+
+    private static void serializeUpdate(ListUpdate update, DataOutput out) throws IOException
+    {
+        out.writeInt(update == null ? -1 : update.size());
+        if (update == null)
+            return;
+
+        for (Map.Entry<Key, Integer> e : update.entrySet())
+        {
+            KEY.serialize(e.getKey(), out);
+            out.writeInt(e.getValue());
+        }
+    }
+
+    private static ListUpdate deserializeUpdate(DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        if (size < 0)
+            return null;
+
+        ListUpdate update = new ListUpdate();
+        for (int i = 0 ; i < size ; ++i)
+            update.put(KEY.deserialize(in), in.readInt());
+        return update;
+    }
+
+    private static void serializeInts(int[] values, DataOutput out) throws IOException
+    {
+        out.writeInt(values == null ? -1 : values.length);
+        if (values == null)
+            return;
+
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+    private static int[] deserializeInts(DataInput in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        int[] values = new int[length];
+        for (int i = 0 ; i < length ; ++i)
+            values[i] = in.readInt();
+        return values;
+    }
+}
@@ -19,17 +19,22 @@
 package accord.impl.list;
 
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import accord.api.Key;
 import accord.local.Node;
 import accord.api.DataStore;
-import accord.utils.Timestamped;
+import accord.primitives.Ranges;
+import accord.primitives.Timestamp;
 
 public class ListStore implements DataStore
 {
     static final int[] EMPTY = new int[0];
-    final Map<Key, Timestamped<int[]>> data = new ConcurrentHashMap<>();
+    // every version of each key, by the executeAt that wrote it, so that a replica brought up to date by copying
+    // another's data may still execute the transactions preceding the copy
+    final Map<Key, NavigableMap<Timestamp, int[]>> data = new ConcurrentHashMap<>();
 
     // adding here to help trace burn test queries
     public final Node.Id node;
@@ -39,9 +44,31 @@ public class ListStore implements DataStore
         this.node = node;
     }
 
-    public int[] get(Key key)
+    /**
+     * @return the latest version of {@code key} written by a transaction executing before {@code executeAt}
+     */
+    public int[] get(Key key, Timestamp executeAt)
     {
-        Timestamped<int[]> v = data.get(key);
-        return v == null ? EMPTY : v.data;
+        NavigableMap<Timestamp, int[]> versions = data.get(key);
+        if (versions == null)
+            return EMPTY;
+        Map.Entry<Timestamp, int[]> v = versions.lowerEntry(executeAt);
+        return v == null ? EMPTY : v.getValue();
+    }
+
+    public void put(Key key, Timestamp executeAt, int[] value)
+    {
+        data.computeIfAbsent(key, ignore -> new ConcurrentSkipListMap<>()).put(executeAt, value);
+    }
+
+    /**
+     * Copy every version of each key in {@code ranges} to {@code to}, as though streamed to a new replica
+     */
+    public void copyTo(ListStore to, Ranges ranges)
+    {
+        data.forEach((key, versions) -> {
+            if (ranges.contains(key))
+                versions.forEach((executeAt, value) -> to.put(key, executeAt, value));
+        });
     }
 }
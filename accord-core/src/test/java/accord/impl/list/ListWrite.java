@@ -28,8 +28,7 @@ import accord.api.Write;
 import accord.local.SafeCommandStore;
 import accord.primitives.Timestamp;
 import accord.primitives.Writes;
-import accord.utils.Timestamped;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,7 +43,7 @@ public class ListWrite extends TreeMap<Key, int[]> implements Write
         if (!containsKey(key))
             return Writes.SUCCESS;
         int[] data = get(key);
-        s.data.merge(key, new Timestamped<>(executeAt, data), Timestamped::merge);
+        s.put(key, executeAt, data);
         logger.trace("WRITE on {} at {} key:{} -> {}", s.node, executeAt, key, data);
         return Writes.SUCCESS;
     }
@@ -29,7 +29,7 @@ import accord.primitives.TxnId;
 import accord.topology.Topologies.Single;
 import accord.topology.Topology;
 
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
+import accord.utils.async.AsyncPromise;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +26,7 @@ import accord.local.Node;
 import accord.local.Node.Id;
 import accord.primitives.Ranges;
 import accord.utils.EpochFunction;
-import accord.utils.ThreadPoolScheduler;
+import accord.utils.HashedWheelScheduler;
 import accord.primitives.TxnId;
 import accord.messages.Callback;
 import accord.messages.Reply;
@@ -106,7 +106,7 @@ public class MockCluster implements Network, AutoCloseable, Iterable<Node>
                         () -> store,
                         new TestAgent(),
                         new Random(random.nextLong()),
-                        new ThreadPoolScheduler(),
+                        new HashedWheelScheduler(),
                         SizeOfIntersectionSorter.SUPPLIER,
                         SimpleProgressLog::new,
                         InMemoryCommandStores.SingleThread::new);
@@ -23,9 +23,9 @@ import accord.api.TestableConfigurationService;
 import accord.local.Node;
 import accord.topology.Topology;
 import accord.utils.EpochFunction;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.AsyncPromise;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 import org.junit.jupiter.api.Assertions;
 
 import java.util.*;
@@ -31,8 +31,8 @@ import accord.primitives.Ranges;
 import accord.primitives.Keys;
 import accord.primitives.Timestamp;
 import accord.primitives.Txn;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 
 public class MockStore implements DataStore
 {
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.local;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import accord.api.Agent;
+import accord.local.AsyncCommandStores.AsyncMapReduceAdapter;
+import accord.utils.Gens;
+import accord.utils.MapReduceConsume;
+import accord.utils.async.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.local.PreLoadContext.empty;
+import static accord.utils.Property.qt;
+
+public class AsyncCommandStoresTest
+{
+    /**
+     * Records each submission, so that the test decides when and in what order they complete
+     */
+    static class DeferredCommandStore extends CommandStore
+    {
+        final List<Runnable> pending;
+        int futures;
+
+        DeferredCommandStore(int id, List<Runnable> pending)
+        {
+            super(id, 0, 0, 1);
+            this.pending = pending;
+        }
+
+        @Override
+        public Agent agent()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> execute(PreLoadContext context, Consumer<? super SafeCommandStore> consumer)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> Future<T> submit(PreLoadContext context, Function<? super SafeCommandStore, T> apply)
+        {
+            ++futures;
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> void submit(PreLoadContext context, Function<? super SafeCommandStore, T> apply, BiConsumer<? super T, Throwable> callback)
+        {
+            pending.add(() -> {
+                T result;
+                try { result = apply.apply(null); }
+                catch (Throwable t) { callback.accept(null, t); return; }
+                callback.accept(result, null);
+            });
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    static class Sum implements MapReduceConsume<SafeCommandStore, Integer>
+    {
+        final int value;
+        final boolean fail;
+        final AtomicInteger applied = new AtomicInteger();
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicReference<Integer> result = new AtomicReference<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Sum(int value, boolean fail)
+        {
+            this.value = value;
+            this.fail = fail;
+        }
+
+        @Override
+        public Integer apply(SafeCommandStore in)
+        {
+            if (applied.incrementAndGet() == 2 && fail)
+                throw new IllegalStateException();
+            return value;
+        }
+
+        @Override
+        public Integer reduce(Integer o1, Integer o2)
+        {
+            return o1 + o2;
+        }
+
+        @Override
+        public void accept(Integer result, Throwable failure)
+        {
+            accepted.incrementAndGet();
+            this.result.set(result);
+            this.failure.set(failure);
+        }
+    }
+
+    @Test
+    public void testFanout()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            List<Runnable> pending = new ArrayList<>();
+            int count = random.nextInt(0, 10);
+            boolean fail = random.nextBoolean();
+            Sum sum = new Sum(random.nextInt(1, 100), fail);
+            AsyncMapReduceAdapter<Integer> adapter = AsyncMapReduceAdapter.instance();
+
+            List<DeferredCommandStore> stores = new ArrayList<>();
+            Object accumulator = adapter.allocate();
+            for (int i = 0 ; i < count ; ++i)
+            {
+                DeferredCommandStore store = new DeferredCommandStore(i, pending);
+                stores.add(store);
+                accumulator = adapter.apply(sum, store, empty(), accumulator);
+            }
+
+            // complete some stores before the fan-out is released, to exercise both orderings
+            Collections.shuffle(pending, random);
+            int early = pending.isEmpty() ? 0 : random.nextInt(0, pending.size());
+            for (int i = 0 ; i < early ; ++i)
+                pending.get(i).run();
+            Assertions.assertEquals(0, sum.accepted.get());
+
+            adapter.consume(sum, empty(), accumulator);
+            Assertions.assertEquals(count == 1 ? 1 : count, pending.size());
+            for (int i = early ; i < pending.size() ; ++i)
+            {
+                Assertions.assertEquals(count == 0 ? 1 : 0, sum.accepted.get());
+                pending.get(i).run();
+            }
+
+            Assertions.assertEquals(1, sum.accepted.get());
+            Assertions.assertEquals(count, sum.applied.get());
+            for (DeferredCommandStore store : stores)
+                Assertions.assertEquals(0, store.futures);
+
+            if (fail && count >= 2)
+            {
+                Assertions.assertNull(sum.result.get());
+                Assertions.assertTrue(sum.failure.get() instanceof IllegalStateException);
+            }
+            else
+            {
+                Assertions.assertNull(sum.failure.get());
+                Assertions.assertEquals(count == 0 ? null : sum.value * count, sum.result.get());
+            }
+        });
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.local;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import accord.impl.InMemoryCommandsForKey;
+import accord.impl.IntKey;
+import accord.primitives.TxnId;
+import accord.utils.Gen;
+import accord.utils.Gens;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.utils.Property.qt;
+
+public class ListenersTest
+{
+    private static class TestListener implements CommandListener
+    {
+        @Override
+        public void onChange(SafeCommandStore safeStore, Command command)
+        {
+        }
+
+        @Override
+        public PreLoadContext listenerPreLoadContext(TxnId caller)
+        {
+            return PreLoadContext.empty();
+        }
+    }
+
+    private static List<CommandListener> universe(Gen.Random random)
+    {
+        List<CommandListener> universe = new ArrayList<>();
+        for (int i = 0, count = random.nextInt(1, 40) ; i < count ; ++i)
+            universe.add(random.nextBoolean() ? new TestListener() : new InMemoryCommandsForKey(IntKey.key(random.nextInt(0, 20))));
+        return universe;
+    }
+
+    private static void assertMatches(Set<CommandListener> model, Listeners listeners)
+    {
+        Assertions.assertEquals(model.size(), listeners.size());
+        Set<CommandListener> iterated = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CommandListener listener : listeners)
+            Assertions.assertTrue(iterated.add(listener));
+        Assertions.assertEquals(model, iterated);
+    }
+
+    @Test
+    public void testMatchesIdentitySet()
+    {
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            List<CommandListener> universe = universe(random);
+            Listeners listeners = new Listeners();
+            Set<CommandListener> model = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0, count = random.nextInt(1, 200) ; i < count ; ++i)
+            {
+                CommandListener listener = universe.get(random.nextInt(0, universe.size()));
+                if (random.nextBoolean()) Assertions.assertEquals(model.add(listener), listeners.add(listener));
+                else Assertions.assertEquals(model.remove(listener), listeners.remove(listener));
+                assertMatches(model, listeners);
+
+                if (random.nextInt(0, 10) == 0)
+                {
+                    // modify the listeners while notifying them
+                    Set<CommandListener> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+                    expected.addAll(model);
+                    Set<CommandListener> notified = Collections.newSetFromMap(new IdentityHashMap<>());
+                    listeners.forEach((ignore, notify) -> {
+                        Assertions.assertTrue(notified.add(notify));
+                        CommandListener other = universe.get(random.nextInt(0, universe.size()));
+                        if (random.nextBoolean())
+                        {
+                            // a listener added while notifying is not notified, unless it already was before being removed
+                            if (model.add(other) && !notified.contains(other))
+                                expected.remove(other);
+                            listeners.add(other);
+                        }
+                        else
+                        {
+                            if (model.remove(other) && !notified.contains(other))
+                                expected.remove(other);
+                            listeners.remove(other);
+                        }
+                    }, null);
+                    Assertions.assertEquals(expected, notified);
+                    assertMatches(model, listeners);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.local;
+
+import java.util.BitSet;
+import java.util.TreeSet;
+
+import accord.impl.IntKey;
+import accord.local.CommandStores.ShardedRanges;
+import accord.primitives.Keys;
+import accord.primitives.Range;
+import accord.primitives.Ranges;
+import accord.utils.Gens;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.utils.Property.qt;
+
+public class ShardedRangesTest
+{
+    private static BitSet toBitSet(long[] words)
+    {
+        return BitSet.valueOf(words);
+    }
+
+    @Test
+    public void testShardSelection()
+    {
+        qt().withExamples(500).forAll(Gens.random()).check(random -> {
+            int numShards = random.nextInt(1, 200);
+            Ranges owned = Ranges.of(IntKey.range(0, 100), IntKey.range(200, 300));
+            ShardedRanges sharded = new ShardedRanges(new CommandStore[numShards], 1, owned);
+
+            TreeSet<Integer> keys = new TreeSet<>();
+            int count = random.nextInt(1, 50);
+            while (keys.size() < count)
+                keys.add(random.nextInt(0, 400));
+
+            BitSet expected = new BitSet();
+            for (int k : keys)
+            {
+                if (owned.contains(IntKey.key(k)))
+                    expected.set((int) ShardedRanges.keyIndex(IntKey.key(k), numShards));
+            }
+
+            Keys select = IntKey.keys(keys.stream().mapToInt(Integer::intValue).toArray());
+            Assertions.assertEquals(expected, toBitSet(sharded.wideShards(select, 1, 1)));
+            if (sharded.isNarrow())
+                Assertions.assertEquals(expected, toBitSet(new long[] { sharded.shards(select, 1, 1) }));
+
+            BitSet all = new BitSet();
+            all.set(0, numShards);
+            int start = random.nextInt(0, 400);
+            Ranges range = Ranges.of(IntKey.range(start, start + random.nextInt(1, 50)));
+            BitSet expectRange = owned.intersects(range) ? all : new BitSet();
+            Assertions.assertEquals(expectRange, toBitSet(sharded.wideShards(range, 1, 1)));
+            if (sharded.isNarrow())
+                Assertions.assertEquals(expectRange, toBitSet(new long[] { sharded.shards(range, 1, 1) }));
+        });
+    }
+
+    @Test
+    public void testRangePartitionedSelection()
+    {
+        qt().withExamples(500).forAll(Gens.random()).check(random -> {
+            int numRanges = random.nextInt(1, 20);
+            Range[] owned = new Range[numRanges];
+            for (int i = 0 ; i < numRanges ; ++i)
+                owned[i] = IntKey.range(i * 20, i * 20 + 10);
+            Ranges ranges = Ranges.of(owned);
+
+            int maxShards = random.nextInt(1, 100);
+            Ranges[] partitions = ShardedRanges.partition(ranges, maxShards);
+            Assertions.assertEquals(Math.min(maxShards, numRanges), partitions.length);
+            Ranges union = Ranges.EMPTY;
+            for (Ranges partition : partitions)
+            {
+                Assertions.assertFalse(partition.isEmpty());
+                Assertions.assertFalse(union.intersects(partition));
+                union = union.union(partition);
+            }
+            Assertions.assertEquals(ranges, union);
+
+            ShardedRanges sharded = new ShardedRanges(new CommandStore[partitions.length], partitions, 1, ranges);
+            Ranges subtract = Ranges.of(owned[random.nextInt(numRanges)]);
+            sharded = sharded.withRanges(2, ranges.difference(subtract));
+
+            int start = random.nextInt(0, 400);
+            Ranges select = Ranges.of(IntKey.range(start, start + random.nextInt(1, 50)));
+            Keys keys = IntKey.keys(start, start + 1, start + 2);
+            for (int epoch = 1 ; epoch <= 2 ; ++epoch)
+            {
+                BitSet expectRanges = new BitSet(), expectKeys = new BitSet();
+                for (int i = 0 ; i < partitions.length ; ++i)
+                {
+                    Ranges shardRanges = sharded.rangesForEpoch(epoch, i);
+                    Assertions.assertEquals(sharded.rangesForEpoch(epoch).slice(partitions[i]), shardRanges);
+                    if (shardRanges.intersects(select)) expectRanges.set(i);
+                    if (keys.intersects(shardRanges)) expectKeys.set(i);
+                }
+
+                Assertions.assertEquals(expectRanges, toBitSet(sharded.wideShards(select, epoch, epoch)));
+                Assertions.assertEquals(expectKeys, toBitSet(sharded.wideShards(keys, epoch, epoch)));
+                if (sharded.isNarrow())
+                {
+                    Assertions.assertEquals(expectRanges, toBitSet(new long[] { sharded.shards(select, epoch, epoch) }));
+                    Assertions.assertEquals(expectKeys, toBitSet(new long[] { sharded.shards(keys, epoch, epoch) }));
+                }
+            }
+        });
+    }
+}
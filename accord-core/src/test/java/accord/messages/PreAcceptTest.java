@@ -39,6 +39,8 @@ import org.junit.jupiter.api.Test;
 
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static accord.Utils.id;
 import static accord.Utils.writeTxn;
@@ -59,9 +61,13 @@ public class PreAcceptTest
     private static final ReplyContext REPLY_CONTEXT = Network.replyCtxFor(0);
 
     private static Node createNode(Id nodeId, MessageSink messageSink, Clock clock)
+    {
+        return createNode(nodeId, messageSink, clock, new ThreadPoolScheduler());
+    }
+
+    private static Node createNode(Id nodeId, MessageSink messageSink, Clock clock, Scheduler scheduler)
     {
         MockStore store = new MockStore();
-        Scheduler scheduler = new ThreadPoolScheduler();
         return new Node(nodeId,
                         messageSink,
                         new MockConfigurationService(messageSink, EpochFunction.noop(), TOPOLOGY),
@@ -115,6 +121,50 @@ public class PreAcceptTest
         }
     }
 
+    @Test
+    void receiveOnCallingThreadTest()
+    {
+        RecordingMessageSink messageSink = new RecordingMessageSink(ID1, Network.BLACK_HOLE);
+        Clock clock = new Clock(100);
+        ThreadPoolScheduler timers = new ThreadPoolScheduler();
+        AtomicInteger scheduledNow = new AtomicInteger();
+        Node node = createNode(ID1, messageSink, clock, new Scheduler()
+        {
+            @Override
+            public Scheduled recurring(Runnable run, long delay, TimeUnit units) { return timers.recurring(run, delay, units); }
+
+            @Override
+            public Scheduled once(Runnable run, long delay, TimeUnit units) { return timers.once(run, delay, units); }
+
+            @Override
+            public void now(Runnable run)
+            {
+                scheduledNow.incrementAndGet();
+                timers.now(run);
+            }
+        });
+        messageSink.clearHistory();
+
+        try
+        {
+            Raw key = IntKey.key(10);
+            TxnId txnId = clock.idForNode(1, ID2);
+            clock.increment(10);
+            node.receive(preAccept(txnId, writeTxn(Keys.of(key)), key.toUnseekable()), ID2, REPLY_CONTEXT);
+
+            // the synchronized command store has replied before receive returns, without passing through the scheduler
+            Assertions.assertEquals(0, scheduledNow.get());
+            messageSink.assertHistorySizes(0, 1);
+            Assertions.assertEquals(new PreAccept.PreAcceptOk(txnId, txnId, PartialDeps.NONE),
+                                    messageSink.responses.get(0).payload);
+        }
+        finally
+        {
+            node.shutdown();
+            timers.stop();
+        }
+    }
+
     @Test
     void nackTest()
     {
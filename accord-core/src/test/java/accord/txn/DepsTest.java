@@ -270,6 +270,17 @@ public class DepsTest
         executor.shutdown();
     }
 
+    @Test
+    public void testMergeSuperset()
+    {
+        qt().forAll(lists(Deps::generate).ofSizeBetween(3, 10)).check(list -> {
+            Deps superset = Deps.merge(list);
+            List<Deps> withSuperset = new ArrayList<>(list);
+            withSuperset.add(list.size() / 2, superset);
+            Assertions.assertSame(superset.test, accord.primitives.Deps.merge(withSuperset, d -> d.test));
+        });
+    }
+
     //TODO test "with" where TxnId and Keys are the same, but Key -> [TxnId] does not match
 
     private static Keys keys(List<Deps> list)
@@ -304,6 +315,49 @@ public class DepsTest
         });
     }
 
+    @Test
+    public void recycledOrderedBuilder()
+    {
+        Ranges covering = Ranges.of(IntHashKey.ranges(1));
+        List<Deps> built = new ArrayList<>();
+        List<PartialDeps> results = new ArrayList<>();
+        qt().withExamples(100).forAll(Deps::generate, Gens.random()).check((deps, random) -> {
+            PartialDeps.OrderedBuilder builder;
+            try (PartialDeps.OrderedBuilder recycled = PartialDeps.recycledOrderedBuilder(covering, false))
+            {
+                builder = recycled;
+                try (PartialDeps.OrderedBuilder nested = PartialDeps.recycledOrderedBuilder(covering, false))
+                {
+                    Assertions.assertFalse(recycled == nested);
+                }
+
+                for (Key key : deps.canonical.keySet())
+                {
+                    recycled.nextKey(key);
+                    List<TxnId> ids = new ArrayList<>(deps.canonical.get(key));
+                    Collections.shuffle(ids, random);
+                    ids.forEach(recycled::add);
+                }
+
+                PartialDeps result = recycled.build();
+                Assertions.assertEquals(covering, result.covering);
+                Assertions.assertTrue(deps.test.equals((accord.primitives.Deps) result));
+                built.add(deps);
+                results.add(result);
+            }
+
+            try (PartialDeps.OrderedBuilder recycled = PartialDeps.recycledOrderedBuilder(covering, false))
+            {
+                Assertions.assertSame(builder, recycled);
+                Assertions.assertTrue(recycled.isEmpty());
+            }
+        });
+
+        // reuse of the builder must not have disturbed any earlier result
+        for (int i = 0 ; i < built.size() ; ++i)
+            Assertions.assertTrue(built.get(i).test.equals((accord.primitives.Deps) results.get(i)));
+    }
+
     static class Deps
     {
         final Map<Key, Set<TxnId>> canonical;
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.txn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import accord.impl.IntKey;
+import accord.local.Node.Id;
+import accord.primitives.Deps;
+import accord.primitives.Keys;
+import accord.primitives.Range;
+import accord.primitives.RangeDeps;
+import accord.primitives.Ranges;
+import accord.primitives.TxnId;
+import accord.utils.Gen;
+import accord.utils.Gens;
+
+import static accord.utils.Property.qt;
+
+public class RangeDepsTest
+{
+    private static final int MAX_KEY = 100;
+
+    /**
+     * A dependency range and TxnId as added to a builder
+     */
+    static class Input
+    {
+        final Range range;
+        final TxnId txnId;
+
+        Input(Range range, TxnId txnId)
+        {
+            this.range = range;
+            this.txnId = txnId;
+        }
+    }
+
+    @Test
+    public void testBuild()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            List<Input> inputs = inputs(random);
+            RangeDeps deps = build(inputs);
+            Assertions.assertEquals(model(inputs), model(deps));
+            for (int i = 1 ; i < deps.ranges().size() ; ++i)
+                Assertions.assertTrue(deps.ranges().get(i - 1).end().compareTo(deps.ranges().get(i).start()) <= 0);
+
+            // the encoding is canonical, regardless of the order or overlap of the inputs
+            Collections.shuffle(inputs, random);
+            Assertions.assertEquals(deps, build(inputs));
+            RangeDeps.Builder rebuild = RangeDeps.builder();
+            deps.forEach(rebuild::add);
+            Assertions.assertEquals(deps, rebuild.build());
+
+            for (TxnId txnId : deps.txnIds())
+                Assertions.assertTrue(deps.contains(txnId));
+            Assertions.assertFalse(deps.contains(txnId(random.nextInt(1000, 2000))));
+        });
+    }
+
+    @Test
+    public void testSlice()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            List<Input> inputs = inputs(random);
+            RangeDeps deps = build(inputs);
+            Ranges slice = ranges(random);
+
+            TreeMap<Integer, TreeSet<TxnId>> expected = model(inputs);
+            expected.keySet().removeIf(k -> !slice.contains(IntKey.routing(k)));
+            RangeDeps sliced = deps.slice(slice);
+            Assertions.assertEquals(expected, model(sliced));
+            Assertions.assertTrue(slice.containsAll(sliced.ranges()));
+            Assertions.assertEquals(build(sliced(inputs, slice)), sliced);
+        });
+    }
+
+    @Test
+    public void testWith()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            List<Input> left = inputs(random), right = inputs(random);
+            List<Input> both = new ArrayList<>(left);
+            both.addAll(right);
+
+            RangeDeps expected = build(both);
+            Assertions.assertEquals(expected, build(left).with(build(right)));
+            Assertions.assertEquals(expected, RangeDeps.merge(Arrays.asList(build(left), build(right)), d -> d));
+            Assertions.assertSame(expected, expected.with(RangeDeps.NONE));
+        });
+    }
+
+    @Test
+    public void testWithout()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            List<Input> inputs = inputs(random);
+            RangeDeps deps = build(inputs);
+            Assertions.assertSame(deps, deps.without(ignore -> false));
+            Assertions.assertTrue(deps.without(ignore -> true).isEmpty());
+
+            Predicate<TxnId> remove = txnId -> (txnId.real & 1) == 0;
+            List<Input> retained = new ArrayList<>();
+            for (Input input : inputs)
+            {
+                if (!remove.test(input.txnId))
+                    retained.add(input);
+            }
+            Assertions.assertEquals(build(retained), deps.without(remove));
+        });
+    }
+
+    @Test
+    public void testForEach()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            List<Input> inputs = inputs(random);
+            RangeDeps deps = build(inputs);
+            Ranges select = ranges(random);
+
+            TreeSet<TxnId> expected = new TreeSet<>();
+            model(inputs).forEach((k, txnIds) -> {
+                if (select.contains(IntKey.routing(k)))
+                    expected.addAll(txnIds);
+            });
+            List<TxnId> actual = new ArrayList<>();
+            deps.forEach(select, actual::add);
+            Assertions.assertEquals(new ArrayList<>(expected), actual);
+
+            for (TxnId txnId : deps.txnIds())
+            {
+                TreeSet<Integer> expectedKeys = new TreeSet<>();
+                model(inputs).forEach((k, txnIds) -> {
+                    if (txnIds.contains(txnId))
+                        expectedKeys.add(k);
+                });
+                Ranges someRanges = deps.someRanges(txnId);
+                TreeSet<Integer> actualKeys = new TreeSet<>();
+                for (int k = 1 ; k <= MAX_KEY ; ++k)
+                {
+                    if (someRanges.contains(IntKey.routing(k)))
+                        actualKeys.add(k);
+                }
+                Assertions.assertEquals(expectedKeys, actualKeys);
+            }
+        });
+    }
+
+    @Test
+    public void testDeps()
+    {
+        qt().withExamples(200).forAll(Gens.random()).check(random -> {
+            RangeDeps leftRanges = build(inputs(random)), rightRanges = build(inputs(random));
+            Deps left = deps(random, leftRanges), right = deps(random, rightRanges);
+
+            Deps merged = left.with(right);
+            Assertions.assertEquals(leftRanges.with(rightRanges), merged.rangeDeps());
+            Assertions.assertEquals(merged, Deps.merge(Arrays.asList(left, right, Deps.NONE, left), d -> d));
+
+            TreeSet<TxnId> txnIds = new TreeSet<>(left.txnIds());
+            for (TxnId txnId : leftRanges.txnIds())
+                Assertions.assertTrue(left.contains(txnId));
+            Assertions.assertEquals(new ArrayList<>(txnIds), new ArrayList<>(left.txnIds()));
+
+            Ranges slice = ranges(random);
+            Assertions.assertEquals(leftRanges.slice(slice), left.slice(slice).rangeDeps());
+            Assertions.assertTrue(left.without(ignore -> true).isEmpty());
+
+            // each TxnId is visited once, whether adopted via a key, a range or both
+            List<TxnId> visited = new ArrayList<>();
+            left.forEachOn(slice, ignore -> true, (TxnId txnId) -> visited.add(txnId));
+            Assertions.assertEquals(new TreeSet<>(visited).size(), visited.size());
+            TreeSet<TxnId> expected = new TreeSet<>();
+            leftRanges.forEach(slice, expected::add);
+            Assertions.assertTrue(new TreeSet<>(visited).containsAll(expected));
+        });
+    }
+
+    private static Deps deps(Gen.Random random, RangeDeps rangeDeps)
+    {
+        try (Deps.OrderedBuilder builder = Deps.orderedBuilder(false))
+        {
+            int keyCount = random.nextInt(0, 5);
+            TreeSet<Integer> keys = new TreeSet<>();
+            while (keys.size() < keyCount)
+                keys.add(random.nextInt(1, MAX_KEY + 1));
+
+            for (int key : keys)
+            {
+                builder.nextKey(IntKey.key(key));
+                TreeSet<TxnId> txnIds = new TreeSet<>();
+                int txnIdCount = random.nextInt(1, 4);
+                while (txnIds.size() < txnIdCount)
+                    txnIds.add(txnId(random.nextInt(0, 20)));
+                txnIds.forEach(builder::add);
+            }
+            rangeDeps.forEach(builder::add);
+            Deps deps = builder.build();
+            Assertions.assertEquals(rangeDeps, deps.rangeDeps());
+            return deps;
+        }
+    }
+
+    private static List<Input> inputs(Gen.Random random)
+    {
+        int count = random.nextInt(0, 20);
+        List<Input> inputs = new ArrayList<>(count);
+        for (int i = 0 ; i < count ; ++i)
+            inputs.add(new Input(range(random), txnId(random.nextInt(0, 10))));
+        return inputs;
+    }
+
+    private static List<Input> sliced(List<Input> inputs, Ranges slice)
+    {
+        List<Input> result = new ArrayList<>();
+        for (Input input : inputs)
+        {
+            for (Range range : Ranges.single(input.range).slice(slice))
+                result.add(new Input(range, input.txnId));
+        }
+        return result;
+    }
+
+    private static Range range(Gen.Random random)
+    {
+        int start = random.nextInt(0, MAX_KEY);
+        return IntKey.range(start, random.nextInt(start + 1, MAX_KEY + 1));
+    }
+
+    // disjoint, but possibly abutting, ranges
+    private static Ranges ranges(Gen.Random random)
+    {
+        int count = random.nextInt(0, 4);
+        TreeSet<Integer> bounds = new TreeSet<>();
+        while (bounds.size() < count * 2)
+            bounds.add(random.nextInt(0, MAX_KEY + 1));
+
+        Range[] ranges = new Range[count];
+        Iterator<Integer> iter = bounds.iterator();
+        int prevEnd = -1;
+        for (int i = 0 ; i < count ; ++i)
+        {
+            int start = iter.next(), end = iter.next();
+            if (random.nextBoolean() && prevEnd >= 0)
+                start = prevEnd;
+            ranges[i] = IntKey.range(start, end);
+            prevEnd = end;
+        }
+        return Ranges.ofSortedAndDeoverlapped(ranges);
+    }
+
+    private static TxnId txnId(int real)
+    {
+        return new TxnId(1, real, 0, new Id(1));
+    }
+
+    private static RangeDeps build(List<Input> inputs)
+    {
+        RangeDeps.Builder builder = RangeDeps.builder();
+        for (Input input : inputs)
+            builder.add(input.range, input.txnId);
+        return builder.build();
+    }
+
+    // IntKey ranges are end inclusive, so we model each key in (start, end]
+    private static TreeMap<Integer, TreeSet<TxnId>> model(List<Input> inputs)
+    {
+        TreeMap<Integer, TreeSet<TxnId>> model = new TreeMap<>();
+        for (Input input : inputs)
+            addToModel(model, input.range, input.txnId);
+        return model;
+    }
+
+    private static TreeMap<Integer, TreeSet<TxnId>> model(RangeDeps deps)
+    {
+        TreeMap<Integer, TreeSet<TxnId>> model = new TreeMap<>();
+        deps.forEach((range, txnId) -> addToModel(model, range, txnId));
+        return model;
+    }
+
+    private static void addToModel(Map<Integer, TreeSet<TxnId>> model, Range range, TxnId txnId)
+    {
+        int start = ((IntKey) range.start()).key, end = ((IntKey) range.end()).key;
+        for (int k = start + 1 ; k <= end ; ++k)
+            model.computeIfAbsent(k, ignore -> new TreeSet<>()).add(txnId);
+    }
+}
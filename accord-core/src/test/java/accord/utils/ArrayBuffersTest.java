@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import accord.utils.ArrayBuffers.IntBufferCache;
+import accord.utils.ArrayBuffers.ObjectBufferCache;
+
+import static accord.utils.Property.qt;
+
+public class ArrayBuffersTest
+{
+    @Test
+    public void testReuse()
+    {
+        IntBufferCache cache = new IntBufferCache(2, 1 << 10, false);
+        int[] buffer = cache.getInts(100);
+        Assertions.assertEquals(1, cache.misses());
+        Assertions.assertFalse(cache.forceDiscard(buffer, 50));
+        Assertions.assertEquals(100 * Integer.BYTES, cache.retainedBytes());
+
+        // too small to be served by a buffer of this size class
+        Assertions.assertFalse(buffer == cache.getInts(10));
+        Assertions.assertEquals(2, cache.misses());
+
+        Assertions.assertSame(buffer, cache.getInts(90));
+        Assertions.assertEquals(1, cache.hits());
+        Assertions.assertEquals(0, cache.retainedBytes());
+
+        // complete returned the buffer itself, so it is believed to be in use
+        Assertions.assertFalse(cache.discard(buffer, buffer.length));
+        Assertions.assertEquals(0, cache.retainedBytes());
+
+        // larger than the cache will pool
+        int[] large = cache.getInts(1 << 11);
+        Assertions.assertTrue(cache.forceDiscard(large, large.length));
+        Assertions.assertEquals(0, cache.retainedBytes());
+    }
+
+    @Test
+    public void testBounded()
+    {
+        IntBufferCache cache = new IntBufferCache(2, 1 << 4, false);
+        Assertions.assertFalse(cache.forceDiscard(new int[5], 0));
+        Assertions.assertFalse(cache.forceDiscard(new int[6], 0));
+        Assertions.assertTrue(cache.forceDiscard(new int[7], 0));
+        Assertions.assertFalse(cache.forceDiscard(new int[16], 0));
+        Assertions.assertTrue(cache.forceDiscard(new int[9], 0));
+        Assertions.assertEquals((5 + 6 + 16) * Integer.BYTES, cache.retainedBytes());
+    }
+
+    @Test
+    public void testDecay()
+    {
+        ObjectBufferCache<Object> cache = new ObjectBufferCache<>(2, 1 << 10, Object[]::new, false);
+        Object[] idle = cache.get(1 << 9), busy = cache.get(4);
+        cache.forceDiscard(idle, 0);
+        cache.forceDiscard(busy, 0);
+        Assertions.assertEquals(((1 << 9) + 4) * 4, cache.retainedBytes());
+
+        for (int i = 0 ; i < ArrayBuffers.AbstractBufferCache.DECAY_INTERVAL ; ++i)
+            Assertions.assertFalse(cache.forceDiscard(busy = cache.get(4), 0));
+
+        Assertions.assertEquals(4 * 4, cache.retainedBytes());
+        Assertions.assertSame(busy, cache.get(3));
+        Assertions.assertFalse(idle == cache.get(1 << 9));
+
+        cache.forceDiscard(busy, 0);
+        cache.trim();
+        Assertions.assertEquals(0, cache.retainedBytes());
+    }
+
+    @Test
+    public void testDebug()
+    {
+        IntBufferCache ints = new IntBufferCache(2, 1 << 10, true);
+        int[] buffer = ints.getInts(10);
+        ints.forceDiscard(buffer, 10);
+        Assertions.assertThrows(IllegalStateException.class, () -> ints.forceDiscard(buffer, 10));
+        buffer[3] = 3;
+        Assertions.assertThrows(IllegalStateException.class, () -> ints.getInts(10));
+
+        ObjectBufferCache<Object> objs = new ObjectBufferCache<>(2, 1 << 10, Object[]::new, true);
+        Object[] array = objs.get(10);
+        objs.forceDiscard(array, 10);
+        Assertions.assertSame(array, objs.get(10));
+        objs.forceDiscard(array, 10);
+        array[9] = array;
+        Assertions.assertThrows(IllegalStateException.class, () -> objs.get(10));
+    }
+
+    @Test
+    public void testRandom()
+    {
+        qt().withExamples(100).forAll(Gens.random()).check(random -> {
+            int maxCount = random.nextInt(1, 4), maxSize = 1 << random.nextInt(1, 10);
+            IntBufferCache cache = new IntBufferCache(maxCount, maxSize, true);
+            Set<int[]> pooled = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<int[]> live = new ArrayList<>();
+            // fewer requests than DECAY_INTERVAL, so nothing is released behind our back
+            for (int i = 0 ; i < 1000 ; ++i)
+            {
+                if (live.isEmpty() || random.nextBoolean())
+                {
+                    int minSize = random.nextInt(0, 2 * maxSize);
+                    int[] buffer = cache.getInts(minSize);
+                    Assertions.assertTrue(buffer.length >= minSize);
+                    if (pooled.remove(buffer))
+                        Assertions.assertTrue(buffer.length < 4 * minSize);
+                    live.add(buffer);
+                }
+                else
+                {
+                    int[] buffer = live.remove(random.nextInt(0, live.size()));
+                    if (!cache.forceDiscard(buffer, random.nextInt(0, buffer.length + 1)))
+                        pooled.add(buffer);
+                }
+
+                long retained = pooled.stream().mapToLong(b -> b.length).sum();
+                Assertions.assertEquals(retained * Integer.BYTES, cache.retainedBytes());
+                Assertions.assertTrue(retained <= (long) maxCount * maxSize);
+            }
+        });
+    }
+}
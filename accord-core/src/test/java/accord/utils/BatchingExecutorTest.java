@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BatchingExecutorTest
+{
+    static class CountingTask extends BatchingExecutor.Task
+    {
+        final AtomicInteger ran, rejected;
+
+        CountingTask(AtomicInteger ran, AtomicInteger rejected)
+        {
+            this.ran = ran;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void run()
+        {
+            ran.incrementAndGet();
+        }
+
+        @Override
+        protected void reject(RejectedExecutionException e)
+        {
+            rejected.incrementAndGet();
+        }
+    }
+
+    private static final ExecutorService CARRIER = Executors.newFixedThreadPool(4, run -> {
+        Thread thread = new Thread(run);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Test
+    public void testProducerOrder() throws InterruptedException
+    {
+        testProducerOrder(() -> new BatchingExecutor("test", 16));
+    }
+
+    @Test
+    public void testActorProducerOrder() throws InterruptedException
+    {
+        testProducerOrder(() -> BatchingExecutor.actor("test", 16, CARRIER));
+    }
+
+    @Test
+    public void testPriorityProducerOrder() throws InterruptedException
+    {
+        testProducerOrder(() -> new BatchingExecutor("test", 16, 3));
+    }
+
+    @Test
+    public void testActorPriorityProducerOrder() throws InterruptedException
+    {
+        testProducerOrder(() -> BatchingExecutor.actor("test", 16, 3, CARRIER));
+    }
+
+    @Test
+    public void testShutdown() throws InterruptedException
+    {
+        testShutdown(() -> new BatchingExecutor("test", 16));
+    }
+
+    @Test
+    public void testActorShutdown() throws InterruptedException
+    {
+        testShutdown(() -> BatchingExecutor.actor("test", 16, CARRIER));
+    }
+
+    @Test
+    public void testPriorityShutdown() throws InterruptedException
+    {
+        testShutdown(() -> new BatchingExecutor("test", 16, 3));
+    }
+
+    /**
+     * Shutdown an actor as it goes idle, so that shutdown may land while its drain is giving up the carrier
+     */
+    @Test
+    public void testActorShutdownWhileIdling() throws InterruptedException
+    {
+        for (int round = 0 ; round < 10000 ; ++round)
+        {
+            BatchingExecutor executor = BatchingExecutor.actor("test", 16, CARRIER);
+            CountDownLatch ran = new CountDownLatch(1);
+            executor.execute(ran::countDown);
+            Assertions.assertTrue(ran.await(1, TimeUnit.MINUTES));
+            executor.shutdown();
+
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (!executor.isTerminated() && System.nanoTime() < deadline)
+                Thread.yield();
+            Assertions.assertTrue(executor.isTerminated());
+        }
+    }
+
+    @Test
+    public void testPriority() throws InterruptedException
+    {
+        testPriority(() -> new BatchingExecutor("test", 16, 2));
+    }
+
+    @Test
+    public void testActorPriority() throws InterruptedException
+    {
+        testPriority(() -> BatchingExecutor.actor("test", 16, 2, CARRIER));
+    }
+
+    @Test
+    public void testVirtualThreadGating()
+    {
+        // "1.8" up to Java 8, and "9", "10" etc. thereafter; Runtime.version() is not available on Java 8
+        String version = System.getProperty("java.specification.version");
+        int feature = Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        Assertions.assertEquals(feature >= 21, VirtualThreads.isSupported());
+        if (!VirtualThreads.isSupported())
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> VirtualThreads.executor("test"));
+    }
+
+    private static void testProducerOrder(Supplier<BatchingExecutor> supplier) throws InterruptedException
+    {
+        int producers = 4, tasks = 20000;
+        BatchingExecutor executor = supplier.get();
+        AtomicInteger running = new AtomicInteger();
+        // only one task at a time touches these
+        int[] last = new int[producers];
+        List<String> errors = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(producers * tasks);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0 ; p < producers ; ++p)
+        {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                for (int i = 1 ; i <= tasks ; ++i)
+                {
+                    int task = i;
+                    executor.execute((Runnable) () -> {
+                        if (running.incrementAndGet() != 1)
+                            errors.add("concurrent execution");
+                        if (last[producer] != task - 1)
+                            errors.add(producer + ": " + last[producer] + " then " + task);
+                        last[producer] = task;
+                        running.decrementAndGet();
+                        done.countDown();
+                    }, producer % executor.priorities());
+                    if ((i & 1023) == 0)
+                        Thread.yield();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Assertions.assertTrue(done.await(1, TimeUnit.MINUTES));
+        executor.shutdown();
+        Assertions.assertEquals(new ArrayList<>(), errors);
+    }
+
+    private static void testShutdown(Supplier<BatchingExecutor> supplier) throws InterruptedException
+    {
+        for (int round = 0 ; round < 20 ; ++round)
+        {
+            BatchingExecutor executor = supplier.get();
+            AtomicInteger ran = new AtomicInteger(), rejected = new AtomicInteger(), refused = new AtomicInteger();
+            int producers = 3, tasks = 5000;
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0 ; p < producers ; ++p)
+            {
+                int priority = p % executor.priorities();
+                threads.add(new Thread(() -> {
+                    for (int i = 0 ; i < tasks ; ++i)
+                    {
+                        try
+                        {
+                            executor.execute(new CountingTask(ran, rejected), priority);
+                        }
+                        catch (RejectedExecutionException e)
+                        {
+                            refused.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            Thread.sleep(1);
+            executor.shutdown();
+            for (Thread thread : threads)
+                thread.join();
+
+            // every task must eventually either run, be rejected, or be refused at submission
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (ran.get() + rejected.get() + refused.get() < producers * tasks && System.nanoTime() < deadline)
+                Thread.sleep(1);
+            Assertions.assertEquals(producers * tasks, ran.get() + rejected.get() + refused.get());
+            Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+        }
+    }
+
+    /**
+     * Queue tasks of both classes behind a blocked task, and check that the urgent class is served first
+     * without ever passing over the other more than {@link BatchingExecutor#STARVATION_LIMIT} times in succession
+     */
+    private static void testPriority(Supplier<BatchingExecutor> supplier) throws InterruptedException
+    {
+        int tasks = 100;
+        BatchingExecutor executor = supplier.get();
+        CountDownLatch blocking = new CountDownLatch(1), unblock = new CountDownLatch(1), done = new CountDownLatch(2 * tasks);
+        // only one task at a time touches this
+        List<Integer> order = new ArrayList<>();
+        executor.execute(() -> {
+            blocking.countDown();
+            try { unblock.await(); }
+            catch (InterruptedException e) { throw new AssertionError(e); }
+        });
+        Assertions.assertTrue(blocking.await(1, TimeUnit.MINUTES));
+
+        for (int priority = 1 ; priority >= 0 ; --priority)
+        {
+            for (int i = 0 ; i < tasks ; ++i)
+            {
+                int task = priority * tasks + i;
+                executor.execute(() -> {
+                    order.add(task);
+                    done.countDown();
+                }, priority);
+            }
+        }
+        Assertions.assertEquals(tasks, executor.queueDepth(0));
+        Assertions.assertEquals(tasks, executor.queueDepth(1));
+
+        unblock.countDown();
+        Assertions.assertTrue(done.await(1, TimeUnit.MINUTES));
+        executor.shutdown();
+        Assertions.assertEquals(0, executor.queueDepth(0));
+        Assertions.assertEquals(0, executor.queueDepth(1));
+
+        Assertions.assertEquals(0, (int) order.get(0));
+        int next0 = 0, next1 = tasks, passedOver = 0;
+        for (int task : order)
+        {
+            if (task < tasks)
+            {
+                Assertions.assertEquals(next0++, task);
+                if (next1 < 2 * tasks && ++passedOver > BatchingExecutor.STARVATION_LIMIT)
+                    Assertions.fail("Starved after " + passedOver + " tasks");
+            }
+            else
+            {
+                Assertions.assertEquals(next1++, task);
+                passedOver = 0;
+            }
+        }
+        // the less urgent class only ran when starved, until the urgent class was exhausted
+        Assertions.assertEquals(tasks + tasks / BatchingExecutor.STARVATION_LIMIT, order.lastIndexOf(tasks - 1) + 1);
+    }
+}
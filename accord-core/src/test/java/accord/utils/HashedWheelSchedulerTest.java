@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import accord.api.Scheduler.Scheduled;
+
+public class HashedWheelSchedulerTest
+{
+    private static HashedWheelScheduler scheduler(long tickMillis, int wheelSize)
+    {
+        return new HashedWheelScheduler(run -> {
+            Thread thread = new Thread(run, "Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        }, tickMillis, TimeUnit.MILLISECONDS, wheelSize);
+    }
+
+    @Test
+    public void testOnce() throws InterruptedException
+    {
+        // a small wheel, so that most timeouts wait out several revolutions
+        HashedWheelScheduler scheduler = scheduler(1, 8);
+        int tasks = 1000;
+        long[] delays = new long[tasks], ran = new long[tasks];
+        CountDownLatch done = new CountDownLatch(tasks);
+        long start = System.nanoTime();
+        for (int i = 0 ; i < tasks ; ++i)
+        {
+            int task = i;
+            delays[i] = TimeUnit.MILLISECONDS.toNanos(i % 100);
+            scheduler.once(() -> {
+                ran[task] = System.nanoTime() - start;
+                done.countDown();
+            }, delays[i], TimeUnit.NANOSECONDS);
+        }
+        Assertions.assertTrue(done.await(1, TimeUnit.MINUTES));
+        scheduler.stop();
+        for (int i = 0 ; i < tasks ; ++i)
+            Assertions.assertTrue(ran[i] >= delays[i], () -> "ran early");
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException
+    {
+        HashedWheelScheduler scheduler = scheduler(1, 16);
+        int tasks = 1000;
+        AtomicInteger ran = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks / 2);
+        List<Scheduled> cancel = new ArrayList<>();
+        for (int i = 0 ; i < tasks ; ++i)
+        {
+            Scheduled scheduled = scheduler.once(() -> {
+                ran.incrementAndGet();
+                done.countDown();
+            }, 20 + i % 40, TimeUnit.MILLISECONDS);
+            if ((i & 1) == 0)
+                cancel.add(scheduled);
+        }
+        cancel.forEach(Scheduled::cancel);
+        Assertions.assertTrue(done.await(1, TimeUnit.MINUTES));
+        // give any wrongly retained timeouts a chance to fire
+        Thread.sleep(100);
+        scheduler.stop();
+        Assertions.assertEquals(tasks / 2, ran.get());
+    }
+
+    @Test
+    public void testRecurring() throws InterruptedException
+    {
+        HashedWheelScheduler scheduler = scheduler(1, 4);
+        AtomicInteger ran = new AtomicInteger();
+        AtomicLong last = new AtomicLong(System.nanoTime());
+        Scheduled[] scheduled = new Scheduled[1];
+        CountDownLatch done = new CountDownLatch(1);
+        scheduled[0] = scheduler.recurring(() -> {
+            long now = System.nanoTime();
+            Assertions.assertTrue(now - last.getAndSet(now) >= TimeUnit.MILLISECONDS.toNanos(5));
+            if (ran.incrementAndGet() == 10)
+            {
+                scheduled[0].cancel();
+                done.countDown();
+            }
+        }, 5, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(done.await(1, TimeUnit.MINUTES));
+        Thread.sleep(50);
+        scheduler.stop();
+        Assertions.assertEquals(10, ran.get());
+    }
+
+    @Test
+    public void testNow() throws InterruptedException
+    {
+        // with a long tick, immediate tasks must not wait for it
+        HashedWheelScheduler scheduler = scheduler(TimeUnit.MINUTES.toMillis(1), 4);
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0 ; i < 100 ; ++i)
+            scheduler.now(done::countDown);
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        scheduler.stop();
+        Assertions.assertThrows(RejectedExecutionException.class, () -> scheduler.now(() -> {}));
+        Assertions.assertThrows(RejectedExecutionException.class, () -> scheduler.once(() -> {}, 1, TimeUnit.SECONDS));
+    }
+}
@@ -22,7 +22,7 @@ import accord.local.Node;
 import accord.messages.*;
 import accord.utils.Invariants;
 import com.google.common.collect.ImmutableList;
-import org.apache.cassandra.utils.concurrent.AsyncPromise;
+import accord.utils.async.AsyncPromise;
 
 import java.util.*;
 import java.util.function.BiConsumer;
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static accord.utils.Property.qt;
+
+public class TournamentTest
+{
+    @Test
+    public void testMerge()
+    {
+        qt().withExamples(1000).forAll(Gens.random()).check(random -> {
+            int count = random.nextInt(1, 12);
+            int[][] inputs = new int[count][];
+            int total = 0;
+            for (int i = 0 ; i < count ; ++i)
+            {
+                inputs[i] = new int[random.nextInt(0, 20)];
+                for (int j = 0 ; j < inputs[i].length ; ++j)
+                    inputs[i][j] = random.nextInt(0, 50);
+                Arrays.sort(inputs[i]);
+                total += inputs[i].length;
+            }
+
+            int[] cursors = new int[count];
+            Tournament tournament = new Tournament()
+            {
+                @Override
+                protected boolean isExhausted(int input)
+                {
+                    return cursors[input] == inputs[input].length;
+                }
+
+                @Override
+                protected int compare(int left, int right)
+                {
+                    return Integer.compare(inputs[left][cursors[left]], inputs[right][cursors[right]]);
+                }
+            };
+
+            int[] expected = new int[total];
+            for (int i = 0, offset = 0 ; i < count ; offset += inputs[i++].length)
+                System.arraycopy(inputs[i], 0, expected, offset, inputs[i].length);
+            Arrays.sort(expected);
+
+            // reuse the tournament to check that reset discards any prior state
+            for (int round = 0 ; round < 2 ; ++round)
+            {
+                Arrays.fill(cursors, 0);
+                int[] merged = new int[total];
+                int size = 0;
+                tournament.reset(count);
+                for (int winner = tournament.winner() ; winner >= 0 ; winner = tournament.winner())
+                {
+                    merged[size++] = inputs[winner][cursors[winner]++];
+                    tournament.replay(winner);
+                }
+                Assertions.assertArrayEquals(expected, merged);
+            }
+        });
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package accord.utils.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import accord.utils.Gens;
+
+import static accord.utils.Property.qt;
+
+public class AsyncFutureTest
+{
+    @Test
+    public void testCallbackOrder()
+    {
+        qt().withExamples(100).forAll(Gens.random()).check(random -> {
+            AsyncPromise<Integer> promise = new AsyncPromise<>();
+            List<Integer> invoked = new ArrayList<>();
+            int before = random.nextInt(0, 5), after = random.nextInt(0, 5);
+            for (int i = 0 ; i < before ; ++i)
+            {
+                int id = i;
+                promise.addCallback((success, failure) -> invoked.add(id));
+            }
+            Assertions.assertTrue(invoked.isEmpty());
+            Assertions.assertTrue(promise.trySuccess(1));
+            for (int i = before ; i < before + after ; ++i)
+            {
+                int id = i;
+                promise.addCallback((success, failure) -> invoked.add(id));
+            }
+
+            List<Integer> expect = new ArrayList<>();
+            for (int i = 0 ; i < before + after ; ++i)
+                expect.add(i);
+            Assertions.assertEquals(expect, invoked);
+        });
+    }
+
+    @Test
+    public void testOutcome() throws Throwable
+    {
+        AsyncPromise<String> success = new AsyncPromise<>();
+        Assertions.assertFalse(success.isDone());
+        Assertions.assertNull(success.getNow());
+        success.setSuccess(null);
+        Assertions.assertTrue(success.isDone());
+        Assertions.assertTrue(success.isSuccess());
+        Assertions.assertNull(success.get());
+        Assertions.assertFalse(success.tryFailure(new RuntimeException()));
+        Assertions.assertThrows(IllegalStateException.class, () -> success.setSuccess("x"));
+
+        RuntimeException cause = new RuntimeException();
+        AsyncPromise<String> failure = new AsyncPromise<>();
+        failure.setFailure(cause);
+        Assertions.assertFalse(failure.isSuccess());
+        Assertions.assertSame(cause, failure.cause());
+        Assertions.assertThrows(ExecutionException.class, failure::get);
+        Assertions.assertThrows(RuntimeException.class, failure::syncUninterruptibly);
+        Assertions.assertThrows(TimeoutException.class, () -> new AsyncPromise<>().get(1, TimeUnit.MILLISECONDS));
+
+        Assertions.assertEquals("a", ImmediateFuture.success("a").getNow());
+        Assertions.assertSame(cause, ImmediateFuture.failure(cause).cause());
+    }
+
+    @Test
+    public void testMap()
+    {
+        AsyncPromise<Integer> promise = new AsyncPromise<>();
+        Future<String> mapped = promise.map(String::valueOf);
+        AsyncPromise<String> inner = new AsyncPromise<>();
+        Future<String> flatMapped = promise.flatMap(i -> inner);
+        Future<String> throwing = promise.map(i -> { throw new IllegalStateException(); });
+        promise.setSuccess(1);
+
+        Assertions.assertEquals("1", mapped.getNow());
+        Assertions.assertTrue(throwing.cause() instanceof IllegalStateException);
+        Assertions.assertFalse(flatMapped.isDone());
+        inner.setSuccess("2");
+        Assertions.assertEquals("2", flatMapped.getNow());
+
+        AsyncPromise<Integer> failed = new AsyncPromise<>();
+        Future<String> mappedFailure = failed.map(String::valueOf);
+        failed.setFailure(new IllegalArgumentException());
+        Assertions.assertTrue(mappedFailure.cause() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testConcurrentCompletion() throws Throwable
+    {
+        for (int round = 0 ; round < 100 ; ++round)
+        {
+            AsyncPromise<Integer> promise = new AsyncPromise<>();
+            AtomicInteger invoked = new AtomicInteger(), succeeded = new AtomicInteger();
+            int threads = 4, callbacks = 100;
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> started = new ArrayList<>();
+            for (int t = 0 ; t < threads ; ++t)
+            {
+                int id = t;
+                Thread thread = new Thread(() -> {
+                    try { start.await(); }
+                    catch (InterruptedException e) { throw new AssertionError(e); }
+                    for (int i = 0 ; i < callbacks ; ++i)
+                        promise.addCallback((success, failure) -> invoked.incrementAndGet());
+                    if (promise.trySuccess(id))
+                        succeeded.incrementAndGet();
+                });
+                thread.start();
+                started.add(thread);
+            }
+            start.countDown();
+            Assertions.assertNotNull(promise.get());
+            for (Thread thread : started)
+                thread.join();
+
+            Assertions.assertEquals(1, succeeded.get());
+            Assertions.assertEquals(threads * callbacks, invoked.get());
+        }
+    }
+}
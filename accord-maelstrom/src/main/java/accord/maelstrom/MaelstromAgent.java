@@ -62,4 +62,11 @@ public class MaelstromAgent implements Agent
     {
         return TimeUnit.SECONDS.convert(now - initiated.real, TimeUnit.MICROSECONDS) >= 10;
     }
+
+    @Override
+    public boolean isErasable(Timestamp executeAt)
+    {
+        // the topology never changes, so no replica will ever need to learn of anything we have applied everywhere
+        return true;
+    }
 }
@@ -25,7 +25,7 @@ import accord.local.SafeCommandStore;
 import accord.primitives.Timestamp;
 import accord.primitives.Writes;
 import accord.utils.Timestamped;
-import org.apache.cassandra.utils.concurrent.Future;
+import accord.utils.async.Future;
 
 import java.util.TreeMap;
 
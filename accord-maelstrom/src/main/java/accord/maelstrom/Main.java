@@ -38,9 +38,10 @@ import accord.impl.SizeOfIntersectionSorter;
 import accord.local.Node;
 import accord.local.Node.Id;
 import accord.api.Scheduler;
+import accord.api.Scheduler.Scheduled;
 import accord.messages.ReplyContext;
 import accord.topology.Topology;
-import accord.utils.ThreadPoolScheduler;
+import accord.utils.HashedWheelScheduler;
 import accord.maelstrom.Packet.Type;
 import accord.api.MessageSink;
 import accord.messages.Callback;
@@ -53,13 +54,12 @@ public class Main
     {
         final Callback callback;
         final Id to;
-        final long timeout;
+        volatile Scheduled timeout;
 
-        CallbackInfo(Callback callback, Id to, long timeout)
+        CallbackInfo(Callback callback, Id to)
         {
             this.callback = callback;
             this.to = to;
-            this.timeout = timeout;
         }
     }
 
@@ -82,13 +82,6 @@ public class Main
             this.self = self;
             this.out = stdout;
             this.err = stderr;
-            this.scheduler.recurring(() -> {
-                long now = nowSupplier.getAsLong();
-                callbacks.forEach((messageId, info) -> {
-                    if (info.timeout < now && callbacks.remove(messageId, info))
-                        info.callback.onFailure(info.to, new Timeout(null, null));
-                });
-            }, 1L, TimeUnit.SECONDS);
         }
 
         private void send(Packet packet)
@@ -114,7 +107,12 @@ public class Main
         public void send(Id to, Request send, Callback callback)
         {
             long messageId = nextMessageId.incrementAndGet();
-            callbacks.put(messageId, new CallbackInfo(callback, to, nowSupplier.getAsLong() + 1000L));
+            CallbackInfo info = new CallbackInfo(callback, to);
+            callbacks.put(messageId, info);
+            info.timeout = scheduler.once(() -> {
+                if (callbacks.remove(messageId, info))
+                    callback.onFailure(to, new Timeout(null, null));
+            }, 1L, TimeUnit.SECONDS);
             send(new Packet(self, to, messageId, send));
         }
 
@@ -147,7 +145,7 @@ public class Main
         long start = System.nanoTime();
         err.println("Starting...");
         err.flush();
-        ThreadPoolScheduler scheduler = new ThreadPoolScheduler();
+        HashedWheelScheduler scheduler = new HashedWheelScheduler();
         Node on;
         Topology topology;
         StdoutSink sink;
@@ -194,6 +192,8 @@ public class Main
                             Reply reply = (Reply)((Wrapper)next.body).body;
                             CallbackInfo callback = sink.callbacks.remove(next.body.in_reply_to);
                             if (callback != null)
+                            {
+                                callback.timeout.cancel();
                                 scheduler.now(() -> {
                                     try
                                     {
@@ -204,6 +204,7 @@ public class Main
                                         callback.callback.onCallbackFailure(next.src, t);
                                     }
                                 });
+                            }
                         }
                         else on.receive((Request)((Wrapper)next.body).body, next.src, MaelstromReplyContext.contextFor(next.body.msg_id));
                 }
@@ -20,8 +20,8 @@ package accord.maelstrom;
 
 import accord.api.ConfigurationService;
 import accord.topology.Topology;
-import org.apache.cassandra.utils.concurrent.Future;
-import org.apache.cassandra.utils.concurrent.ImmediateFuture;
+import accord.utils.async.Future;
+import accord.utils.async.ImmediateFuture;
 
 public class SimpleConfigService implements ConfigurationService
 {